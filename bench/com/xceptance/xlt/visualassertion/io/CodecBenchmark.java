@@ -0,0 +1,112 @@
+package com.xceptance.xlt.visualassertion.io;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+import javax.imageio.ImageIO;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.xceptance.xlt.visualassertion.util.BenchmarkImages;
+
+/**
+ * Measures decoding a screenshot as delivered by the driver and encoding the result images with the configurable
+ * encoders.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xms4g", "-Xmx4g" })
+public class CodecBenchmark
+{
+    /**
+     * The page and its PNG as delivered by the driver
+     */
+    @State(Scope.Benchmark)
+    public static class Page
+    {
+        @Param({ "1280x800", "1920x1080", "1920x16000" })
+        public String size;
+
+        BufferedImage image;
+
+        byte[] png;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException
+        {
+            final int[] dimension = BenchmarkImages.parseSize(size);
+            image = BenchmarkImages.page(dimension[0], dimension[1]);
+
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ImageIO.write(image, "PNG", out);
+            png = out.toByteArray();
+        }
+    }
+
+    /**
+     * The encoder as configured with the output.encoder property
+     */
+    @State(Scope.Benchmark)
+    public static class Encoding
+    {
+        @Param({ "imageio", "png", "fast", "stored", "qoi" })
+        public String encoderName;
+
+        ImageEncoder encoder;
+
+        @Setup(Level.Trial)
+        public void setUp()
+        {
+            switch (encoderName)
+            {
+            case "imageio":
+                encoder = new ImageIOEncoder();
+                break;
+            case "png":
+                encoder = new PngEncoder(6, PngEncoder.Filter.ADAPTIVE);
+                break;
+            case "fast":
+                encoder = new PngEncoder(Deflater.BEST_SPEED, PngEncoder.Filter.SUB);
+                break;
+            case "stored":
+                encoder = new PngEncoder(Deflater.NO_COMPRESSION, PngEncoder.Filter.NONE);
+                break;
+            default:
+                encoder = new QoiCodec();
+                break;
+            }
+        }
+    }
+
+    @Benchmark
+    public BufferedImage decode(final Page page) throws IOException
+    {
+        return ImageIO.read(new ByteArrayInputStream(page.png));
+    }
+
+    @Benchmark
+    public byte[] encode(final Page page, final Encoding encoding) throws IOException
+    {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encoding.encoder.write(page.image, out);
+
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,88 @@
+package com.xceptance.xlt.visualassertion.util;
+
+import java.awt.image.BufferedImage;
+import java.util.SplittableRandom;
+
+import test.com.xceptance.xlt.visual.corpus.ScreenshotCorpus;
+
+/**
+ * Creates the synthetic pages the benchmarks run on, based on the corpus of the test suite. The same parameters always
+ * give the same pixels, so the numbers of different runs can be compared.
+ */
+public final class BenchmarkImages
+{
+    private static final long SEED = 42;
+
+    private BenchmarkImages()
+    {
+    }
+
+    /**
+     * Parses a size given as <code>widthxheight</code>
+     * @param size The size, e.g. 1920x1080
+     * @return width and height
+     */
+    public static int[] parseSize(final String size)
+    {
+        final String[] parts = size.split("x");
+        return new int[] { Integer.parseInt(parts[0]), Integer.parseInt(parts[1]) };
+    }
+
+    /**
+     * Creates a page of the synthetic corpus of the test suite
+     * @param width The width of the page
+     * @param height The height of the page
+     * @return the page
+     */
+    public static BufferedImage page(final int width, final int height)
+    {
+        return ScreenshotCorpus.page(SEED, width, height).getImage();
+    }
+
+    /**
+     * Copies a page and changes the given share of its pixels at random positions
+     * @param page The page
+     * @param density The share of pixels that are changed [0-1]
+     * @return the changed copy
+     */
+    public static BufferedImage change(final BufferedImage page, final double density)
+    {
+        final int[] pixels = RasterOps.copyPixels(page);
+        final SplittableRandom random = new SplittableRandom(SEED);
+        for (int i = 0; i < pixels.length; i++)
+        {
+            if (random.nextDouble() < density)
+            {
+                pixels[i] = 0xFF000000 | ~pixels[i] & 0xFFFFFF;
+            }
+        }
+
+        return RasterOps.toImage(pixels, page.getWidth(), page.getHeight());
+    }
+
+    /**
+     * Creates a mask whose black stripes across the page cover the given share of it, the rest is transparent
+     * @param width The width of the mask
+     * @param height The height of the mask
+     * @param coverage The share of the page that is masked [0-1]
+     * @return the mask
+     */
+    public static BufferedImage mask(final int width, final int height, final double coverage)
+    {
+        final int[] pixels = new int[width * height];
+        final int stripe = 100;
+        final int masked = (int) Math.round(stripe * coverage);
+        for (int y = 0; y < height; y++)
+        {
+            if (y % stripe < masked)
+            {
+                for (int x = 0; x < width; x++)
+                {
+                    pixels[y * width + x] = ImageHelper.BLACK.getRGB();
+                }
+            }
+        }
+
+        return RasterOps.toImage(pixels, width, height);
+    }
+}
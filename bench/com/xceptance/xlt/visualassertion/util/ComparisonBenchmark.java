@@ -0,0 +1,65 @@
+package com.xceptance.xlt.visualassertion.util;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.xceptance.xlt.visualassertion.algorithm.ColorFuzzy;
+import com.xceptance.xlt.visualassertion.algorithm.ComparisonAlgorithm;
+import com.xceptance.xlt.visualassertion.algorithm.ExactMatch;
+import com.xceptance.xlt.visualassertion.algorithm.PixelFuzzy;
+
+/**
+ * Measures a whole comparison the way the assertion runs it, from the images to the verdict, including the copies
+ * of the images and the mask and the count of the masked pixels.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xms4g", "-Xmx4g" })
+@State(Scope.Benchmark)
+public class ComparisonBenchmark
+{
+    @Param({ "EXACTMATCH", "COLORFUZZY", "PIXELFUZZY" })
+    public String algorithmName;
+
+    private ComparisonAlgorithm algorithm;
+
+    private ImageComparison comparison;
+
+    @Setup(Level.Trial)
+    public void setUp(final ImageState images)
+    {
+        switch (algorithmName)
+        {
+        case "EXACTMATCH":
+            algorithm = new ExactMatch();
+            break;
+        case "COLORFUZZY":
+            algorithm = new ColorFuzzy(0.1);
+            break;
+        default:
+            algorithm = new PixelFuzzy(0.1, 0.1, 10);
+            break;
+        }
+        comparison = new ImageComparison(images.reference);
+    }
+
+    @Benchmark
+    public boolean isEqual(final ImageState images)
+    {
+        return comparison.isEqual(images.screenshot, images.mask, algorithm);
+    }
+}
@@ -0,0 +1,66 @@
+package com.xceptance.xlt.visualassertion.util;
+
+import java.awt.image.BufferedImage;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Reference image, screenshot and mask of one benchmark run, by size of the page, share of changed pixels and share
+ * of masked pixels. Created once per run, the benchmarks must not modify them.
+ */
+@State(Scope.Benchmark)
+public class ImageState
+{
+    /**
+     * Viewport and full page sizes
+     */
+    @Param({ "1280x800", "1920x1080", "1920x16000" })
+    public String size;
+
+    /**
+     * Share of the pixels of the screenshot that differ from the reference image
+     */
+    @Param({ "0", "0.001", "0.05" })
+    public double density;
+
+    /**
+     * Share of the page that is masked
+     */
+    @Param({ "0", "0.3" })
+    public double maskCoverage;
+
+    public BufferedImage reference;
+
+    public BufferedImage screenshot;
+
+    public BufferedImage mask;
+
+    // the images as rasters for the kernels that take a mask
+    IntRaster referenceRaster;
+
+    IntRaster screenshotRaster;
+
+    IntRaster maskRaster;
+
+    /**
+     * Positions of the differences of the exact match, the input of the marking renderers
+     */
+    public int[] differences;
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        final int[] dimension = BenchmarkImages.parseSize(size);
+        reference = BenchmarkImages.page(dimension[0], dimension[1]);
+        screenshot = BenchmarkImages.change(reference, density);
+        mask = BenchmarkImages.mask(dimension[0], dimension[1], maskCoverage);
+        referenceRaster = IntRaster.of(reference);
+        screenshotRaster = IntRaster.of(screenshot);
+        maskRaster = IntRaster.of(mask);
+        differences = ImageHelper.compareImages(reference, screenshot).positions;
+    }
+}
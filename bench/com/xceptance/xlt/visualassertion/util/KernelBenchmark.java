@@ -0,0 +1,67 @@
+package com.xceptance.xlt.visualassertion.util;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the kernels of {@link ImageHelper} on their own: the three comparisons with the mask applied, the mask
+ * overlay and closing, and the marking renderers. The comparisons return the positions of the differences, so no
+ * generated code needs to see the package private result.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xms4g", "-Xmx4g" })
+public class KernelBenchmark
+{
+    @Benchmark
+    public int[] compareImages(final ImageState images)
+    {
+        return ImageHelper.compareImages(images.referenceRaster, images.screenshotRaster, images.maskRaster).positions;
+    }
+
+    @Benchmark
+    public int[] colorFuzzyCompare(final ImageState images)
+    {
+        return ImageHelper.colorFuzzyCompare(images.referenceRaster, images.screenshotRaster, images.maskRaster, 0.1).positions;
+    }
+
+    @Benchmark
+    public int[] fuzzyCompare(final ImageState images)
+    {
+        return ImageHelper.fuzzyCompare(images.referenceRaster, images.screenshotRaster, images.maskRaster, 0.1, 0.1, 10).positions;
+    }
+
+    @Benchmark
+    public BufferedImage overlayMaskImage(final ImageState images)
+    {
+        return ImageHelper.overlayMaskImage(images.screenshot, images.mask, ImageHelper.BLACK.getRGB());
+    }
+
+    @Benchmark
+    public BufferedImage closeImage(final ImageState images)
+    {
+        return ImageHelper.closeImage(images.mask, 5, 5, ImageHelper.BLACK.getRGB(), ImageHelper.WHITE_TRANSPARENT.getRGB());
+    }
+
+    @Benchmark
+    public BufferedImage markDifferencesWithBoxes(final ImageState images)
+    {
+        return ImageHelper.markDifferencesWithBoxes(images.screenshot, images.differences, 10, 10);
+    }
+
+    @Benchmark
+    public BufferedImage markDifferencesWithAMarker(final ImageState images)
+    {
+        return ImageHelper.markDifferencesWithAMarker(images.screenshot, images.differences, 10, 10);
+    }
+}
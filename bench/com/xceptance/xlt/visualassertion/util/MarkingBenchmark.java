@@ -0,0 +1,89 @@
+package com.xceptance.xlt.visualassertion.util;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.xceptance.xlt.visualassertion.algorithm.ExactMatch;
+
+/**
+ * Measures the images of a failed assertion as the assertion renders them from the result of the comparison, for a
+ * tall page with a large failing region: every other pixel of its middle third changed. Run it with the GC profiler,
+ * everything allocated beyond one raster of width * height ints per image is overhead of the renderer.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xms4g", "-Xmx4g" })
+@State(Scope.Benchmark)
+public class MarkingBenchmark
+{
+    private static final int WIDTH = 1920;
+
+    private static final int HEIGHT = 8000;
+
+    /**
+     * Edge length of the boxes and markers, 1 marks each pixel on its own
+     */
+    @Param({ "10", "1" })
+    public int blockSize;
+
+    private BufferedImage screenshot;
+
+    private ComparisonResult result;
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        final BufferedImage reference = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        final int[] raster = new int[WIDTH * HEIGHT];
+        for (int i = 0; i < raster.length; i++)
+        {
+            raster[i] = 0xFFFFFFFF;
+        }
+        reference.setRGB(0, 0, WIDTH, HEIGHT, raster, 0, WIDTH);
+
+        for (int y = HEIGHT / 3; y < 2 * HEIGHT / 3; y++)
+        {
+            for (int x = (y & 1); x < WIDTH; x += 2)
+            {
+                raster[y * WIDTH + x] = 0xFF000000 | (x * 31 + y * 17) & 0xFFFFFF;
+            }
+        }
+        screenshot = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        screenshot.setRGB(0, 0, WIDTH, HEIGHT, raster, 0, WIDTH);
+
+        result = new ImageComparison(reference).compare(screenshot, new ExactMatch());
+    }
+
+    @Benchmark
+    public BufferedImage markedImageWithBoxes()
+    {
+        return result.getMarkedImageWithBoxes(screenshot, blockSize, blockSize);
+    }
+
+    @Benchmark
+    public BufferedImage markedImageWithAMarker()
+    {
+        return result.getMarkedImageWithAMarker(screenshot, blockSize, blockSize);
+    }
+
+    @Benchmark
+    public BufferedImage differenceImage()
+    {
+        return result.getDifferenceImage();
+    }
+}
@@ -0,0 +1,54 @@
+package com.xceptance.xlt.visualassertion.monitor;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event of one visual assertion, from the capture of the screenshot to the written result images
+ */
+@Name("com.xceptance.xlt.visualassertion.Assertion")
+@Label("Visual Assertion")
+@Category({ "XLT", "Visual Assertion" })
+@Description("Captures a screenshot and compares it to the reference image")
+@StackTrace(false)
+public final class AssertionEvent extends jdk.jfr.Event
+{
+    @Label("Assertion")
+    String assertion;
+
+    @Label("Algorithm")
+    String algorithm;
+
+    @Label("Width")
+    int width;
+
+    @Label("Height")
+    int height;
+
+    @Label("Differences")
+    @Description("Number of pixels that differ from the reference image")
+    int differences;
+
+    @Label("Masked Pixels")
+    long maskedPixels;
+
+    @Label("Tiles")
+    @Description("Number of tiles of an incremental comparison")
+    int tiles;
+
+    @Label("Reused Tiles")
+    @Description("Number of tiles whose differences were taken from the previous comparison instead of comparing them")
+    int reusedTiles;
+
+    @Label("Allocated")
+    @Description("Bytes allocated on the heap by the thread of the assertion")
+    @DataAmount
+    long allocated;
+
+    @Label("Failed")
+    boolean failed;
+}
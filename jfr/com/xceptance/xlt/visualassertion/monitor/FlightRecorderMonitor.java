@@ -0,0 +1,136 @@
+package com.xceptance.xlt.visualassertion.monitor;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import com.xceptance.xlt.visualassertion.util.ComparisonResult;
+import com.xceptance.xlt.visualassertion.util.PhaseTimer.Phase;
+
+/**
+ * Emits an {@link AssertionEvent} for the assertion and a {@link PhaseEvent} for each of its phases. Only created by
+ * {@link AssertionMonitor#start(String, String)} if the JVM has a flight recorder.
+ */
+final class FlightRecorderMonitor extends AssertionMonitor
+{
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private final AssertionEvent assertionEvent = new AssertionEvent();
+
+    // the events of the open phases, the innermost first
+    private final Deque<PhaseEvent> phaseEvents = new ArrayDeque<>();
+
+    // the thread that worked on the assertion last and its allocated bytes back then, a deferred comparison continues
+    // the assertion on another thread
+    private Thread thread;
+
+    private long allocatedMark;
+
+    FlightRecorderMonitor(final String assertion, final String algorithm)
+    {
+        assertionEvent.assertion = assertion;
+        assertionEvent.algorithm = algorithm;
+        if (assertionEvent.isEnabled())
+        {
+            countAllocated();
+        }
+        assertionEvent.begin();
+    }
+
+    @Override
+    public void entered(final Phase phase)
+    {
+        super.entered(phase);
+        if (assertionEvent.isEnabled())
+        {
+            countAllocated();
+        }
+
+        final PhaseEvent event = new PhaseEvent();
+        if (event.isEnabled())
+        {
+            event.assertion = assertionEvent.assertion;
+            event.phase = phase.getName();
+            event.allocated = allocatedBytes();
+        }
+        phaseEvents.push(event);
+        event.begin();
+    }
+
+    @Override
+    public void exited(final Phase phase)
+    {
+        super.exited(phase);
+        if (assertionEvent.isEnabled())
+        {
+            countAllocated();
+        }
+
+        final PhaseEvent event = phaseEvents.pop();
+        event.end();
+        if (event.shouldCommit())
+        {
+            event.allocated = allocatedBytes() - event.allocated;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void compared(final ComparisonResult result, final int tiles, final int reusedTiles)
+    {
+        super.compared(result, tiles, reusedTiles);
+
+        assertionEvent.width = result.getWidth();
+        assertionEvent.height = result.getHeight();
+        assertionEvent.differences = result.getDifferenceCount();
+        assertionEvent.maskedPixels = result.getMaskedPixelCount();
+        assertionEvent.tiles = tiles;
+        assertionEvent.reusedTiles = reusedTiles;
+    }
+
+    @Override
+    public void finish()
+    {
+        super.finish();
+
+        assertionEvent.end();
+        if (assertionEvent.shouldCommit())
+        {
+            assertionEvent.failed = hasFailed();
+            countAllocated();
+            assertionEvent.commit();
+        }
+    }
+
+    /**
+     * Adds the bytes the current thread allocated since the last call to the assertion, the time on another thread is
+     * not counted, e.g. while a deferred comparison waited for the background
+     */
+    private void countAllocated()
+    {
+        final Thread current = Thread.currentThread();
+        final long allocated = allocatedBytes();
+        if (current == thread)
+        {
+            assertionEvent.allocated += allocated - allocatedMark;
+        }
+        thread = current;
+        allocatedMark = allocated;
+    }
+
+    /**
+     * The bytes the current thread allocated on the heap so far, the pools that compare and decode in parallel are
+     * not included. Always 0 if the JVM does not count them.
+     */
+    private static long allocatedBytes()
+    {
+        if (THREADS instanceof com.sun.management.ThreadMXBean)
+        {
+            final long bytes = ((com.sun.management.ThreadMXBean) THREADS).getThreadAllocatedBytes(Thread.currentThread().getId());
+            return Math.max(0, bytes);
+        }
+
+        return 0;
+    }
+}
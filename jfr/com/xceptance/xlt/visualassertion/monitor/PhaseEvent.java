@@ -0,0 +1,29 @@
+package com.xceptance.xlt.visualassertion.monitor;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event of one phase of a visual assertion, nested phases are separate events within it
+ */
+@Name("com.xceptance.xlt.visualassertion.Phase")
+@Label("Visual Assertion Phase")
+@Category({ "XLT", "Visual Assertion" })
+@StackTrace(false)
+public final class PhaseEvent extends jdk.jfr.Event
+{
+    @Label("Assertion")
+    String assertion;
+
+    @Label("Phase")
+    String phase;
+
+    @Label("Allocated")
+    @Description("Bytes allocated on the heap by the thread of the assertion, including nested phases")
+    @DataAmount
+    long allocated;
+}
@@ -0,0 +1,100 @@
+package com.xceptance.xlt.visualassertion;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.xceptance.xlt.api.engine.CustomData;
+import com.xceptance.xlt.api.engine.Session;
+
+/**
+ * What one visual assertion reports to its session: events, custom timers, values and the failure of a deferred
+ * comparison. The log is filled while the assertion runs, possibly on a thread of the background pool, and written to
+ * the session on the thread of the virtual user only, as the session is not meant to be used by other threads.
+ */
+public final class AssertionLog
+{
+    private final List<String[]> events = new ArrayList<>();
+
+    private final Map<String, Long> timers = new LinkedHashMap<>();
+
+    private final Map<String, Object> values = new LinkedHashMap<>();
+
+    private String failure;
+
+    /**
+     * Adds an event, e.g. a warning that shows up in the load test report
+     * @param name The name of the event
+     * @param message The message of the event
+     */
+    public void event(final String name, final String message)
+    {
+        events.add(new String[] { name, message });
+    }
+
+    /**
+     * Adds a custom timer
+     * @param name The name of the timer
+     * @param millis The time in milliseconds
+     */
+    public void timer(final String name, final long millis)
+    {
+        timers.put(name, millis);
+    }
+
+    /**
+     * Adds a value to the value log of the session
+     * @param name The name of the value
+     * @param value The value
+     */
+    public void value(final String name, final Object value)
+    {
+        values.put(name, value);
+    }
+
+    /**
+     * Records that the assertion failed, only the first failure is kept
+     * @param message The message of the failure
+     */
+    public void fail(final String message)
+    {
+        if (failure == null)
+        {
+            failure = message;
+        }
+    }
+
+    /**
+     * Returns the failure of the assertion
+     * @return the message, null if the assertion passed
+     */
+    public String getFailure()
+    {
+        return failure;
+    }
+
+    /**
+     * Writes the events, timers and values to the session, call it on the thread of the virtual user
+     * @param session The session, nothing is written if it is null
+     */
+    public void writeTo(final Session session)
+    {
+        if (session == null)
+        {
+            return;
+        }
+
+        for (final String[] event : events)
+        {
+            session.getDataManager().logEvent(event[0], event[1]);
+        }
+        for (final Map.Entry<String, Long> timer : timers.entrySet())
+        {
+            final CustomData data = new CustomData(timer.getKey());
+            data.setRunTime(timer.getValue());
+            session.getDataManager().logDataRecord(data);
+        }
+        session.getValueLog().putAll(values);
+    }
+}
@@ -0,0 +1,208 @@
+package com.xceptance.xlt.visualassertion;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.xceptance.xlt.api.engine.Session;
+
+/**
+ * Runs the comparisons of visual assertions in the background, so the time of the actions only covers the
+ * screenshot. The verdicts are collected per session and handed to it on the thread of the virtual user: at one of
+ * the next assertions, when the test asks for them, and at the latest when the session ends, which waits for the
+ * comparisons that are still running.
+ * <p>
+ * If more comparisons wait than allowed, a new one runs right away on the thread of the virtual user, so a slow
+ * comparison pool cannot pile up screenshots without limit.
+ */
+public final class DeferredVerdicts
+{
+    /**
+     * The name of the event of a failed comparison that is not reported as error
+     */
+    public static final String FAILURE_EVENT = "VisualAssertion failed";
+
+    private static final ThreadPoolExecutor EXECUTOR = new ThreadPoolExecutor(
+            1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), new ThreadFactory()
+            {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(final Runnable runnable)
+                {
+                    final Thread thread = new Thread(runnable, "visualassertion-verdict-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    // the comparisons of each session that were not handed to it yet
+    private static final Map<Session, List<Verdict>> VERDICTS = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private static volatile int maxQueued;
+
+    private DeferredVerdicts()
+    {
+    }
+
+    /**
+     * Sets the size of the pool and the number of comparisons that may wait for it
+     * @param threads The number of threads that compare in the background, at least 1
+     * @param queued The maximum number of waiting comparisons, 0 for no limit
+     */
+    public static synchronized void configure(final int threads, final int queued)
+    {
+        final int size = Math.max(1, threads);
+        if (size > EXECUTOR.getMaximumPoolSize())
+        {
+            EXECUTOR.setMaximumPoolSize(size);
+            EXECUTOR.setCorePoolSize(size);
+        }
+        else if (size < EXECUTOR.getMaximumPoolSize())
+        {
+            EXECUTOR.setCorePoolSize(size);
+            EXECUTOR.setMaximumPoolSize(size);
+        }
+        maxQueued = queued;
+    }
+
+    /**
+     * Runs the comparison of an assertion in the background, the failure of the assertion goes to its log. Call it on
+     * the thread of the virtual user.
+     * @param session The session of the assertion
+     * @param log The log of the assertion, it is written to the session once the comparison is done
+     * @param comparison The comparison, an {@link AssertionError} or any other exception fails the assertion
+     */
+    public static void submit(final Session session, final AssertionLog log, final Runnable comparison)
+    {
+        final Runnable verdict = () -> {
+            try
+            {
+                comparison.run();
+            }
+            catch (final AssertionError | RuntimeException e)
+            {
+                log.fail(e.getMessage() != null ? e.getMessage() : e.toString());
+            }
+        };
+
+        List<Verdict> verdicts = VERDICTS.get(session);
+        if (verdicts == null)
+        {
+            verdicts = new ArrayList<>();
+            VERDICTS.put(session, verdicts);
+            session.addShutdownListener(() -> shutdown(session));
+        }
+
+        final int queued = maxQueued;
+        if (queued > 0 && EXECUTOR.getQueue().size() >= queued)
+        {
+            // the pool is behind, compare right here
+            verdict.run();
+            verdicts.add(new Verdict(null, log));
+        }
+        else
+        {
+            verdicts.add(new Verdict(EXECUTOR.submit(verdict), log));
+        }
+    }
+
+    /**
+     * Writes the logs of the finished comparisons of the session to it. Call it on the thread of the virtual user.
+     * @param session The session
+     * @param wait Whether to wait for the comparisons that are still running
+     * @return the failures of the finished comparisons, in the order of the assertions
+     */
+    public static List<String> collect(final Session session, final boolean wait)
+    {
+        final List<String> failures = new ArrayList<>();
+        final List<Verdict> verdicts = VERDICTS.get(session);
+        if (verdicts == null)
+        {
+            return failures;
+        }
+
+        for (final Iterator<Verdict> i = verdicts.iterator(); i.hasNext();)
+        {
+            final Verdict verdict = i.next();
+            if (verdict.future != null)
+            {
+                if (!wait && !verdict.future.isDone())
+                {
+                    // the verdicts are handed over in the order of the assertions
+                    break;
+                }
+                try
+                {
+                    verdict.future.get();
+                }
+                catch (final InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                catch (final ExecutionException e)
+                {
+                    verdict.log.fail(String.valueOf(e.getCause()));
+                }
+            }
+
+            i.remove();
+            verdict.log.writeTo(session);
+            if (verdict.log.getFailure() != null)
+            {
+                failures.add(verdict.log.getFailure());
+            }
+        }
+
+        return failures;
+    }
+
+    /**
+     * Returns the number of comparisons of all sessions that wait for the pool or run in it
+     * @return the number of comparisons
+     */
+    public static int getPendingCount()
+    {
+        return EXECUTOR.getQueue().size() + EXECUTOR.getActiveCount();
+    }
+
+    /**
+     * Waits for the comparisons of a session that ends, their failures can only be logged as events now
+     */
+    private static void shutdown(final Session session)
+    {
+        for (final String failure : collect(session, true))
+        {
+            session.getDataManager().logEvent(FAILURE_EVENT, failure);
+        }
+        VERDICTS.remove(session);
+    }
+
+    /**
+     * The comparison of one assertion
+     */
+    private static final class Verdict
+    {
+        // null if the comparison ran right away
+        final Future<?> future;
+
+        final AssertionLog log;
+
+        Verdict(final Future<?> future, final AssertionLog log)
+        {
+            this.future = future;
+            this.log = log;
+        }
+    }
+}
@@ -1,19 +1,36 @@
 package com.xceptance.xlt.visualassertion;
 
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.text.MessageFormat;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import javax.imageio.ImageIO;
 
 import org.junit.Assert;
+import org.openqa.selenium.By;
 import org.openqa.selenium.Capabilities;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.NoSuchElementException;
 import org.openqa.selenium.OutputType;
 import org.openqa.selenium.TakesScreenshot;
 import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebElement;
 import org.openqa.selenium.remote.RemoteWebDriver;
 
 import com.xceptance.xlt.api.engine.Session;
@@ -23,9 +40,30 @@ import com.xceptance.xlt.visualassertion.algorithm.ColorFuzzy;
 import com.xceptance.xlt.visualassertion.algorithm.ComparisonAlgorithm;
 import com.xceptance.xlt.visualassertion.algorithm.ExactMatch;
 import com.xceptance.xlt.visualassertion.algorithm.PixelFuzzy;
+import com.xceptance.xlt.visualassertion.io.ImageLoader;
+import com.xceptance.xlt.visualassertion.io.PngRowReader;
+import com.xceptance.xlt.visualassertion.monitor.AssertionMonitor;
+import com.xceptance.xlt.visualassertion.service.ComparisonClient;
+import com.xceptance.xlt.visualassertion.service.ComparisonRequest;
+import com.xceptance.xlt.visualassertion.service.ComparisonResponse;
+import com.xceptance.xlt.visualassertion.util.AssertionSampler;
+import com.xceptance.xlt.visualassertion.util.ComparisonCache;
+import com.xceptance.xlt.visualassertion.util.ComparisonGovernor;
+import com.xceptance.xlt.visualassertion.util.CompiledBaseline;
+import com.xceptance.xlt.visualassertion.util.ComparisonResult;
+import com.xceptance.xlt.visualassertion.util.DirectRaster;
+import com.xceptance.xlt.visualassertion.util.FailureArtifacts;
+import com.xceptance.xlt.visualassertion.util.FailureRenderer;
 import com.xceptance.xlt.visualassertion.util.ImageComparison;
 import com.xceptance.xlt.visualassertion.util.MaskImage;
+import com.xceptance.xlt.visualassertion.util.PhaseTimer;
+import com.xceptance.xlt.visualassertion.util.PhaseTimer.Phase;
 import com.xceptance.xlt.visualassertion.util.RectangleMask;
+import com.xceptance.xlt.visualassertion.util.Region;
+import com.xceptance.xlt.visualassertion.util.StreamingComparison;
+import com.xceptance.xlt.visualassertion.util.TileHashes;
+import com.xceptance.xlt.visualassertion.util.TileTracker;
+import com.xceptance.xlt.visualassertion.util.TimeBudget;
 
 /**
  * Module for the visual assertion of changes in a browser page. The module is called in an
@@ -41,14 +79,35 @@ public class VisualAssertion implements WebDriverCustomModule
 
     private final String PREFIX = "com.xceptance.xlt.visualassertion.";
 
+    private static final byte[] PNG_SIGNATURE =
+        {
+            (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'
+        };
+
     /**
      * Counter for the current screenshots
      */
     private static ThreadLocal<Integer> indexCounter = new ThreadLocal<>();
 
+    // the tiles of the previous comparisons per session, dropped together with the session
+    private static final Map<Session, TileTracker> tileTrackers = Collections.synchronizedMap(new WeakHashMap<>());
+
     // the property defaults
     private final int WAITINGTIME = 300;
 
+    private final String CAPTURE_MODE = "fixed";
+
+    private final int CAPTURE_INTERVAL = 100;
+
+    private final boolean CAPTURE_CHECK_READY_STATE = true;
+
+    // true when the document is loaded and no animation is running
+    private static final String READY_STATE_SCRIPT = "return document.readyState === 'complete' && !(document.getAnimations"
+                                                     + " && document.getAnimations().some(function(a) { return a.playState === 'running'; }));";
+
+    // the bounds of an element relative to the viewport
+    private static final String BOUNDING_RECT_SCRIPT = "var r = arguments[0].getBoundingClientRect(); return [r.left, r.top, r.width, r.height, window.devicePixelRatio || 1];";
+
     private final String ALL = "all";
 
     private final int MARK_BLOCKSIZE_X = 10;
@@ -71,8 +130,83 @@ public class VisualAssertion implements WebDriverCustomModule
 
     private final boolean CREATE_DIFFERENCE_IMAGE = true;
 
+    private final String ARTIFACTS = "full";
+
+    private final int ARTIFACTS_MARGIN = 20;
+
+    private final int ARTIFACTS_MAX_REGIONS = 10;
+
+    private final int ARTIFACTS_SCALE = 4;
+
+    private final String ENCODER = "imageio";
+
+    private final int PNG_LEVEL = 6;
+
+    private final String PNG_FILTER = "adaptive";
+
+    private final boolean STORE_PASSING_SCREENSHOTS = true;
+
     private final boolean TRAININGSMODE = false;
 
+    private final boolean COMPILED_BASELINES = false;
+
+    private final boolean OFF_HEAP_RASTERS = false;
+
+    private final int OFF_HEAP_POOL_SIZE = 256;
+
+    private final boolean STREAMING_COMPARISON = false;
+
+    private final int STREAMING_BAND_HEIGHT = 64;
+
+    private final boolean INCREMENTAL_COMPARISON = false;
+
+    private final int TILE_SIZE = 64;
+
+    private final boolean BASELINE_TILES = false;
+
+    private final boolean REPORT_TIMERS = true;
+
+    private final boolean RESULT_CACHE = false;
+
+    private final int RESULT_CACHE_SIZE = 100;
+
+    private final int GOVERNOR_MAX_COMPARISONS = 0;
+
+    private final int GOVERNOR_MAX_MEMORY = 0;
+
+    private final String GOVERNOR_POLICY = "queue";
+
+    private final int GOVERNOR_DEGRADE_SCALE = 2;
+
+    private final boolean GOVERNOR_LOW_PRIORITY = false;
+
+    private final int BUDGET = 0;
+
+    private final String BUDGET_FALLBACK = "degrade";
+
+    private final boolean DEFERRED = false;
+
+    private final int DEFERRED_THREADS = 1;
+
+    private final int DEFERRED_MAX_QUEUED = 100;
+
+    private final String DEFERRED_VERDICT = "event";
+
+    private final String SERVICE = "";
+
+    private final int SERVICE_TIMEOUT = 60000;
+
+    private final String SAMPLING = "all";
+
+    private final String SAMPLING_PERCENTAGE = "10";
+
+    private final int SAMPLING_EVERY = 10;
+
+    private final int SAMPLING_INTERVAL = 300;
+
+    // prefix of the custom timers and values in the reports
+    private final String TIMER_PREFIX = "VisualAssertion.";
+
     private final String RESULT_DIRECTORY = "results" + File.separator + "visualassertion";
 
     // subdirectories
@@ -80,6 +214,8 @@ public class VisualAssertion implements WebDriverCustomModule
 
     private final String RESULT_DIRECTORY_MASKS = "masks";
 
+    private final String RESULT_DIRECTORY_COMPILED = "compiled";  // decoded reference images and masks
+
     private final String RESULT_DIRECTORY_RESULTS = "results";  // all live screenshots go here
 
     // the property names
@@ -87,8 +223,17 @@ public class VisualAssertion implements WebDriverCustomModule
     public final String PROPERTY_RESULT_DIRECTORY = PREFIX + "resultDirectory";
     public final String PROPERTY_ID = PREFIX + "ID";
 
+    public final String PROPERTY_REGIONS = PREFIX + "regions";
+
     public final String PROPERTY_WAITING_TIME = PREFIX + "waitingTime";
 
+    public final String PROPERTY_CAPTURE_MODE = PREFIX + "capture.mode";
+    public final String PROPERTY_CAPTURE_INTERVAL = PREFIX + "capture.interval";
+    public final String PROPERTY_CAPTURE_CHECK_READY_STATE = PREFIX + "capture.checkReadyState";
+
+    public final String CAPTURE_FIXED = "fixed";
+    public final String CAPTURE_STABLE = "stable";
+
     public final String PROPERTY_MARK_BLOCKSIZE_X = PREFIX + "mark.blocksize.x";
     public final String PROPERTY_MARK_BLOCKSIZE_Y = PREFIX + "mark.blocksize.y";
     public final String PROPERTY_MARK_TYPE = PREFIX + "mark.type";
@@ -109,8 +254,84 @@ public class VisualAssertion implements WebDriverCustomModule
 
     public final String PROPERTY_CREATE_DIFFERENCEIMAGE = PREFIX + "onFailure.createDifferenceImage";
 
+    public final String PROPERTY_ARTIFACTS = PREFIX + "onFailure.artifacts";
+    public final String PROPERTY_ARTIFACTS_MARGIN = PREFIX + "onFailure.artifacts.margin";
+    public final String PROPERTY_ARTIFACTS_MAX_REGIONS = PREFIX + "onFailure.artifacts.maxRegions";
+    public final String PROPERTY_ARTIFACTS_SCALE = PREFIX + "onFailure.artifacts.scale";
+
+    public final String ARTIFACTS_FULL = "full";
+    public final String ARTIFACTS_CROP = "crop";
+    public final String ARTIFACTS_OVERVIEW = "overview";
+    public final String ARTIFACTS_COMPOSITE = "composite";
+
+    public final String PROPERTY_ENCODER = PREFIX + "output.encoder";
+    public final String PROPERTY_PNG_LEVEL = PREFIX + "output.png.level";
+    public final String PROPERTY_PNG_FILTER = PREFIX + "output.png.filter";
+    public final String PROPERTY_STORE_PASSING_SCREENSHOTS = PREFIX + "output.storePassingScreenshots";
+
+    public final String ENCODER_IMAGEIO = "imageio";
+    public final String ENCODER_PNG = "png";
+    public final String ENCODER_FAST = "fast";
+    public final String ENCODER_STORED = "stored";
+    public final String ENCODER_QOI = "qoi";
+
     public final String PROPERTY_TRAININGSMODE = PREFIX + "trainingsMode";
 
+    public final String PROPERTY_COMPILED_BASELINES = PREFIX + "baseline.compiled";
+
+    public final String PROPERTY_OFF_HEAP_RASTERS = PREFIX + "offHeap";
+    public final String PROPERTY_OFF_HEAP_POOL_SIZE = PREFIX + "offHeap.poolSize";
+
+    public final String PROPERTY_STREAMING_COMPARISON = PREFIX + "comparison.streaming";
+    public final String PROPERTY_STREAMING_BAND_HEIGHT = PREFIX + "comparison.streaming.bandHeight";
+
+    public final String PROPERTY_INCREMENTAL_COMPARISON = PREFIX + "comparison.incremental";
+    public final String PROPERTY_TILE_SIZE = PREFIX + "comparison.tileSize";
+
+    public final String PROPERTY_BASELINE_TILES = PREFIX + "baseline.tiles";
+
+    public final String PROPERTY_REPORT_TIMERS = PREFIX + "timers";
+
+    public final String PROPERTY_RESULT_CACHE = PREFIX + "comparison.cache";
+    public final String PROPERTY_RESULT_CACHE_SIZE = PREFIX + "comparison.cache.size";
+
+    public final String PROPERTY_GOVERNOR_MAX_COMPARISONS = PREFIX + "governor.maxComparisons";
+    public final String PROPERTY_GOVERNOR_MAX_MEMORY = PREFIX + "governor.maxMemory";
+    public final String PROPERTY_GOVERNOR_POLICY = PREFIX + "governor.policy";
+    public final String PROPERTY_GOVERNOR_DEGRADE_SCALE = PREFIX + "governor.degrade.scale";
+    public final String PROPERTY_GOVERNOR_LOW_PRIORITY = PREFIX + "governor.lowPriority";
+
+    public final String GOVERNOR_QUEUE = "queue";
+    public final String GOVERNOR_DEGRADE = "degrade";
+    public final String GOVERNOR_SKIP = "skip";
+
+    public final String PROPERTY_BUDGET = PREFIX + "budget";
+    public final String PROPERTY_BUDGET_FALLBACK = PREFIX + "budget.fallback";
+
+    public final String BUDGET_DEGRADE = "degrade";
+    public final String BUDGET_SKIP = "skip";
+
+    public final String PROPERTY_DEFERRED = PREFIX + "deferred";
+    public final String PROPERTY_DEFERRED_THREADS = PREFIX + "deferred.threads";
+    public final String PROPERTY_DEFERRED_MAX_QUEUED = PREFIX + "deferred.maxQueued";
+    public final String PROPERTY_DEFERRED_VERDICT = PREFIX + "deferred.verdict";
+
+    public final String DEFERRED_VERDICT_EVENT = "event";
+    public final String DEFERRED_VERDICT_ERROR = "error";
+
+    public final String PROPERTY_SERVICE = PREFIX + "service";
+    public final String PROPERTY_SERVICE_TIMEOUT = PREFIX + "service.timeout";
+
+    public final String PROPERTY_SAMPLING = PREFIX + "sampling";
+    public final String PROPERTY_SAMPLING_PERCENTAGE = PREFIX + "sampling.percentage";
+    public final String PROPERTY_SAMPLING_EVERY = PREFIX + "sampling.every";
+    public final String PROPERTY_SAMPLING_INTERVAL = PREFIX + "sampling.interval";
+
+    public final String SAMPLING_ALL = "all";
+    public final String SAMPLING_RANDOM = "random";
+    public final String SAMPLING_ACTION = "action";
+    public final String SAMPLING_WINDOW = "window";
+
     public final String PROPERTY_MASK_CLOSE = PREFIX + "mask.close";
 
     public final String PROPERTY_MASK_CLOSE_GAP_WIDTH = PREFIX + "mask.close.width";
@@ -130,6 +351,89 @@ public class VisualAssertion implements WebDriverCustomModule
             return;
         }
 
+        // Hand the verdicts of the comparisons that finished in the background meanwhile to the session
+        if (props.getProperty(PROPERTY_DEFERRED, DEFERRED))
+        {
+            reportVerdicts(false);
+        }
+
+        // Regions of the page that are compared instead of the whole page, the module arguments take precedence over
+        // the property
+        final String[] regionDefinitions = arguments != null && arguments.length > 0
+                ? arguments
+                : new String[] { props.getProperty(PROPERTY_REGIONS, "") };
+        List<Region> regions = null;
+        try
+        {
+            regions = Region.parseAll(regionDefinitions);
+        }
+        catch (final IllegalArgumentException e)
+        {
+            Assert.fail(MessageFormat.format("Invalid region: {0}", e.getMessage()));
+        }
+
+        // Retrieve current index counter for the image file names, all regions share it
+        Integer index = indexCounter.get();
+        if (index == null)
+        {
+            index = 1;
+        }
+        else
+        {
+            index = index + 1;
+        }
+        // Update the index
+        indexCounter.set(index);
+
+        if (regions.isEmpty())
+        {
+            assertScreenshot(webdriver, index, null, true);
+            return;
+        }
+
+        // Each region is compared and stored on its own, a failed region does not keep the others from being checked
+        AssertionError failure = null;
+        for (int i = 0; i < regions.size(); i++)
+        {
+            try
+            {
+                // The page is waited for only once
+                assertScreenshot(webdriver, index, regions.get(i), i == 0);
+            }
+            catch (final AssertionError e)
+            {
+                if (failure == null)
+                {
+                    failure = e;
+                }
+                else
+                {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if (failure != null)
+        {
+            throw failure;
+        }
+    }
+
+    /**
+     * Takes the screenshot of the page or of a region of it and compares it to the reference image
+     * 
+     * @param webdriver
+     *            the web driver to use
+     * @param index
+     *            the number of the assertion in the test case
+     * @param region
+     *            the region to compare, null for the whole page
+     * @param waitForPage
+     *            whether to wait for the page before the screenshot is taken
+     */
+    private void assertScreenshot(final WebDriver webdriver, final int index, final Region region, final boolean waitForPage)
+    {
+        final XltProperties props = XltProperties.getInstance();
+
         //--------------------------------------------------------------------------------
         // Get Properties and convert them from String if necessary
         //--------------------------------------------------------------------------------
@@ -140,6 +444,15 @@ public class VisualAssertion implements WebDriverCustomModule
         // Wait time for the page to load completely
         final int waitTime = props.getProperty(PROPERTY_WAITING_TIME, WAITINGTIME);
 
+        // Whether to wait the full time or to take the screenshot as soon as the page is stable
+        final String captureMode = props.getProperty(PROPERTY_CAPTURE_MODE, CAPTURE_MODE).trim().toLowerCase();
+
+        // Pause between two screenshots while waiting for a stable page
+        final int captureInterval = props.getProperty(PROPERTY_CAPTURE_INTERVAL, CAPTURE_INTERVAL);
+
+        // Flag whether the page has to be loaded and without running animations before screenshots are compared
+        final boolean checkReadyState = props.getProperty(PROPERTY_CAPTURE_CHECK_READY_STATE, CAPTURE_CHECK_READY_STATE);
+
         // Block size for the visual marking of differences in the snapshot
         final int markBlockSizeX = props.getProperty(PROPERTY_MARK_BLOCKSIZE_X, MARK_BLOCKSIZE_X);
         final int markBlockSizeY = props.getProperty(PROPERTY_MARK_BLOCKSIZE_Y, MARK_BLOCKSIZE_Y);
@@ -160,6 +473,81 @@ public class VisualAssertion implements WebDriverCustomModule
         // Flag whether the training mode is enabled
         final boolean trainingsModeEnabled = props.getProperty(PROPERTY_TRAININGSMODE, TRAININGSMODE);
 
+        // Flag whether reference images and masks are compared from memory mapped rasters instead of being decoded
+        final boolean compiledBaselines = props.getProperty(PROPERTY_COMPILED_BASELINES, COMPILED_BASELINES);
+
+        // Flag whether the screenshot is compared outside of the Java heap
+        final boolean offHeapRasters = props.getProperty(PROPERTY_OFF_HEAP_RASTERS, OFF_HEAP_RASTERS);
+
+        // Megabytes of memory outside of the heap that are kept for reuse
+        final int offHeapPoolSize = props.getProperty(PROPERTY_OFF_HEAP_POOL_SIZE, OFF_HEAP_POOL_SIZE);
+
+        // Flag whether the images are compared row by row while they are decoded
+        final boolean streamingComparison = props.getProperty(PROPERTY_STREAMING_COMPARISON, STREAMING_COMPARISON);
+
+        // Number of rows that are compared at once when streaming
+        final int streamingBandHeight = props.getProperty(PROPERTY_STREAMING_BAND_HEIGHT, STREAMING_BAND_HEIGHT);
+
+        // Flag whether only the tiles that changed since the previous assertion of the session are compared again
+        final boolean incrementalComparison = props.getProperty(PROPERTY_INCREMENTAL_COMPARISON, INCREMENTAL_COMPARISON);
+
+        // Edge length of the tiles in pixels for the incremental comparison and the tile hashes of the baselines
+        final int tileSize = props.getProperty(PROPERTY_TILE_SIZE, TILE_SIZE);
+
+        // Flag whether the tile hashes of the reference images are stored, so only the changed tiles are compared
+        final boolean baselineTiles = props.getProperty(PROPERTY_BASELINE_TILES, BASELINE_TILES);
+
+        // Flag whether the time of each phase and the size of the comparison are reported
+        final boolean reportTimers = props.getProperty(PROPERTY_REPORT_TIMERS, REPORT_TIMERS);
+
+        // Flag whether identical comparisons of the virtual users of the agent are run once and their result is shared
+        final boolean resultCache = props.getProperty(PROPERTY_RESULT_CACHE, RESULT_CACHE);
+
+        // Number of results of comparisons that are kept for later identical comparisons
+        final int resultCacheSize = props.getProperty(PROPERTY_RESULT_CACHE_SIZE, RESULT_CACHE_SIZE);
+
+        // Maximum number of comparisons and memory in MB of all assertions of the agent, 0 for no limit
+        final int governorMaxComparisons = props.getProperty(PROPERTY_GOVERNOR_MAX_COMPARISONS, GOVERNOR_MAX_COMPARISONS);
+        final int governorMaxMemory = props.getProperty(PROPERTY_GOVERNOR_MAX_MEMORY, GOVERNOR_MAX_MEMORY);
+
+        // What to do with a comparison beyond the limits
+        final String governorPolicyString = props.getProperty(PROPERTY_GOVERNOR_POLICY, GOVERNOR_POLICY).trim().toLowerCase();
+
+        // Factor by which degraded comparisons reduce the resolution
+        final int governorDegradeScale = Math.max(2, props.getProperty(PROPERTY_GOVERNOR_DEGRADE_SCALE, GOVERNOR_DEGRADE_SCALE));
+
+        // Flag whether comparisons run at the lowest thread priority
+        final boolean governorLowPriority = props.getProperty(PROPERTY_GOVERNOR_LOW_PRIORITY, GOVERNOR_LOW_PRIORITY);
+
+        // Time in ms the comparison and the rendering of an assertion may take, 0 for no limit
+        final int budgetMillis = props.getProperty(PROPERTY_BUDGET, BUDGET);
+
+        // What to do with a comparison that ran out of time
+        final String budgetFallbackString = props.getProperty(PROPERTY_BUDGET_FALLBACK, BUDGET_FALLBACK).trim().toLowerCase();
+
+        // Flag whether the comparison runs in the background and its verdict is reported later
+        final boolean deferred = props.getProperty(PROPERTY_DEFERRED, DEFERRED);
+
+        // Number of threads that compare in the background, and the number of comparisons that may wait for them
+        final int deferredThreads = props.getProperty(PROPERTY_DEFERRED_THREADS, DEFERRED_THREADS);
+        final int deferredMaxQueued = props.getProperty(PROPERTY_DEFERRED_MAX_QUEUED, DEFERRED_MAX_QUEUED);
+
+        // Address of the comparison service as host:port, empty to compare here
+        final String service = props.getProperty(PROPERTY_SERVICE, SERVICE).trim();
+
+        // Time in ms to wait for the verdict of the comparison service before comparing here
+        final int serviceTimeout = props.getProperty(PROPERTY_SERVICE_TIMEOUT, SERVICE_TIMEOUT);
+
+        // Which assertions take and compare their screenshot
+        final String samplingString = props.getProperty(PROPERTY_SAMPLING, SAMPLING).trim().toLowerCase();
+
+        // Share of the assertions that are checked in percent, and every how many assertions of an action one is checked
+        final double samplingPercentage = Double.parseDouble(props.getProperty(PROPERTY_SAMPLING_PERCENTAGE, SAMPLING_PERCENTAGE));
+        final int samplingEvery = props.getProperty(PROPERTY_SAMPLING_EVERY, SAMPLING_EVERY);
+
+        // Time in s after which each baseline is checked again, whatever the sampling
+        final int samplingInterval = props.getProperty(PROPERTY_SAMPLING_INTERVAL, SAMPLING_INTERVAL);
+
         // Flag whether masks should be closed to make the covered area larger
         final boolean closeMask = props.getProperty(PROPERTY_MASK_CLOSE, ATTEMPT_TO_CLOSE_MASK);
 
@@ -172,6 +560,28 @@ public class VisualAssertion implements WebDriverCustomModule
         // Flag whether a pixel difference image should be created
         final boolean createDifferenceImage = props.getProperty(PROPERTY_CREATE_DIFFERENCEIMAGE, CREATE_DIFFERENCE_IMAGE);
 
+        // How the images of a failed comparison are stored
+        final String artifacts = props.getProperty(PROPERTY_ARTIFACTS, ARTIFACTS).trim().toLowerCase();
+
+        // Context around the differences for cropped images and composites
+        final int artifactsMargin = props.getProperty(PROPERTY_ARTIFACTS_MARGIN, ARTIFACTS_MARGIN);
+
+        // Maximum number of regions before all differences are put into one region
+        final int artifactsMaxRegions = props.getProperty(PROPERTY_ARTIFACTS_MAX_REGIONS, ARTIFACTS_MAX_REGIONS);
+
+        // Factor by which overview images are scaled down
+        final int artifactsScale = props.getProperty(PROPERTY_ARTIFACTS_SCALE, ARTIFACTS_SCALE);
+
+        // Selector for the encoder of the result images
+        final String encoderString = props.getProperty(PROPERTY_ENCODER, ENCODER).trim().toLowerCase();
+
+        // Compression level and row filter for the png encoder
+        final int pngLevel = props.getProperty(PROPERTY_PNG_LEVEL, PNG_LEVEL);
+        final String pngFilter = props.getProperty(PROPERTY_PNG_FILTER, PNG_FILTER).trim().toUpperCase();
+
+        // Flag whether the screenshot is stored even if it matches the reference
+        final boolean storePassingScreenshots = props.getProperty(PROPERTY_STORE_PASSING_SCREENSHOTS, STORE_PASSING_SCREENSHOTS);
+
         // Selector for the algorithm that shall be used
         final String algorithmString = props.getProperty(PROPERTY_ALGORITHM, ALGORITHM).trim().toUpperCase();
 
@@ -183,15 +593,96 @@ public class VisualAssertion implements WebDriverCustomModule
         // Get the current environment
         //--------------------------------------------------------------------------------
 
+        // The session of the virtual user, the comparison may run on another thread
+        final Session session = Session.getCurrent();
+
         // Get the name of the test case for the correct folder identifier
-        final String currentTestCaseName = Session.getCurrent().getUserName();
+        final String currentTestCaseName = session.getUserName();
 
         // Get browsername and browserversion for the subfolders
         final String browserName = getBrowserName(webdriver);
         final String browserVersion = getBrowserVersion(webdriver);
 
         // Get the name of the action that called the visual assertion
-        final String currentActionName = Session.getCurrent().getCurrentActionName();
+        final String currentActionName = session.getCurrentActionName();
+
+
+        //--------------------------------------------------------------------------------
+        // Initialize the configured rendering of the images of a failed comparison, the service renders the same way
+        //--------------------------------------------------------------------------------
+
+        final FailureRenderer renderer = createRenderer(markType, markBlockSizeX, markBlockSizeY, createDifferenceImage, artifacts,
+                                                        artifactsMargin, artifactsMaxRegions, artifactsScale, encoderString,
+                                                        pngLevel, pngFilter);
+
+
+        //--------------------------------------------------------------------------------
+        // Initialize the configured policy for comparisons beyond the limits of the agent
+        //--------------------------------------------------------------------------------
+
+        final ComparisonGovernor.Policy governorPolicy;
+        switch (governorPolicyString)
+        {
+        case GOVERNOR_QUEUE:
+            governorPolicy = ComparisonGovernor.Policy.QUEUE;
+            break;
+        case GOVERNOR_DEGRADE:
+            // The training has to see the screenshot in full resolution
+            governorPolicy = trainingsModeEnabled ? ComparisonGovernor.Policy.QUEUE : ComparisonGovernor.Policy.DEGRADE;
+            break;
+        case GOVERNOR_SKIP:
+            governorPolicy = ComparisonGovernor.Policy.SKIP;
+            break;
+        default:
+            Assert.fail(MessageFormat.format("Governor policy ''{0}'' is not supported.", governorPolicyString));
+            governorPolicy = null;
+            break;
+        }
+        ComparisonGovernor.setLimits(governorMaxComparisons, governorMaxMemory * 1024L * 1024L);
+        if (resultCache)
+        {
+            ComparisonCache.setMaxEntries(resultCacheSize);
+        }
+        if (deferred)
+        {
+            DeferredVerdicts.configure(deferredThreads, deferredMaxQueued);
+        }
+
+        final AssertionSampler.Policy samplingPolicy;
+        switch (samplingString)
+        {
+        case SAMPLING_ALL:
+            samplingPolicy = AssertionSampler.Policy.ALL;
+            break;
+        case SAMPLING_RANDOM:
+            samplingPolicy = AssertionSampler.Policy.RANDOM;
+            break;
+        case SAMPLING_ACTION:
+            samplingPolicy = AssertionSampler.Policy.ACTION;
+            break;
+        case SAMPLING_WINDOW:
+            samplingPolicy = AssertionSampler.Policy.WINDOW;
+            break;
+        default:
+            Assert.fail(MessageFormat.format("Sampling ''{0}'' is not supported.", samplingString));
+            samplingPolicy = null;
+            break;
+        }
+
+        final boolean budgetDegrade;
+        switch (budgetFallbackString)
+        {
+        case BUDGET_DEGRADE:
+            budgetDegrade = true;
+            break;
+        case BUDGET_SKIP:
+            budgetDegrade = false;
+            break;
+        default:
+            Assert.fail(MessageFormat.format("Budget fallback ''{0}'' is not supported.", budgetFallbackString));
+            budgetDegrade = false;
+            break;
+        }
 
 
         //--------------------------------------------------------------------------------
@@ -205,21 +696,12 @@ public class VisualAssertion implements WebDriverCustomModule
                 browserVersion);
         targetDirectory.mkdirs();
 
-        // Retrieve current index counter for the image file names
-        Integer index = indexCounter.get();
-        if (index == null)
-        {
-            index = 1;
-        }
-        else
-        {
-            index = index + 1;
-        }
-        // Update the index
-        indexCounter.set(index);
+        // Name of the image file for the screenshot, regions have their own baseline
+        final String screenshotName = String.format("%03d", index) + "-" + currentActionName
+                                      + (region != null ? "-" + region.getName() : "");
 
-        // Name of the image file for the screenshot
-        final String screenshotName = String.format("%03d", index) + "-" + currentActionName;
+        // Name of the assertion in the reports, like the timers it does not depend on the index
+        final String assertionName = currentActionName + (region != null ? "-" + region.getName() : "");
 
         // Directory for the reference images
         final File baselineDirectory = new File(targetDirectory, RESULT_DIRECTORY_BASELINE);
@@ -230,14 +712,10 @@ public class VisualAssertion implements WebDriverCustomModule
 
         // Directory for the results of the current test run
         final File testInstanceDirectory = new File(new File(targetDirectory, RESULT_DIRECTORY_RESULTS),
-                Session.getCurrent().getID());
+                session.getID());
         testInstanceDirectory.mkdirs();
-        // Path of the screenshot image file
+        // Path of the screenshot image file, the screenshot is stored as delivered by the driver
         final File currentScreenShotFile = new File(testInstanceDirectory, screenshotName + ".png");
-        // Path of the marked image file
-        final File markedImageFile = new File(testInstanceDirectory, screenshotName + "-marked" + ".png");
-        // Path of the difference image file
-        final File differenceImageFile = new File(testInstanceDirectory, screenshotName + "-difference" + ".png");
 
 
         // Directory of the mask images
@@ -246,18 +724,86 @@ public class VisualAssertion implements WebDriverCustomModule
         // Path of the mask image file
         final File maskImageFile = new File(maskDirectoryPath, screenshotName + ".png");
 
+        // Path of the compiled reference image and mask, the directory is created when the baseline is compiled
+        final File compiledBaselineFile = new File(new File(targetDirectory, RESULT_DIRECTORY_COMPILED), screenshotName + ".raster");
+        // Path of the tile hashes of the reference image, next to the compiled baseline
+        final File tilesFile = new File(new File(targetDirectory, RESULT_DIRECTORY_COMPILED), screenshotName + ".tiles");
+
 
         //--------------------------------------------------------------------------------
-        // Wait for the page to fully load, so that a correct screenshot can be taken
+        // Start to load the reference image and the mask, they are decoded in the background
+        // while we wait for the page
         //--------------------------------------------------------------------------------
 
-        try
+        final boolean referenceExists = referenceImageFile.isFile();
+
+        // Only a sample of the assertions is checked, a new baseline and the training need every screenshot
+        if (referenceExists && !trainingsModeEnabled && samplingPolicy != AssertionSampler.Policy.ALL)
         {
-            TimeUnit.MILLISECONDS.sleep(waitTime);
+            final AssertionSampler sampler = AssertionSampler.shared(samplingPolicy, samplingPercentage, samplingEvery,
+                                                                     TimeUnit.SECONDS.toMillis(samplingInterval));
+            if (!sampler.sample(assertionName, referenceImageFile.getPath()))
+            {
+                // The assertion is not part of the sample -> RETURN
+                return;
+            }
         }
-        catch (final InterruptedException e)
+
+        // The training changes the mask, so it always works on the decoded images
+        final boolean useCompiledBaseline = referenceExists && compiledBaselines && !trainingsModeEnabled;
+        // Streaming reads the reference image and the mask itself, they are only decoded if it is not possible
+        final boolean useStreaming = referenceExists && streamingComparison && !useCompiledBaseline && !trainingsModeEnabled;
+        // The service compares with its own copy of the baseline, and identical comparisons share one result, so the
+        // baseline is decoded while we wait for the page only if the comparison surely runs here, else compare()
+        // decodes it once it is needed
+        final boolean serviceCompares = !service.isEmpty() && !trainingsModeEnabled;
+        final boolean resultShared = resultCache && !trainingsModeEnabled;
+        final boolean decodeBaseline = referenceExists && !useCompiledBaseline && !useStreaming && !serviceCompares && !resultShared;
+        final CompletableFuture<BufferedImage> referenceLoad = decodeBaseline ? ImageLoader.load(referenceImageFile) : null;
+        final CompletableFuture<BufferedImage> maskLoad = decodeBaseline ? ImageLoader.load(maskImageFile) : null;
+
+        // The training needs the screenshot as image
+        final boolean useOffHeap = offHeapRasters && !trainingsModeEnabled;
+        DirectRaster.setPoolLimit(offHeapPoolSize * 1024L * 1024L);
+
+
+        //--------------------------------------------------------------------------------
+        // Wait for the page to fully load, so that a correct screenshot can be taken
+        //--------------------------------------------------------------------------------
+
+        // The time spent in each phase of the assertion
+        final PhaseTimer timer = new PhaseTimer();
+
+        // What the assertion reports to the session when it is done
+        final AssertionLog log = new AssertionLog();
+
+        // Follows the phases for the flight recorder and the JMX counters
+        final AssertionMonitor monitor = AssertionMonitor.start(screenshotName, algorithmString);
+        timer.setListener(monitor);
+
+        switch (captureMode)
         {
-            Thread.currentThread().interrupt();
+        case CAPTURE_FIXED:
+            if (waitForPage)
+            {
+                timer.enter(Phase.WAIT);
+                try
+                {
+                    TimeUnit.MILLISECONDS.sleep(waitTime);
+                }
+                catch (final InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+                timer.exit();
+            }
+            break;
+        case CAPTURE_STABLE:
+            // the waiting time is only the upper bound, the screenshots are taken until the page is stable
+            break;
+        default:
+            Assert.fail(MessageFormat.format("Capture mode ''{0}'' is not supported.", captureMode));
+            break;
         }
 
 
@@ -265,48 +811,33 @@ public class VisualAssertion implements WebDriverCustomModule
         // Make the screenshot and load the reference image
         //--------------------------------------------------------------------------------
 
+        // Whether the comparison was handed to the background, which then finishes the assertion
+        boolean handedOver = false;
+
         try
         {
-            final BufferedImage screenshot = takeScreenshot(webdriver);
-            if (screenshot == null)
+            timer.enter(Phase.CAPTURE);
+            final byte[] screenshotBytes = CAPTURE_STABLE.equals(captureMode)
+                    ? takeStableScreenshot(webdriver, region, waitTime, captureInterval, checkReadyState)
+                    : takeScreenshot(webdriver, region);
+            timer.exit();
+            if (screenshotBytes == null)
             {
                 // TODO Has this to be handled in a different way?
                 // webdriver cannot take the screenshot -> RETURN
                 return;
             }
-            // Save the screenshot
-            writeImage(screenshot, currentScreenShotFile);
-
-            // If there's no reference screenshot yet -> save screenshot as reference image in baseline
-            if (!referenceImageFile.isFile())
-            {
-                writeImage(screenshot, referenceImageFile);
-                // There is no reference for the comparison -> RETURN
-                return;
-            }
-
-            // Load the reference image
-            final BufferedImage reference = ImageIO.read(referenceImageFile);
-
-            // Mask for the image comparison
-            MaskImage mask;
-            // If a mask already exists load it, else create a new one
-            if (maskImageFile.exists())
-            {
-                mask = new MaskImage(reference, ImageIO.read(maskImageFile));
-            }
-            else
+            // Save the screenshot, unless only the screenshots of failed assertions are kept
+            if (storePassingScreenshots)
             {
-                mask = new MaskImage(reference);
-                writeImage(mask.getMask(), maskImageFile);
+                writeScreenshot(screenshotBytes, currentScreenShotFile, timer);
             }
 
-
             //--------------------------------------------------------------------------------
             // Initialize the configured algorithm
             //--------------------------------------------------------------------------------
 
-            ComparisonAlgorithm algorithm = null;
+            final ComparisonAlgorithm algorithm;
             switch (algorithmString)
             {
             case PROPERTY_ALGORITHM_COLORFUZZY:
@@ -318,103 +849,1134 @@ public class VisualAssertion implements WebDriverCustomModule
             case PROPERTY_ALGORITHM_FUZZY:
                 algorithm = new PixelFuzzy(pixelTolerance, colorTolerance, fuzzyBlockLength);
                 break;
+            default:
+                Assert.fail(MessageFormat.format("Algorithm ''{0}'' is not supported.", algorithmString));
+                algorithm = null;
+                break;
             }
 
-
-            //--------------------------------------------------------------------------------
-            // If training is enabled adjust the mask, else compare the screenshot to the
-            // reference image
-            //--------------------------------------------------------------------------------
-
-            if (trainingsModeEnabled)
+            // If there's no reference screenshot yet -> save screenshot as reference image in baseline
+            if (!referenceExists)
             {
-                // Train the mask to take the current difference between the reference image and screenshot into account
-                mask.train(screenshot, algorithm, new RectangleMask(markBlockSizeX, markBlockSizeY));
-
-                // Close the mask to cover a bigger area
-                if (closeMask)
+                writeScreenshot(screenshotBytes, referenceImageFile, timer);
+                // Hash the tiles of the new baseline right away, the screenshot is still at hand
+                if (baselineTiles)
                 {
-                    mask.closeMask(closeMaskWidth, closeMaskHeight);
+                    timer.enter(Phase.BASELINE);
+                    TileHashes.of(readImage(screenshotBytes), TileHashes.tileSize(tileSize, algorithm)).write(tilesFile, referenceImageFile);
+                    timer.exit();
                 }
-
-                // Save the trained mask
-                writeImage(mask.getMask(), maskImageFile);
+                // There is no reference for the comparison -> RETURN
+                return;
             }
-            else
-            {
-                // Initialize the comparator
-                final ImageComparison comparator = new ImageComparison(reference);
 
-                // Result of the comparison whether the images are similar
-                final boolean result = comparator.isEqual(screenshot, mask, algorithm);
 
-                // If the two images don't match..
-                if (!result)
-                {
-                    if (createDifferenceImage)
+            // The failure message if the screenshot does not match
+            final String mismatchMessage = region != null
+                    ? MessageFormat.format("Region ''{1}'' does not match the reference screenshot: {0} ", currentActionName, region.getName())
+                    : MessageFormat.format("Website does not match the reference screenshot: {0} ", currentActionName);
+
+            // What the comparison works on, it runs right here or in the background if the verdict is deferred
+            final Comparison comparison = new Comparison();
+            comparison.session = session;
+            comparison.region = region;
+            comparison.screenshotName = screenshotName;
+            comparison.assertionName = assertionName;
+            comparison.mismatchMessage = mismatchMessage;
+            comparison.screenshotBytes = screenshotBytes;
+            comparison.algorithm = algorithm;
+            comparison.timer = timer;
+            comparison.log = log;
+            comparison.monitor = monitor;
+
+            comparison.resultDirectory = resultDirectory;
+            comparison.referenceImageFile = referenceImageFile;
+            comparison.maskImageFile = maskImageFile;
+            comparison.compiledBaselineFile = compiledBaselineFile;
+            comparison.tilesFile = tilesFile;
+            comparison.currentScreenShotFile = currentScreenShotFile;
+            comparison.testInstanceDirectory = testInstanceDirectory;
+            comparison.referenceLoad = referenceLoad;
+            comparison.maskLoad = maskLoad;
+
+            comparison.trainingsModeEnabled = trainingsModeEnabled;
+            comparison.service = service;
+            comparison.serviceTimeout = serviceTimeout;
+            comparison.resultCache = resultCache;
+            comparison.governorPolicy = governorPolicy;
+            comparison.governorDegradeScale = governorDegradeScale;
+            comparison.governorLowPriority = governorLowPriority;
+            comparison.budgetMillis = budgetMillis;
+            comparison.budgetDegrade = budgetDegrade;
+            comparison.useStreaming = useStreaming;
+            comparison.streamingBandHeight = streamingBandHeight;
+            comparison.useOffHeap = useOffHeap;
+            comparison.useCompiledBaseline = useCompiledBaseline;
+            comparison.incrementalComparison = incrementalComparison;
+            comparison.tileSize = tileSize;
+            comparison.baselineTiles = baselineTiles;
+            comparison.reportTimers = reportTimers;
+            comparison.storePassingScreenshots = storePassingScreenshots;
+            comparison.renderer = renderer;
+            comparison.markBlockSizeX = markBlockSizeX;
+            comparison.markBlockSizeY = markBlockSizeY;
+            comparison.closeMask = closeMask;
+            comparison.closeMaskWidth = closeMaskWidth;
+            comparison.closeMaskHeight = closeMaskHeight;
+
+            if (deferred)
+            {
+                // The verdict is reported later, the assertion is finished in the background
+                DeferredVerdicts.submit(session, log, () -> {
+                    try
                     {
-                        // Create a image of the pixel differences and save it
-                        writeImage(comparator.getDifferenceImage(), differenceImageFile);
+                        verify(comparison);
                     }
-
-                    BufferedImage markedImage = null;
-                    switch (markType) {
-                    case MARK_WITH_A_MARKER:
-                        // Highlight the differences in the image with red and yellow
-                        markedImage = comparator.getMarkedImageWithAMarker(markBlockSizeX, markBlockSizeY);
-                        break;
-                    case MARK_WITH_BOXES:
-                        // Surround the differences with red boxes
-                        markedImage = comparator.getMarkedImageWithBoxes(markBlockSizeX, markBlockSizeY);
-                        break;
-                    default:
-                        // break
-                        Assert.fail(MessageFormat.format("Mark type '{0}' is not supported.", markType));
-                        break;
+                    catch (final IOException e)
+                    {
+                        Assert.fail(MessageFormat.format("Failure during visual image assertion: {0}", e.getMessage()));
                     }
-
-                    // Save the marked image
-                    writeImage(markedImage, markedImageFile);
-                }
-
-                // Assert the result of the comparison
-                Assert.assertTrue(MessageFormat.format("Website does not match the reference screenshot: {0} ", currentActionName), result);
+                    finally
+                    {
+                        finish(timer, monitor, log, reportTimers ? currentActionName : null);
+                    }
+                });
+                handedOver = true;
+                return;
             }
+            verify(comparison);
         }
         catch (final IOException e)
         {
             Assert.fail(MessageFormat.format("Failure during visual image assertion: {0}", e.getMessage()));
         }
+        finally
+        {
+            if (!handedOver)
+            {
+                finish(timer, monitor, log, reportTimers ? currentActionName : null);
+                log.writeTo(session);
+            }
+        }
     }
 
     /**
-     * Takes a screenshot if the underlying web driver instance is capable of doing it. Fails with a message only in
-     * case the webdriver cannot take screenshots. Avoids issue when certain drivers are used.
+     * Compares the screenshot of an assertion to its reference image and asserts the result, or trains the mask
      * 
-     * @param webDriver
-     *            the web driver to use
-     * @return {@link BufferedImage} if the webdriver supports taking screenshots, null otherwise
-     * @throws RuntimeException
-     *             In case the files cannot be written
+     * @param comparison
+     *            what the comparison works on
+     * @throws IOException
+     *             if an image cannot be read or written
      */
-    private BufferedImage takeScreenshot(final WebDriver webDriver)
+    private void verify(final Comparison comparison) throws IOException
     {
-        if (webDriver instanceof TakesScreenshot)
+        try
         {
-            final byte[] bytes = ((TakesScreenshot) webDriver).getScreenshotAs(OutputType.BYTES);
-            try
+            // Let the comparison service compare, if it cannot the comparison runs here
+            if (verifyInService(comparison))
+            {
+                // The service compared -> RETURN
+                return;
+            }
+
+            // Use the result of an identical comparison, else wait until the comparison fits into the limits of the agent
+            if (!admit(comparison))
+            {
+                // There is no comparison -> RETURN
+                return;
+            }
+
+            if (comparison.result == null && !compare(comparison))
+            {
+                // There is no comparison -> RETURN
+                return;
+            }
+
+            // Hand the result to the identical comparisons that wait for it
+            if (comparison.flight != null)
             {
-                return ImageIO.read(new ByteArrayInputStream(bytes));
+                comparison.flight.complete(comparison.shareable ? comparison.result : null);
             }
-            catch (final IOException e)
+
+            // If training is enabled adjust the mask, else check the result of the comparison
+            if (comparison.trainingsModeEnabled)
             {
-                throw new RuntimeException(e);
+                train(comparison);
+            }
+            else
+            {
+                // The size of the comparison for the reports
+                if (comparison.reportTimers)
+                {
+                    final ComparisonResult result = comparison.result;
+                    reportValues(comparison.log, comparison.assertionName, result.getPixelCount(), result.getDifferenceCount(),
+                                 result.getMaskedRatio());
+                }
+                final TileTracker tracker = comparison.tracker;
+                comparison.monitor.compared(comparison.result, tracker != null ? tracker.getLastTiles() : 0,
+                                            tracker != null ? tracker.getLastReusedTiles() : 0);
+
+                // If the two images don't match, render the images of the differences on demand
+                if (!comparison.result.isEqual())
+                {
+                    render(comparison);
+                }
+
+                // Assert the result of the comparison
+                Assert.assertTrue(comparison.mismatchMessage, comparison.result.isEqual());
             }
         }
-        else
+        finally
+        {
+            comparison.close();
+        }
+    }
+
+    /**
+     * Lets the comparison service compare the screenshot, if one is configured
+     * 
+     * @param comparison
+     *            what the comparison works on
+     * @return true if the service compared and the result is asserted, false if the comparison has to run here
+     * @throws IOException
+     *             if the screenshot cannot be written
+     */
+    private boolean verifyInService(final Comparison comparison) throws IOException
+    {
+        if (comparison.service.isEmpty() || comparison.trainingsModeEnabled)
+        {
+            return false;
+        }
+
+        final ComparisonRequest request = new ComparisonRequest(getRelativePath(comparison.resultDirectory, comparison.referenceImageFile),
+                                                                getRelativePath(comparison.resultDirectory, comparison.maskImageFile),
+                                                                comparison.screenshotBytes, comparison.algorithm, comparison.renderer);
+        final ComparisonResponse response = compareInService(comparison.service, comparison.serviceTimeout, request,
+                                                             comparison.screenshotName, comparison.log, comparison.timer);
+        if (response == null)
+        {
+            return false;
+        }
+
+        if (comparison.reportTimers)
+        {
+            reportValues(comparison.log, comparison.assertionName, response.getPixelCount(), response.getDifferenceCount(),
+                         response.getMaskedRatio());
+        }
+        comparison.monitor.compared(response.isEqual());
+
+        if (!response.isEqual())
+        {
+            // The screenshot of a failed assertion is always kept, the service stored the images of the differences
+            if (!comparison.storePassingScreenshots)
+            {
+                writeScreenshot(comparison.screenshotBytes, comparison.currentScreenShotFile, comparison.timer);
+            }
+            comparison.log.value(TIMER_PREFIX + comparison.assertionName + ".artifacts", String.join(" ", response.getArtifacts()));
+        }
+
+        Assert.assertTrue(comparison.mismatchMessage, response.isEqual());
+        return true;
+    }
+
+    /**
+     * Takes the result of an identical comparison of another virtual user, else waits until the comparison fits into
+     * the limits of the agent
+     * 
+     * @param comparison
+     *            what the comparison works on, it gets the shared result or the permit
+     * @return false if the comparison is skipped
+     * @throws IOException
+     *             if the thread was interrupted while it waited
+     */
+    private boolean admit(final Comparison comparison) throws IOException
+    {
+        final PhaseTimer timer = comparison.timer;
+        if (comparison.resultCache && !comparison.trainingsModeEnabled)
+        {
+            final String key = ComparisonCache.key(comparison.screenshotBytes, comparison.referenceImageFile, comparison.maskImageFile,
+                                                   comparison.algorithm);
+            timer.enter(Phase.QUEUE);
+            comparison.flight = ComparisonCache.join(key);
+            timer.exit();
+        }
+        comparison.result = comparison.flight != null ? comparison.flight.getResult() : null;
+
+        if (comparison.result == null)
+        {
+            final long pixels = getPixelCount(comparison.screenshotBytes);
+            final int scale = comparison.governorDegradeScale;
+            timer.enter(Phase.QUEUE);
+            comparison.permit = acquirePermit(ComparisonGovernor.estimateBytes(pixels), comparison.governorPolicy,
+                                              ComparisonGovernor.estimateBytes(pixels / (scale * scale)), comparison.governorLowPriority);
+            timer.exit();
+        }
+        if (comparison.permit != null && comparison.permit.getMode() == ComparisonGovernor.Mode.SKIPPED)
+        {
+            comparison.log.event("VisualAssertion skipped",
+                                 MessageFormat.format("Comparison of ''{0}'' skipped, the comparison limits of the agent are reached",
+                                                      comparison.screenshotName));
+            return false;
+        }
+
+        // A degraded comparison decodes every n-th pixel of every n-th row only, and works on the decoded images
+        comparison.degraded = comparison.permit != null && comparison.permit.getMode() == ComparisonGovernor.Mode.DEGRADED;
+        if (comparison.degraded)
+        {
+            comparison.log.event("VisualAssertion degraded",
+                                 MessageFormat.format("Comparison of ''{0}'' at 1/{1} of the resolution, the comparison limits of the agent are reached",
+                                                      comparison.screenshotName, comparison.governorDegradeScale));
+        }
+
+        // The time the comparison and the rendering may take, the training is never cut short, and whether the result
+        // is compared at full resolution and can be used by identical comparisons
+        comparison.budget = comparison.budgetMillis > 0 && !comparison.trainingsModeEnabled ? new TimeBudget(comparison.budgetMillis) : null;
+        comparison.shareable = !comparison.degraded;
+
+        return true;
+    }
+
+    /**
+     * Loads the reference image, the mask and the screenshot as configured and compares them, in training mode only
+     * the images are loaded
+     * 
+     * @param comparison
+     *            what the comparison works on, it gets the images and the result
+     * @return false if the comparison is skipped as it ran out of time
+     * @throws IOException
+     *             if an image cannot be read or written
+     */
+    private boolean compare(final Comparison comparison) throws IOException
+    {
+        final PhaseTimer timer = comparison.timer;
+        final boolean degraded = comparison.degraded;
+        final int subsampling = degraded ? comparison.governorDegradeScale : 1;
+        final byte[] screenshotBytes = comparison.screenshotBytes;
+        final File referenceImageFile = comparison.referenceImageFile;
+        final File maskImageFile = comparison.maskImageFile;
+
+        final int depth = timer.getDepth();
+        try (final TimeBudget.Scope scope = TimeBudget.enter(comparison.budget))
+        {
+            // Compare the images row by row, nothing needs to be decoded completely unless they are in a format that
+            // cannot be streamed
+            timer.enter(Phase.COMPARE);
+            final ComparisonResult streamedResult = comparison.useStreaming && !degraded
+                    ? compareStreaming(referenceImageFile, screenshotBytes, maskImageFile, comparison.algorithm,
+                                       comparison.streamingBandHeight, timer)
+                    : null;
+            timer.exit();
+            final boolean streamed = streamedResult != null;
+
+            // Decode the screenshot while the reference image and the mask are still loading, off heap only the
+            // raster is kept and the decoded image is dropped right away
+            final boolean offHeap = comparison.useOffHeap && !degraded;
+            final CompletableFuture<BufferedImage> screenshotLoad = streamed || offHeap ? null : ImageLoader.decode(screenshotBytes, subsampling);
+            comparison.screenshotRasterLoad = !streamed && offHeap
+                    ? ImageLoader.decode(screenshotBytes).thenApply(DirectRaster::copyOf) : null;
+
+            timer.enter(Phase.BASELINE);
+            if (comparison.useCompiledBaseline && !degraded)
+            {
+                comparison.baseline = CompiledBaseline.open(comparison.compiledBaselineFile, referenceImageFile, maskImageFile);
+
+                // Create a new mask file as below, the baseline is compiled again with it on the next use
+                if (!comparison.baseline.hasMask())
+                {
+                    writeImage(new MaskImage(comparison.baseline.getReferenceImage()).getMask(), maskImageFile, timer);
+                }
+            }
+            else if (!streamed)
+            {
+                // Wait for the reference image, it is loaded only now if streaming was not possible
+                comparison.reference = ImageLoader.get(degraded ? ImageLoader.load(referenceImageFile, subsampling)
+                        : comparison.referenceLoad != null ? comparison.referenceLoad : ImageLoader.load(referenceImageFile));
+
+                final BufferedImage maskImage = ImageLoader.get(degraded ? ImageLoader.load(maskImageFile, subsampling)
+                        : comparison.maskLoad != null ? comparison.maskLoad : ImageLoader.load(maskImageFile));
+                // If a mask already exists use it, else create a new one, unless it has the lower resolution
+                if (maskImage != null)
+                {
+                    comparison.mask = new MaskImage(comparison.reference, maskImage);
+                }
+                else
+                {
+                    comparison.mask = new MaskImage(comparison.reference);
+                    if (!degraded)
+                    {
+                        writeImage(comparison.mask.getMask(), maskImageFile, timer);
+                    }
+                }
+            }
+            timer.exit();
+
+            // Wait for the screenshot
+            timer.enter(Phase.DECODE);
+            comparison.screenshot = screenshotLoad != null ? ImageLoader.get(screenshotLoad) : null;
+            comparison.screenshotRaster = comparison.screenshotRasterLoad != null ? ImageLoader.get(comparison.screenshotRasterLoad) : null;
+            comparison.screenshotRasterLoad = null;
+            timer.exit();
+
+            // Compare the images, the mask is null for a compiled baseline, which brings its own
+            if (streamed)
+            {
+                comparison.result = streamedResult;
+            }
+            else if (!comparison.trainingsModeEnabled)
+            {
+                final ImageComparison imageComparison = comparison.baseline != null ? new ImageComparison(comparison.baseline)
+                        : new ImageComparison(comparison.reference);
+                if (comparison.incrementalComparison && !degraded)
+                {
+                    // Continue from the previous comparison of the page or of the same region
+                    final Region region = comparison.region;
+                    final int tileSize = comparison.tileSize;
+                    comparison.tracker = tileTrackers.computeIfAbsent(comparison.session, s -> new TileTracker(tileSize));
+                    imageComparison.setTileTracker(comparison.tracker, region != null ? region.getName() : "");
+                }
+                if (comparison.baselineTiles && !degraded)
+                {
+                    // The stored tile hashes of the reference image, computed again if the baseline changed since
+                    timer.enter(Phase.BASELINE);
+                    final int baselineTileSize = TileHashes.tileSize(comparison.tileSize, comparison.algorithm);
+                    TileHashes referenceTiles = TileHashes.read(comparison.tilesFile, referenceImageFile);
+                    if (referenceTiles == null || referenceTiles.getTileSize() != baselineTileSize)
+                    {
+                        referenceTiles = comparison.baseline != null ? TileHashes.of(comparison.baseline, baselineTileSize)
+                                : TileHashes.of(comparison.reference, baselineTileSize);
+                        referenceTiles.write(comparison.tilesFile, referenceImageFile);
+                    }
+                    imageComparison.setReferenceTiles(referenceTiles);
+                    timer.exit();
+                }
+                timer.enter(Phase.COMPARE);
+                comparison.result = comparison.screenshotRaster != null
+                        ? imageComparison.compare(comparison.screenshotRaster, comparison.mask, comparison.algorithm)
+                        : imageComparison.compare(comparison.screenshot, comparison.mask, comparison.algorithm);
+                timer.exit();
+            }
+
+            return true;
+        }
+        catch (final TimeBudget.ExceededException e)
+        {
+            // The comparison ran out of time, the phases it was in are over
+            timer.exitTo(depth);
+            return fallBack(comparison);
+        }
+    }
+
+    /**
+     * Compares again without a budget after the comparison ran out of time, at the lower resolution, or at an even
+     * lower one if the comparison was degraded already
+     * 
+     * @param comparison
+     *            what the comparison works on, it gets the images and the result of the lower resolution
+     * @return false if the comparison is skipped as configured
+     * @throws IOException
+     *             if an image cannot be read
+     */
+    private boolean fallBack(final Comparison comparison) throws IOException
+    {
+        final PhaseTimer timer = comparison.timer;
+        if (comparison.screenshotRaster != null)
+        {
+            comparison.screenshotRaster.close();
+            comparison.screenshotRaster = null;
+        }
+
+        if (!comparison.budgetDegrade)
+        {
+            comparison.log.event("VisualAssertion budget exceeded",
+                                 MessageFormat.format("Comparison of ''{0}'' skipped, it took longer than {1} ms", comparison.screenshotName,
+                                                      comparison.budgetMillis));
+            return false;
+        }
+
+        final int scale = comparison.governorDegradeScale;
+        final int fallbackScale = comparison.degraded ? scale * scale : scale;
+        comparison.log.event("VisualAssertion budget exceeded",
+                             MessageFormat.format("Comparison of ''{0}'' at 1/{1} of the resolution, it took longer than {2} ms",
+                                                  comparison.screenshotName, fallbackScale, comparison.budgetMillis));
+
+        timer.enter(Phase.BASELINE);
+        comparison.baseline = null;
+        comparison.reference = ImageLoader.get(ImageLoader.load(comparison.referenceImageFile, fallbackScale));
+        final BufferedImage maskImage = ImageLoader.get(ImageLoader.load(comparison.maskImageFile, fallbackScale));
+        comparison.mask = maskImage != null ? new MaskImage(comparison.reference, maskImage) : new MaskImage(comparison.reference);
+        timer.exit();
+
+        timer.enter(Phase.DECODE);
+        comparison.screenshot = ImageLoader.get(ImageLoader.decode(comparison.screenshotBytes, fallbackScale));
+        timer.exit();
+
+        timer.enter(Phase.COMPARE);
+        comparison.tracker = null;
+        comparison.result = new ImageComparison(comparison.reference).compare(comparison.screenshot, comparison.mask, comparison.algorithm);
+        timer.exit();
+
+        // The images of the lower resolution are rendered without a budget as well, and their result is not shared
+        comparison.budget = null;
+        comparison.shareable = false;
+
+        return true;
+    }
+
+    /**
+     * Trains the mask to take the current difference between the reference image and the screenshot into account
+     * 
+     * @param comparison
+     *            what the comparison works on
+     */
+    private void train(final Comparison comparison)
+    {
+        final PhaseTimer timer = comparison.timer;
+        timer.enter(Phase.TRAIN);
+        comparison.mask.train(comparison.screenshot, comparison.algorithm,
+                              new RectangleMask(comparison.markBlockSizeX, comparison.markBlockSizeY));
+
+        // Close the mask to cover a bigger area
+        if (comparison.closeMask)
+        {
+            comparison.mask.closeMask(comparison.closeMaskWidth, comparison.closeMaskHeight);
+        }
+        timer.exit();
+
+        // Save the trained mask
+        writeImage(comparison.mask.getMask(), comparison.maskImageFile, timer);
+    }
+
+    /**
+     * Keeps the screenshot of a failed comparison and writes the images of the differences. The verdict is clear
+     * already, if the images take too long only some of them are written.
+     * 
+     * @param comparison
+     *            what the comparison works on
+     * @throws IOException
+     *             if an image cannot be read or written
+     */
+    private void render(final Comparison comparison) throws IOException
+    {
+        final PhaseTimer timer = comparison.timer;
+
+        // The screenshot of a failed assertion is always kept
+        if (!comparison.storePassingScreenshots)
+        {
+            writeScreenshot(comparison.screenshotBytes, comparison.currentScreenShotFile, timer);
+        }
+
+        final int depth = timer.getDepth();
+        try (final TimeBudget.Scope scope = TimeBudget.enter(comparison.budget))
+        {
+            timer.enter(Phase.RENDER);
+
+            // The screenshot is only needed as image to mark the differences
+            final BufferedImage markSource = comparison.screenshot != null ? comparison.screenshot
+                    : comparison.screenshotRaster != null ? comparison.screenshotRaster.toImage() : readImage(comparison.screenshotBytes);
+
+            // The reference image is only needed for composites
+            final BufferedImage referenceImage = !comparison.renderer.needsReference() ? null
+                    : comparison.baseline != null ? comparison.baseline.getReferenceImage()
+                    : comparison.reference != null ? comparison.reference : ImageLoader.get(ImageLoader.load(comparison.referenceImageFile));
+
+            comparison.renderer.write(comparison.result, markSource, referenceImage, comparison.testInstanceDirectory,
+                                      comparison.screenshotName, timer);
+            timer.exit();
+        }
+        catch (final TimeBudget.ExceededException e)
+        {
+            timer.exitTo(depth);
+            comparison.log.event("VisualAssertion budget exceeded",
+                                 MessageFormat.format("Images of the differences of ''{0}'' skipped, they took longer than {1} ms",
+                                                      comparison.screenshotName, comparison.budgetMillis));
+        }
+    }
+
+    /**
+     * Hands the verdicts of the comparisons that ran in the background to the session, as configured either as
+     * events or as failure of the current action
+     * 
+     * @param end
+     *            whether the test asks for the verdicts, which waits for the comparisons that are still running
+     */
+    void reportVerdicts(final boolean end)
+    {
+        final XltProperties props = XltProperties.getInstance();
+        final String verdict = props.getProperty(PROPERTY_DEFERRED_VERDICT, DEFERRED_VERDICT).trim().toLowerCase();
+        final Session session = Session.getCurrent();
+
+        switch (verdict)
+        {
+        case DEFERRED_VERDICT_EVENT:
+            for (final String failure : DeferredVerdicts.collect(session, end))
+            {
+                session.getDataManager().logEvent(DeferredVerdicts.FAILURE_EVENT, failure);
+            }
+            break;
+        case DEFERRED_VERDICT_ERROR:
+            // The failures are kept until the test asks for them
+            if (end)
+            {
+                final List<String> failures = DeferredVerdicts.collect(session, true);
+                if (!failures.isEmpty())
+                {
+                    Assert.fail(String.join("\n", failures));
+                }
+            }
+            break;
+        default:
+            Assert.fail(MessageFormat.format("Deferred verdict ''{0}'' is not supported.", verdict));
+            break;
+        }
+    }
+
+    /**
+     * Ends the phases of the assertion and reports their times
+     * 
+     * @param timer
+     *            the times of the phases
+     * @param monitor
+     *            the monitor of the assertion
+     * @param log
+     *            the log of the assertion
+     * @param actionName
+     *            the name of the action the times are reported for, null if they are not reported
+     */
+    private void finish(final PhaseTimer timer, final AssertionMonitor monitor, final AssertionLog log, final String actionName)
+    {
+        timer.stop();
+        monitor.finish();
+        if (actionName != null)
+        {
+            reportTimers(timer, log, actionName);
+        }
+    }
+
+    /**
+     * Waits for the governor to admit the comparison
+     * 
+     * @param bytes
+     *            the memory the comparison takes
+     * @param policy
+     *            what to do if the comparison does not fit into the limits
+     * @param degradedBytes
+     *            the memory the comparison takes at the lower resolution
+     * @param lowPriority
+     *            whether the comparison runs at the lowest thread priority
+     * @return the permit of the comparison
+     * @throws InterruptedIOException
+     *             if the thread was interrupted while it waited
+     */
+    private ComparisonGovernor.Permit acquirePermit(final long bytes, final ComparisonGovernor.Policy policy, final long degradedBytes,
+            final boolean lowPriority) throws InterruptedIOException
+    {
+        try
+        {
+            return ComparisonGovernor.acquire(bytes, policy, degradedBytes, lowPriority);
+        }
+        catch (final InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the comparison limits");
+        }
+    }
+
+    /**
+     * Lets the comparison service compare the screenshot
+     * 
+     * @param service
+     *            the address of the service, host:port
+     * @param timeout
+     *            the time in ms to wait for the verdict
+     * @param request
+     *            the request
+     * @param screenshotName
+     *            the name of the assertion
+     * @param log
+     *            the log of the assertion, it tells why the service did not compare
+     * @param timer
+     *            the timer of the assertion
+     * @return the verdict of the service, null if it did not compare and the comparison has to run here
+     * @throws InterruptedIOException
+     *             if the thread was interrupted while it waited
+     */
+    private ComparisonResponse compareInService(final String service, final int timeout, final ComparisonRequest request,
+                                                final String screenshotName, final AssertionLog log, final PhaseTimer timer)
+        throws InterruptedIOException
+    {
+        String reason = null;
+        CompletableFuture<ComparisonResponse> pending = null;
+        timer.enter(Phase.COMPARE);
+        try
+        {
+            pending = ComparisonClient.of(service).compare(request);
+            final ComparisonResponse response = pending.get(timeout, TimeUnit.MILLISECONDS);
+            if (response.isCompared())
+            {
+                return response;
+            }
+            reason = response.getMessage();
+        }
+        catch (final IllegalArgumentException e)
+        {
+            Assert.fail(MessageFormat.format("Comparison service ''{0}'' is not supported: {1}", service, e.getMessage()));
+        }
+        catch (final IOException e)
+        {
+            reason = e.getMessage();
+        }
+        catch (final ExecutionException e)
+        {
+            reason = e.getCause().getMessage();
+        }
+        catch (final TimeoutException e)
+        {
+            reason = MessageFormat.format("no verdict within {0} ms", timeout);
+        }
+        catch (final InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the comparison service");
+        }
+        finally
+        {
+            // The client forgets a request that is not answered, its late response is dropped
+            if (pending != null)
+            {
+                pending.cancel(false);
+            }
+            timer.exit();
+        }
+
+        log.event("VisualAssertion service failed",
+                  MessageFormat.format("Comparison of ''{0}'' runs locally, the service did not compare: {1}", screenshotName, reason));
+        return null;
+    }
+
+    /**
+     * Returns the path of a file relative to a directory
+     * 
+     * @param directory
+     *            the directory
+     * @param file
+     *            the file in the directory
+     * @return the relative path with / as separator
+     */
+    private static String getRelativePath(final String directory, final File file)
+    {
+        return new File(directory).toPath().relativize(file.toPath()).toString().replace(File.separatorChar, '/');
+    }
+
+    /**
+     * Creates the configured rendering of the images of a failed comparison
+     * 
+     * @param markType
+     *            how the differences are marked
+     * @param markBlockSizeX
+     *            the width of the marks
+     * @param markBlockSizeY
+     *            the height of the marks
+     * @param createDifferenceImage
+     *            whether an image of the pixel differences is written too
+     * @param artifacts
+     *            which images are written
+     * @param artifactsMargin
+     *            the context around the differences for cropped images and composites
+     * @param artifactsMaxRegions
+     *            the maximum number of regions
+     * @param artifactsScale
+     *            the factor by which overview images are scaled down
+     * @param encoderString
+     *            the name of the encoder
+     * @param pngLevel
+     *            the compression level of the png encoder
+     * @param pngFilter
+     *            the filter of the png encoder
+     * @return the renderer
+     */
+    private FailureRenderer createRenderer(final String markType, final int markBlockSizeX, final int markBlockSizeY,
+                                           final boolean createDifferenceImage, final String artifacts, final int artifactsMargin,
+                                           final int artifactsMaxRegions, final int artifactsScale, final String encoderString,
+                                           final int pngLevel, final String pngFilter)
+    {
+        FailureRenderer.Marking marking = null;
+        switch (markType) {
+        case MARK_WITH_A_MARKER:
+            // Highlight the differences in the image with red and yellow
+            marking = FailureRenderer.Marking.MARKER;
+            break;
+        case MARK_WITH_BOXES:
+            // Surround the differences with red boxes
+            marking = FailureRenderer.Marking.BOXES;
+            break;
+        default:
+            Assert.fail(MessageFormat.format("Mark type ''{0}'' is not supported.", markType));
+            break;
+        }
+
+        FailureRenderer.Layout layout = null;
+        switch (artifacts) {
+        case ARTIFACTS_FULL:
+            // Save the full images
+            layout = FailureRenderer.Layout.FULL;
+            break;
+        case ARTIFACTS_CROP:
+            // Save only the regions around the differences, numbered from top to bottom
+            layout = FailureRenderer.Layout.CROP;
+            break;
+        case ARTIFACTS_OVERVIEW:
+            // Save scaled down images
+            layout = FailureRenderer.Layout.OVERVIEW;
+            break;
+        case ARTIFACTS_COMPOSITE:
+            // Save the regions around the differences as reference | marked screenshot | difference
+            layout = FailureRenderer.Layout.COMPOSITE;
+            break;
+        default:
+            Assert.fail(MessageFormat.format("Artifact mode ''{0}'' is not supported.", artifacts));
+            break;
+        }
+
+        FailureRenderer renderer = null;
+        try
+        {
+            renderer = new FailureRenderer(marking, markBlockSizeX, markBlockSizeY, createDifferenceImage, layout, artifactsMargin,
+                                           artifactsMaxRegions, artifactsScale, encoderString, pngLevel, pngFilter);
+        }
+        catch (final IllegalArgumentException e)
+        {
+            Assert.fail(e.getMessage());
+        }
+
+        return renderer;
+    }
+
+    /**
+     * Logs the time of each phase of the assertion that ran as custom timer, e.g. VisualAssertion.Homepage.compare,
+     * and the time of the whole assertion as VisualAssertion.Homepage.total, so the overhead of each action shows up
+     * in the load test report
+     * 
+     * @param timer
+     *            the times of the phases
+     * @param log
+     *            the log of the assertion
+     * @param actionName
+     *            the name of the action that called the assertion
+     */
+    private void reportTimers(final PhaseTimer timer, final AssertionLog log, final String actionName)
+    {
+        final String prefix = TIMER_PREFIX + actionName + ".";
+        for (final Phase phase : Phase.values())
+        {
+            if (timer.hasRun(phase))
+            {
+                log.timer(prefix + phase.getName(), TimeUnit.NANOSECONDS.toMillis(timer.getNanos(phase)));
+            }
+        }
+        log.timer(prefix + "total", TimeUnit.NANOSECONDS.toMillis(timer.getTotalNanos()));
+    }
+
+    /**
+     * Puts the number of compared, different and masked pixels of the assertion into the value log of the session
+     * 
+     * @param log
+     *            the log of the assertion
+     * @param assertionName
+     *            the name of the action and region of the assertion, it prefixes the values like the timers
+     * @param pixelCount
+     *            the number of compared pixels
+     * @param differenceCount
+     *            the number of different pixels
+     * @param maskedRatio
+     *            the share of masked pixels
+     */
+    private void reportValues(final AssertionLog log, final String assertionName, final long pixelCount, final int differenceCount,
+                              final double maskedRatio)
+    {
+        log.value(TIMER_PREFIX + assertionName + ".pixels", pixelCount);
+        log.value(TIMER_PREFIX + assertionName + ".differences", differenceCount);
+        log.value(TIMER_PREFIX + assertionName + ".maskedRatio", maskedRatio);
+    }
+
+    /**
+     * Compares the screenshot to the reference image row by row while both are decoded, so neither image is held
+     * completely in memory. Creates the mask file if there is none yet.
+     * 
+     * @param referenceImageFile
+     *            the reference image
+     * @param screenshotBytes
+     *            the encoded screenshot
+     * @param maskImageFile
+     *            the mask, it is created if it does not exist
+     * @param algorithm
+     *            the comparison algorithm
+     * @param bandHeight
+     *            the number of rows that are compared at once
+     * @param timer
+     *            the timer of the assertion, the mask is written in its own phase
+     * @return the result of the comparison, null if one of the images is not a PNG image that can be streamed
+     * @throws IOException
+     *             In case one of the images cannot be read
+     */
+    private ComparisonResult compareStreaming(final File referenceImageFile, final byte[] screenshotBytes, final File maskImageFile,
+            final ComparisonAlgorithm algorithm, final int bandHeight, final PhaseTimer timer) throws IOException
+    {
+        try (final PngRowReader reference = PngRowReader.open(referenceImageFile);
+             final PngRowReader screenshot = PngRowReader.open(screenshotBytes);
+             final PngRowReader mask = maskImageFile.isFile() ? PngRowReader.open(maskImageFile) : null)
+        {
+            if (reference == null || screenshot == null || (mask == null && maskImageFile.isFile()))
+            {
+                return null;
+            }
+
+            // Create a new mask as the decoding comparison does, a blank mask does not change the result
+            if (mask == null)
+            {
+                writeImage(MaskImage.createBlankMask(reference.getWidth(), reference.getHeight()), maskImageFile, timer);
+            }
+
+            return StreamingComparison.compare(reference, screenshot, mask, algorithm, bandHeight);
+        }
+    }
+
+    /**
+     * Takes a screenshot if the underlying web driver instance is capable of doing it. Fails with a message only in
+     * case the webdriver cannot take screenshots. Avoids issue when certain drivers are used.
+     * 
+     * @param webDriver
+     *            the web driver to use
+     * @param region
+     *            the region to take, null for the whole page
+     * @return the encoded screenshot as delivered by the webdriver if it supports taking screenshots, null otherwise
+     */
+    private byte[] takeScreenshot(final WebDriver webDriver, final Region region)
+    {
+        if (!(webDriver instanceof TakesScreenshot))
         {
             return null;
         }
+        if (region == null)
+        {
+            return ((TakesScreenshot) webDriver).getScreenshotAs(OutputType.BYTES);
+        }
+
+        Rectangle bounds = region.getBounds();
+        if (region.getSelector() != null)
+        {
+            WebElement element = null;
+            try
+            {
+                element = webDriver.findElement(By.cssSelector(region.getSelector()));
+            }
+            catch (final NoSuchElementException e)
+            {
+                Assert.fail(MessageFormat.format("Region ''{0}'' was not found: {1}", region.getName(), region.getSelector()));
+            }
+
+            try
+            {
+                return element.getScreenshotAs(OutputType.BYTES);
+            }
+            catch (final RuntimeException e)
+            {
+                // the driver cannot take screenshots of elements, cut the element out of the page
+                bounds = getViewportBounds(webDriver, element);
+            }
+        }
+
+        return crop(((TakesScreenshot) webDriver).getScreenshotAs(OutputType.BYTES), bounds, region);
+    }
+
+    /**
+     * Returns where an element is in the visible part of the page, which is what the driver takes as screenshot. The
+     * bounds of the browser are in CSS pixels, they are scaled by the device pixel ratio to the pixels of the
+     * screenshot. The location of the element is relative to the document, so it is only used if the browser cannot
+     * tell the bounds of the element in the viewport.
+     * 
+     * @param webDriver
+     *            the web driver to use
+     * @param element
+     *            the element
+     * @return the bounds of the element in the pixels of the screenshot
+     */
+    private Rectangle getViewportBounds(final WebDriver webDriver, final WebElement element)
+    {
+        if (webDriver instanceof JavascriptExecutor)
+        {
+            try
+            {
+                final Object rect = ((JavascriptExecutor) webDriver).executeScript(BOUNDING_RECT_SCRIPT, element);
+                if (rect instanceof List && ((List<?>) rect).size() == 5)
+                {
+                    final List<?> values = (List<?>) rect;
+                    final double ratio = ((Number) values.get(4)).doubleValue();
+                    final double left = ((Number) values.get(0)).doubleValue() * ratio;
+                    final double top = ((Number) values.get(1)).doubleValue() * ratio;
+                    final double right = left + ((Number) values.get(2)).doubleValue() * ratio;
+                    final double bottom = top + ((Number) values.get(3)).doubleValue() * ratio;
+
+                    return new Rectangle((int) Math.floor(left), (int) Math.floor(top),
+                                         (int) Math.ceil(right) - (int) Math.floor(left),
+                                         (int) Math.ceil(bottom) - (int) Math.floor(top));
+                }
+            }
+            catch (final RuntimeException e)
+            {
+                // use the location in the document
+            }
+        }
+
+        return new Rectangle(element.getLocation().getX(), element.getLocation().getY(),
+                             element.getSize().getWidth(), element.getSize().getHeight());
+    }
+
+    /**
+     * Cuts a region out of a screenshot
+     * 
+     * @param screenshotBytes
+     *            the encoded screenshot of the page
+     * @param bounds
+     *            the rectangle to cut out
+     * @param region
+     *            the region, for the error message
+     * @return the encoded PNG image of the region, cut to the size of the screenshot
+     */
+    private byte[] crop(final byte[] screenshotBytes, final Rectangle bounds, final Region region)
+    {
+        final BufferedImage screenshot = readImage(screenshotBytes);
+        final Rectangle visible = bounds.intersection(new Rectangle(screenshot.getWidth(), screenshot.getHeight()));
+        if (visible.isEmpty())
+        {
+            Assert.fail(MessageFormat.format("Region ''{0}'' is outside of the screenshot.", region.getName()));
+        }
+
+        try
+        {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ImageIO.write(FailureArtifacts.crop(screenshot, visible), "PNG", out);
+
+            return out.toByteArray();
+        }
+        catch (final IOException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Takes screenshots until two screenshots in a row are identical, so the screenshot is taken as soon as the page
+     * has settled instead of after a fixed time. Optionally waits for the document to be loaded and all animations to
+     * be finished first.
+     * 
+     * @param webDriver
+     *            the web driver to use
+     * @param region
+     *            the region to take, null for the whole page
+     * @param maxWaitTime
+     *            the maximum time to wait for a stable page in milliseconds, the last screenshot is returned if the
+     *            page did not settle until then
+     * @param interval
+     *            the pause between two screenshots in milliseconds
+     * @param checkReadyState
+     *            whether to wait for the document ready state and running animations
+     * @return the encoded screenshot, null if the webdriver cannot take screenshots
+     */
+    private byte[] takeStableScreenshot(final WebDriver webDriver, final Region region, final int maxWaitTime, final int interval,
+            final boolean checkReadyState)
+    {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWaitTime);
+
+        if (checkReadyState && webDriver instanceof JavascriptExecutor)
+        {
+            while (!isPageReady((JavascriptExecutor) webDriver) && pause(interval, deadline))
+            {
+                // wait for the page
+            }
+        }
+
+        byte[] previous = takeScreenshot(webDriver, region);
+        while (previous != null && pause(interval, deadline))
+        {
+            final byte[] current = takeScreenshot(webDriver, region);
+            if (Arrays.equals(previous, current))
+            {
+                return current;
+            }
+            previous = current;
+        }
+
+        return previous;
+    }
+
+    /**
+     * Asks the browser whether the document is loaded and no animation is running
+     * 
+     * @param executor
+     *            the web driver to use
+     * @return true if the page is ready or the browser cannot tell
+     */
+    private boolean isPageReady(final JavascriptExecutor executor)
+    {
+        try
+        {
+            return Boolean.TRUE.equals(executor.executeScript(READY_STATE_SCRIPT));
+        }
+        catch (final RuntimeException e)
+        {
+            // don't wait for something the browser cannot tell
+            return true;
+        }
+    }
+
+    /**
+     * Sleeps for the interval, but not beyond the deadline
+     * 
+     * @param interval
+     *            the time to sleep in milliseconds
+     * @param deadline
+     *            the deadline as {@link System#nanoTime()}
+     * @return false if the deadline has passed or the thread was interrupted, true otherwise
+     */
+    private boolean pause(final int interval, final long deadline)
+    {
+        final long remaining = deadline - System.nanoTime();
+        if (remaining <= 0)
+        {
+            return false;
+        }
+
+        try
+        {
+            TimeUnit.NANOSECONDS.sleep(Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(interval)));
+            return true;
+        }
+        catch (final InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Decodes an encoded image
+     * 
+     * @param bytes
+     *            the encoded image
+     * @return the decoded image
+     * @throws RuntimeException
+     *             In case the image cannot be decoded
+     */
+    private BufferedImage readImage(final byte[] bytes)
+    {
+        try
+        {
+            return ImageLoader.get(ImageLoader.decode(bytes));
+        }
+        catch (final IOException e)
+        {
+            throw new RuntimeException(e);
+        }
     }
 
     /**
@@ -447,13 +2009,76 @@ public class VisualAssertion implements WebDriverCustomModule
         return browserVersion == null ? "unknown" : browserVersion;
     }
 
+    /**
+     * Write the screenshot into the filepath given by file. PNG screenshots are written as they are, without decoding
+     * and encoding them again, anything else is converted to PNG.
+     * @param bytes the screenshot as delivered by the webdriver
+     * @param file path where the screenshot shall be saved
+     * @param timer the timer of the assertion, the writing is its own phase
+     */
+    private void writeScreenshot(final byte[] bytes, final File file, final PhaseTimer timer)
+    {
+        if (!isPng(bytes))
+        {
+            writeImage(readImage(bytes), file, timer);
+            return;
+        }
+
+        timer.enter(Phase.WRITE);
+        try (final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining())
+            {
+                channel.write(buffer);
+            }
+        }
+        catch (final IOException e)
+        {
+            throw new RuntimeException(e);
+        }
+        finally
+        {
+            timer.exit();
+        }
+    }
+
+    /**
+     * Reads the size of a screenshot from its header, without decoding it
+     * @param bytes the screenshot as delivered by the webdriver
+     * @return the number of pixels, 0 if the screenshot is not a PNG image
+     */
+    private static long getPixelCount(final byte[] bytes)
+    {
+        // the IHDR chunk always comes first, with the width and height after its length and type
+        if (!isPng(bytes) || bytes.length < PNG_SIGNATURE.length + 16)
+        {
+            return 0;
+        }
+
+        final ByteBuffer header = ByteBuffer.wrap(bytes, PNG_SIGNATURE.length + 8, 8);
+        return (long) header.getInt() * header.getInt();
+    }
+
+    /**
+     * Checks for the PNG signature
+     */
+    private static boolean isPng(final byte[] bytes)
+    {
+        return bytes.length > PNG_SIGNATURE.length
+               && Arrays.equals(Arrays.copyOf(bytes, PNG_SIGNATURE.length), PNG_SIGNATURE);
+    }
+
     /**
      * Write the image into the filepath given by file
      * @param image that should be saved
      * @param file path where the image shall be saved
+     * @param timer the timer of the assertion, the writing is its own phase
      */
-    private void writeImage(final BufferedImage image, final File file)
+    private void writeImage(final BufferedImage image, final File file, final PhaseTimer timer)
     {
+        timer.enter(Phase.WRITE);
         try
         {
             ImageIO.write(image, "PNG", file);
@@ -462,5 +2087,159 @@ public class VisualAssertion implements WebDriverCustomModule
         {
             throw new RuntimeException(e);
         }
+        finally
+        {
+            timer.exit();
+        }
+    }
+
+    /**
+     * What the steps of the comparison of an assertion work on: the screenshot, the files and settings of the
+     * assertion, and what the steps take on the way, which is released when the comparison is done
+     */
+    private static final class Comparison
+    {
+        // the assertion
+        Session session;
+
+        Region region;
+
+        String screenshotName;
+
+        String assertionName;
+
+        String mismatchMessage;
+
+        byte[] screenshotBytes;
+
+        ComparisonAlgorithm algorithm;
+
+        PhaseTimer timer;
+
+        AssertionLog log;
+
+        AssertionMonitor monitor;
+
+        // the files, the reference image and the mask may be loading already
+        String resultDirectory;
+
+        File referenceImageFile;
+
+        File maskImageFile;
+
+        File compiledBaselineFile;
+
+        File tilesFile;
+
+        File currentScreenShotFile;
+
+        File testInstanceDirectory;
+
+        CompletableFuture<BufferedImage> referenceLoad;
+
+        CompletableFuture<BufferedImage> maskLoad;
+
+        // the settings
+        boolean trainingsModeEnabled;
+
+        String service;
+
+        int serviceTimeout;
+
+        boolean resultCache;
+
+        ComparisonGovernor.Policy governorPolicy;
+
+        int governorDegradeScale;
+
+        boolean governorLowPriority;
+
+        int budgetMillis;
+
+        boolean budgetDegrade;
+
+        boolean useStreaming;
+
+        int streamingBandHeight;
+
+        boolean useOffHeap;
+
+        boolean useCompiledBaseline;
+
+        boolean incrementalComparison;
+
+        int tileSize;
+
+        boolean baselineTiles;
+
+        boolean reportTimers;
+
+        boolean storePassingScreenshots;
+
+        FailureRenderer renderer;
+
+        int markBlockSizeX;
+
+        int markBlockSizeY;
+
+        boolean closeMask;
+
+        int closeMaskWidth;
+
+        int closeMaskHeight;
+
+        // the screenshot outside of the heap, the admission and the part in identical comparisons of other virtual
+        // users, released by close()
+        DirectRaster screenshotRaster;
+
+        CompletableFuture<DirectRaster> screenshotRasterLoad;
+
+        ComparisonGovernor.Permit permit;
+
+        ComparisonCache.Flight flight;
+
+        // the state of the comparison, the images are either compiled or decoded and the result does not hold on to
+        // any of them
+        boolean degraded;
+
+        TimeBudget budget;
+
+        boolean shareable;
+
+        CompiledBaseline baseline;
+
+        BufferedImage reference;
+
+        MaskImage mask;
+
+        BufferedImage screenshot;
+
+        ComparisonResult result;
+
+        TileTracker tracker;
+
+        /**
+         * Releases the screenshot, or the raster once it is decoded if the comparison failed before it took it, the
+         * admission and the part in identical comparisons
+         */
+        void close()
+        {
+            if (screenshotRaster != null)
+            {
+                screenshotRaster.close();
+            }
+            if (screenshotRasterLoad != null)
+            {
+                screenshotRasterLoad.thenAccept(DirectRaster::close);
+            }
+            if (permit != null)
+            {
+                permit.close();
+            }
+            if (flight != null)
+            {
+                flight.close();
+            }
+        }
     }
 }
@@ -0,0 +1,19 @@
+package com.xceptance.xlt.visualassertion;
+
+import org.openqa.selenium.WebDriver;
+
+import com.xceptance.xlt.api.engine.scripting.WebDriverCustomModule;
+
+/**
+ * Module that waits for the comparisons the visual assertions of the test case deferred to the background, call it at
+ * the end of the test case. With <code>com.xceptance.xlt.visualassertion.deferred.verdict=error</code> it fails if one
+ * of the screenshots did not match, else the failures are logged as events.
+ */
+public class VisualAssertionVerdicts implements WebDriverCustomModule
+{
+    @Override
+    public void execute(final WebDriver webdriver, final String... arguments)
+    {
+        new VisualAssertion().reportVerdicts(true);
+    }
+}
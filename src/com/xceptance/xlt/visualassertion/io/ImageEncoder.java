@@ -0,0 +1,60 @@
+package com.xceptance.xlt.visualassertion.io;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+
+/**
+ * Writes images in a certain file format. Used for the images that are stored as results of the visual assertion.
+ */
+public interface ImageEncoder
+{
+    /**
+     * Writes the image to the stream, the stream is not closed.
+     * @param image The image to write
+     * @param out The stream to write to
+     * @throws IOException if writing to the stream fails
+     */
+    void write(BufferedImage image, OutputStream out) throws IOException;
+
+    /**
+     * Returns the extension of the files written by this encoder
+     * @return the extension without a leading dot
+     */
+    String getFileExtension();
+
+    /**
+     * Creates an encoder by its name
+     * @param name The name of the encoder: imageio, png, fast, stored or qoi
+     * @param pngLevel The compression level of the png encoder
+     * @param pngFilter The name of the row filter of the png encoder
+     * @return the encoder
+     * @throws IllegalArgumentException if there is no such encoder or the png settings are invalid
+     */
+    static ImageEncoder forName(final String name, final int pngLevel, final String pngFilter)
+    {
+        switch (name)
+        {
+        case "imageio":
+            return new ImageIOEncoder();
+        case "png":
+            try
+            {
+                return new PngEncoder(pngLevel, PngEncoder.Filter.valueOf(pngFilter));
+            }
+            catch (final IllegalArgumentException e)
+            {
+                throw new IllegalArgumentException("Invalid png encoder settings: " + e.getMessage(), e);
+            }
+        case "fast":
+            return new PngEncoder(Deflater.BEST_SPEED, PngEncoder.Filter.SUB);
+        case "stored":
+            return new PngEncoder(Deflater.NO_COMPRESSION, PngEncoder.Filter.NONE);
+        case "qoi":
+            return new QoiCodec();
+        default:
+            throw new IllegalArgumentException("Encoder '" + name + "' is not supported.");
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.xceptance.xlt.visualassertion.io;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Writes PNG files with the default PNG writer of ImageIO. Produces small files but is slow, as the compression
+ * effort cannot be controlled.
+ */
+public class ImageIOEncoder implements ImageEncoder
+{
+    @Override
+    public void write(final BufferedImage image, final OutputStream out) throws IOException
+    {
+        if (!ImageIO.write(image, "PNG", out))
+        {
+            throw new IOException("No PNG writer available");
+        }
+    }
+
+    @Override
+    public String getFileExtension()
+    {
+        return "png";
+    }
+}
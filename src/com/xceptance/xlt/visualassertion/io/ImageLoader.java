@@ -0,0 +1,216 @@
+package com.xceptance.xlt.visualassertion.io;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+
+/**
+ * Loads and decodes images in the background. All visual assertions share one pool of daemon threads, so independent
+ * images, like the reference, the mask and the screenshot, are decoded at the same time and files can be loaded
+ * ahead of the moment they are needed. The threads take on the priority of the thread that started the work.
+ */
+public final class ImageLoader
+{
+    private static final int THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+    private static final ThreadPoolExecutor EXECUTOR = new ThreadPoolExecutor(
+            THREADS, THREADS, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), new ThreadFactory()
+            {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(final Runnable runnable)
+                {
+                    final Thread thread = new Thread(runnable, "visualassertion-io-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private ImageLoader()
+    {
+    }
+
+    /**
+     * Returns the number of images that wait for a free thread to be loaded or decoded
+     * @return the number of waiting images
+     */
+    public static int getQueueDepth()
+    {
+        return EXECUTOR.getQueue().size();
+    }
+
+    /**
+     * Starts to load an image file
+     * @param file The image file
+     * @return the future image, which is null if the file does not exist
+     */
+    public static CompletableFuture<BufferedImage> load(final File file)
+    {
+        return load(file, 1);
+    }
+
+    /**
+     * Starts to load an image file at a lower resolution, only every n-th pixel of every n-th row is decoded
+     * @param file The image file
+     * @param subsampling The n, 1 for the full resolution
+     * @return the future image, which is null if the file does not exist
+     */
+    public static CompletableFuture<BufferedImage> load(final File file, final int subsampling)
+    {
+        final int priority = Thread.currentThread().getPriority();
+        return CompletableFuture.supplyAsync(() -> {
+            Thread.currentThread().setPriority(priority);
+            if (!file.isFile())
+            {
+                return null;
+            }
+
+            try
+            {
+                return checkDecoded(subsampling > 1 ? read(ImageIO.createImageInputStream(file), subsampling) : ImageIO.read(file),
+                                    file.getPath());
+            }
+            catch (final IOException e)
+            {
+                throw new UncheckedIOException(e);
+            }
+        }, EXECUTOR);
+    }
+
+    /**
+     * Starts to decode an encoded image
+     * @param bytes The encoded image
+     * @return the future image
+     */
+    public static CompletableFuture<BufferedImage> decode(final byte[] bytes)
+    {
+        return decode(bytes, 1);
+    }
+
+    /**
+     * Starts to decode an encoded image at a lower resolution, only every n-th pixel of every n-th row is decoded
+     * @param bytes The encoded image
+     * @param subsampling The n, 1 for the full resolution
+     * @return the future image
+     */
+    public static CompletableFuture<BufferedImage> decode(final byte[] bytes, final int subsampling)
+    {
+        final int priority = Thread.currentThread().getPriority();
+        return CompletableFuture.supplyAsync(() -> {
+            Thread.currentThread().setPriority(priority);
+            // decode from memory, by default ImageIO would buffer the stream in a temporary file, the stream is
+            // closed by ImageIO
+            try
+            {
+                final ImageInputStream in = new MemoryCacheImageInputStream(new ByteArrayInputStream(bytes));
+                return checkDecoded(subsampling > 1 ? read(in, subsampling) : ImageIO.read(in), "screenshot");
+            }
+            catch (final IOException e)
+            {
+                throw new UncheckedIOException(e);
+            }
+        }, EXECUTOR);
+    }
+
+    /**
+     * Waits for a loaded image, or for anything that was derived from it
+     * @param image The future image
+     * @return the image, null if the file did not exist
+     * @throws IOException if the image could not be read or decoded, or the wait was interrupted
+     */
+    public static <T> T get(final CompletableFuture<T> image) throws IOException
+    {
+        try
+        {
+            return image.get();
+        }
+        catch (final InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while loading an image");
+        }
+        catch (final ExecutionException e)
+        {
+            final Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException)
+            {
+                throw ((UncheckedIOException) cause).getCause();
+            }
+            if (cause instanceof RuntimeException)
+            {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error)
+            {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Decodes every n-th pixel of every n-th row, the full image is never held in memory
+     * @return the image, null if there is no reader for its format
+     */
+    private static BufferedImage read(final ImageInputStream in, final int subsampling) throws IOException
+    {
+        if (in == null)
+        {
+            return null;
+        }
+
+        try
+        {
+            final Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext())
+            {
+                return null;
+            }
+
+            final ImageReader reader = readers.next();
+            try
+            {
+                reader.setInput(in, true, true);
+                final ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                return reader.read(0, param);
+            }
+            finally
+            {
+                reader.dispose();
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    private static BufferedImage checkDecoded(final BufferedImage image, final String name) throws IOException
+    {
+        if (image == null)
+        {
+            throw new IOException("Unsupported image format: " + name);
+        }
+
+        return image;
+    }
+}
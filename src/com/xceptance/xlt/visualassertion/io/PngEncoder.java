@@ -0,0 +1,346 @@
+package com.xceptance.xlt.visualassertion.io;
+
+import java.awt.image.BufferedImage;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Writes PNG files with a selectable compression level and row filter. Images without transparency are written as
+ * RGB, all others as RGBA, always with 8 bits per channel.
+ */
+public class PngEncoder implements ImageEncoder
+{
+    /**
+     * The filter that is applied to the rows before they are compressed
+     */
+    public enum Filter
+    {
+        NONE,
+        SUB,
+        UP,
+        AVERAGE,
+        PAETH,
+        /**
+         * Picks the filter with the smallest sum of absolute differences per row, as recommended by the PNG
+         * specification
+         */
+        ADAPTIVE
+    }
+
+    private static final byte[] SIGNATURE =
+        {
+            (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'
+        };
+
+    // maximum size of an IDAT chunk
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    // number of rows that are fetched from the image at once
+    private static final int ROWS_PER_FETCH = 64;
+
+    private final int level;
+
+    private final Filter filter;
+
+    /**
+     * Creates a new encoder
+     * @param level The deflate level from 0 (no compression) to 9 (best compression)
+     * @param filter The filter that is applied to the rows
+     */
+    public PngEncoder(final int level, final Filter filter)
+    {
+        if (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION)
+        {
+            throw new IllegalArgumentException("Compression level must be between 0 and 9: " + level);
+        }
+
+        this.level = level;
+        this.filter = filter;
+    }
+
+    @Override
+    public void write(final BufferedImage image, final OutputStream out) throws IOException
+    {
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        final boolean alpha = hasTransparency(image);
+        final int bpp = alpha ? 4 : 3;
+
+        final DataOutputStream data = new DataOutputStream(out);
+        data.write(SIGNATURE);
+
+        final byte[] header = new byte[13];
+        putInt(header, 0, width);
+        putInt(header, 4, height);
+        header[8] = 8;
+        header[9] = (byte) (alpha ? 6 : 2);
+        writeChunk(data, "IHDR", header, header.length);
+
+        final Deflater deflater = new Deflater(level);
+        if (filter != Filter.NONE && level != Deflater.NO_COMPRESSION)
+        {
+            deflater.setStrategy(Deflater.FILTERED);
+        }
+
+        try
+        {
+            final IdatStream idat = new IdatStream(data);
+            final DeflaterOutputStream deflated = new DeflaterOutputStream(idat, deflater, CHUNK_SIZE);
+
+            final int[] argb = new int[width * Math.min(height, ROWS_PER_FETCH)];
+            byte[] previous = new byte[width * bpp];
+            byte[] current = new byte[width * bpp];
+            final byte[][] filtered = new byte[5][1 + width * bpp];
+
+            for (int startY = 0; startY < height; startY += ROWS_PER_FETCH)
+            {
+                final int rows = Math.min(ROWS_PER_FETCH, height - startY);
+                image.getRGB(0, startY, width, rows, argb, 0, width);
+
+                for (int row = 0; row < rows; row++)
+                {
+                    toBytes(argb, row * width, width, current, alpha);
+                    deflated.write(filterRow(current, previous, bpp, filtered));
+
+                    final byte[] swap = previous;
+                    previous = current;
+                    current = swap;
+                }
+            }
+
+            deflated.finish();
+            idat.flush();
+        }
+        finally
+        {
+            deflater.end();
+        }
+
+        writeChunk(data, "IEND", new byte[0], 0);
+        data.flush();
+    }
+
+    @Override
+    public String getFileExtension()
+    {
+        return "png";
+    }
+
+    /**
+     * Checks whether any pixel of the image is not fully opaque
+     */
+    private static boolean hasTransparency(final BufferedImage image)
+    {
+        if (!image.getColorModel().hasAlpha())
+        {
+            return false;
+        }
+
+        final int width = image.getWidth();
+        final int[] argb = new int[width * Math.min(image.getHeight(), ROWS_PER_FETCH)];
+        for (int startY = 0; startY < image.getHeight(); startY += ROWS_PER_FETCH)
+        {
+            final int rows = Math.min(ROWS_PER_FETCH, image.getHeight() - startY);
+            image.getRGB(0, startY, width, rows, argb, 0, width);
+            for (int i = 0; i < rows * width; i++)
+            {
+                if ((argb[i] >>> 24) != 0xFF)
+                {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Converts one row of ARGB pixels to RGB or RGBA bytes
+     */
+    private static void toBytes(final int[] argb, final int offset, final int width, final byte[] row, final boolean alpha)
+    {
+        int n = 0;
+        for (int i = offset; i < offset + width; i++)
+        {
+            final int pixel = argb[i];
+            row[n++] = (byte) (pixel >> 16);
+            row[n++] = (byte) (pixel >> 8);
+            row[n++] = (byte) pixel;
+            if (alpha)
+            {
+                row[n++] = (byte) (pixel >>> 24);
+            }
+        }
+    }
+
+    /**
+     * Filters a row with the configured filter, the result starts with the filter type
+     */
+    private byte[] filterRow(final byte[] row, final byte[] previous, final int bpp, final byte[][] filtered)
+    {
+        if (filter != Filter.ADAPTIVE)
+        {
+            final int type = filter.ordinal();
+            applyFilter(type, row, previous, bpp, filtered[type]);
+            return filtered[type];
+        }
+
+        int best = 0;
+        long bestSum = Long.MAX_VALUE;
+        for (int type = 0; type < 5; type++)
+        {
+            final long sum = applyFilter(type, row, previous, bpp, filtered[type]);
+            if (sum < bestSum)
+            {
+                bestSum = sum;
+                best = type;
+            }
+        }
+
+        return filtered[best];
+    }
+
+    /**
+     * Applies one of the five PNG filter types to a row
+     * @return the sum of the absolute values of the filtered bytes, read as signed
+     */
+    private static long applyFilter(final int type, final byte[] row, final byte[] previous, final int bpp,
+            final byte[] target)
+    {
+        target[0] = (byte) type;
+        long sum = 0;
+
+        for (int i = 0; i < row.length; i++)
+        {
+            final int x = row[i] & 0xFF;
+            final int a = i >= bpp ? row[i - bpp] & 0xFF : 0;
+            final int b = previous[i] & 0xFF;
+            final int c = i >= bpp ? previous[i - bpp] & 0xFF : 0;
+
+            final int value;
+            switch (type)
+            {
+            case 1:
+                value = x - a;
+                break;
+            case 2:
+                value = x - b;
+                break;
+            case 3:
+                value = x - ((a + b) >> 1);
+                break;
+            case 4:
+                value = x - paeth(a, b, c);
+                break;
+            default:
+                value = x;
+                break;
+            }
+
+            target[i + 1] = (byte) value;
+            sum += Math.abs((byte) value);
+        }
+
+        return sum;
+    }
+
+    /**
+     * The Paeth predictor of the PNG specification
+     */
+    private static int paeth(final int a, final int b, final int c)
+    {
+        final int p = a + b - c;
+        final int pa = Math.abs(p - a);
+        final int pb = Math.abs(p - b);
+        final int pc = Math.abs(p - c);
+
+        if (pa <= pb && pa <= pc)
+        {
+            return a;
+        }
+
+        return pb <= pc ? b : c;
+    }
+
+    private static void putInt(final byte[] target, final int offset, final int value)
+    {
+        target[offset] = (byte) (value >>> 24);
+        target[offset + 1] = (byte) (value >>> 16);
+        target[offset + 2] = (byte) (value >>> 8);
+        target[offset + 3] = (byte) value;
+    }
+
+    private static void writeChunk(final DataOutputStream out, final String type, final byte[] data, final int length)
+        throws IOException
+    {
+        final byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        final CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, 0, length);
+
+        out.writeInt(length);
+        out.write(typeBytes);
+        out.write(data, 0, length);
+        out.writeInt((int) crc.getValue());
+    }
+
+    /**
+     * Collects the compressed data and writes it as IDAT chunks
+     */
+    private static class IdatStream extends OutputStream
+    {
+        private final DataOutputStream out;
+
+        private final byte[] buffer = new byte[CHUNK_SIZE];
+
+        private int count;
+
+        IdatStream(final DataOutputStream out)
+        {
+            this.out = out;
+        }
+
+        @Override
+        public void write(final int b) throws IOException
+        {
+            if (count == buffer.length)
+            {
+                flush();
+            }
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(final byte[] b, int offset, int length) throws IOException
+        {
+            while (length > 0)
+            {
+                if (count == buffer.length)
+                {
+                    flush();
+                }
+
+                final int n = Math.min(length, buffer.length - count);
+                System.arraycopy(b, offset, buffer, count, n);
+                count += n;
+                offset += n;
+                length -= n;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException
+        {
+            if (count > 0)
+            {
+                writeChunk(out, "IDAT", buffer, count);
+                count = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,455 @@
+package com.xceptance.xlt.visualassertion.io;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Reads a PNG image row by row as ARGB pixels, so only one row of the image is held in memory. Supports the formats
+ * browsers deliver screenshots in and the ones ImageIO writes: 8 bit RGB and RGBA as well as palette images, not
+ * interlaced. Other formats are left to ImageIO, which applies color conversions to them that would have to be
+ * reproduced exactly.
+ */
+public final class PngRowReader implements Closeable
+{
+    private static final byte[] SIGNATURE =
+        {
+            (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'
+        };
+
+    private static final int COLOR_RGB = 2;
+
+    private static final int COLOR_PALETTE = 3;
+
+    private static final int COLOR_RGBA = 6;
+
+    private static final int CHUNK_IHDR = chunkType("IHDR");
+
+    private static final int CHUNK_PLTE = chunkType("PLTE");
+
+    private static final int CHUNK_TRNS = chunkType("tRNS");
+
+    private static final int CHUNK_ICCP = chunkType("iCCP");
+
+    private static final int CHUNK_IDAT = chunkType("IDAT");
+
+    private static final int CHUNK_IEND = chunkType("IEND");
+
+    private final DataInputStream data;
+
+    private final InflaterInputStream pixels;
+
+    private final Inflater inflater;
+
+    private final int width;
+
+    private final int height;
+
+    private final int colorType;
+
+    private final int bitDepth;
+
+    // bytes per complete pixel, at least one, as used by the filters
+    private final int bpp;
+
+    private final int[] palette;
+
+    private byte[] current;
+
+    private byte[] previous;
+
+    private int row;
+
+    private PngRowReader(final DataInputStream data, final int width, final int height, final int colorType,
+            final int bitDepth, final int[] palette, final int idatLength)
+    {
+        this.data = data;
+        this.width = width;
+        this.height = height;
+        this.colorType = colorType;
+        this.bitDepth = bitDepth;
+        this.palette = palette;
+
+        final int channels = colorType == COLOR_RGBA ? 4 : colorType == COLOR_RGB ? 3 : 1;
+        final int bitsPerPixel = channels * bitDepth;
+        this.bpp = Math.max(1, bitsPerPixel / 8);
+
+        final int rowBytes = (int) (((long) width * bitsPerPixel + 7) / 8);
+        this.current = new byte[rowBytes];
+        this.previous = new byte[rowBytes];
+
+        this.inflater = new Inflater();
+        this.pixels = new InflaterInputStream(new IdatStream(data, idatLength), inflater, 64 * 1024);
+    }
+
+    /**
+     * Opens a PNG file
+     * @param file The image file
+     * @return the reader, null if the image cannot be read row by row
+     * @throws IOException if the file cannot be read
+     */
+    public static PngRowReader open(final File file) throws IOException
+    {
+        return open(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+    }
+
+    /**
+     * Opens an encoded PNG image
+     * @param bytes The encoded image
+     * @return the reader, null if the bytes are not a PNG image that can be read row by row
+     * @throws IOException if the image is damaged
+     */
+    public static PngRowReader open(final byte[] bytes) throws IOException
+    {
+        return open(new ByteArrayInputStream(bytes));
+    }
+
+    /**
+     * Reads the header up to the image data, the stream is closed if the image cannot be read row by row
+     */
+    private static PngRowReader open(final InputStream in) throws IOException
+    {
+        final DataInputStream data = new DataInputStream(in);
+        boolean supported = false;
+        try
+        {
+            final byte[] signature = new byte[SIGNATURE.length];
+            data.readFully(signature);
+            if (!Arrays.equals(signature, SIGNATURE))
+            {
+                return null;
+            }
+
+            int width = 0, height = 0, bitDepth = 0, colorType = 0, interlace = 0;
+            int[] palette = null;
+            boolean transparentColor = false;
+
+            while (true)
+            {
+                final int length = data.readInt();
+                final int type = data.readInt();
+
+                if (type == CHUNK_IDAT)
+                {
+                    supported = isSupported(width, height, bitDepth, colorType, interlace, palette, transparentColor);
+                    return supported ? new PngRowReader(data, width, height, colorType, bitDepth, palette, length) : null;
+                }
+                if (type == CHUNK_IEND || type == CHUNK_ICCP)
+                {
+                    // no image data or a color profile ImageIO would convert
+                    return null;
+                }
+
+                if (type == CHUNK_IHDR)
+                {
+                    width = data.readInt();
+                    height = data.readInt();
+                    bitDepth = data.readUnsignedByte();
+                    colorType = data.readUnsignedByte();
+                    data.readUnsignedByte();
+                    data.readUnsignedByte();
+                    interlace = data.readUnsignedByte();
+                    skip(data, length - 13);
+                }
+                else if (type == CHUNK_PLTE)
+                {
+                    palette = new int[256];
+                    Arrays.fill(palette, 0xFF000000);
+                    for (int i = 0; i < length / 3; i++)
+                    {
+                        palette[i] = 0xFF000000 | data.readUnsignedByte() << 16 | data.readUnsignedByte() << 8 | data.readUnsignedByte();
+                    }
+                    skip(data, length % 3);
+                }
+                else if (type == CHUNK_TRNS && colorType == COLOR_PALETTE && palette != null)
+                {
+                    for (int i = 0; i < length; i++)
+                    {
+                        final int alpha = data.readUnsignedByte();
+                        if (i < palette.length)
+                        {
+                            palette[i] = alpha << 24 | (palette[i] & 0xFFFFFF);
+                        }
+                    }
+                }
+                else
+                {
+                    transparentColor |= type == CHUNK_TRNS;
+                    skip(data, length);
+                }
+
+                // CRC
+                PngRowReader.skip(data, 4);
+            }
+        }
+        catch (final EOFException e)
+        {
+            return null;
+        }
+        finally
+        {
+            if (!supported)
+            {
+                data.close();
+            }
+        }
+    }
+
+    private static boolean isSupported(final int width, final int height, final int bitDepth, final int colorType,
+            final int interlace, final int[] palette, final boolean transparentColor)
+    {
+        if (width <= 0 || height <= 0 || (long) width * height > Integer.MAX_VALUE || interlace != 0)
+        {
+            return false;
+        }
+
+        switch (colorType)
+        {
+        case COLOR_RGB:
+            return bitDepth == 8 && !transparentColor;
+        case COLOR_RGBA:
+            return bitDepth == 8;
+        case COLOR_PALETTE:
+            return palette != null && (bitDepth == 1 || bitDepth == 2 || bitDepth == 4 || bitDepth == 8);
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Returns the width of the image
+     * @return the width in pixels
+     */
+    public int getWidth()
+    {
+        return width;
+    }
+
+    /**
+     * Returns the height of the image
+     * @return the height in pixels
+     */
+    public int getHeight()
+    {
+        return height;
+    }
+
+    /**
+     * Reads the next row of the image
+     * @param target The array that receives the ARGB pixels
+     * @param offset The position of the first pixel of the row in the array
+     * @throws IOException if the image data is damaged or all rows were read
+     */
+    public void readRow(final int[] target, final int offset) throws IOException
+    {
+        if (row >= height)
+        {
+            throw new EOFException("All rows were read");
+        }
+
+        final int filter = pixels.read();
+        if (filter < 0)
+        {
+            throw new EOFException("Image data ends in row " + row);
+        }
+        readFully(pixels, current);
+        unfilter(filter, current, previous, bpp);
+
+        toArgb(current, target, offset);
+
+        final byte[] swap = previous;
+        previous = current;
+        current = swap;
+        row++;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        inflater.end();
+        data.close();
+    }
+
+    /**
+     * Converts one unfiltered row to ARGB
+     */
+    private void toArgb(final byte[] source, final int[] target, final int offset)
+    {
+        switch (colorType)
+        {
+        case COLOR_RGBA:
+            for (int x = 0, i = 0; x < width; x++, i += 4)
+            {
+                target[offset + x] = (source[i + 3] & 0xFF) << 24 | (source[i] & 0xFF) << 16 | (source[i + 1] & 0xFF) << 8
+                                     | (source[i + 2] & 0xFF);
+            }
+            break;
+        case COLOR_RGB:
+            for (int x = 0, i = 0; x < width; x++, i += 3)
+            {
+                target[offset + x] = 0xFF000000 | (source[i] & 0xFF) << 16 | (source[i + 1] & 0xFF) << 8 | (source[i + 2] & 0xFF);
+            }
+            break;
+        default:
+            // palette, the indexes of small bit depths are packed from the highest bit on
+            final int perByte = 8 / bitDepth;
+            final int indexMask = (1 << bitDepth) - 1;
+            for (int x = 0; x < width; x++)
+            {
+                final int shift = (perByte - 1 - x % perByte) * bitDepth;
+                target[offset + x] = palette[(source[x / perByte] >> shift) & indexMask];
+            }
+            break;
+        }
+    }
+
+    /**
+     * Reverts one of the five PNG filter types
+     */
+    private static void unfilter(final int type, final byte[] row, final byte[] previous, final int bpp) throws IOException
+    {
+        switch (type)
+        {
+        case 0:
+            break;
+        case 1:
+            for (int i = bpp; i < row.length; i++)
+            {
+                row[i] += row[i - bpp];
+            }
+            break;
+        case 2:
+            for (int i = 0; i < row.length; i++)
+            {
+                row[i] += previous[i];
+            }
+            break;
+        case 3:
+            for (int i = 0; i < row.length; i++)
+            {
+                final int a = i >= bpp ? row[i - bpp] & 0xFF : 0;
+                row[i] += (a + (previous[i] & 0xFF)) >> 1;
+            }
+            break;
+        case 4:
+            for (int i = 0; i < row.length; i++)
+            {
+                final int a = i >= bpp ? row[i - bpp] & 0xFF : 0;
+                final int b = previous[i] & 0xFF;
+                final int c = i >= bpp ? previous[i - bpp] & 0xFF : 0;
+                row[i] += paeth(a, b, c);
+            }
+            break;
+        default:
+            throw new IOException("Unknown PNG filter type: " + type);
+        }
+    }
+
+    /**
+     * The Paeth predictor of the PNG specification
+     */
+    private static int paeth(final int a, final int b, final int c)
+    {
+        final int p = a + b - c;
+        final int pa = Math.abs(p - a);
+        final int pb = Math.abs(p - b);
+        final int pc = Math.abs(p - c);
+
+        if (pa <= pb && pa <= pc)
+        {
+            return a;
+        }
+
+        return pb <= pc ? b : c;
+    }
+
+    private static void readFully(final InputStream in, final byte[] target) throws IOException
+    {
+        int n = 0;
+        while (n < target.length)
+        {
+            final int count = in.read(target, n, target.length - n);
+            if (count < 0)
+            {
+                throw new EOFException("Image data ends early");
+            }
+            n += count;
+        }
+    }
+
+    private static void skip(final DataInputStream data, final int length) throws IOException
+    {
+        if (length > 0 && data.skipBytes(length) < length)
+        {
+            throw new EOFException("Chunk ends early");
+        }
+    }
+
+    private static int chunkType(final String type)
+    {
+        return type.charAt(0) << 24 | type.charAt(1) << 16 | type.charAt(2) << 8 | type.charAt(3);
+    }
+
+    /**
+     * Joins the data of consecutive IDAT chunks
+     */
+    private static class IdatStream extends InputStream
+    {
+        private final DataInputStream data;
+
+        // bytes left in the current chunk, -1 after the last chunk
+        private int remaining;
+
+        IdatStream(final DataInputStream data, final int firstLength)
+        {
+            this.data = data;
+            this.remaining = firstLength;
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            final byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(final byte[] b, final int offset, final int length) throws IOException
+        {
+            while (remaining == 0)
+            {
+                // CRC of the finished chunk, then the next one
+                PngRowReader.skip(data, 4);
+                final int next = data.readInt();
+                if (data.readInt() != CHUNK_IDAT)
+                {
+                    remaining = -1;
+                    break;
+                }
+                remaining = next;
+            }
+            if (remaining < 0)
+            {
+                return -1;
+            }
+
+            final int n = data.read(b, offset, Math.min(length, remaining));
+            if (n < 0)
+            {
+                throw new EOFException("Image data ends early");
+            }
+            remaining -= n;
+
+            return n;
+        }
+    }
+}
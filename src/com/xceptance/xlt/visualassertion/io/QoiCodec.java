@@ -0,0 +1,245 @@
+package com.xceptance.xlt.visualassertion.io;
+
+import java.awt.image.BufferedImage;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Writes and reads images in the QOI format (Quite OK Image Format, https://qoiformat.org). QOI files are larger than
+ * PNG files but are encoded and decoded many times faster, so they are a good fit for intermediate files.
+ */
+public class QoiCodec implements ImageEncoder
+{
+    private static final int MAGIC = 'q' << 24 | 'o' << 16 | 'i' << 8 | 'f';
+
+    private static final int OP_INDEX = 0x00;
+
+    private static final int OP_DIFF = 0x40;
+
+    private static final int OP_LUMA = 0x80;
+
+    private static final int OP_RUN = 0xC0;
+
+    private static final int OP_RGB = 0xFE;
+
+    private static final int OP_RGBA = 0xFF;
+
+    private static final int MASK_2 = 0xC0;
+
+    private static final int MAX_RUN = 62;
+
+    private static final byte[] END_MARKER =
+        {
+            0, 0, 0, 0, 0, 0, 0, 1
+        };
+
+    // number of rows that are fetched from the image at once
+    private static final int ROWS_PER_FETCH = 64;
+
+    @Override
+    public void write(final BufferedImage image, final OutputStream out) throws IOException
+    {
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+
+        final DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeInt(width);
+        data.writeInt(height);
+        data.writeByte(image.getColorModel().hasAlpha() ? 4 : 3);
+        data.writeByte(0);
+
+        final int[] index = new int[64];
+        final int[] argb = new int[width * Math.min(height, ROWS_PER_FETCH)];
+        // worst case is five bytes per pixel
+        final byte[] buffer = new byte[5 * argb.length];
+
+        int previous = 0xFF000000;
+        int run = 0;
+
+        for (int startY = 0; startY < height; startY += ROWS_PER_FETCH)
+        {
+            final int count = width * Math.min(ROWS_PER_FETCH, height - startY);
+            image.getRGB(0, startY, width, count / width, argb, 0, width);
+
+            int n = 0;
+            for (int i = 0; i < count; i++)
+            {
+                final int pixel = argb[i];
+
+                if (pixel == previous)
+                {
+                    run++;
+                    if (run == MAX_RUN)
+                    {
+                        buffer[n++] = (byte) (OP_RUN | (run - 1));
+                        run = 0;
+                    }
+                    continue;
+                }
+
+                if (run > 0)
+                {
+                    buffer[n++] = (byte) (OP_RUN | (run - 1));
+                    run = 0;
+                }
+
+                final int hash = hash(pixel);
+                if (index[hash] == pixel)
+                {
+                    buffer[n++] = (byte) (OP_INDEX | hash);
+                }
+                else
+                {
+                    index[hash] = pixel;
+
+                    if ((pixel >>> 24) == (previous >>> 24))
+                    {
+                        final int dr = (byte) ((pixel >> 16) - (previous >> 16));
+                        final int dg = (byte) ((pixel >> 8) - (previous >> 8));
+                        final int db = (byte) (pixel - previous);
+                        final int drDg = dr - dg;
+                        final int dbDg = db - dg;
+
+                        if (dr >= -2 && dr <= 1 && dg >= -2 && dg <= 1 && db >= -2 && db <= 1)
+                        {
+                            buffer[n++] = (byte) (OP_DIFF | (dr + 2) << 4 | (dg + 2) << 2 | (db + 2));
+                        }
+                        else if (dg >= -32 && dg <= 31 && drDg >= -8 && drDg <= 7 && dbDg >= -8 && dbDg <= 7)
+                        {
+                            buffer[n++] = (byte) (OP_LUMA | (dg + 32));
+                            buffer[n++] = (byte) ((drDg + 8) << 4 | (dbDg + 8));
+                        }
+                        else
+                        {
+                            buffer[n++] = (byte) OP_RGB;
+                            buffer[n++] = (byte) (pixel >> 16);
+                            buffer[n++] = (byte) (pixel >> 8);
+                            buffer[n++] = (byte) pixel;
+                        }
+                    }
+                    else
+                    {
+                        buffer[n++] = (byte) OP_RGBA;
+                        buffer[n++] = (byte) (pixel >> 16);
+                        buffer[n++] = (byte) (pixel >> 8);
+                        buffer[n++] = (byte) pixel;
+                        buffer[n++] = (byte) (pixel >>> 24);
+                    }
+                }
+
+                previous = pixel;
+            }
+
+            data.write(buffer, 0, n);
+        }
+
+        if (run > 0)
+        {
+            data.writeByte(OP_RUN | (run - 1));
+        }
+
+        data.write(END_MARKER);
+        data.flush();
+    }
+
+    @Override
+    public String getFileExtension()
+    {
+        return "qoi";
+    }
+
+    /**
+     * Reads a QOI image
+     * @param in The stream to read from, it is not closed
+     * @return the image as TYPE_INT_ARGB
+     * @throws IOException if the stream cannot be read or does not contain a QOI image
+     */
+    public static BufferedImage read(final InputStream in) throws IOException
+    {
+        final DataInputStream data = new DataInputStream(in);
+        if (data.readInt() != MAGIC)
+        {
+            throw new IOException("Not a QOI image");
+        }
+
+        final int width = data.readInt();
+        final int height = data.readInt();
+        data.readUnsignedByte();
+        data.readUnsignedByte();
+
+        if (width <= 0 || height <= 0 || (long) width * height > Integer.MAX_VALUE)
+        {
+            throw new IOException("Invalid QOI image size: " + width + "x" + height);
+        }
+
+        final int[] pixels = new int[width * height];
+        final int[] index = new int[64];
+        int pixel = 0xFF000000;
+
+        for (int i = 0; i < pixels.length;)
+        {
+            final int op = data.readUnsignedByte();
+
+            if (op == OP_RGB)
+            {
+                pixel = (pixel & 0xFF000000) | data.readUnsignedByte() << 16 | data.readUnsignedByte() << 8
+                        | data.readUnsignedByte();
+            }
+            else if (op == OP_RGBA)
+            {
+                final int rgb = data.readUnsignedByte() << 16 | data.readUnsignedByte() << 8 | data.readUnsignedByte();
+                pixel = data.readUnsignedByte() << 24 | rgb;
+            }
+            else if ((op & MASK_2) == OP_INDEX)
+            {
+                pixel = index[op];
+            }
+            else if ((op & MASK_2) == OP_DIFF)
+            {
+                pixel = add(pixel, ((op >> 4) & 3) - 2, ((op >> 2) & 3) - 2, (op & 3) - 2);
+            }
+            else if ((op & MASK_2) == OP_LUMA)
+            {
+                final int second = data.readUnsignedByte();
+                final int dg = (op & 0x3F) - 32;
+                pixel = add(pixel, dg + ((second >> 4) & 0x0F) - 8, dg, dg + (second & 0x0F) - 8);
+            }
+            else
+            {
+                // a run of the previous pixel
+                final int run = Math.min((op & 0x3F) + 1, pixels.length - i);
+                for (int n = 0; n < run; n++)
+                {
+                    pixels[i++] = pixel;
+                }
+                continue;
+            }
+
+            index[hash(pixel)] = pixel;
+            pixels[i++] = pixel;
+        }
+
+        final BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        image.setRGB(0, 0, width, height, pixels, 0, width);
+
+        return image;
+    }
+
+    private static int hash(final int argb)
+    {
+        return (((argb >> 16) & 0xFF) * 3 + ((argb >> 8) & 0xFF) * 5 + (argb & 0xFF) * 7 + (argb >>> 24) * 11) & 63;
+    }
+
+    /**
+     * Adds the differences to the color channels, wrapping around
+     */
+    private static int add(final int argb, final int dr, final int dg, final int db)
+    {
+        return (argb & 0xFF000000) | ((((argb >> 16) + dr) & 0xFF) << 16) | ((((argb >> 8) + dg) & 0xFF) << 8)
+               | ((argb + db) & 0xFF);
+    }
+}
@@ -0,0 +1,121 @@
+package com.xceptance.xlt.visualassertion.monitor;
+
+import java.lang.reflect.Constructor;
+
+import com.xceptance.xlt.visualassertion.util.ComparisonResult;
+import com.xceptance.xlt.visualassertion.util.PhaseTimer;
+import com.xceptance.xlt.visualassertion.util.PhaseTimer.Phase;
+
+/**
+ * Follows one visual assertion through its phases for the monitoring tools of the JVM. It counts the assertion in the
+ * {@link AssertionStatistics} and, if the JVM has a flight recorder, emits a Java Flight Recorder event for the
+ * assertion and for each of its phases. The events cost next to nothing as long as no recording is running.
+ */
+public class AssertionMonitor implements PhaseTimer.Listener
+{
+    // creates the monitors that emit flight recorder events, null if the JVM has no flight recorder
+    private static final Constructor<? extends AssertionMonitor> FLIGHT_RECORDER = lookUpFlightRecorder();
+
+    private final AssertionStatistics statistics = AssertionStatistics.getInstance();
+
+    private boolean failed;
+
+    AssertionMonitor()
+    {
+        statistics.register();
+    }
+
+    /**
+     * Starts to monitor an assertion, pass the monitor to the timer of the assertion to follow its phases
+     * @param assertion The name of the assertion
+     * @param algorithm The name of the comparison algorithm
+     * @return the monitor
+     */
+    public static AssertionMonitor start(final String assertion, final String algorithm)
+    {
+        if (FLIGHT_RECORDER != null)
+        {
+            try
+            {
+                return FLIGHT_RECORDER.newInstance(assertion, algorithm);
+            }
+            catch (final ReflectiveOperationException | LinkageError e)
+            {
+                // count the assertion at least
+            }
+        }
+
+        return new AssertionMonitor();
+    }
+
+    @Override
+    public void entered(final Phase phase)
+    {
+        if (phase == Phase.COMPARE)
+        {
+            statistics.comparisonStarted();
+        }
+    }
+
+    @Override
+    public void exited(final Phase phase)
+    {
+        if (phase == Phase.COMPARE)
+        {
+            statistics.comparisonFinished();
+        }
+    }
+
+    /**
+     * Records the result of the comparison
+     * @param result The result of the comparison
+     * @param tiles The number of tiles of an incremental comparison, 0 for a full one
+     * @param reusedTiles The number of tiles whose differences were carried forward
+     */
+    public void compared(final ComparisonResult result, final int tiles, final int reusedTiles)
+    {
+        failed = !result.isEqual();
+    }
+
+    /**
+     * Records the verdict of a comparison that ran in the comparison service
+     * @param equal Whether the screenshot matches the reference image
+     */
+    public void compared(final boolean equal)
+    {
+        failed = !equal;
+    }
+
+    /**
+     * Ends the assertion, it counts as failed if its screenshot did not match the reference image
+     */
+    public void finish()
+    {
+        statistics.assertionFinished(failed);
+    }
+
+    /**
+     * Whether the screenshot of the assertion did not match the reference image
+     */
+    boolean hasFailed()
+    {
+        return failed;
+    }
+
+    /**
+     * The flight recorder events are only loaded if the JVM knows them, jdk.jfr came with Java 11 and 8u262
+     */
+    private static Constructor<? extends AssertionMonitor> lookUpFlightRecorder()
+    {
+        try
+        {
+            Class.forName("jdk.jfr.Event");
+            return Class.forName(AssertionMonitor.class.getPackage().getName() + ".FlightRecorderMonitor")
+                        .asSubclass(AssertionMonitor.class).getDeclaredConstructor(String.class, String.class);
+        }
+        catch (final ReflectiveOperationException | LinkageError e)
+        {
+            return null;
+        }
+    }
+}
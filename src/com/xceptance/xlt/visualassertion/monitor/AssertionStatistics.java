@@ -0,0 +1,243 @@
+package com.xceptance.xlt.visualassertion.monitor;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import com.xceptance.xlt.visualassertion.DeferredVerdicts;
+import com.xceptance.xlt.visualassertion.io.ImageLoader;
+import com.xceptance.xlt.visualassertion.util.AssertionSampler;
+import com.xceptance.xlt.visualassertion.util.ComparisonCache;
+import com.xceptance.xlt.visualassertion.util.ComparisonGovernor;
+import com.xceptance.xlt.visualassertion.util.CompiledBaseline;
+import com.xceptance.xlt.visualassertion.util.DirectRaster;
+import com.xceptance.xlt.visualassertion.util.TimeBudget;
+
+/**
+ * Counts the visual assertions of this JVM. The counters are registered as MBean with the platform MBean server as
+ * soon as the first assertion starts, so JConsole, Mission Control or any other JMX client can watch them on a
+ * running agent.
+ */
+public final class AssertionStatistics implements AssertionStatisticsMBean
+{
+    /**
+     * The name under which the counters are registered
+     */
+    public static final String OBJECT_NAME = "com.xceptance.xlt.visualassertion:type=AssertionStatistics";
+
+    // the length of the window of the assertions per second
+    private static final int WINDOW_SECONDS = 60;
+
+    private static final AssertionStatistics INSTANCE = new AssertionStatistics();
+
+    private final AtomicBoolean registered = new AtomicBoolean();
+
+    private final AtomicLong assertions = new AtomicLong();
+
+    private final AtomicLong failedAssertions = new AtomicLong();
+
+    private final AtomicInteger comparisons = new AtomicInteger();
+
+    private final long startSecond = currentSecond();
+
+    // the assertions that finished per second of the window, the slot of a second is its number modulo the length,
+    // one more slot than the window holds the current second, guarded by itself
+    private final long[] finished = new long[WINDOW_SECONDS + 1];
+
+    private final long[] finishedSecond = new long[WINDOW_SECONDS + 1];
+
+    private AssertionStatistics()
+    {
+    }
+
+    /**
+     * Returns the counters of this JVM
+     * @return the counters
+     */
+    public static AssertionStatistics getInstance()
+    {
+        return INSTANCE;
+    }
+
+    /**
+     * Registers the counters with the platform MBean server, unless done before. A JVM without a management server
+     * simply has no counters to watch.
+     */
+    void register()
+    {
+        if (registered.compareAndSet(false, true))
+        {
+            try
+            {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+            }
+            catch (final JMException | SecurityException e)
+            {
+                // already registered by another class loader or not permitted, there is nothing to watch then
+            }
+        }
+    }
+
+    void comparisonStarted()
+    {
+        comparisons.incrementAndGet();
+    }
+
+    void comparisonFinished()
+    {
+        comparisons.decrementAndGet();
+    }
+
+    void assertionFinished(final boolean failed)
+    {
+        assertions.incrementAndGet();
+        if (failed)
+        {
+            failedAssertions.incrementAndGet();
+        }
+
+        final long second = currentSecond();
+        final int slot = (int) Math.floorMod(second, (long) finished.length);
+        synchronized (finished)
+        {
+            if (finishedSecond[slot] != second)
+            {
+                finishedSecond[slot] = second;
+                finished[slot] = 0;
+            }
+            finished[slot]++;
+        }
+    }
+
+    @Override
+    public long getAssertionCount()
+    {
+        return assertions.get();
+    }
+
+    @Override
+    public long getFailedAssertionCount()
+    {
+        return failedAssertions.get();
+    }
+
+    @Override
+    public double getAssertionsPerSecond()
+    {
+        // only whole seconds count, and not more of them than the JVM has been running
+        final long second = currentSecond();
+        final long seconds = Math.min(WINDOW_SECONDS, second - startSecond);
+        if (seconds <= 0)
+        {
+            return 0;
+        }
+
+        long count = 0;
+        synchronized (finished)
+        {
+            for (int slot = 0; slot < finished.length; slot++)
+            {
+                if (finishedSecond[slot] < second && finishedSecond[slot] >= second - seconds)
+                {
+                    count += finished[slot];
+                }
+            }
+        }
+
+        return (double) count / seconds;
+    }
+
+    @Override
+    public long getUnsampledAssertionCount()
+    {
+        return AssertionSampler.getSkippedCount();
+    }
+
+    @Override
+    public int getComparisonsInFlight()
+    {
+        return comparisons.get();
+    }
+
+    @Override
+    public long getGovernedBytes()
+    {
+        return ComparisonGovernor.getBytes();
+    }
+
+    @Override
+    public long getQueuedComparisons()
+    {
+        return ComparisonGovernor.getQueuedCount();
+    }
+
+    @Override
+    public long getDegradedComparisons()
+    {
+        return ComparisonGovernor.getDegradedCount();
+    }
+
+    @Override
+    public long getSkippedComparisons()
+    {
+        return ComparisonGovernor.getSkippedCount();
+    }
+
+    @Override
+    public long getExceededBudgets()
+    {
+        return TimeBudget.getExceededCount();
+    }
+
+    @Override
+    public int getDeferredComparisons()
+    {
+        return DeferredVerdicts.getPendingCount();
+    }
+
+    @Override
+    public int getIoQueueDepth()
+    {
+        return ImageLoader.getQueueDepth();
+    }
+
+    @Override
+    public double getBaselineCacheHitRatio()
+    {
+        final long hits = CompiledBaseline.getCacheHits();
+        final long total = hits + CompiledBaseline.getCacheMisses();
+
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    @Override
+    public double getSharedResultHitRatio()
+    {
+        final long hits = ComparisonCache.getHits() + ComparisonCache.getCoalescedCount();
+        final long total = hits + ComparisonCache.getMisses();
+
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    @Override
+    public long getRasterBytesInUse()
+    {
+        return DirectRaster.getBytesInUse();
+    }
+
+    @Override
+    public long getRasterBytesPooled()
+    {
+        return DirectRaster.getPooledBytes();
+    }
+
+    private static long currentSecond()
+    {
+        return TimeUnit.NANOSECONDS.toSeconds(System.nanoTime());
+    }
+}
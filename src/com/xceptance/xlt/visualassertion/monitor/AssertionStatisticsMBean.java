@@ -0,0 +1,103 @@
+package com.xceptance.xlt.visualassertion.monitor;
+
+/**
+ * The live counters of the visual assertions of this JVM, as published via JMX
+ */
+public interface AssertionStatisticsMBean
+{
+    /**
+     * Returns the number of assertions that finished since the start of the JVM
+     * @return the number of assertions
+     */
+    long getAssertionCount();
+
+    /**
+     * Returns the number of assertions whose screenshot did not match the reference image
+     * @return the number of failed assertions
+     */
+    long getFailedAssertionCount();
+
+    /**
+     * Returns the number of assertions that finished per second, averaged over the last minute
+     * @return the assertions per second
+     */
+    double getAssertionsPerSecond();
+
+    /**
+     * Returns the number of assertions that were skipped because they were not part of the sample
+     * @return the number of skipped assertions
+     */
+    long getUnsampledAssertionCount();
+
+    /**
+     * Returns the number of assertions that are comparing their screenshot right now
+     * @return the number of running comparisons
+     */
+    int getComparisonsInFlight();
+
+    /**
+     * Returns the memory the comparisons admitted by the governor take
+     * @return the estimated number of bytes
+     */
+    long getGovernedBytes();
+
+    /**
+     * Returns how often a comparison had to wait for the limits of the governor
+     * @return the number of queued comparisons
+     */
+    long getQueuedComparisons();
+
+    /**
+     * Returns how often a comparison ran at a lower resolution because of the limits of the governor
+     * @return the number of degraded comparisons
+     */
+    long getDegradedComparisons();
+
+    /**
+     * Returns how often a comparison was skipped because of the limits of the governor
+     * @return the number of skipped comparisons
+     */
+    long getSkippedComparisons();
+
+    /**
+     * Returns how often a comparison ran out of its time budget and fell back to a lower resolution or was skipped
+     * @return the number of exceeded budgets
+     */
+    long getExceededBudgets();
+
+    /**
+     * Returns the number of deferred comparisons that wait for the background pool or run in it
+     * @return the number of comparisons
+     */
+    int getDeferredComparisons();
+
+    /**
+     * Returns the number of images that wait to be loaded or decoded in the background
+     * @return the length of the queue
+     */
+    int getIoQueueDepth();
+
+    /**
+     * Returns the share of compiled baselines that were opened without decoding the images
+     * @return the hit ratio [0-1], 0 if no compiled baseline was opened yet
+     */
+    double getBaselineCacheHitRatio();
+
+    /**
+     * Returns the share of comparisons whose result was taken from an identical comparison, which was done or running
+     * @return the hit ratio [0-1], 0 if no result was looked for yet
+     */
+    double getSharedResultHitRatio();
+
+    /**
+     * Returns the memory that open off-heap rasters hold
+     * @return the number of bytes
+     */
+    long getRasterBytesInUse();
+
+    /**
+     * Returns the memory that closed off-heap rasters keep in the pool for reuse
+     * @return the number of bytes
+     */
+    long getRasterBytesPooled();
+}
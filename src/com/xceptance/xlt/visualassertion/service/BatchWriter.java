@@ -0,0 +1,122 @@
+package com.xceptance.xlt.visualassertion.service;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Writes the frames of one side of a connection on its own thread. All frames that are waiting when the thread gets
+ * to write are written at once and flushed together, so the frames that many threads send at about the same time
+ * share their network packets, and no thread waits for the network.
+ */
+final class BatchWriter implements AutoCloseable
+{
+    /**
+     * A frame of the protocol
+     */
+    interface Frame
+    {
+        /**
+         * Writes the frame to the stream
+         * @param out The stream of the connection
+         * @throws IOException if writing fails
+         */
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    // tells the thread to stop
+    private static final Frame END = out -> {
+    };
+
+    private final DataOutputStream out;
+
+    private final BlockingQueue<Frame> frames = new LinkedBlockingQueue<>();
+
+    private final Consumer<IOException> failed;
+
+    private final AtomicLong batches = new AtomicLong();
+
+    private final Thread thread;
+
+    /**
+     * Starts to write
+     * @param out The stream of the connection
+     * @param name The name of the thread
+     * @param failed Called on the thread if writing failed, nothing is written afterwards
+     */
+    BatchWriter(final OutputStream out, final String name, final Consumer<IOException> failed)
+    {
+        this.out = new DataOutputStream(new BufferedOutputStream(out, 64 * 1024));
+        this.failed = failed;
+        this.thread = new Thread(this::run, name);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Queues a frame, it is written as soon as the thread gets to it
+     * @param frame The frame
+     */
+    void send(final Frame frame)
+    {
+        frames.add(frame);
+    }
+
+    /**
+     * Returns how often the thread flushed
+     * @return the number of batches
+     */
+    long getBatchCount()
+    {
+        return batches.get();
+    }
+
+    /**
+     * Stops the thread once the queued frames are written
+     */
+    @Override
+    public void close()
+    {
+        frames.add(END);
+    }
+
+    private void run()
+    {
+        final List<Frame> batch = new ArrayList<>();
+        try
+        {
+            while (true)
+            {
+                batch.add(frames.take());
+                frames.drainTo(batch, ServiceProtocol.MAX_BATCH - 1);
+                for (final Frame frame : batch)
+                {
+                    if (frame == END)
+                    {
+                        out.flush();
+                        return;
+                    }
+                    frame.write(out);
+                }
+                out.flush();
+                batches.incrementAndGet();
+                batch.clear();
+            }
+        }
+        catch (final IOException e)
+        {
+            failed.accept(e);
+        }
+        catch (final InterruptedException e)
+        {
+            // the connection is closed
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package com.xceptance.xlt.visualassertion.service;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The connection of this JVM to a comparison service. All visual assertions share it: each request is sent as soon as
+ * the writer thread gets to it, together with the requests of other virtual users that wait at that moment, and the
+ * responses come back in the order the service finishes them. A broken connection fails the requests on the wire,
+ * and the next request opens a new one. If the service cannot be reached, the requests fail right away for
+ * {@link #CONNECT_BACKOFF} ms before the next attempt, so a service that is down does not hold up every assertion for
+ * the connect timeout.
+ */
+public final class ComparisonClient implements AutoCloseable
+{
+    private static final int CONNECT_TIMEOUT = 5000;
+
+    /**
+     * The time in ms after a failed attempt to connect during which no new attempt is made
+     */
+    public static final int CONNECT_BACKOFF = 10000;
+
+    // the services by address, guarded by itself
+    private static final Map<String, Endpoint> ENDPOINTS = new HashMap<>();
+
+    private final Socket socket;
+
+    private final DataInputStream in;
+
+    private final BatchWriter writer;
+
+    private final Map<Integer, CompletableFuture<ComparisonResponse>> pending = new ConcurrentHashMap<>();
+
+    private final AtomicInteger ids = new AtomicInteger();
+
+    // why the connection is closed, null while it is open
+    private volatile IOException failure;
+
+    /**
+     * Connects to a comparison service
+     * @param host The host of the service
+     * @param port The port of the service
+     * @throws IOException if the service cannot be reached
+     */
+    public ComparisonClient(final String host, final int port) throws IOException
+    {
+        socket = new Socket();
+        try
+        {
+            socket.setTcpNoDelay(true);
+            socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT);
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024));
+        }
+        catch (final IOException e)
+        {
+            socket.close();
+            throw e;
+        }
+
+        final String name = "visualassertion-client-" + host + ":" + port;
+        writer = new BatchWriter(socket.getOutputStream(), name + "-writer", this::fail);
+        writer.send(out -> out.writeInt(ServiceProtocol.MAGIC));
+
+        final Thread reader = new Thread(this::read, name + "-reader");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Returns the client of this JVM for a service, a new connection is opened if there is none or it broke
+     * @param address The address of the service, host:port
+     * @return the client
+     * @throws IOException if the service cannot be reached
+     * @throws IllegalArgumentException if the address is not valid
+     */
+    public static ComparisonClient of(final String address) throws IOException
+    {
+        final int colon = address.lastIndexOf(':');
+        final int port;
+        try
+        {
+            port = Integer.parseInt(address.substring(colon + 1).trim());
+        }
+        catch (final NumberFormatException e)
+        {
+            throw new IllegalArgumentException("Expected host:port, but got: " + address);
+        }
+        if (colon <= 0 || port <= 0 || port > 65535)
+        {
+            throw new IllegalArgumentException("Expected host:port, but got: " + address);
+        }
+
+        final Endpoint endpoint;
+        synchronized (ENDPOINTS)
+        {
+            endpoint = ENDPOINTS.computeIfAbsent(address, a -> new Endpoint());
+        }
+
+        // Only the assertions for the same service wait for the connection, and only one of them connects
+        synchronized (endpoint)
+        {
+            if (endpoint.client != null && endpoint.client.isOpen())
+            {
+                return endpoint.client;
+            }
+            if (endpoint.failure != null && System.nanoTime() - endpoint.failedAt < TimeUnit.MILLISECONDS.toNanos(CONNECT_BACKOFF))
+            {
+                throw new IOException("The comparison service could not be reached recently: " + endpoint.failure.getMessage());
+            }
+
+            try
+            {
+                endpoint.client = new ComparisonClient(address.substring(0, colon).trim(), port);
+                endpoint.failure = null;
+            }
+            catch (final IOException e)
+            {
+                endpoint.client = null;
+                endpoint.failure = e;
+                endpoint.failedAt = System.nanoTime();
+                throw e;
+            }
+
+            return endpoint.client;
+        }
+    }
+
+    /**
+     * Sends a request to the service
+     * @param request The request
+     * @return the future response, it fails with an {@link IOException} if the connection broke, cancel it to stop
+     *         waiting for the response
+     */
+    public CompletableFuture<ComparisonResponse> compare(final ComparisonRequest request)
+    {
+        final CompletableFuture<ComparisonResponse> response = new CompletableFuture<>();
+        final int id = ids.incrementAndGet();
+        pending.put(id, response);
+        // a cancelled request is forgotten, its response is dropped when it comes
+        response.whenComplete((r, e) -> pending.remove(id));
+
+        // the connection might have broken meanwhile, then nobody else fails the request
+        final IOException e = failure;
+        if (e != null)
+        {
+            pending.remove(id);
+            response.completeExceptionally(e);
+            return response;
+        }
+
+        writer.send(out -> request.write(out, id));
+        return response;
+    }
+
+    /**
+     * Returns whether the connection is open
+     * @return true if requests can be sent
+     */
+    public boolean isOpen()
+    {
+        return failure == null;
+    }
+
+    /**
+     * Returns the number of requests that wait for their response
+     * @return the number of requests
+     */
+    public int getPendingCount()
+    {
+        return pending.size();
+    }
+
+    /**
+     * Returns how often the requests were written to the connection, each time together with the requests that
+     * waited to be sent
+     * @return the number of batches
+     */
+    public long getBatchCount()
+    {
+        return writer.getBatchCount();
+    }
+
+    /**
+     * Closes the connection, the requests on the wire fail
+     */
+    @Override
+    public void close()
+    {
+        fail(new IOException("The connection to the comparison service was closed"));
+    }
+
+    private void read()
+    {
+        try
+        {
+            while (true)
+            {
+                final int id = in.readInt();
+                final ComparisonResponse response = ComparisonResponse.read(in);
+                final CompletableFuture<ComparisonResponse> future = pending.remove(id);
+                if (future != null)
+                {
+                    future.complete(response);
+                }
+            }
+        }
+        catch (final EOFException e)
+        {
+            fail(new IOException("The comparison service closed the connection"));
+        }
+        catch (final IOException e)
+        {
+            fail(e);
+        }
+    }
+
+    private void fail(final IOException e)
+    {
+        synchronized (this)
+        {
+            if (failure != null)
+            {
+                return;
+            }
+            failure = e;
+        }
+
+        writer.close();
+        try
+        {
+            socket.close();
+        }
+        catch (final IOException closing)
+        {
+            // closed anyway
+        }
+
+        for (final Integer id : new ArrayList<>(pending.keySet()))
+        {
+            final CompletableFuture<ComparisonResponse> future = pending.remove(id);
+            if (future != null)
+            {
+                future.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * The connection to one service and the last failed attempt to connect, guarded by itself
+     */
+    private static final class Endpoint
+    {
+        ComparisonClient client;
+
+        IOException failure;
+
+        long failedAt;
+    }
+}
@@ -0,0 +1,186 @@
+package com.xceptance.xlt.visualassertion.service;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import com.xceptance.xlt.visualassertion.algorithm.ColorFuzzy;
+import com.xceptance.xlt.visualassertion.algorithm.ComparisonAlgorithm;
+import com.xceptance.xlt.visualassertion.algorithm.ComparisonType;
+import com.xceptance.xlt.visualassertion.algorithm.ExactMatch;
+import com.xceptance.xlt.visualassertion.algorithm.PixelFuzzy;
+import com.xceptance.xlt.visualassertion.util.FailureRenderer;
+
+/**
+ * A screenshot the comparison service shall compare. The reference image and the mask are referred to by their path
+ * relative to the result directory, the service reads them from its own copy of the directory. The images of the
+ * differences are rendered by the service as the assertion would render them.
+ */
+public final class ComparisonRequest
+{
+    private final String reference;
+
+    private final String mask;
+
+    private final byte[] screenshot;
+
+    private final ComparisonAlgorithm algorithm;
+
+    private final FailureRenderer renderer;
+
+    /**
+     * Creates a request
+     * @param reference The path of the reference image relative to the result directory, with / as separator
+     * @param mask The path of the mask relative to the result directory, with / as separator
+     * @param screenshot The encoded screenshot
+     * @param algorithm The algorithm of the comparison
+     * @param renderer How the images of the differences are rendered if the screenshot does not match
+     */
+    public ComparisonRequest(final String reference, final String mask, final byte[] screenshot, final ComparisonAlgorithm algorithm,
+                             final FailureRenderer renderer)
+    {
+        this.reference = reference;
+        this.mask = mask;
+        this.screenshot = screenshot;
+        this.algorithm = algorithm;
+        this.renderer = renderer;
+    }
+
+    /**
+     * Returns the path of the reference image
+     * @return the path relative to the result directory
+     */
+    public String getReference()
+    {
+        return reference;
+    }
+
+    /**
+     * Returns the path of the mask
+     * @return the path relative to the result directory
+     */
+    public String getMask()
+    {
+        return mask;
+    }
+
+    /**
+     * Returns the screenshot
+     * @return the encoded screenshot
+     */
+    public byte[] getScreenshot()
+    {
+        return screenshot;
+    }
+
+    /**
+     * Returns the algorithm of the comparison
+     * @return the algorithm
+     */
+    public ComparisonAlgorithm getAlgorithm()
+    {
+        return algorithm;
+    }
+
+    /**
+     * Returns how the images of the differences are rendered
+     * @return the renderer
+     */
+    public FailureRenderer getRenderer()
+    {
+        return renderer;
+    }
+
+    void write(final DataOutputStream out, final int id) throws IOException
+    {
+        out.writeInt(id);
+        out.writeUTF(reference);
+        out.writeUTF(mask);
+        out.writeUTF(algorithm.getType().name());
+        out.writeDouble(algorithm.getPixelTolerance());
+        out.writeDouble(algorithm.getColorTolerance());
+        out.writeInt(algorithm.getFuzzyBlockSize());
+        out.writeUTF(renderer.getMarking().name());
+        out.writeInt(renderer.getMarkBlockSizeX());
+        out.writeInt(renderer.getMarkBlockSizeY());
+        out.writeBoolean(renderer.isDifferenceImage());
+        out.writeUTF(renderer.getLayout().name());
+        out.writeInt(renderer.getMargin());
+        out.writeInt(renderer.getMaxRegions());
+        out.writeInt(renderer.getScale());
+        out.writeUTF(renderer.getEncoderName());
+        out.writeInt(renderer.getPngLevel());
+        out.writeUTF(renderer.getPngFilter());
+        out.writeInt(screenshot.length);
+        out.write(screenshot);
+    }
+
+    /**
+     * Reads a request, the id of the request has been read already
+     */
+    static ComparisonRequest read(final DataInputStream in) throws IOException
+    {
+        final String reference = in.readUTF();
+        final String mask = in.readUTF();
+        final String type = in.readUTF();
+        final double pixelTolerance = in.readDouble();
+        final double colorTolerance = in.readDouble();
+        final int fuzzyBlockSize = in.readInt();
+        final String marking = in.readUTF();
+        final int markBlockSizeX = in.readInt();
+        final int markBlockSizeY = in.readInt();
+        final boolean differenceImage = in.readBoolean();
+        final String layout = in.readUTF();
+        final int margin = in.readInt();
+        final int maxRegions = in.readInt();
+        final int scale = in.readInt();
+        final String encoderName = in.readUTF();
+        final int pngLevel = in.readInt();
+        final String pngFilter = in.readUTF();
+        final int length = in.readInt();
+        if (length < 0 || length > ServiceProtocol.MAX_SCREENSHOT_BYTES)
+        {
+            throw new IOException("Invalid length of a screenshot: " + length);
+        }
+        final byte[] screenshot = new byte[length];
+        in.readFully(screenshot);
+
+        final ComparisonType comparisonType;
+        try
+        {
+            comparisonType = ComparisonType.valueOf(type);
+        }
+        catch (final IllegalArgumentException e)
+        {
+            throw new IOException("Unknown algorithm: " + type);
+        }
+
+        final ComparisonAlgorithm algorithm;
+        switch (comparisonType)
+        {
+        case COLORFUZZY:
+            algorithm = new ColorFuzzy(colorTolerance);
+            break;
+        case PIXELFUZZY:
+            algorithm = new PixelFuzzy(pixelTolerance, colorTolerance, fuzzyBlockSize);
+            break;
+        default:
+            algorithm = new ExactMatch();
+            break;
+        }
+
+        final FailureRenderer renderer;
+        try
+        {
+            renderer = new FailureRenderer(FailureRenderer.Marking.valueOf(marking), markBlockSizeX, markBlockSizeY, differenceImage,
+                                           FailureRenderer.Layout.valueOf(layout), margin, maxRegions, scale, encoderName, pngLevel,
+                                           pngFilter);
+        }
+        catch (final IllegalArgumentException e)
+        {
+            throw new IOException("Invalid rendering of the differences: " + e.getMessage());
+        }
+
+        return new ComparisonRequest(reference, mask, screenshot, algorithm, renderer);
+    }
+}
@@ -0,0 +1,199 @@
+package com.xceptance.xlt.visualassertion.service;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The verdict of the comparison service on a screenshot, together with the images of the differences it stored
+ */
+public final class ComparisonResponse
+{
+    /**
+     * The outcome of a request
+     */
+    public enum Status
+    {
+        /**
+         * The screenshot matches the reference image
+         */
+        EQUAL,
+
+        /**
+         * The screenshot does not match the reference image
+         */
+        DIFFERENT,
+
+        /**
+         * The service does not have the reference image
+         */
+        MISSING,
+
+        /**
+         * The service could not compare, see the message
+         */
+        ERROR
+    }
+
+    private final Status status;
+
+    private final long pixelCount;
+
+    private final int differenceCount;
+
+    private final long maskedPixelCount;
+
+    private final String message;
+
+    private final List<String> artifacts;
+
+    /**
+     * Creates the response to a request that was compared
+     * @param equal Whether the screenshot matches the reference image
+     * @param pixelCount The number of compared pixels
+     * @param differenceCount The number of different pixels
+     * @param maskedPixelCount The number of masked pixels
+     * @param artifacts The paths of the images of the differences on the host of the service
+     */
+    ComparisonResponse(final boolean equal, final long pixelCount, final int differenceCount, final long maskedPixelCount,
+                       final List<String> artifacts)
+    {
+        this(equal ? Status.EQUAL : Status.DIFFERENT, pixelCount, differenceCount, maskedPixelCount, "", artifacts);
+    }
+
+    /**
+     * Creates the response to a request that was not compared
+     * @param status Why the request was not compared
+     * @param message The reason
+     */
+    ComparisonResponse(final Status status, final String message)
+    {
+        this(status, 0, 0, 0, message, Collections.<String> emptyList());
+    }
+
+    private ComparisonResponse(final Status status, final long pixelCount, final int differenceCount, final long maskedPixelCount,
+                               final String message, final List<String> artifacts)
+    {
+        this.status = status;
+        this.pixelCount = pixelCount;
+        this.differenceCount = differenceCount;
+        this.maskedPixelCount = maskedPixelCount;
+        this.message = message;
+        this.artifacts = Collections.unmodifiableList(artifacts);
+    }
+
+    /**
+     * Returns the outcome of the request
+     * @return the status
+     */
+    public Status getStatus()
+    {
+        return status;
+    }
+
+    /**
+     * Returns whether the screenshot was compared
+     * @return true if the service has a verdict
+     */
+    public boolean isCompared()
+    {
+        return status == Status.EQUAL || status == Status.DIFFERENT;
+    }
+
+    /**
+     * Returns whether the screenshot matches the reference image
+     * @return true if the images are similar
+     */
+    public boolean isEqual()
+    {
+        return status == Status.EQUAL;
+    }
+
+    /**
+     * Returns the number of compared pixels
+     * @return the number of pixels
+     */
+    public long getPixelCount()
+    {
+        return pixelCount;
+    }
+
+    /**
+     * Returns the number of different pixels
+     * @return the number of differences
+     */
+    public int getDifferenceCount()
+    {
+        return differenceCount;
+    }
+
+    /**
+     * Returns the share of the pixels that are masked
+     * @return the ratio [0-1]
+     */
+    public double getMaskedRatio()
+    {
+        return pixelCount == 0 ? 0 : (double) maskedPixelCount / pixelCount;
+    }
+
+    /**
+     * Returns why the screenshot was not compared
+     * @return the message, empty if it was compared
+     */
+    public String getMessage()
+    {
+        return message;
+    }
+
+    /**
+     * Returns the images of the differences the service stored
+     * @return the paths on the host of the service, empty if the screenshot matches
+     */
+    public List<String> getArtifacts()
+    {
+        return artifacts;
+    }
+
+    void write(final DataOutputStream out, final int id) throws IOException
+    {
+        out.writeInt(id);
+        out.writeByte(status.ordinal());
+        out.writeLong(pixelCount);
+        out.writeInt(differenceCount);
+        out.writeLong(maskedPixelCount);
+        out.writeUTF(message);
+        out.writeInt(artifacts.size());
+        for (final String artifact : artifacts)
+        {
+            out.writeUTF(artifact);
+        }
+    }
+
+    /**
+     * Reads a response, the id of the request has been read already
+     */
+    static ComparisonResponse read(final DataInputStream in) throws IOException
+    {
+        final int ordinal = in.readByte();
+        if (ordinal < 0 || ordinal >= Status.values().length)
+        {
+            throw new IOException("Invalid status of a response: " + ordinal);
+        }
+        final Status status = Status.values()[ordinal];
+        final long pixelCount = in.readLong();
+        final int differenceCount = in.readInt();
+        final long maskedPixelCount = in.readLong();
+        final String message = in.readUTF();
+        final int count = in.readInt();
+        final List<String> artifacts = new ArrayList<>();
+        for (int i = 0; i < count; i++)
+        {
+            artifacts.add(in.readUTF());
+        }
+
+        return new ComparisonResponse(status, pixelCount, differenceCount, maskedPixelCount, message, artifacts);
+    }
+}
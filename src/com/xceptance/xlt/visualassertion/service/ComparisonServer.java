@@ -0,0 +1,427 @@
+package com.xceptance.xlt.visualassertion.service;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.xceptance.xlt.visualassertion.io.ImageLoader;
+import com.xceptance.xlt.visualassertion.util.ComparisonResult;
+import com.xceptance.xlt.visualassertion.util.FailureRenderer;
+import com.xceptance.xlt.visualassertion.util.ImageComparison;
+import com.xceptance.xlt.visualassertion.util.MaskImage;
+import com.xceptance.xlt.visualassertion.util.PhaseTimer;
+
+/**
+ * Compares screenshots for the visual assertions of other JVMs, so the comparisons do not take the processors of the
+ * load agents from the virtual users. The service reads the reference images and masks from its own copy of the
+ * result directory and keeps the most recently used ones decoded, a changed file is read again. The images of the
+ * differences are rendered as the request asks and stored in the artifact directory of the service, the response
+ * refers to them.
+ * <p>
+ * Each connection reads its requests on one thread and hands them to the pool of comparison threads, the responses
+ * are sent as soon as their comparison is done, so a client can send the requests of all its virtual users without
+ * waiting for the earlier ones.
+ */
+public final class ComparisonServer implements AutoCloseable
+{
+    private final File resultDirectory;
+
+    private final File artifactDirectory;
+
+    private final int cacheSize;
+
+    private final ThreadPoolExecutor workers;
+
+    // the decoded reference images and masks by the path of the reference image, guarded by itself
+    private final Map<File, Baseline> baselines;
+
+    private final List<Socket> connections = new ArrayList<>();
+
+    private final AtomicLong requests = new AtomicLong();
+
+    private final AtomicLong baselineLoads = new AtomicLong();
+
+    private ServerSocket serverSocket;
+
+    /**
+     * Creates a service, start it to accept connections
+     * @param resultDirectory The result directory with the reference images and masks
+     * @param artifactDirectory The directory for the images of the differences
+     * @param threads The number of comparisons at the same time
+     * @param cacheSize The number of reference images and masks that are kept decoded
+     * @throws IOException if a directory cannot be resolved
+     */
+    public ComparisonServer(final File resultDirectory, final File artifactDirectory, final int threads, final int cacheSize)
+        throws IOException
+    {
+        this.resultDirectory = resultDirectory.getCanonicalFile();
+        this.artifactDirectory = artifactDirectory.getCanonicalFile();
+        this.cacheSize = Math.max(1, cacheSize);
+        this.baselines = new LinkedHashMap<>(16, 0.75f, true);
+
+        final int size = Math.max(1, threads);
+        this.workers = new ThreadPoolExecutor(size, size, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), new ThreadFactory()
+        {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(final Runnable runnable)
+            {
+                final Thread thread = new Thread(runnable, "visualassertion-service-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Runs a comparison service until the JVM is stopped
+     * @param args The port, optionally prefixed with the address to listen on, the result directory, and optionally
+     *            the artifact directory, the number of threads and the number of cached baselines
+     * @throws IOException if the service cannot be started
+     * @throws InterruptedException if the service is interrupted
+     */
+    public static void main(final String[] args) throws IOException, InterruptedException
+    {
+        if (args.length < 2)
+        {
+            System.err.println("Usage: ComparisonServer [<bindAddress>:]<port> <resultDirectory> [<artifactDirectory>] [<threads>] [<cacheSize>]");
+            System.err.println("The service has no authentication, it listens on the loopback interface unless a bind address is given.");
+            System.exit(1);
+        }
+
+        final int colon = args[0].lastIndexOf(':');
+        final String bindAddress = colon >= 0 ? args[0].substring(0, colon) : null;
+        final int port = Integer.parseInt(args[0].substring(colon + 1));
+        final File resultDirectory = new File(args[1]);
+        final File artifactDirectory = args.length > 2 ? new File(args[2]) : new File(resultDirectory, "service");
+        final int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+        final int cacheSize = args.length > 4 ? Integer.parseInt(args[4]) : 50;
+
+        final ComparisonServer server = new ComparisonServer(resultDirectory, artifactDirectory, threads, cacheSize);
+        server.start(bindAddress, port);
+        System.out.println("Comparison service listening on " + server.serverSocket.getLocalSocketAddress());
+
+        // the threads of the service do not keep the JVM alive
+        Thread.currentThread().join();
+    }
+
+    /**
+     * Starts to accept connections on the loopback interface only
+     * @param port The port, 0 for any free one
+     * @throws IOException if the port cannot be bound
+     */
+    public void start(final int port) throws IOException
+    {
+        start(null, port);
+    }
+
+    /**
+     * Starts to accept connections. The service does not authenticate its clients, listen on other interfaces than
+     * the loopback only in a trusted network.
+     * @param bindAddress The address to listen on, e.g. 0.0.0.0 for all interfaces, null for the loopback interface
+     * @param port The port, 0 for any free one
+     * @throws IOException if the port cannot be bound
+     */
+    public synchronized void start(final String bindAddress, final int port) throws IOException
+    {
+        final InetAddress address = bindAddress != null ? InetAddress.getByName(bindAddress) : InetAddress.getLoopbackAddress();
+        serverSocket = new ServerSocket();
+        serverSocket.bind(new InetSocketAddress(address, port));
+
+        final Thread acceptor = new Thread(this::accept, "visualassertion-service-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Returns the port the service listens on
+     * @return the port
+     */
+    public synchronized int getPort()
+    {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Returns the number of requests the service received
+     * @return the number of requests
+     */
+    public long getRequestCount()
+    {
+        return requests.get();
+    }
+
+    /**
+     * Returns how often a reference image and its mask were decoded
+     * @return the number of decoded baselines
+     */
+    public long getBaselineLoads()
+    {
+        return baselineLoads.get();
+    }
+
+    /**
+     * Stops to accept connections and closes the open ones
+     */
+    @Override
+    public synchronized void close()
+    {
+        try
+        {
+            if (serverSocket != null)
+            {
+                serverSocket.close();
+            }
+            synchronized (connections)
+            {
+                for (final Socket socket : connections)
+                {
+                    socket.close();
+                }
+                connections.clear();
+            }
+        }
+        catch (final IOException e)
+        {
+            // closed anyway
+        }
+        workers.shutdownNow();
+    }
+
+    /**
+     * Compares a screenshot to its reference image
+     * @param request The request
+     * @return the verdict
+     */
+    ComparisonResponse compare(final ComparisonRequest request)
+    {
+        final long number = requests.incrementAndGet();
+        try
+        {
+            final File referenceFile = resolve(request.getReference());
+            final File maskFile = resolve(request.getMask());
+            if (!referenceFile.isFile())
+            {
+                return new ComparisonResponse(ComparisonResponse.Status.MISSING, "No reference image " + request.getReference());
+            }
+
+            final CompletableFuture<BufferedImage> screenshotLoad = ImageLoader.decode(request.getScreenshot());
+            final Baseline baseline = getBaseline(referenceFile, maskFile);
+            final BufferedImage screenshot = ImageLoader.get(screenshotLoad);
+
+            final ComparisonResult result = new ImageComparison(baseline.reference).compare(screenshot, baseline.mask,
+                                                                                          request.getAlgorithm());
+            final List<String> artifacts = new ArrayList<>();
+            if (!result.isEqual())
+            {
+                // Named after the resolved reference image, so the name cannot leave the artifact directory either, and
+                // numbered, the same screenshot fails for many virtual users
+                final String reference = resultDirectory.toPath().relativize(referenceFile.toPath()).toString();
+                final String name = reference.substring(0, reference.length() - (reference.endsWith(".png") ? 4 : 0))
+                                    + "-" + number;
+                final File base = artifactFile(name);
+                base.getParentFile().mkdirs();
+
+                final FailureRenderer renderer = request.getRenderer();
+                for (final File file : renderer.write(result, screenshot, baseline.reference, base.getParentFile(), base.getName(),
+                                                      new PhaseTimer()))
+                {
+                    artifacts.add(file.getPath());
+                }
+            }
+
+            return new ComparisonResponse(result.isEqual(), result.getPixelCount(), result.getDifferenceCount(),
+                                          result.getMaskedPixelCount(), artifacts);
+        }
+        catch (final IOException | RuntimeException e)
+        {
+            return new ComparisonResponse(ComparisonResponse.Status.ERROR, String.valueOf(e.getMessage()));
+        }
+    }
+
+    private void accept()
+    {
+        try
+        {
+            while (true)
+            {
+                final Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                synchronized (connections)
+                {
+                    connections.add(socket);
+                }
+
+                final Thread reader = new Thread(() -> serve(socket), "visualassertion-service-" + socket.getRemoteSocketAddress());
+                reader.setDaemon(true);
+                reader.start();
+            }
+        }
+        catch (final IOException e)
+        {
+            // the service is closed
+        }
+    }
+
+    /**
+     * Reads the requests of a connection until it is closed
+     */
+    private void serve(final Socket socket)
+    {
+        try (final Socket s = socket;
+             final BatchWriter writer = new BatchWriter(socket.getOutputStream(), Thread.currentThread().getName() + "-writer", e -> {
+                 try
+                 {
+                     socket.close();
+                 }
+                 catch (final IOException closing)
+                 {
+                     // closed anyway
+                 }
+             }))
+        {
+            final DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024));
+            if (in.readInt() != ServiceProtocol.MAGIC)
+            {
+                return;
+            }
+
+            while (true)
+            {
+                final int id = in.readInt();
+                final ComparisonRequest request = ComparisonRequest.read(in);
+                workers.execute(() -> {
+                    final ComparisonResponse response = compare(request);
+                    writer.send(out -> response.write(out, id));
+                });
+            }
+        }
+        catch (final EOFException | SocketException e)
+        {
+            // the client closed the connection
+        }
+        catch (final IOException e)
+        {
+            // the client does not speak the protocol, there is nobody to tell
+        }
+        catch (final RejectedExecutionException e)
+        {
+            // the service is closed
+        }
+        finally
+        {
+            synchronized (connections)
+            {
+                connections.remove(socket);
+            }
+        }
+    }
+
+    /**
+     * Resolves a path relative to the result directory, it must not leave it
+     */
+    private File resolve(final String path) throws IOException
+    {
+        final File file = new File(resultDirectory, path).getCanonicalFile();
+        if (!file.getPath().startsWith(resultDirectory.getPath() + File.separator))
+        {
+            throw new IOException("Not in the result directory: " + path);
+        }
+
+        return file;
+    }
+
+    /**
+     * Returns the decoded reference image and mask, they are decoded again if one of the files changed
+     */
+    private Baseline getBaseline(final File referenceFile, final File maskFile) throws IOException
+    {
+        final String version = version(referenceFile, maskFile);
+        synchronized (baselines)
+        {
+            final Baseline baseline = baselines.get(referenceFile);
+            if (baseline != null && baseline.version.equals(version))
+            {
+                return baseline;
+            }
+        }
+
+        // Comparisons of the same new baseline might decode it at the same time, the last one is kept
+        final CompletableFuture<BufferedImage> maskLoad = ImageLoader.load(maskFile);
+        final BufferedImage reference = ImageLoader.get(ImageLoader.load(referenceFile));
+        final BufferedImage maskImage = ImageLoader.get(maskLoad);
+        final Baseline baseline = new Baseline(version, reference, maskImage != null ? new MaskImage(reference, maskImage) : new MaskImage(reference));
+        baselineLoads.incrementAndGet();
+
+        synchronized (baselines)
+        {
+            baselines.put(referenceFile, baseline);
+            while (baselines.size() > cacheSize)
+            {
+                baselines.remove(baselines.keySet().iterator().next());
+            }
+        }
+
+        return baseline;
+    }
+
+    private static String version(final File referenceFile, final File maskFile)
+    {
+        return referenceFile.lastModified() + "-" + referenceFile.length() + "-" + maskFile.lastModified() + "-" + maskFile.length();
+    }
+
+    /**
+     * Resolves the name of the images of a failed comparison in the artifact directory, it must not leave it
+     */
+    private File artifactFile(final String name) throws IOException
+    {
+        final File file = new File(artifactDirectory, name).getCanonicalFile();
+        if (!file.getPath().startsWith(artifactDirectory.getPath() + File.separator))
+        {
+            throw new IOException("Not in the artifact directory: " + name);
+        }
+
+        return file;
+    }
+
+    /**
+     * A decoded reference image and its mask
+     */
+    private static final class Baseline
+    {
+        // the time of the last change and the size of the files
+        final String version;
+
+        final BufferedImage reference;
+
+        final MaskImage mask;
+
+        Baseline(final String version, final BufferedImage reference, final MaskImage mask)
+        {
+            this.version = version;
+            this.reference = reference;
+            this.mask = mask;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.xceptance.xlt.visualassertion.service;
+
+/**
+ * The binary protocol between the visual assertions and the comparison service. A connection starts with
+ * {@link #MAGIC} sent by the client, then both sides send frames at any time: the client a request, which starts with
+ * its id, the service a response with the id of its request. Requests are answered in the order their comparisons
+ * finish, so a client keeps many requests on the wire at once.
+ */
+final class ServiceProtocol
+{
+    /**
+     * The first bytes of a connection, "VAS" and the version of the protocol
+     */
+    static final int MAGIC = 0x56415302;
+
+    /**
+     * The largest screenshot the service accepts
+     */
+    static final int MAX_SCREENSHOT_BYTES = 256 * 1024 * 1024;
+
+    /**
+     * The maximum number of frames that are written before the stream is flushed
+     */
+    static final int MAX_BATCH = 64;
+
+    private ServiceProtocol()
+    {
+    }
+}
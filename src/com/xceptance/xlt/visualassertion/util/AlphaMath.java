@@ -0,0 +1,122 @@
+package com.xceptance.xlt.visualassertion.util;
+
+/**
+ * Integer alpha compositing that produces exactly the same pixels as filling with a translucent color via Graphics2D
+ * on a TYPE_INT_ARGB image. Uses the same 8 bit multiplication and division tables as the Java2D software loops, so
+ * rasters can be blended without any Graphics or Color objects.
+ */
+final class AlphaMath
+{
+    // MUL8[a][b] == round(a * b / 255)
+    private static final byte[] MUL8 = new byte[256 * 256];
+
+    // DIV8[a][b] == round(b * 255 / a), clamped to 255
+    private static final byte[] DIV8 = new byte[256 * 256];
+
+    static
+    {
+        for (int i = 1; i < 256; i++)
+        {
+            // i * 0x010101 plus rounding factor, the same approximation as in the Java2D tables
+            final long inc = (i << 16) + (i << 8) + i;
+            long val = inc + (1 << 23);
+            for (int j = 1; j < 256; j++)
+            {
+                MUL8[i << 8 | j] = (byte) (val >> 24);
+                val += inc;
+            }
+        }
+
+        for (int i = 1; i < 256; i++)
+        {
+            final long inc = ((0xFFL << 24) + i / 2) / i;
+            long val = 1 << 23;
+            for (int j = 0; j < i; j++)
+            {
+                DIV8[i << 8 | j] = (byte) (val >> 24);
+                val += inc;
+            }
+            for (int j = i; j < 256; j++)
+            {
+                DIV8[i << 8 | j] = (byte) 255;
+            }
+        }
+    }
+
+    private AlphaMath()
+    {
+    }
+
+    /**
+     * Multiplies two 8 bit values as if they were fractions of 255
+     * @param a first value 0-255
+     * @param b second value 0-255
+     * @return a * b / 255 rounded
+     */
+    static int mul8(final int a, final int b)
+    {
+        return MUL8[a << 8 | b] & 0xFF;
+    }
+
+    /**
+     * Divides an 8 bit value by an alpha value as if both were fractions of 255
+     * @param v the value 0-255
+     * @param a the alpha 1-255
+     * @return v * 255 / a rounded and clamped to 255
+     */
+    static int div8(final int v, final int a)
+    {
+        return DIV8[a << 8 | v] & 0xFF;
+    }
+
+    /**
+     * Paints the source color over the destination pixel (SrcOver rule)
+     * @param dst the destination pixel as non premultiplied ARGB
+     * @param srcArgb the source color as non premultiplied ARGB
+     * @return the resulting pixel as non premultiplied ARGB
+     */
+    static int srcOver(final int dst, final int srcArgb)
+    {
+        final int srcA = srcArgb >>> 24;
+        if (srcA == 0xFF)
+        {
+            return srcArgb;
+        }
+
+        // premultiply the source
+        final int srcR = mul8(srcA, (srcArgb >> 16) & 0xFF);
+        final int srcG = mul8(srcA, (srcArgb >> 8) & 0xFF);
+        final int srcB = mul8(srcA, srcArgb & 0xFF);
+
+        final int dstA = mul8(0xFF - srcA, dst >>> 24);
+        final int resA = srcA + dstA;
+        int resR = srcR;
+        int resG = srcG;
+        int resB = srcB;
+
+        if (dstA != 0)
+        {
+            int dstR = (dst >> 16) & 0xFF;
+            int dstG = (dst >> 8) & 0xFF;
+            int dstB = dst & 0xFF;
+            if (dstA != 0xFF)
+            {
+                dstR = mul8(dstA, dstR);
+                dstG = mul8(dstA, dstG);
+                dstB = mul8(dstA, dstB);
+            }
+            resR += dstR;
+            resG += dstG;
+            resB += dstB;
+        }
+
+        if (resA != 0 && resA < 0xFF)
+        {
+            resR = div8(resR, resA);
+            resG = div8(resG, resA);
+            resB = div8(resB, resA);
+        }
+
+        return resA << 24 | resR << 16 | resG << 8 | resB;
+    }
+}
@@ -0,0 +1,171 @@
+package com.xceptance.xlt.visualassertion.util;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides which visual assertions take and compare their screenshot. In a load test all virtual users visit the same
+ * pages, so checking a representative part of the assertions finds the same problems at a fraction of the cost.
+ * <p>
+ * Whatever the {@link Policy}, each baseline is checked when it is seen for the first time and again as soon as the
+ * interval passed since it was checked last, so no baseline goes unchecked for long. A sampler is shared by all
+ * virtual users of the JVM.
+ */
+public final class AssertionSampler
+{
+    /**
+     * Which assertions are checked
+     */
+    public enum Policy
+    {
+        /**
+         * Every assertion
+         */
+        ALL,
+
+        /**
+         * A random share of the assertions
+         */
+        RANDOM,
+
+        /**
+         * Every n-th assertion of each action
+         */
+        ACTION,
+
+        /**
+         * One assertion per baseline and interval
+         */
+        WINDOW
+    }
+
+    private static final AtomicLong SAMPLED = new AtomicLong();
+
+    private static final AtomicLong SKIPPED = new AtomicLong();
+
+    private static AssertionSampler shared;
+
+    private final Policy policy;
+
+    private final double percentage;
+
+    private final int every;
+
+    private final long intervalMillis;
+
+    // the number of assertions per action
+    private final Map<String, AtomicLong> actions = new ConcurrentHashMap<>();
+
+    // the time in ms each baseline was checked last
+    private final Map<String, Long> checked = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a sampler
+     * @param policy Which assertions are checked
+     * @param percentage The share of the assertions that are checked in percent [0-100]
+     * @param every Every how many assertions of an action one is checked, at least 1
+     * @param intervalMillis The time in ms after which each baseline is checked again, 0 to only check it when it is
+     *            seen first
+     */
+    public AssertionSampler(final Policy policy, final double percentage, final int every, final long intervalMillis)
+    {
+        this.policy = policy;
+        this.percentage = percentage;
+        this.every = Math.max(1, every);
+        this.intervalMillis = intervalMillis;
+    }
+
+    /**
+     * Returns the sampler of this JVM, a new one is created if the settings changed
+     * @param policy Which assertions are checked
+     * @param percentage The share of the assertions that are checked in percent [0-100]
+     * @param every Every how many assertions of an action one is checked
+     * @param intervalMillis The time in ms after which each baseline is checked again
+     * @return the sampler
+     */
+    public static synchronized AssertionSampler shared(final Policy policy, final double percentage, final int every,
+                                                       final long intervalMillis)
+    {
+        if (shared == null || shared.policy != policy || shared.percentage != percentage || shared.every != every
+            || shared.intervalMillis != intervalMillis)
+        {
+            shared = new AssertionSampler(policy, percentage, every, intervalMillis);
+        }
+
+        return shared;
+    }
+
+    /**
+     * Decides whether an assertion is checked, and counts it
+     * @param action The name of the action, and the region if only a region is compared
+     * @param baseline The path of the reference image
+     * @return true if the screenshot is taken and compared, false if the assertion is skipped
+     */
+    public boolean sample(final String action, final String baseline)
+    {
+        return sample(action, baseline, System.currentTimeMillis());
+    }
+
+    /**
+     * Decides whether an assertion is checked at the given time, and counts it
+     * @param action The name of the action, and the region if only a region is compared
+     * @param baseline The path of the reference image
+     * @param now The current time in ms
+     * @return true if the screenshot is taken and compared, false if the assertion is skipped
+     */
+    public boolean sample(final String action, final String baseline, final long now)
+    {
+        final boolean sampled;
+        switch (policy)
+        {
+        case RANDOM:
+            sampled = ThreadLocalRandom.current().nextDouble() * 100 < percentage;
+            break;
+        case ACTION:
+            sampled = actions.computeIfAbsent(action, a -> new AtomicLong()).getAndIncrement() % every == 0;
+            break;
+        case WINDOW:
+            sampled = false;
+            break;
+        default:
+            sampled = true;
+            break;
+        }
+
+        // a baseline that was not checked for an interval is checked now, whatever the policy says, and only one of
+        // the assertions that arrive at the same time gets it
+        final boolean[] due = new boolean[1];
+        checked.compute(baseline, (b, last) -> {
+            if (sampled || last == null || (intervalMillis > 0 && now - last >= intervalMillis))
+            {
+                due[0] = true;
+                return now;
+            }
+            return last;
+        });
+
+        (due[0] ? SAMPLED : SKIPPED).incrementAndGet();
+
+        return due[0];
+    }
+
+    /**
+     * Returns how many assertions were checked since the start of the JVM
+     * @return the number of checked assertions
+     */
+    public static long getSampledCount()
+    {
+        return SAMPLED.get();
+    }
+
+    /**
+     * Returns how many assertions were skipped since the start of the JVM
+     * @return the number of skipped assertions
+     */
+    public static long getSkippedCount()
+    {
+        return SKIPPED.get();
+    }
+}
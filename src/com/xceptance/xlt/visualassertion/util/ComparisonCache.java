@@ -0,0 +1,226 @@
+package com.xceptance.xlt.visualassertion.util;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.xceptance.xlt.visualassertion.algorithm.ComparisonAlgorithm;
+
+/**
+ * Shares the results of identical comparisons between the virtual users of this JVM. Users on the same page capture
+ * byte-identical screenshots, so a comparison is identified by a hash of the screenshot, the reference image, the mask
+ * and the parameters of the algorithm. The first user compares, users that ask for the same comparison meanwhile wait
+ * for its result, and the results are kept for later users in a cache of limited size that drops the least recently
+ * used ones.
+ * <p>
+ * A {@link ComparisonResult} does not change and holds no images, so it can be shared between threads. A changed
+ * reference image or mask has another key, its old results are dropped from the cache eventually.
+ */
+public final class ComparisonCache
+{
+    // the results and the comparisons that are running, guarded by LOCK
+    private static final Object LOCK = new Object();
+
+    private static int maxEntries;
+
+    private static final Map<String, ComparisonResult> RESULTS = new LinkedHashMap<String, ComparisonResult>(16, 0.75f, true)
+    {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, ComparisonResult> eldest)
+        {
+            return size() > maxEntries;
+        }
+    };
+
+    private static final Map<String, CompletableFuture<ComparisonResult>> FLIGHTS = new HashMap<>();
+
+    private static final AtomicLong HITS = new AtomicLong();
+
+    private static final AtomicLong COALESCED = new AtomicLong();
+
+    private static final AtomicLong MISSES = new AtomicLong();
+
+    private ComparisonCache()
+    {
+    }
+
+    /**
+     * Sets the number of results that are kept, the least recently used ones are dropped if there are more
+     * @param entries The maximum number of results, 0 to keep none
+     */
+    public static void setMaxEntries(final int entries)
+    {
+        synchronized (LOCK)
+        {
+            maxEntries = Math.max(0, entries);
+            if (RESULTS.size() > maxEntries)
+            {
+                RESULTS.clear();
+            }
+        }
+    }
+
+    /**
+     * Creates the key of a comparison. The reference image and the mask are identified by their path, size and time of
+     * the last change, so they are not read for it.
+     * @param screenshot The encoded screenshot
+     * @param reference The file of the reference image
+     * @param mask The file of the mask, which might not exist yet
+     * @param algorithm The algorithm of the comparison
+     * @return the key
+     */
+    public static String key(final byte[] screenshot, final File reference, final File mask, final ComparisonAlgorithm algorithm)
+    {
+        final MessageDigest digest;
+        try
+        {
+            digest = MessageDigest.getInstance("SHA-256");
+        }
+        catch (final NoSuchAlgorithmException e)
+        {
+            // every Java platform has to support it
+            throw new IllegalStateException(e);
+        }
+
+        digest.update(screenshot);
+        final String parameters = reference.getAbsolutePath() + '|' + reference.length() + '|' + reference.lastModified() + '|'
+                                  + mask.getAbsolutePath() + '|' + mask.length() + '|' + mask.lastModified() + '|'
+                                  + algorithm.getType() + '|' + algorithm.getPixelTolerance() + '|'
+                                  + algorithm.getColorTolerance() + '|' + algorithm.getFuzzyBlockSize();
+        digest.update(parameters.getBytes(StandardCharsets.UTF_8));
+
+        return Base64.getEncoder().encodeToString(digest.digest());
+    }
+
+    /**
+     * Joins the comparison with the given key. If the result is known already or another thread is comparing right
+     * now, the result is returned, after waiting for the other thread. Otherwise the caller has to compare and share the
+     * result with {@link Flight#complete(ComparisonResult)}.
+     * @param key The key of the comparison
+     * @return the flight, close it when the comparison is done
+     */
+    public static Flight join(final String key)
+    {
+        final CompletableFuture<ComparisonResult> running;
+        synchronized (LOCK)
+        {
+            final ComparisonResult result = RESULTS.get(key);
+            if (result != null)
+            {
+                HITS.incrementAndGet();
+                return new Flight(null, result, null);
+            }
+
+            running = FLIGHTS.get(key);
+            if (running == null)
+            {
+                MISSES.incrementAndGet();
+                final CompletableFuture<ComparisonResult> flight = new CompletableFuture<>();
+                FLIGHTS.put(key, flight);
+                return new Flight(key, null, flight);
+            }
+        }
+
+        // the other thread always completes the flight, without a result if it could not compare in full
+        COALESCED.incrementAndGet();
+        return new Flight(null, running.join(), null);
+    }
+
+    /**
+     * Returns how often the result of a comparison was found in the cache
+     * @return the number of hits
+     */
+    public static long getHits()
+    {
+        return HITS.get();
+    }
+
+    /**
+     * Returns how often a comparison waited for the same comparison of another thread
+     * @return the number of coalesced comparisons
+     */
+    public static long getCoalescedCount()
+    {
+        return COALESCED.get();
+    }
+
+    /**
+     * Returns how often a comparison had to run because its result was not known
+     * @return the number of misses
+     */
+    public static long getMisses()
+    {
+        return MISSES.get();
+    }
+
+    /**
+     * The part of one assertion in a comparison
+     */
+    public static final class Flight implements AutoCloseable
+    {
+        // the key if this assertion compares for the others, null otherwise
+        private final String key;
+
+        private final ComparisonResult result;
+
+        private final CompletableFuture<ComparisonResult> flight;
+
+        private Flight(final String key, final ComparisonResult result, final CompletableFuture<ComparisonResult> flight)
+        {
+            this.key = key;
+            this.result = result;
+            this.flight = flight;
+        }
+
+        /**
+         * Returns the result of the comparison of another assertion
+         * @return the result, null if this assertion has to compare itself
+         */
+        public ComparisonResult getResult()
+        {
+            return result;
+        }
+
+        /**
+         * Shares the result of the comparison with the waiting assertions and keeps it for later ones, does nothing
+         * unless this assertion compares for the others
+         * @param comparisonResult The result, null if it must not be shared, e.g. as it was compared at a lower
+         *            resolution
+         */
+        public void complete(final ComparisonResult comparisonResult)
+        {
+            if (key == null || flight.isDone())
+            {
+                return;
+            }
+
+            synchronized (LOCK)
+            {
+                FLIGHTS.remove(key);
+                if (comparisonResult != null && maxEntries > 0)
+                {
+                    RESULTS.put(key, comparisonResult);
+                }
+            }
+            flight.complete(comparisonResult);
+        }
+
+        /**
+         * Lets the waiting assertions compare themselves if no result was shared, e.g. as the comparison failed
+         */
+        @Override
+        public void close()
+        {
+            complete(null);
+        }
+    }
+}
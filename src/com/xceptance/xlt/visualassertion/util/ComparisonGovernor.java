@@ -0,0 +1,292 @@
+package com.xceptance.xlt.visualassertion.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the comparisons that run at the same time in this JVM, and the memory their images take. When many virtual
+ * users fail at once, each of them would otherwise compare, mark and encode full page images at the same moment and
+ * distort the response times of all other users of the agent.
+ * <p>
+ * A comparison that does not fit into the limits is handled as set by its {@link Policy}: it waits, it is compared at
+ * a lower resolution, or it is skipped. A single comparison that is bigger than the memory limit runs as soon as no
+ * other comparison holds memory. A comparison at a lower resolution only gets around the memory limit, it still waits
+ * for one of the comparisons that may run at the same time.
+ */
+public final class ComparisonGovernor
+{
+    /**
+     * What to do with a comparison that does not fit into the limits
+     */
+    public enum Policy
+    {
+        /**
+         * Wait until the other comparisons are done
+         */
+        QUEUE,
+
+        /**
+         * Compare at a lower resolution as soon as fewer comparisons than allowed run
+         */
+        DEGRADE,
+
+        /**
+         * Do not compare at all
+         */
+        SKIP
+    }
+
+    /**
+     * How a comparison was admitted
+     */
+    public enum Mode
+    {
+        /**
+         * Compare at full resolution
+         */
+        FULL,
+
+        /**
+         * Compare at a lower resolution
+         */
+        DEGRADED,
+
+        /**
+         * Do not compare
+         */
+        SKIPPED
+    }
+
+    // the limits and the comparisons that hold a permit, guarded by LOCK
+    private static final Object LOCK = new Object();
+
+    private static int maxComparisons;
+
+    private static long maxBytes;
+
+    private static int comparisons;
+
+    private static long bytes;
+
+    private static final AtomicLong QUEUED = new AtomicLong();
+
+    private static final AtomicLong DEGRADED = new AtomicLong();
+
+    private static final AtomicLong SKIPPED = new AtomicLong();
+
+    // the screenshot, the reference image, the mask and one result image, 4 bytes per pixel each
+    private static final int BYTES_PER_PIXEL = 4 * 4;
+
+    private ComparisonGovernor()
+    {
+    }
+
+    /**
+     * Estimates the memory the images of a comparison take
+     * @param pixels The number of pixels of the screenshot
+     * @return the number of bytes
+     */
+    public static long estimateBytes(final long pixels)
+    {
+        return pixels * BYTES_PER_PIXEL;
+    }
+
+    /**
+     * Sets the limits of all comparisons of this JVM, waiting comparisons are admitted if they fit now
+     * @param comparisons The maximum number of comparisons at the same time, 0 for no limit
+     * @param bytes The maximum number of bytes the images of the comparisons take, 0 for no limit
+     */
+    public static void setLimits(final int comparisons, final long bytes)
+    {
+        synchronized (LOCK)
+        {
+            maxComparisons = comparisons;
+            maxBytes = bytes;
+            LOCK.notifyAll();
+        }
+    }
+
+    /**
+     * Admits a comparison
+     * @param requested The memory the images of the comparison take at full resolution
+     * @param policy What to do if the comparison does not fit into the limits
+     * @param degradedBytes The memory the images take at the lower resolution
+     * @param lowPriority Whether the thread runs at the lowest priority while it holds the permit, HotSpot on Linux
+     *            ignores thread priorities unless the JVM runs with -XX:ThreadPriorityPolicy=1
+     * @return the permit, close it when the comparison is done
+     * @throws InterruptedException if the thread was interrupted while it waited
+     */
+    public static Permit acquire(final long requested, final Policy policy, final long degradedBytes, final boolean lowPriority)
+        throws InterruptedException
+    {
+        synchronized (LOCK)
+        {
+            if (!fits(requested))
+            {
+                switch (policy)
+                {
+                case DEGRADE:
+                    // The lower resolution saves memory, not processors
+                    if (!hasSlot())
+                    {
+                        QUEUED.incrementAndGet();
+                        while (!hasSlot())
+                        {
+                            LOCK.wait();
+                        }
+                    }
+                    if (fits(requested))
+                    {
+                        break;
+                    }
+                    DEGRADED.incrementAndGet();
+                    return admit(Mode.DEGRADED, degradedBytes, lowPriority);
+                case SKIP:
+                    SKIPPED.incrementAndGet();
+                    return new Permit(Mode.SKIPPED, 0, false);
+                default:
+                    QUEUED.incrementAndGet();
+                    while (!fits(requested))
+                    {
+                        LOCK.wait();
+                    }
+                    break;
+                }
+            }
+
+            return admit(Mode.FULL, requested, lowPriority);
+        }
+    }
+
+    /**
+     * Returns the number of comparisons that hold a permit
+     * @return the number of comparisons
+     */
+    public static int getComparisons()
+    {
+        synchronized (LOCK)
+        {
+            return comparisons;
+        }
+    }
+
+    /**
+     * Returns the memory the admitted comparisons take
+     * @return the number of bytes
+     */
+    public static long getBytes()
+    {
+        synchronized (LOCK)
+        {
+            return bytes;
+        }
+    }
+
+    /**
+     * Returns how often a comparison had to wait
+     * @return the number of queued comparisons
+     */
+    public static long getQueuedCount()
+    {
+        return QUEUED.get();
+    }
+
+    /**
+     * Returns how often a comparison ran at a lower resolution
+     * @return the number of degraded comparisons
+     */
+    public static long getDegradedCount()
+    {
+        return DEGRADED.get();
+    }
+
+    /**
+     * Returns how often a comparison was skipped
+     * @return the number of skipped comparisons
+     */
+    public static long getSkippedCount()
+    {
+        return SKIPPED.get();
+    }
+
+    private static boolean fits(final long requested)
+    {
+        return hasSlot() && (maxBytes <= 0 || bytes == 0 || bytes + requested <= maxBytes);
+    }
+
+    private static boolean hasSlot()
+    {
+        return maxComparisons <= 0 || comparisons < maxComparisons;
+    }
+
+    private static Permit admit(final Mode mode, final long requested, final boolean lowPriority)
+    {
+        comparisons++;
+        bytes += requested;
+
+        return new Permit(mode, requested, lowPriority);
+    }
+
+    /**
+     * The admission of one comparison
+     */
+    public static final class Permit implements AutoCloseable
+    {
+        private final Mode mode;
+
+        private final long bytes;
+
+        // the priority of the thread before, -1 if it was not changed
+        private final int priority;
+
+        private boolean closed;
+
+        private Permit(final Mode mode, final long bytes, final boolean lowPriority)
+        {
+            this.mode = mode;
+            this.bytes = bytes;
+
+            final Thread thread = Thread.currentThread();
+            this.priority = lowPriority ? thread.getPriority() : -1;
+            if (lowPriority)
+            {
+                thread.setPriority(Thread.MIN_PRIORITY);
+            }
+        }
+
+        /**
+         * Returns how the comparison was admitted
+         * @return the mode
+         */
+        public Mode getMode()
+        {
+            return mode;
+        }
+
+        /**
+         * Gives the permit back and restores the priority of the thread, call it on the thread that acquired it
+         */
+        @Override
+        public void close()
+        {
+            if (closed)
+            {
+                return;
+            }
+            closed = true;
+
+            if (priority >= 0)
+            {
+                Thread.currentThread().setPriority(priority);
+            }
+            if (mode != Mode.SKIPPED)
+            {
+                synchronized (LOCK)
+                {
+                    comparisons--;
+                    ComparisonGovernor.bytes -= this.bytes;
+                    LOCK.notifyAll();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,401 @@
+package com.xceptance.xlt.visualassertion.util;
+
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable and compact result of an image comparison. It holds the positions of the pixels that were found to be
+ * different, the blocks and bounding boxes that contain differences and some statistics about the comparison.
+ * <br>
+ * The result does not keep any of the compared images. Marked and difference images are rendered only on demand
+ * from the result and the images that are passed in, so the full-frame buffers of the comparison can be released
+ * right after the verdict.
+ */
+public final class ComparisonResult
+{
+    /**
+     * Side length of the blocks in which the differences are grouped
+     */
+    public static final int BLOCK_SIZE = 32;
+
+    private final int width;
+
+    private final int height;
+
+    private final int referenceWidth;
+
+    private final int referenceHeight;
+
+    private final int imageWidth;
+
+    private final int imageHeight;
+
+    // positions (y * width + x) of the different pixels in ascending order
+    private final int[] differences;
+
+    // grey value of the color difference per position
+    private final byte[] magnitudes;
+
+    private final long maskedPixelCount;
+
+    // x, y, width, height of each block with differences
+    private final int[] differenceBlocks;
+
+    // x, y, width, height of each bounding box around connected difference blocks
+    private final int[] boundingBoxes;
+
+    /**
+     * Creates a new result.
+     * @param referenceWidth Width of the reference image
+     * @param referenceHeight Height of the reference image
+     * @param imageWidth Width of the compared image
+     * @param imageHeight Height of the compared image
+     * @param differences The different pixels, the positions are based on the bigger width of both images
+     * @param maskedPixelCount Number of pixels that were excluded from the comparison by the mask
+     */
+    ComparisonResult(final int referenceWidth, final int referenceHeight, final int imageWidth, final int imageHeight,
+            final Differences differences, final long maskedPixelCount)
+    {
+        this.referenceWidth = referenceWidth;
+        this.referenceHeight = referenceHeight;
+        this.imageWidth = imageWidth;
+        this.imageHeight = imageHeight;
+        this.width = Math.max(referenceWidth, imageWidth);
+        this.height = Math.max(referenceHeight, imageHeight);
+        this.differences = differences.positions;
+        this.magnitudes = differences.magnitudes;
+        this.maskedPixelCount = maskedPixelCount;
+
+        if (this.differences.length == 0)
+        {
+            differenceBlocks = new int[0];
+            boundingBoxes = new int[0];
+        }
+        else
+        {
+            final int blocksX = (width + BLOCK_SIZE - 1) / BLOCK_SIZE;
+            final int blocksY = (height + BLOCK_SIZE - 1) / BLOCK_SIZE;
+
+            // the tight extent of the differences per block, minX == -1 for blocks without differences
+            final int[] extents = new int[4 * blocksX * blocksY];
+            for (int i = 0; i < extents.length; i += 4)
+            {
+                extents[i] = -1;
+            }
+
+            int blockCount = 0;
+            for (final int position : this.differences)
+            {
+                final int x = position % width;
+                final int y = position / width;
+                final int block = 4 * ((y / BLOCK_SIZE) * blocksX + x / BLOCK_SIZE);
+
+                if (extents[block] == -1)
+                {
+                    extents[block] = x;
+                    extents[block + 1] = y;
+                    extents[block + 2] = x;
+                    extents[block + 3] = y;
+                    blockCount++;
+                }
+                else
+                {
+                    extents[block] = Math.min(extents[block], x);
+                    extents[block + 1] = Math.min(extents[block + 1], y);
+                    extents[block + 2] = Math.max(extents[block + 2], x);
+                    extents[block + 3] = Math.max(extents[block + 3], y);
+                }
+            }
+
+            differenceBlocks = collectBlocks(extents, blockCount);
+            boundingBoxes = collectBoundingBoxes(extents, blocksX, blocksY);
+        }
+    }
+
+    /**
+     * Returns whether the compared images are considered equal
+     * @return true if no differences were found
+     */
+    public boolean isEqual()
+    {
+        return differences.length == 0;
+    }
+
+    /**
+     * Returns the width of the compared area, the bigger width of both images
+     * @return the width
+     */
+    public int getWidth()
+    {
+        return width;
+    }
+
+    /**
+     * Returns the height of the compared area, the bigger height of both images
+     * @return the height
+     */
+    public int getHeight()
+    {
+        return height;
+    }
+
+    /**
+     * Returns whether the compared images had different sizes and had to be adjusted for the comparison
+     * @return true if the images had different sizes
+     */
+    public boolean isResized()
+    {
+        return referenceWidth != imageWidth || referenceHeight != imageHeight;
+    }
+
+    /**
+     * Returns the number of pixels of the compared area
+     * @return the number of pixels
+     */
+    public long getPixelCount()
+    {
+        return (long) width * height;
+    }
+
+    /**
+     * Returns the number of pixels that were found to be different
+     * @return the number of different pixels
+     */
+    public int getDifferenceCount()
+    {
+        return differences.length;
+    }
+
+    /**
+     * Returns the number of pixels that were excluded from the comparison by the mask
+     * @return the number of masked pixels
+     */
+    public long getMaskedPixelCount()
+    {
+        return maskedPixelCount;
+    }
+
+    /**
+     * Returns the share of different pixels of the compared area
+     * @return value between 0 and 1
+     */
+    public double getDifferenceRatio()
+    {
+        return getPixelCount() == 0 ? 0 : (double) differences.length / getPixelCount();
+    }
+
+    /**
+     * Returns the share of masked pixels of the compared area
+     * @return value between 0 and 1
+     */
+    public double getMaskedRatio()
+    {
+        return getPixelCount() == 0 ? 0 : (double) maskedPixelCount / getPixelCount();
+    }
+
+    /**
+     * Returns the positions of the different pixels
+     * @return a copy of the positions (y * width + x) of the different pixels in ascending order
+     */
+    public int[] getDifferences()
+    {
+        return differences.clone();
+    }
+
+    /**
+     * Returns the blocks of {@link #BLOCK_SIZE} pixels that contain differences, each shrunk to the differences it
+     * contains
+     * @return list of rectangles, ordered row by row
+     */
+    public List<Rectangle> getDifferenceBlocks()
+    {
+        return toRectangles(differenceBlocks);
+    }
+
+    /**
+     * Returns the bounding boxes of the differences. Neighbouring blocks with differences are joined into one box.
+     * @return list of rectangles, ordered by their top left block
+     */
+    public List<Rectangle> getBoundingBoxes()
+    {
+        return toRectangles(boundingBoxes);
+    }
+
+    /**
+     * Renders a copy of the compared image in which the found differences are marked with boxes.
+     * @param image The compared image
+     * @param markingSizeX The size of the marking on the x axis
+     * @param markingSizeY The size of the marking of the y axis
+     * @return BufferedImage with the differences marked with boxes, null if there are no differences
+     */
+    public BufferedImage getMarkedImageWithBoxes(final BufferedImage image, final int markingSizeX, final int markingSizeY)
+    {
+        if (isEqual())
+        {
+            return null;
+        }
+
+        return ImageHelper.markDifferencesWithBoxes(adapt(image), differences, markingSizeX, markingSizeY);
+    }
+
+    /**
+     * Renders a copy of the compared image in which the found differences are highlighted in a different color scheme
+     * @param image The compared image
+     * @param markingSizeX The size of the marking on the x axis
+     * @param markingSizeY The size of the marking of the y axis
+     * @return BufferedImage with the differences highlighted, null if there are no differences
+     */
+    public BufferedImage getMarkedImageWithAMarker(final BufferedImage image, final int markingSizeX, final int markingSizeY)
+    {
+        if (isEqual())
+        {
+            return null;
+        }
+
+        return ImageHelper.markDifferencesWithAMarker(adapt(image), differences, markingSizeX, markingSizeY);
+    }
+
+    /**
+     * Renders an image in which only the found differences are displayed on a black background. The image is
+     * rendered from the difference magnitudes that were stored during the comparison, so neither the reference nor
+     * the compared image is needed.
+     * @return BufferedImage with differences in grey on a black background, null if there are no differences
+     */
+    public BufferedImage getDifferenceImage()
+    {
+        if (isEqual())
+        {
+            return null;
+        }
+
+        // create a difference picture and paint it black
+        final int[] difference = new int[width * height];
+        RasterOps.fill(difference, width, height, Color.BLACK.getRGB());
+
+        // mark differences in greyscale, the positions are distinct so ranges can be painted in parallel
+        RasterOps.forEachRange(differences.length, (start, end) -> {
+            for (int i = start; i < end; i++)
+            {
+                final int grey = magnitudes[i] & 0xFF;
+                difference[differences[i]] = 0xFF000000 | grey << 16 | grey << 8 | grey;
+            }
+        });
+
+        // draw borders on the differences if compared images differed in size
+        if (isResized())
+        {
+            RasterOps.fillBorders(difference, width, height, 0, 0, 0);
+        }
+
+        return RasterOps.toImage(difference, width, height);
+    }
+
+    /**
+     * Brings the image to the size of the compared area
+     */
+    private BufferedImage adapt(final BufferedImage image)
+    {
+        return ImageHelper.adaptImageSize(image, width, height);
+    }
+
+    /**
+     * Collects the extents of all blocks with differences row by row
+     */
+    private static int[] collectBlocks(final int[] extents, final int blockCount)
+    {
+        final int[] blocks = new int[4 * blockCount];
+
+        int n = 0;
+        for (int i = 0; i < extents.length; i += 4)
+        {
+            if (extents[i] != -1)
+            {
+                setRectangle(blocks, n++, extents[i], extents[i + 1], extents[i + 2], extents[i + 3]);
+            }
+        }
+
+        return blocks;
+    }
+
+    /**
+     * Joins all neighbouring blocks with differences (including diagonal neighbours) and collects the bounding box
+     * of each group
+     */
+    private static int[] collectBoundingBoxes(final int[] extents, final int blocksX, final int blocksY)
+    {
+        final boolean[] visited = new boolean[blocksX * blocksY];
+        final int[] queue = new int[blocksX * blocksY];
+        int[] boxes = new int[16];
+        int boxCount = 0;
+
+        for (int start = 0; start < visited.length; start++)
+        {
+            if (visited[start] || extents[4 * start] == -1)
+            {
+                continue;
+            }
+
+            int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, maxX = -1, maxY = -1;
+            int head = 0, tail = 0;
+            queue[tail++] = start;
+            visited[start] = true;
+
+            while (head < tail)
+            {
+                final int block = queue[head++];
+                minX = Math.min(minX, extents[4 * block]);
+                minY = Math.min(minY, extents[4 * block + 1]);
+                maxX = Math.max(maxX, extents[4 * block + 2]);
+                maxY = Math.max(maxY, extents[4 * block + 3]);
+
+                final int blockX = block % blocksX;
+                final int blockY = block / blocksX;
+                for (int y = Math.max(0, blockY - 1); y <= Math.min(blocksY - 1, blockY + 1); y++)
+                {
+                    for (int x = Math.max(0, blockX - 1); x <= Math.min(blocksX - 1, blockX + 1); x++)
+                    {
+                        final int neighbour = y * blocksX + x;
+                        if (!visited[neighbour] && extents[4 * neighbour] != -1)
+                        {
+                            visited[neighbour] = true;
+                            queue[tail++] = neighbour;
+                        }
+                    }
+                }
+            }
+
+            if (boxes.length < 4 * (boxCount + 1))
+            {
+                boxes = Arrays.copyOf(boxes, 2 * boxes.length);
+            }
+            setRectangle(boxes, boxCount++, minX, minY, maxX, maxY);
+        }
+
+        return Arrays.copyOf(boxes, 4 * boxCount);
+    }
+
+    private static void setRectangle(final int[] rectangles, final int n, final int minX, final int minY, final int maxX,
+            final int maxY)
+    {
+        rectangles[4 * n] = minX;
+        rectangles[4 * n + 1] = minY;
+        rectangles[4 * n + 2] = maxX - minX + 1;
+        rectangles[4 * n + 3] = maxY - minY + 1;
+    }
+
+    private static List<Rectangle> toRectangles(final int[] rectangles)
+    {
+        final List<Rectangle> list = new ArrayList<>(rectangles.length / 4);
+        for (int i = 0; i < rectangles.length; i += 4)
+        {
+            list.add(new Rectangle(rectangles[i], rectangles[i + 1], rectangles[i + 2], rectangles[i + 3]));
+        }
+
+        return Collections.unmodifiableList(list);
+    }
+}
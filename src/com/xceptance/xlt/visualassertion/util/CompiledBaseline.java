@@ -0,0 +1,471 @@
+package com.xceptance.xlt.visualassertion.util;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Reference image and mask of a baseline, decoded once and kept as raw ARGB rasters in a memory mapped file. The
+ * comparison reads the rasters straight from the mapping, so a baseline is neither decoded nor copied to the heap
+ * again, and all processes on the host that use the same file share its pages through the page cache.
+ * <p>
+ * The file starts with a header that records the size and modification time of the source images, followed by an
+ * index of the stored rasters:
+ *
+ * <pre>
+ * int  magic, int version, int byte order of the rasters (0 big endian, 1 little endian)
+ * long reference length, long reference modified, long mask length, long mask modified (-1 without mask)
+ * int  number of rasters, per raster: int kind, int width, int height, long offset
+ * </pre>
+ *
+ * The rasters follow at the given offsets in the native byte order of the host that compiled the file. A file is
+ * compiled again as soon as a source image changes or it was written on a host with another byte order.
+ */
+public final class CompiledBaseline
+{
+    private static final int MAGIC = 'V' << 24 | 'A' << 16 | 'C' << 8 | 'B';
+
+    private static final int VERSION = 1;
+
+    private static final int KIND_REFERENCE = 1;
+
+    private static final int KIND_MASK = 2;
+
+    // magic, version, byte order, four stamps, number of rasters
+    private static final int HEADER_SIZE = 3 * 4 + 4 * 8 + 4;
+
+    // kind, width, height, offset
+    private static final int INDEX_ENTRY_SIZE = 3 * 4 + 8;
+
+    // rasters start at a cache line boundary
+    private static final int ALIGNMENT = 64;
+
+    // number of rows that are fetched from an image at once while compiling
+    private static final int ROWS_PER_FETCH = 64;
+
+    /**
+     * Maximum number of opened baselines that are kept, the least recently used ones are dropped and unmapped once
+     * they are not referenced anymore
+     */
+    public static final int MAX_OPENED = 64;
+
+    /**
+     * The most recently opened baselines of this process, so all visual assertions share one mapping per file. Only
+     * mapped baselines are kept, the decoded images of a store that could not be written would pin the heap.
+     */
+    private static final Map<File, CompiledBaseline> OPENED = new LinkedHashMap<File, CompiledBaseline>(16, 0.75f, true)
+    {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<File, CompiledBaseline> eldest)
+        {
+            return size() > MAX_OPENED;
+        }
+    };
+
+    // baselines that were opened without decoding the images, and the ones that had to be compiled
+    private static final AtomicLong HITS = new AtomicLong();
+
+    private static final AtomicLong MISSES = new AtomicLong();
+
+    private final long[] stamps;
+
+    private final IntRaster reference;
+
+    private final IntRaster mask;
+
+    // false if the rasters are on the heap as the store could not be written
+    private final boolean mapped;
+
+    private CompiledBaseline(final long[] stamps, final IntRaster reference, final IntRaster mask, final boolean mapped)
+    {
+        this.stamps = stamps;
+        this.reference = reference;
+        this.mask = mask;
+        this.mapped = mapped;
+    }
+
+    /**
+     * Opens the compiled baseline for a reference image and its mask. The store file is compiled from the images if
+     * it does not exist yet or is out of date. If the store file cannot be replaced, for example because another
+     * process still maps it on a platform that does not allow this, the decoded images are used without a store.
+     * @param storeFile The file that holds the compiled rasters
+     * @param referenceFile The reference image
+     * @param maskFile The mask image, it is optional
+     * @return The compiled baseline
+     * @throws IOException if the images or the store cannot be read
+     */
+    public static CompiledBaseline open(final File storeFile, final File referenceFile, final File maskFile) throws IOException
+    {
+        final long[] stamps = stamps(referenceFile, maskFile);
+        final File key = storeFile.getAbsoluteFile();
+
+        final CompiledBaseline opened;
+        synchronized (OPENED)
+        {
+            opened = OPENED.get(key);
+        }
+        if (opened != null && opened.isCompiledFrom(stamps))
+        {
+            HITS.incrementAndGet();
+            return opened;
+        }
+
+        CompiledBaseline baseline;
+        try
+        {
+            baseline = map(storeFile, stamps);
+        }
+        catch (final IOException e)
+        {
+            // damaged, compile it again
+            baseline = null;
+        }
+        if (baseline == null)
+        {
+            MISSES.incrementAndGet();
+            baseline = compile(storeFile, referenceFile, maskFile, stamps);
+        }
+        else
+        {
+            HITS.incrementAndGet();
+        }
+        synchronized (OPENED)
+        {
+            if (baseline.mapped)
+            {
+                OPENED.put(key, baseline);
+            }
+            else
+            {
+                OPENED.remove(key);
+            }
+        }
+
+        return baseline;
+    }
+
+    /**
+     * Returns how often a baseline was opened from its store file or from the baselines opened before
+     * @return the number of baselines opened without decoding the images
+     */
+    public static long getCacheHits()
+    {
+        return HITS.get();
+    }
+
+    /**
+     * Returns how often a baseline had to be compiled from its images
+     * @return the number of compiled baselines
+     */
+    public static long getCacheMisses()
+    {
+        return MISSES.get();
+    }
+
+    /**
+     * Returns the number of opened baselines that are kept
+     * @return the number of baselines, at most {@link #MAX_OPENED}
+     */
+    public static int getOpenedCount()
+    {
+        synchronized (OPENED)
+        {
+            return OPENED.size();
+        }
+    }
+
+    /**
+     * Returns the width of the reference image
+     * @return the width in pixels
+     */
+    public int getWidth()
+    {
+        return reference.width;
+    }
+
+    /**
+     * Returns the height of the reference image
+     * @return the height in pixels
+     */
+    public int getHeight()
+    {
+        return reference.height;
+    }
+
+    /**
+     * Checks whether the baseline has a mask
+     * @return true if a mask image existed when the baseline was compiled
+     */
+    public boolean hasMask()
+    {
+        return mask != null;
+    }
+
+    /**
+     * Returns a copy of the reference image on the heap, for the few cases which need it as image
+     * @return the reference image as BufferedImage of type TYPE_INT_ARGB
+     */
+    public BufferedImage getReferenceImage()
+    {
+        return reference.toImage();
+    }
+
+    IntRaster getReference()
+    {
+        return reference;
+    }
+
+    IntRaster getMask()
+    {
+        return mask;
+    }
+
+    private boolean isCompiledFrom(final long[] sourceStamps)
+    {
+        return Arrays.equals(stamps, sourceStamps);
+    }
+
+    /**
+     * Maps an existing store file
+     * @return the baseline, null if the file does not exist or does not match the source images
+     */
+    private static CompiledBaseline map(final File storeFile, final long[] stamps) throws IOException
+    {
+        if (!storeFile.isFile() || storeFile.length() < HEADER_SIZE)
+        {
+            return null;
+        }
+
+        try (final FileChannel channel = FileChannel.open(storeFile.toPath(), StandardOpenOption.READ))
+        {
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(channel, header, 0);
+            header.flip();
+
+            if (header.getInt() != MAGIC || header.getInt() != VERSION || header.getInt() != byteOrderFlag())
+            {
+                return null;
+            }
+            for (final long stamp : stamps)
+            {
+                if (header.getLong() != stamp)
+                {
+                    return null;
+                }
+            }
+
+            final int count = header.getInt();
+            if (count < 1 || count > 2)
+            {
+                return null;
+            }
+
+            final ByteBuffer index = ByteBuffer.allocate(count * INDEX_ENTRY_SIZE);
+            readFully(channel, index, HEADER_SIZE);
+            index.flip();
+
+            IntRaster reference = null;
+            IntRaster mask = null;
+            for (int i = 0; i < count; i++)
+            {
+                final int kind = index.getInt();
+                final int width = index.getInt();
+                final int height = index.getInt();
+                final long offset = index.getLong();
+
+                if (offset + 4L * width * height > channel.size())
+                {
+                    // cut off, compile again
+                    return null;
+                }
+
+                // the mapping stays valid after the channel is closed
+                final IntBuffer pixels = channel.map(FileChannel.MapMode.READ_ONLY, offset, 4L * width * height)
+                                                .order(ByteOrder.nativeOrder()).asIntBuffer();
+                if (kind == KIND_REFERENCE)
+                {
+                    reference = new IntRaster(pixels, width, height);
+                }
+                else if (kind == KIND_MASK)
+                {
+                    mask = new IntRaster(pixels, width, height);
+                }
+            }
+
+            return reference == null ? null : new CompiledBaseline(stamps, reference, mask, true);
+        }
+    }
+
+    /**
+     * Decodes the images, writes them to a new store file and maps it
+     */
+    private static CompiledBaseline compile(final File storeFile, final File referenceFile, final File maskFile,
+            final long[] stamps) throws IOException
+    {
+        final BufferedImage referenceImage = read(referenceFile);
+        final BufferedImage maskImage = maskFile.isFile() ? read(maskFile) : null;
+        final BufferedImage[] images = maskImage == null ? new BufferedImage[] { referenceImage } :
+                                                           new BufferedImage[] { referenceImage, maskImage };
+
+        final File directory = storeFile.getAbsoluteFile().getParentFile();
+        directory.mkdirs();
+
+        // write to a file of our own first, so no other process ever maps a half written store
+        final Path temp = Files.createTempFile(directory.toPath(), storeFile.getName(), ".tmp");
+        try
+        {
+            write(temp, stamps, images);
+
+            try
+            {
+                Files.move(temp, storeFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (final AtomicMoveNotSupportedException e)
+            {
+                Files.move(temp, storeFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        catch (final IOException e)
+        {
+            // the store could not be replaced, use the decoded images for now
+            Files.deleteIfExists(temp);
+            return new CompiledBaseline(stamps, IntRaster.of(referenceImage),
+                                        maskImage == null ? null : IntRaster.of(maskImage), false);
+        }
+
+        final CompiledBaseline baseline = map(storeFile, stamps);
+        if (baseline == null)
+        {
+            throw new IOException("Compiled baseline cannot be read: " + storeFile);
+        }
+
+        return baseline;
+    }
+
+    /**
+     * Writes the header, the index and the rasters of the images
+     */
+    private static void write(final Path file, final long[] stamps, final BufferedImage... images) throws IOException
+    {
+        final int[] kinds = { KIND_REFERENCE, KIND_MASK };
+
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + images.length * INDEX_ENTRY_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putInt(byteOrderFlag());
+        for (final long stamp : stamps)
+        {
+            header.putLong(stamp);
+        }
+        header.putInt(images.length);
+
+        long offset = align(header.capacity());
+        for (int i = 0; i < images.length; i++)
+        {
+            header.putInt(kinds[i]).putInt(images[i].getWidth()).putInt(images[i].getHeight()).putLong(offset);
+            offset = align(offset + 4L * images[i].getWidth() * images[i].getHeight());
+        }
+        header.flip();
+
+        try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            writeFully(channel, header, 0);
+
+            long position = align(header.capacity());
+            for (final BufferedImage image : images)
+            {
+                final int width = image.getWidth();
+                final int height = image.getHeight();
+                final int[] argb = new int[width * Math.min(height, ROWS_PER_FETCH)];
+                final ByteBuffer rows = ByteBuffer.allocate(4 * argb.length).order(ByteOrder.nativeOrder());
+
+                for (int startY = 0; startY < height; startY += ROWS_PER_FETCH)
+                {
+                    final int count = Math.min(ROWS_PER_FETCH, height - startY);
+                    image.getRGB(0, startY, width, count, argb, 0, width);
+
+                    rows.clear();
+                    rows.asIntBuffer().put(argb, 0, count * width);
+                    rows.limit(4 * count * width);
+                    writeFully(channel, rows, position);
+                    position += 4L * count * width;
+                }
+
+                position = align(position);
+            }
+
+            channel.force(false);
+        }
+    }
+
+    /**
+     * Returns the size and modification time of the reference and the mask, which identify the compiled version
+     */
+    private static long[] stamps(final File referenceFile, final File maskFile)
+    {
+        final boolean hasMask = maskFile.isFile();
+
+        return new long[]
+            {
+                referenceFile.length(), referenceFile.lastModified(), hasMask ? maskFile.length() : -1,
+                hasMask ? maskFile.lastModified() : -1
+            };
+    }
+
+    private static BufferedImage read(final File file) throws IOException
+    {
+        final BufferedImage image = ImageIO.read(file);
+        if (image == null)
+        {
+            throw new IOException("Unsupported image format: " + file.getPath());
+        }
+
+        return image;
+    }
+
+    private static int byteOrderFlag()
+    {
+        return ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN ? 0 : 1;
+    }
+
+    private static long align(final long offset)
+    {
+        return (offset + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+
+    private static void readFully(final FileChannel channel, final ByteBuffer buffer, long position) throws IOException
+    {
+        while (buffer.hasRemaining())
+        {
+            final int n = channel.read(buffer, position);
+            if (n < 0)
+            {
+                throw new IOException("Unexpected end of file");
+            }
+            position += n;
+        }
+    }
+
+    private static void writeFully(final FileChannel channel, final ByteBuffer buffer, long position) throws IOException
+    {
+        while (buffer.hasRemaining())
+        {
+            position += channel.write(buffer, position);
+        }
+    }
+}
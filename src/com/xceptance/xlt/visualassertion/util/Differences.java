@@ -0,0 +1,84 @@
+package com.xceptance.xlt.visualassertion.util;
+
+/**
+ * The pixels that were found to be different by a comparison together with the magnitude of each difference. The
+ * magnitude is calculated once during the comparison and stored as grey value, so the difference image can be
+ * rendered later on without the compared images.
+ */
+final class Differences
+{
+    /**
+     * Positions (y * width + x) of the pixels that are different in ascending order
+     */
+    final int[] positions;
+
+    /**
+     * Grey value 0-255 of the color difference for each position
+     */
+    final byte[] magnitudes;
+
+    Differences(final int[] positions, final byte[] magnitudes)
+    {
+        this.positions = positions;
+        this.magnitudes = magnitudes;
+    }
+
+    /**
+     * Returns the number of differences
+     * @return the number of different pixels
+     */
+    int size()
+    {
+        return positions.length;
+    }
+
+    /**
+     * Returns the grey value of the i-th difference
+     * @param i index of the difference
+     * @return grey value from 0 to 255
+     */
+    int magnitude(final int i)
+    {
+        return magnitudes[i] & 0xFF;
+    }
+
+    /**
+     * Converts a color difference into the grey value that represents it in the difference image
+     * @param pixelColorDiff the color difference as percent from 0.0 to 1.0
+     * @return grey value from 0 to 255
+     */
+    static int toMagnitude(final double pixelColorDiff)
+    {
+        return (int) Math.round(255 * pixelColorDiff);
+    }
+
+    /**
+     * Joins the differences found per row into one instance, null rows are skipped.
+     * @param positions the positions per row
+     * @param magnitudes the magnitudes per row
+     * @return all differences one row after the other
+     */
+    static Differences concat(final int[][] positions, final byte[][] magnitudes)
+    {
+        int count = 0;
+        for (final int[] row : positions)
+        {
+            count += row == null ? 0 : row.length;
+        }
+
+        final int[] allPositions = new int[count];
+        final byte[] allMagnitudes = new byte[count];
+        int i = 0;
+        for (int row = 0; row < positions.length; row++)
+        {
+            if (positions[row] != null)
+            {
+                System.arraycopy(positions[row], 0, allPositions, i, positions[row].length);
+                System.arraycopy(magnitudes[row], 0, allMagnitudes, i, magnitudes[row].length);
+                i += positions[row].length;
+            }
+        }
+
+        return new Differences(allPositions, allMagnitudes);
+    }
+}
@@ -0,0 +1,282 @@
+package com.xceptance.xlt.visualassertion.util;
+
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ARGB raster outside of the Java heap. The memory comes from a pool of direct buffers that is shared by all visual
+ * assertions of the process, so full page screenshots and the intermediate rasters of a comparison neither fill the
+ * heap nor get promoted to the old generation while they are compared. Close the raster to give its memory back to the
+ * pool.
+ * <p>
+ * If no direct memory is left, see -XX:MaxDirectMemorySize, the raster falls back to the heap.
+ */
+public final class DirectRaster implements AutoCloseable
+{
+    /**
+     * Default of the maximum number of bytes that are kept in the pool
+     */
+    public static final long DEFAULT_POOL_LIMIT = 256L * 1024 * 1024;
+
+    // the pooled buffers, guarded by itself
+    private static final List<ByteBuffer> FREE = new ArrayList<>();
+
+    private static long freeBytes;
+
+    // the memory of the open rasters, guarded by FREE as well
+    private static long usedBytes;
+
+    private static volatile long poolLimit = DEFAULT_POOL_LIMIT;
+
+    // number of rows that are copied from an image at once
+    private static final int ROWS_PER_FETCH = 64;
+
+    private final IntRaster raster;
+
+    // the pooled memory, null for heap rasters and after the raster was closed
+    private ByteBuffer buffer;
+
+    private boolean closed;
+
+    private DirectRaster(final ByteBuffer buffer, final IntBuffer pixels, final int width, final int height)
+    {
+        this.buffer = buffer;
+        this.raster = new IntRaster(pixels, width, height);
+    }
+
+    /**
+     * Sets the maximum number of bytes that closed rasters keep in the pool for reuse, memory beyond is released to
+     * the garbage collector
+     * @param bytes The maximum number of bytes
+     */
+    public static void setPoolLimit(final long bytes)
+    {
+        poolLimit = bytes;
+    }
+
+    /**
+     * Returns the memory held by the open rasters outside of the heap
+     * @return the number of bytes
+     */
+    public static long getBytesInUse()
+    {
+        synchronized (FREE)
+        {
+            return usedBytes;
+        }
+    }
+
+    /**
+     * Returns the memory that closed rasters keep in the pool for reuse
+     * @return the number of bytes
+     */
+    public static long getPooledBytes()
+    {
+        synchronized (FREE)
+        {
+            return freeBytes;
+        }
+    }
+
+    /**
+     * Creates a raster, the pixels are not initialized
+     * @param width Width of the raster
+     * @param height Height of the raster
+     * @return The raster
+     */
+    public static DirectRaster allocate(final int width, final int height)
+    {
+        final int count = width * height;
+        final ByteBuffer buffer = acquire(4L * count);
+        if (buffer == null)
+        {
+            return new DirectRaster(null, IntBuffer.wrap(new int[count]), width, height);
+        }
+
+        return new DirectRaster(buffer, buffer.asIntBuffer(), width, height);
+    }
+
+    /**
+     * Copies the pixels of an image into a new raster
+     * @param image The image
+     * @return The raster with the ARGB pixels of the image
+     */
+    public static DirectRaster copyOf(final BufferedImage image)
+    {
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        final DirectRaster copy = allocate(width, height);
+
+        RasterOps.forEachRow(width, height, (startY, endY) -> {
+            final IntBuffer target = copy.raster.pixels.duplicate();
+            target.position(startY * width);
+
+            final int[] argb = new int[width * Math.min(endY - startY, ROWS_PER_FETCH)];
+            for (int y = startY; y < endY; y += ROWS_PER_FETCH)
+            {
+                final int rows = Math.min(ROWS_PER_FETCH, endY - y);
+                image.getRGB(0, y, width, rows, argb, 0, width);
+                target.put(argb, 0, rows * width);
+            }
+        });
+
+        return copy;
+    }
+
+    /**
+     * Creates a new raster with the given size which holds the source raster in the top left corner, see
+     * {@link RasterOps#resize(int[], int, int, int, int, int)}. Pixels not covered by the source are transparent black.
+     */
+    static DirectRaster resize(final IntRaster source, final int newWidth, final int newHeight)
+    {
+        final DirectRaster resized = allocate(newWidth, newHeight);
+        final int copyWidth = Math.min(source.width, newWidth);
+        final int[] zeros = new int[newWidth];
+
+        RasterOps.forEachRow(newWidth, newHeight, (startY, endY) -> {
+            final IntBuffer from = source.pixels.duplicate();
+            final IntBuffer to = resized.raster.pixels.duplicate();
+
+            for (int y = startY; y < endY; y++)
+            {
+                to.position(y * newWidth);
+                if (y < source.height)
+                {
+                    from.limit(y * source.width + copyWidth).position(y * source.width);
+                    to.put(from);
+                    to.put(zeros, 0, newWidth - copyWidth);
+                }
+                else
+                {
+                    to.put(zeros, 0, newWidth);
+                }
+            }
+        });
+
+        return resized;
+    }
+
+    /**
+     * Returns the width of the raster
+     * @return the width in pixels
+     */
+    public int getWidth()
+    {
+        return raster.width;
+    }
+
+    /**
+     * Returns the height of the raster
+     * @return the height in pixels
+     */
+    public int getHeight()
+    {
+        return raster.height;
+    }
+
+    /**
+     * Copies the raster into a new image on the heap, for the few cases which need it as image
+     * @return BufferedImage of type TYPE_INT_ARGB
+     */
+    public BufferedImage toImage()
+    {
+        return getRaster().toImage();
+    }
+
+    /**
+     * Gives the memory back to the pool, the raster must not be used afterwards
+     */
+    @Override
+    public void close()
+    {
+        if (closed)
+        {
+            return;
+        }
+        closed = true;
+
+        if (buffer != null)
+        {
+            release(buffer);
+            buffer = null;
+        }
+    }
+
+    IntRaster getRaster()
+    {
+        if (closed)
+        {
+            throw new IllegalStateException("Raster is closed");
+        }
+
+        return raster;
+    }
+
+    /**
+     * Takes the smallest pooled buffer that is big enough, but at most twice as big, or allocates a new one
+     * @return the buffer in native byte order, limited to the requested size, null if there is no direct memory left
+     */
+    private static ByteBuffer acquire(final long bytes)
+    {
+        synchronized (FREE)
+        {
+            int best = -1;
+            for (int i = 0; i < FREE.size(); i++)
+            {
+                final int capacity = FREE.get(i).capacity();
+                if (capacity >= bytes && capacity <= 2 * bytes && (best < 0 || capacity < FREE.get(best).capacity()))
+                {
+                    best = i;
+                }
+            }
+
+            if (best >= 0)
+            {
+                final ByteBuffer buffer = FREE.remove(best);
+                freeBytes -= buffer.capacity();
+                usedBytes += buffer.capacity();
+                buffer.clear().limit((int) bytes);
+
+                return buffer;
+            }
+        }
+
+        try
+        {
+            final ByteBuffer buffer = ByteBuffer.allocateDirect((int) bytes).order(ByteOrder.nativeOrder());
+            synchronized (FREE)
+            {
+                usedBytes += buffer.capacity();
+            }
+
+            return buffer;
+        }
+        catch (final OutOfMemoryError e)
+        {
+            // direct memory is exhausted
+            return null;
+        }
+    }
+
+    /**
+     * Puts a buffer back into the pool, the oldest buffers are dropped to keep the pool within its limit
+     */
+    private static void release(final ByteBuffer buffer)
+    {
+        synchronized (FREE)
+        {
+            FREE.add(buffer);
+            freeBytes += buffer.capacity();
+            usedBytes -= buffer.capacity();
+
+            while (freeBytes > poolLimit && !FREE.isEmpty())
+            {
+                freeBytes -= FREE.remove(0).capacity();
+            }
+        }
+    }
+}
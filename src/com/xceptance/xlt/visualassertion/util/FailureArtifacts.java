@@ -0,0 +1,172 @@
+package com.xceptance.xlt.visualassertion.util;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Renders reduced images of a failed comparison, so that not every failure has to be stored as a set of full page
+ * images. The images can be cropped to the regions around the differences, scaled down to an overview, or the
+ * changed regions of several images can be put side by side into one composite.
+ */
+public final class FailureArtifacts
+{
+    /**
+     * Gap between the parts of a composite in pixels
+     */
+    public static final int COMPOSITE_GAP = 4;
+
+    // color of the gaps of a composite
+    private static final int COMPOSITE_GAP_COLOR = 0xFF808080;
+
+    private FailureArtifacts()
+    {
+    }
+
+    /**
+     * Returns the regions around the differences of a comparison. Every bounding box of the differences is grown by
+     * the margin and clipped to the compared area, regions that overlap afterwards are joined. If there are still more
+     * regions than allowed, a single region around all differences is returned.
+     * @param result The result of the comparison
+     * @param margin Number of pixels that are added as context on each side of a bounding box
+     * @param maxRegions Maximum number of regions
+     * @return list of regions ordered by their top left corner, empty if there are no differences
+     */
+    public static List<Rectangle> getRegions(final ComparisonResult result, final int margin, final int maxRegions)
+    {
+        final Rectangle area = new Rectangle(0, 0, result.getWidth(), result.getHeight());
+        final List<Rectangle> regions = new ArrayList<>();
+        for (final Rectangle box : result.getBoundingBoxes())
+        {
+            regions.add(new Rectangle(box.x - margin, box.y - margin, box.width + 2 * margin, box.height + 2 * margin)
+                        .intersection(area));
+        }
+
+        // joining is quadratic, so don't bother if there is no chance to get below the maximum anyway
+        if (regions.size() <= 16 * maxRegions)
+        {
+            boolean joined = true;
+            while (joined)
+            {
+                joined = false;
+                for (int i = 0; i < regions.size() && !joined; i++)
+                {
+                    for (int j = i + 1; j < regions.size(); j++)
+                    {
+                        if (regions.get(i).intersects(regions.get(j)))
+                        {
+                            regions.set(i, regions.get(i).union(regions.remove(j)));
+                            joined = true;
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+
+        if (regions.size() > maxRegions)
+        {
+            Rectangle all = regions.get(0);
+            for (final Rectangle region : regions)
+            {
+                all = all.union(region);
+            }
+
+            return Arrays.asList(all);
+        }
+
+        regions.sort((r1, r2) -> r1.y != r2.y ? Integer.compare(r1.y, r2.y) : Integer.compare(r1.x, r2.x));
+
+        return regions;
+    }
+
+    /**
+     * Copies a region of an image. Parts of the region that are outside of the image are transparent.
+     * @param image The image
+     * @param region The region to copy
+     * @return new image of the size of the region
+     */
+    public static BufferedImage crop(final BufferedImage image, final Rectangle region)
+    {
+        final int[] target = new int[region.width * region.height];
+        copyRegion(image, region, target, region.width, 0, 0);
+
+        return RasterOps.toImage(target, region.width, region.height);
+    }
+
+    /**
+     * Scales an image down by an integer factor, each pixel of the overview is the average of the pixels it covers.
+     * @param image The image
+     * @param factor The factor by which width and height are divided
+     * @return new image with the width and height divided by the factor and rounded up
+     */
+    public static BufferedImage scaleDown(final BufferedImage image, final int factor)
+    {
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+
+        if (factor <= 1)
+        {
+            return RasterOps.toImage(RasterOps.copyPixels(image), width, height);
+        }
+
+        final int[] scaled = RasterOps.scaleDown(RasterOps.pixels(image), width, height, factor);
+
+        return RasterOps.toImage(scaled, (width + factor - 1) / factor, (height + factor - 1) / factor);
+    }
+
+    /**
+     * Puts the same regions of several images side by side. Every region becomes one row of the composite, the
+     * regions of the images are placed next to each other in the given order, separated by a gap.
+     * @param regions The regions to show
+     * @param images The images, for instance reference, marked screenshot and difference image
+     * @return the composite image
+     */
+    public static BufferedImage composite(final List<Rectangle> regions, final BufferedImage... images)
+    {
+        int width = 0;
+        int height = 0;
+        for (final Rectangle region : regions)
+        {
+            width = Math.max(width, images.length * (region.width + COMPOSITE_GAP) - COMPOSITE_GAP);
+            height += region.height + COMPOSITE_GAP;
+        }
+        height = Math.max(0, height - COMPOSITE_GAP);
+
+        final int[] target = new int[Math.max(1, width * height)];
+        RasterOps.fill(target, width, height, COMPOSITE_GAP_COLOR);
+
+        int y = 0;
+        for (final Rectangle region : regions)
+        {
+            for (int i = 0; i < images.length; i++)
+            {
+                // parts that are not covered by the image stay transparent
+                RasterOps.fillRect(target, width, height, i * (region.width + COMPOSITE_GAP), y, region.width,
+                                   region.height, 0);
+                copyRegion(images[i], region, target, width, i * (region.width + COMPOSITE_GAP), y);
+            }
+            y += region.height + COMPOSITE_GAP;
+        }
+
+        return RasterOps.toImage(target, Math.max(1, width), Math.max(1, height));
+    }
+
+    /**
+     * Copies the part of the region that is inside of the image to the raster
+     */
+    private static void copyRegion(final BufferedImage image, final Rectangle region, final int[] target,
+            final int targetWidth, final int targetX, final int targetY)
+    {
+        final Rectangle inside = region.intersection(new Rectangle(0, 0, image.getWidth(), image.getHeight()));
+        if (inside.isEmpty())
+        {
+            return;
+        }
+
+        final int offset = (targetY + inside.y - region.y) * targetWidth + targetX + inside.x - region.x;
+        image.getRGB(inside.x, inside.y, inside.width, inside.height, target, offset, targetWidth);
+    }
+}
@@ -0,0 +1,300 @@
+package com.xceptance.xlt.visualassertion.util;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.xceptance.xlt.visualassertion.io.ImageEncoder;
+import com.xceptance.xlt.visualassertion.util.PhaseTimer.Phase;
+
+/**
+ * Renders and writes the images of a failed comparison as configured: the screenshot with the differences marked and
+ * optionally the image of the pixel differences, in full, cropped to the regions around the differences, scaled down
+ * or as one composite with the reference image. The assertion and the comparison service render the same way.
+ */
+public final class FailureRenderer
+{
+    /**
+     * How the differences are marked in the screenshot
+     */
+    public enum Marking
+    {
+        /**
+         * Red boxes around the differences
+         */
+        BOXES,
+        /**
+         * The differences highlighted with red and yellow
+         */
+        MARKER
+    }
+
+    /**
+     * Which images are written
+     */
+    public enum Layout
+    {
+        FULL,
+        CROP,
+        OVERVIEW,
+        COMPOSITE
+    }
+
+    private final Marking marking;
+
+    private final int markBlockSizeX;
+
+    private final int markBlockSizeY;
+
+    private final boolean differenceImage;
+
+    private final Layout layout;
+
+    private final int margin;
+
+    private final int maxRegions;
+
+    private final int scale;
+
+    private final String encoderName;
+
+    private final int pngLevel;
+
+    private final String pngFilter;
+
+    private final ImageEncoder encoder;
+
+    /**
+     * Creates a renderer
+     * @param marking How the differences are marked
+     * @param markBlockSizeX The width of the marks
+     * @param markBlockSizeY The height of the marks
+     * @param differenceImage Whether an image of the pixel differences is written too
+     * @param layout Which images are written
+     * @param margin Number of pixels around the differences in cropped images and composites
+     * @param maxRegions Maximum number of regions before all differences are put into one region
+     * @param scale Factor by which overview images are scaled down
+     * @param encoderName The name of the encoder, see {@link ImageEncoder#forName(String, int, String)}
+     * @param pngLevel The compression level of the png encoder
+     * @param pngFilter The name of the row filter of the png encoder
+     * @throws IllegalArgumentException if the encoder settings are invalid
+     */
+    public FailureRenderer(final Marking marking, final int markBlockSizeX, final int markBlockSizeY, final boolean differenceImage,
+                           final Layout layout, final int margin, final int maxRegions, final int scale, final String encoderName,
+                           final int pngLevel, final String pngFilter)
+    {
+        this.marking = marking;
+        this.markBlockSizeX = markBlockSizeX;
+        this.markBlockSizeY = markBlockSizeY;
+        this.differenceImage = differenceImage;
+        this.layout = layout;
+        this.margin = margin;
+        this.maxRegions = maxRegions;
+        this.scale = scale;
+        this.encoderName = encoderName;
+        this.pngLevel = pngLevel;
+        this.pngFilter = pngFilter;
+        this.encoder = ImageEncoder.forName(encoderName, pngLevel, pngFilter);
+    }
+
+    /**
+     * Returns how the differences are marked
+     * @return the marking
+     */
+    public Marking getMarking()
+    {
+        return marking;
+    }
+
+    /**
+     * Returns the width of the marks
+     * @return the width in pixels
+     */
+    public int getMarkBlockSizeX()
+    {
+        return markBlockSizeX;
+    }
+
+    /**
+     * Returns the height of the marks
+     * @return the height in pixels
+     */
+    public int getMarkBlockSizeY()
+    {
+        return markBlockSizeY;
+    }
+
+    /**
+     * Returns whether an image of the pixel differences is written
+     * @return true if it is written
+     */
+    public boolean isDifferenceImage()
+    {
+        return differenceImage;
+    }
+
+    /**
+     * Returns which images are written
+     * @return the layout
+     */
+    public Layout getLayout()
+    {
+        return layout;
+    }
+
+    /**
+     * Returns the number of pixels around the differences in cropped images and composites
+     * @return the margin in pixels
+     */
+    public int getMargin()
+    {
+        return margin;
+    }
+
+    /**
+     * Returns the maximum number of regions
+     * @return the number of regions
+     */
+    public int getMaxRegions()
+    {
+        return maxRegions;
+    }
+
+    /**
+     * Returns the factor by which overview images are scaled down
+     * @return the factor
+     */
+    public int getScale()
+    {
+        return scale;
+    }
+
+    /**
+     * Returns the name of the encoder
+     * @return the name
+     */
+    public String getEncoderName()
+    {
+        return encoderName;
+    }
+
+    /**
+     * Returns the compression level of the png encoder
+     * @return the level
+     */
+    public int getPngLevel()
+    {
+        return pngLevel;
+    }
+
+    /**
+     * Returns the name of the row filter of the png encoder
+     * @return the name of the filter
+     */
+    public String getPngFilter()
+    {
+        return pngFilter;
+    }
+
+    /**
+     * Returns the extension of the written files
+     * @return the extension with a leading dot
+     */
+    public String getExtension()
+    {
+        return "." + encoder.getFileExtension();
+    }
+
+    /**
+     * Returns whether the reference image is needed to render
+     * @return true if the images are composites
+     */
+    public boolean needsReference()
+    {
+        return layout == Layout.COMPOSITE;
+    }
+
+    /**
+     * Renders the images of a failed comparison and writes them as name-marked, name-difference, name-composite or,
+     * if cropped, name-01-marked and so on into the directory
+     * @param result The result of the comparison
+     * @param screenshot The screenshot
+     * @param reference The reference image, only needed if {@link #needsReference()}
+     * @param directory The directory of the images
+     * @param name The name of the screenshot
+     * @param timer The timer, the writing of each image is its own phase
+     * @return the written files
+     * @throws IOException if an image cannot be written
+     */
+    public List<File> write(final ComparisonResult result, final BufferedImage screenshot, final BufferedImage reference,
+                            final File directory, final String name, final PhaseTimer timer) throws IOException
+    {
+        final BufferedImage difference = differenceImage ? result.getDifferenceImage() : null;
+        final BufferedImage marked = marking == Marking.MARKER ? result.getMarkedImageWithAMarker(screenshot, markBlockSizeX, markBlockSizeY)
+                                                              : result.getMarkedImageWithBoxes(screenshot, markBlockSizeX, markBlockSizeY);
+
+        final List<File> files = new ArrayList<>();
+        switch (layout)
+        {
+        case CROP:
+            // numbered from top to bottom
+            final List<Rectangle> regions = FailureArtifacts.getRegions(result, margin, maxRegions);
+            for (int i = 0; i < regions.size(); i++)
+            {
+                final String regionName = name + String.format("-%02d", i + 1);
+                files.add(write(FailureArtifacts.crop(marked, regions.get(i)), directory, regionName + "-marked", timer));
+                if (difference != null)
+                {
+                    files.add(write(FailureArtifacts.crop(difference, regions.get(i)), directory, regionName + "-difference", timer));
+                }
+            }
+            break;
+        case OVERVIEW:
+            files.add(write(FailureArtifacts.scaleDown(marked, scale), directory, name + "-marked", timer));
+            if (difference != null)
+            {
+                files.add(write(FailureArtifacts.scaleDown(difference, scale), directory, name + "-difference", timer));
+            }
+            break;
+        case COMPOSITE:
+            // reference | marked screenshot | difference
+            final List<Rectangle> compositeRegions = FailureArtifacts.getRegions(result, margin, maxRegions);
+            final BufferedImage composite = difference != null
+                    ? FailureArtifacts.composite(compositeRegions, reference, marked, difference)
+                    : FailureArtifacts.composite(compositeRegions, reference, marked);
+            files.add(write(composite, directory, name + "-composite", timer));
+            break;
+        default:
+            files.add(write(marked, directory, name + "-marked", timer));
+            if (difference != null)
+            {
+                files.add(write(difference, directory, name + "-difference", timer));
+            }
+            break;
+        }
+
+        return files;
+    }
+
+    private File write(final BufferedImage image, final File directory, final String name, final PhaseTimer timer) throws IOException
+    {
+        final File file = new File(directory, name + getExtension());
+        timer.enter(Phase.WRITE);
+        try (final OutputStream out = new BufferedOutputStream(new FileOutputStream(file)))
+        {
+            encoder.write(image, out);
+        }
+        finally
+        {
+            timer.exit();
+        }
+
+        return file;
+    }
+}
@@ -1,8 +1,8 @@
 package com.xceptance.xlt.visualassertion.util;
 
-import java.awt.Color;
-import java.awt.Point;
 import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.junit.Assert;
 
@@ -10,14 +10,26 @@ import com.xceptance.xlt.visualassertion.algorithm.ComparisonAlgorithm;
 
 public class ImageComparison
 {
-    private Point[] lastDifferences = null;
+    private ComparisonResult lastResult = null;
 
-    private BufferedImage reference;
+    private final IntRaster reference;
 
+    // the mask of a compiled baseline, null if the mask is passed to the comparison
+    private final IntRaster baselineMask;
+
+    // the image passed to the last comparison, it is not copied and only kept to render the marked images
     private BufferedImage lastCompareImage;
 
-    private boolean resized = false;
+    // the raster passed to the last comparison instead of an image, it has to stay open to render the marked images
+    private DirectRaster lastCompareRaster;
+
+    // the tiles of the previous comparisons of the session, null to compare all pixels
+    private TileTracker tileTracker;
+
+    private String tileKey;
 
+    // the stored tile hashes of the reference image, null to hash it when needed
+    private TileHashes referenceTiles;
 
     /**
      * Creates a new instance of ImageComparison that uses the given reference image
@@ -25,64 +37,197 @@ public class ImageComparison
      */
     public ImageComparison(final BufferedImage reference)
     {
-        this.reference = reference;
+        this.reference = IntRaster.of(reference);
+        this.baselineMask = null;
     }
 
     /**
-     * Checks whether two images can be considered equal as determined by the given algorithm
+     * Creates a new instance of ImageComparison that compares against a compiled baseline. The rasters of the
+     * baseline are read in place, use {@link #compare(BufferedImage, ComparisonAlgorithm)} to apply its mask.
+     * @param baseline The compiled reference image and mask
+     */
+    public ImageComparison(final CompiledBaseline baseline)
+    {
+        this.reference = baseline.getReference();
+        this.baselineMask = baseline.getMask();
+    }
+
+    /**
+     * Compares only the tiles that changed since the previous comparison with the same key, the differences of the
+     * other tiles are taken from there
+     * @param tracker The tiles of the previous comparisons, null to compare all pixels
+     * @param key The key of the previous comparison, for instance the region of the page
+     */
+    public void setTileTracker(final TileTracker tracker, final String key)
+    {
+        this.tileTracker = tracker;
+        this.tileKey = key;
+    }
+
+    /**
+     * Compares only the tiles of the screenshot whose hashes differ from the stored ones of the reference image, the
+     * other tiles are equal. The hashes are not used if they do not cover the reference image or if their tiles would
+     * cut through the blocks of the fuzzy algorithm.
+     * @param tiles The tile hashes of the reference image, null to compare all pixels
+     */
+    public void setReferenceTiles(final TileHashes tiles)
+    {
+        this.referenceTiles = tiles;
+    }
+
+    /**
+     * Compares an image to the reference image as determined by the given algorithm. The masked pixels are skipped
+     * during the comparison, copies of the images are only made if their sizes differ.
      * @param compareImage The image that is compared to the reference image
-     * @param mask The mask that sets the dynamic content areas, which are ignored in the comparison
+     * @param mask The mask that sets the dynamic content areas, which are ignored in the comparison, null to use the
+     *            mask of the compiled baseline, if any
      * @param algorithm The algorithm with which the assertion is calculated
-     * @return true if the two images are calculated as equal, false if not
+     * @return the compact result of the comparison
      */
-    public boolean isEqual(final BufferedImage compareImage, final BufferedImage mask, final ComparisonAlgorithm algorithm)
+    public ComparisonResult compare(final BufferedImage compareImage, final BufferedImage mask, final ComparisonAlgorithm algorithm)
+    {
+        return compare(compareImage, mask == null ? baselineMask : IntRaster.of(mask), algorithm);
+    }
+
+    /**
+     * Compares an image to the reference image as determined by the given algorithm, using the mask of the compiled
+     * baseline this comparison was created with, if any.
+     * @param compareImage The image that is compared to the reference image
+     * @param algorithm The algorithm with which the assertion is calculated
+     * @return the compact result of the comparison
+     */
+    public ComparisonResult compare(final BufferedImage compareImage, final ComparisonAlgorithm algorithm)
+    {
+        return compare(compareImage, baselineMask, algorithm);
+    }
+
+    /**
+     * Compares a raster outside of the heap to the reference image as determined by the given algorithm. If the sizes
+     * differ, the resized copies are made outside of the heap as well.
+     * @param compareRaster The raster that is compared to the reference image, it has to stay open as long as marked
+     *            images are rendered with this instance
+     * @param mask The mask that sets the dynamic content areas, which are ignored in the comparison, null to use the
+     *            mask of the compiled baseline, if any
+     * @param algorithm The algorithm with which the assertion is calculated
+     * @return the compact result of the comparison
+     */
+    public ComparisonResult compare(final DirectRaster compareRaster, final MaskImage mask, final ComparisonAlgorithm algorithm)
     {
-        resized = false;
+        lastCompareImage = null;
+        lastCompareRaster = compareRaster;
+
+        return compare(compareRaster.getRaster(), mask == null ? baselineMask : IntRaster.of(mask.getMask()), algorithm, true);
+    }
 
-        lastCompareImage = ImageHelper.copyImage(compareImage);
-        BufferedImage maskCopy = ImageHelper.copyImage(mask);
+    private ComparisonResult compare(final BufferedImage compareImage, final IntRaster mask, final ComparisonAlgorithm algorithm)
+    {
+        lastCompareImage = compareImage;
+        lastCompareRaster = null;
 
-        final int maxWidth = Math.max(reference.getWidth(), lastCompareImage.getWidth());
-        final int maxHeight = Math.max(reference.getHeight(), lastCompareImage.getHeight());
+        return compare(IntRaster.of(compareImage), mask, algorithm, false);
+    }
 
-        final int minWidth = Math.min(reference.getWidth(), lastCompareImage.getWidth());
-        final int minHeight = Math.min(reference.getHeight(), lastCompareImage.getHeight());
+    private ComparisonResult compare(final IntRaster compareRaster, final IntRaster mask, final ComparisonAlgorithm algorithm,
+            final boolean offHeap)
+    {
+        final int maxWidth = Math.max(reference.width, compareRaster.width);
+        final int maxHeight = Math.max(reference.height, compareRaster.height);
 
-        if (maxWidth != minWidth || maxHeight != minHeight)
+        // resized copies outside of the heap, they are released as soon as the comparison is done
+        final List<DirectRaster> resized = new ArrayList<>(3);
+        try
         {
-            resized = true;
-            reference = ImageHelper.adaptImageSize(reference, maxWidth, maxHeight);
-            lastCompareImage = ImageHelper.adaptImageSize(lastCompareImage, maxWidth, maxHeight);
-            maskCopy = ImageHelper.adaptImageSize(maskCopy, maxWidth, maxHeight);
+            final IntRaster adaptedReference = adapt(reference, maxWidth, maxHeight, offHeap, resized);
+            final IntRaster adaptedCompareImage = adapt(compareRaster, maxWidth, maxHeight, offHeap, resized);
+            final IntRaster adaptedMask = mask == null ? null : adapt(mask, maxWidth, maxHeight, offHeap, resized);
 
+            lastResult = compare(adaptedReference, adaptedCompareImage, adaptedMask, algorithm, compareRaster.width,
+                                 compareRaster.height);
+        }
+        finally
+        {
+            for (final DirectRaster raster : resized)
+            {
+                raster.close();
+            }
         }
 
-        final BufferedImage maskedReference = ImageHelper.overlayMaskImage(reference, maskCopy, ImageHelper.BLACK.getRGB());
-        final BufferedImage maskedCompareImage = ImageHelper.overlayMaskImage(lastCompareImage, maskCopy, ImageHelper.BLACK.getRGB());
+        return lastResult;
+    }
 
-        switch (algorithm.getType())
+    /**
+     * Brings a raster to the given size, on the heap or outside of it
+     */
+    private static IntRaster adapt(final IntRaster raster, final int width, final int height, final boolean offHeap,
+            final List<DirectRaster> resized)
+    {
+        if (!offHeap || (raster.width == width && raster.height == height))
         {
-        case EXACTMATCH:
-            lastDifferences = ImageHelper.compareImages(maskedReference, maskedCompareImage);
-            break;
-
-        case COLORFUZZY:
-            lastDifferences = ImageHelper.colorFuzzyCompare(maskedReference, maskedCompareImage, algorithm.getColorTolerance());
-            break;
-
-        case PIXELFUZZY:
-            lastDifferences = ImageHelper.fuzzyCompare(maskedReference, maskedCompareImage, algorithm.getColorTolerance(),
-                    algorithm.getPixelTolerance(), algorithm.getFuzzyBlockSize());
-            break;
+            return raster.adapt(width, height);
         }
 
-        if(lastDifferences == null)
+        final DirectRaster copy = DirectRaster.resize(raster, width, height);
+        resized.add(copy);
+
+        return copy.getRaster();
+    }
+
+    /**
+     * Runs the algorithm on rasters of the same size
+     */
+    private ComparisonResult compare(final IntRaster adaptedReference, final IntRaster adaptedCompareImage,
+            final IntRaster adaptedMask, final ComparisonAlgorithm algorithm, final int compareWidth, final int compareHeight)
+    {
+        final TileHashes tiles = referenceTiles != null && referenceTiles.covers(adaptedReference)
+                                 && TileHashes.tileSize(referenceTiles.tileSize, algorithm) == referenceTiles.tileSize
+                ? referenceTiles : null;
+
+        final Differences differences;
+        if (tileTracker != null)
+        {
+            differences = tileTracker.compare(tileKey, adaptedReference, adaptedCompareImage, adaptedMask, algorithm, tiles);
+        }
+        else if (tiles != null)
+        {
+            differences = TiledComparison.compareChanged(adaptedReference, adaptedCompareImage, adaptedMask, algorithm, tiles);
+        }
+        else
+        {
+            differences = ImageHelper.compare(adaptedReference, adaptedCompareImage, adaptedMask, algorithm);
+        }
+        if (differences == null)
         {
             Assert.fail("The dimensions of the two images don't match!");
         }
 
-        return lastDifferences.length == 0;
+        final long maskedPixels = adaptedMask == null ? 0 : ImageHelper.countPixels(adaptedMask, ImageHelper.BLACK.getRGB());
+
+        return new ComparisonResult(reference.width, reference.height, compareWidth, compareHeight, differences, maskedPixels);
+    }
 
+    /**
+     * Compares an image to the reference image as determined by the given algorithm.
+     * @param compareImage The image that is compared to the reference image
+     * @param mask The mask as instance of MaskImage that sets the dynamic content areas,
+     *             which are ignored in the comparison, null to use the mask of the compiled baseline, if any
+     * @param algorithm The algorithm with which the assertion is calculated
+     * @return the compact result of the comparison
+     */
+    public ComparisonResult compare(final BufferedImage compareImage, final MaskImage mask, final ComparisonAlgorithm algorithm)
+    {
+        return compare(compareImage, mask == null ? baselineMask : IntRaster.of(mask.getMask()), algorithm);
+    }
+
+    /**
+     * Checks whether two images can be considered equal as determined by the given algorithm
+     * @param compareImage The image that is compared to the reference image
+     * @param mask The mask that sets the dynamic content areas, which are ignored in the comparison
+     * @param algorithm The algorithm with which the assertion is calculated
+     * @return true if the two images are calculated as equal, false if not
+     */
+    public boolean isEqual(final BufferedImage compareImage, final BufferedImage mask, final ComparisonAlgorithm algorithm)
+    {
+        return compare(compareImage, mask, algorithm).isEqual();
     }
 
     /**
@@ -98,16 +243,25 @@ public class ImageComparison
         return isEqual(compareImage, mask.getMask(), algorithm);
     }
 
+    /**
+     * Returns the result of the last comparison
+     * @return the result of the last comparison, null if nothing was compared yet
+     */
+    public ComparisonResult getLastResult()
+    {
+        return lastResult;
+    }
+
     /**
      * Creates a copy of the originally with isEqual tested image in which the found differences are highlighted
      * in a different color scheme
      * @param markingSizeX The size of the marking on the x axis
      * @param markingSizeY The size of the marking of the y axis
-     * @return BufferedImage with the originally found differences highlighted
+     * @return BufferedImage with the originally found differences highlighted, null if there are no differences
      */
     public BufferedImage getMarkedImageWithAMarker(final int markingSizeX, final int markingSizeY)
     {
-        return ImageHelper.markDifferencesWithAMarker(lastCompareImage, lastDifferences, markingSizeX, markingSizeY);
+        return lastResult.getMarkedImageWithAMarker(getLastCompareImage(), markingSizeX, markingSizeY);
     }
 
     /**
@@ -115,45 +269,28 @@ public class ImageComparison
      * red boxes.
      * @param markingSizeX The size of the marking on the x axis
      * @param markingSizeY The size of the marking of the y axis
-     * @return BufferedImage with the originally found differences marked with boxes
+     * @return BufferedImage with the originally found differences marked with boxes, null if there are no differences
      */
     public BufferedImage getMarkedImageWithBoxes(final int markingSizeX, final int markingSizeY)
     {
-        return ImageHelper.markDifferencesWithBoxes(lastCompareImage, lastDifferences, markingSizeX, markingSizeY);
+        return lastResult.getMarkedImageWithBoxes(getLastCompareImage(), markingSizeX, markingSizeY);
+    }
+
+    /**
+     * Returns the image of the last comparison, a raster is copied to the heap
+     */
+    private BufferedImage getLastCompareImage()
+    {
+        return lastCompareImage != null ? lastCompareImage : lastCompareRaster.toImage();
     }
 
     /**
      * Creates a new image in which only the found differences are displayed on a black background.
      * The differences are drawn in the exact locations where they were found in the original image
-     * @return BufferedImage with differences in grey on a black background
+     * @return BufferedImage with differences in grey on a black background, null if there are no differences
      */
     public BufferedImage getDifferenceImage()
     {
-        if (lastDifferences.length == 0)
-            return null;
-
-        // create a difference picture based on reference and paint it black
-        BufferedImage difference = ImageHelper.createPlainImage(reference, Color.BLACK);
-
-        // mark differences in greyscale
-        Color greyscale;
-        int x, y, diffColor;
-        double pixelColorDiff;
-        for (final Point point : lastDifferences)
-        {
-            x = point.x;
-            y = point.y;
-            pixelColorDiff = ImageHelper.calculatePixelRGBDiff(reference.getRGB(x, y), lastCompareImage.getRGB(x, y));
-
-            diffColor = (int) Math.round(255 * pixelColorDiff);
-            greyscale = new Color(diffColor, diffColor, diffColor, 255);
-            difference.setRGB(x, y, greyscale.getRGB());
-        }
-
-        // draw borders on the differences if compared images differed in size
-        if (resized)
-            difference = ImageHelper.markImageBorders(difference, 0, 0);
-
-        return difference;
+        return lastResult.getDifferenceImage();
     }
 }
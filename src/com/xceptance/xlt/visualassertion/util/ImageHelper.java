@@ -1,16 +1,16 @@
 package com.xceptance.xlt.visualassertion.util;
 
-import java.awt.AlphaComposite;
 import java.awt.Color;
-import java.awt.Graphics;
-import java.awt.Graphics2D;
-import java.awt.Point;
 import java.awt.image.BufferedImage;
-import java.util.ArrayList;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+import com.xceptance.xlt.visualassertion.algorithm.ComparisonAlgorithm;
 
 /**
  * Util class which provides the necessary function to manipulate and create images for the comparison
- * algorithms.
+ * algorithms. The full-frame operations work on int[] ARGB rasters via {@link RasterOps} and scale with the number
+ * of available cores.
  */
 public class ImageHelper
 {
@@ -22,30 +22,27 @@ public class ImageHelper
 
     protected final static int SCALING_FACTOR = 10;
 
+    // colors used to mark differences
+    private final static int RED = Color.RED.getRGB();
+
+    private final static int GREEN = Color.GREEN.getRGB();
+
+    private final static RepeatedSrcOver HIGHLIGHTER = new RepeatedSrcOver(new Color(228, 252, 90, 50).getRGB());
+
+    private final static int PIXEL_EMPHASIZE_COLOR = new Color(228, 0, 0).getRGB();
+
     /**
      * Creates another image, which is a copy of the source image
      * 
      * @param source
      *            the image to copy
-     * @return a copy of that image as <b>BufferedImage</b>
+     * @return a copy of that image as <b>BufferedImage</b> of type TYPE_INT_ARGB
      */
     protected static BufferedImage copyImage(final BufferedImage source)
     {
         // Creates a fresh BufferedImage that has the same size and content of
         // the source image
-
-        // if source has an image type of 0 set ARGB as type
-        int imageType = source.getType();
-        if (imageType == 0)
-        {
-            imageType = BufferedImage.TYPE_INT_ARGB;
-        }
-
-        final BufferedImage copy = new BufferedImage(source.getWidth(), source.getHeight(), imageType);
-        final Graphics g = copy.getGraphics();
-        g.drawImage(source, 0, 0, null);
-        g.dispose();
-        return copy;
+        return RasterOps.toImage(RasterOps.copyPixels(source), source.getWidth(), source.getHeight());
     }
 
 
@@ -57,14 +54,13 @@ public class ImageHelper
      */
     protected static BufferedImage createPlainImage(final BufferedImage image, final Color c)
     {
-        final BufferedImage copy = copyImage(image);
+        final int width = image.getWidth();
+        final int height = image.getHeight();
 
-        final Graphics2D g = copy.createGraphics();
-        g.setColor(c);
-        g.fillRect(0, 0, image.getWidth(), image.getHeight());
-        g.dispose();
+        final int[] plain = new int[width * height];
+        RasterOps.fill(plain, width, height, c.getRGB());
 
-        return copy;
+        return RasterOps.toImage(plain, width, height);
     }
 
 
@@ -134,29 +130,34 @@ public class ImageHelper
      * 
      * @param img1 First image for the comparison
      * @param img2 Second image for the comparison
-     * @return Point[] array that contains the coordinates of pixels that are different
+     * @return the pixels that are different, null if the images have different sizes
      */
-    protected static Point[] compareImages(final BufferedImage img1, final BufferedImage img2)
+    protected static Differences compareImages(final BufferedImage img1, final BufferedImage img2)
     {
         if(img1.getWidth() != img2.getWidth() || img1.getHeight() != img2.getHeight()){
             return null;
         }
 
-        final ArrayList<Point> pixels = new ArrayList<>();
+        // a tolerance below zero never matches, so every pixel with a different RGB value is reported
+        return colorCompare(IntRaster.of(img1), IntRaster.of(img2), null, -1);
+    }
 
-        for (int x = 0; x < img1.getWidth(); x++)
+    /**
+     * Exact pixel by pixel compare that ignores the masked pixels. Rasters must have the same size
+     * 
+     * @param raster1 First raster for the comparison
+     * @param raster2 Second raster for the comparison
+     * @param mask The mask, pixels that are {@link #BLACK} in the mask are ignored, null for no mask
+     * @return the pixels that are different, null if the rasters have different sizes
+     */
+    static Differences compareImages(final IntRaster raster1, final IntRaster raster2, final IntRaster mask)
+    {
+        if (!haveSameSize(raster1, raster2, mask))
         {
-            for (int y = 0; y < img1.getHeight(); y++)
-            {
-                // if the RGB values of 2 pixels differ
-                if (img1.getRGB(x, y) != img2.getRGB(x, y))
-                {
-                    pixels.add(new Point(x,y));
-                }
-            }
+            return null;
         }
 
-        return pixels.toArray(new Point[pixels.size()]);
+        return colorCompare(raster1, raster2, mask, -1);
     }
 
     /**
@@ -168,39 +169,98 @@ public class ImageHelper
      * @param img2
      *            The second image for the comparison
      * @param colorTolerance A threshold value that calculates the allowed difference in color between two pixels [0-1[
-     * @return Point[] array that contains the coordinates of pixels that are different
+     * @return the pixels that are different, null if the images have different sizes
      */
-    protected static Point[] colorFuzzyCompare(final BufferedImage img1, final BufferedImage img2, final double colorTolerance)
+    protected static Differences colorFuzzyCompare(final BufferedImage img1, final BufferedImage img2, final double colorTolerance)
     {
         if(img1.getWidth() != img2.getWidth() || img1.getHeight() != img2.getHeight()){
             return null;
         }
 
-        final ArrayList<Point> pixels = new ArrayList<>();
+        return colorCompare(IntRaster.of(img1), IntRaster.of(img2), null, colorTolerance);
+    }
 
-        for (int x = 0; x < img1.getWidth(); x++)
+    /**
+     * Color based comparison that ignores the masked pixels, see
+     * {@link #colorFuzzyCompare(BufferedImage, BufferedImage, double)}. Rasters must have the same size
+     * 
+     * @param raster1 The first raster for the comparison
+     * @param raster2 The second raster for the comparison
+     * @param mask The mask, pixels that are {@link #BLACK} in the mask are ignored, null for no mask
+     * @param colorTolerance A threshold value that calculates the allowed difference in color between two pixels [0-1[
+     * @return the pixels that are different, null if the rasters have different sizes
+     */
+    static Differences colorFuzzyCompare(final IntRaster raster1, final IntRaster raster2, final IntRaster mask,
+            final double colorTolerance)
+    {
+        if (!haveSameSize(raster1, raster2, mask))
         {
-            for (int y = 0; y < img2.getHeight(); y++)
+            return null;
+        }
+
+        return colorCompare(raster1, raster2, mask, colorTolerance);
+    }
+
+    /**
+     * Compares pixel by pixel and reports all pixels with a different RGB value whose color difference is above the
+     * tolerance. Masked pixels count as equal, the mask is only looked at for pixels that differ.
+     */
+    private static Differences colorCompare(final IntRaster raster1, final IntRaster raster2, final IntRaster mask,
+            final double colorTolerance)
+    {
+        final int width = raster1.width;
+        final int height = raster1.height;
+        final IntBuffer pixels1 = raster1.pixels;
+        final IntBuffer pixels2 = raster2.pixels;
+        final IntBuffer maskPixels = mask == null ? null : mask.pixels;
+        final int maskColor = BLACK.getRGB();
+
+        // the differences per row
+        final int[][] positions = new int[height][];
+        final byte[][] magnitudes = new byte[height][];
+
+        RasterOps.forEachRow(width, height, (startY, endY) -> {
+            final int[] rowPositions = new int[width];
+            final byte[] rowMagnitudes = new byte[width];
+
+            for (int y = startY; y < endY; y++)
             {
-                // calculates difference and adds the coordinates to
-                // the relevant ArrayList if the difference is above the
-                // colTolerance
-                final double difference = calculatePixelRGBDiff(img1.getRGB(x, y), img2.getRGB(x, y));
-                if (difference > colorTolerance)
+                final int offset = y * width;
+                int count = 0;
+
+                for (int position = offset; position < offset + width; position++)
                 {
-                    pixels.add(new Point(x,y));
+                    // calculates difference and remembers the position
+                    // if the difference is above the colTolerance
+                    final int rgb1 = pixels1.get(position);
+                    final int rgb2 = pixels2.get(position);
+                    if (rgb1 != rgb2 && (maskPixels == null || maskPixels.get(position) != maskColor))
+                    {
+                        final double difference = calculatePixelRGBDiff(rgb1, rgb2);
+                        if (difference > colorTolerance)
+                        {
+                            rowPositions[count] = position;
+                            rowMagnitudes[count++] = (byte) Differences.toMagnitude(difference);
+                        }
+                    }
+                }
+
+                if (count > 0)
+                {
+                    positions[y] = Arrays.copyOf(rowPositions, count);
+                    magnitudes[y] = Arrays.copyOf(rowMagnitudes, count);
                 }
             }
-        }
+        });
 
-        return pixels.toArray(new Point[pixels.size()]);
+        return Differences.concat(positions, magnitudes);
     }
 
     /**
      * Compares two images by partitioning them into blocks and checking the number of different pixels
      * in each block. Therefore the difference in color with the given color threshold is calculated.
      * If the number of pixels that are found as different in one block exceeds a number threshold the images
-     * are treated as differently and the pixel coordinates are saved as Point objects.
+     * are treated as differently and the pixel positions are saved.
      * 
      * @param img1
      *            The first image for the comparison
@@ -209,66 +269,202 @@ public class ImageHelper
      * @param colorTolerance A threshold value that calculates the allowed difference in color between two pixels [0-1[
      * @param pixelTolerance A threshold value that calculates the allowed number of different pixels per block [0-1[
      * @param fuzzyBlockDimension The x and y dimension d of one block of pixels(d*d), which are validated together
-     * @return Point[] array that contains the coordinates of pixels that are different
+     * @return the pixels that are different
      */
-    protected static Point[] fuzzyCompare(final BufferedImage img1, final BufferedImage img2, final double colorTolerance,
+    protected static Differences fuzzyCompare(final BufferedImage img1, final BufferedImage img2, final double colorTolerance,
             final double pixelTolerance, final int fuzzyBlockDimension)
     {
-        final ArrayList<Point> pixels = new ArrayList<>();
+        return fuzzyCompare(IntRaster.of(img1), IntRaster.of(img2), null, colorTolerance, pixelTolerance, fuzzyBlockDimension);
+    }
+
+    /**
+     * Block based comparison that ignores the masked pixels, see
+     * {@link #fuzzyCompare(BufferedImage, BufferedImage, double, double, int)}. Masked pixels count as equal, so
+     * they don't use up the allowed differences of a block. Rasters must have the same size
+     * 
+     * @param raster1 The first raster for the comparison
+     * @param raster2 The second raster for the comparison
+     * @param mask The mask, pixels that are {@link #BLACK} in the mask are ignored, null for no mask
+     * @param colorTolerance A threshold value that calculates the allowed difference in color between two pixels [0-1[
+     * @param pixelTolerance A threshold value that calculates the allowed number of different pixels per block [0-1[
+     * @param fuzzyBlockDimension The x and y dimension d of one block of pixels(d*d), which are validated together
+     * @return the pixels that are different
+     */
+    static Differences fuzzyCompare(final IntRaster raster1, final IntRaster raster2, final IntRaster mask,
+            final double colorTolerance, final double pixelTolerance, final int fuzzyBlockDimension)
+    {
+        final int width = raster1.width;
+        final int height = raster1.height;
+        final IntBuffer pixels1 = raster1.pixels;
+        final IntBuffer pixels2 = raster2.pixels;
+        final IntBuffer maskPixels = mask == null ? null : mask.pixels;
+        final int maskColor = BLACK.getRGB();
 
         // Calculate the number of blocks for each axis
-        final int horizontalBlockCount = img1.getWidth() / fuzzyBlockDimension;
-        final int verticalBlockCount = img1.getHeight() / fuzzyBlockDimension;
+        final int horizontalBlockCount = width / fuzzyBlockDimension;
+        final int verticalBlockCount = height / fuzzyBlockDimension;
 
-        // For each block
-        for (int x = 0; x < horizontalBlockCount; x++)
-        {
-            for (int y = 0; y < verticalBlockCount; y++)
+        // the differences per block row
+        final int[][] positions = new int[verticalBlockCount][];
+        final byte[][] magnitudes = new byte[verticalBlockCount][];
+
+        // For each row of blocks
+        RasterOps.forEachRow(horizontalBlockCount * fuzzyBlockDimension, verticalBlockCount, (startBlockY, endBlockY) -> {
+            // position and magnitude of a difference packed into one value, so that both can be sorted together
+            final long[] blockDifferences = new long[fuzzyBlockDimension * fuzzyBlockDimension];
+
+            for (int y = startBlockY; y < endBlockY; y++)
             {
-                final ArrayList<Point> tempCoordinates = new ArrayList<>();
-                final int horizontalBlockWidth = calcBlockLength(fuzzyBlockDimension, x, img1.getWidth());
-                final int verticalBlockHeight = calcBlockLength(fuzzyBlockDimension, y, img1.getHeight());
-                final int differencesAllowed = (int) Math.floor(horizontalBlockWidth * verticalBlockHeight * pixelTolerance);
-                int differencesPerBlock = 0;
-
-                // For each pixel in this block, check for differences
-                for (int w = 0; w < horizontalBlockWidth; w++)
+                long[] rowDifferences = new long[0];
+                int rowCount = 0;
+
+                for (int x = 0; x < horizontalBlockCount; x++)
                 {
+                    final int horizontalBlockWidth = calcBlockLength(fuzzyBlockDimension, x, width);
+                    final int verticalBlockHeight = calcBlockLength(fuzzyBlockDimension, y, height);
+                    final int differencesAllowed = (int) Math.floor(horizontalBlockWidth * verticalBlockHeight * pixelTolerance);
+                    int differencesPerBlock = 0;
+
+                    // For each pixel in this block, check for differences
                     for (int h = 0; h < verticalBlockHeight; h++)
                     {
-                        final int xCoord = x * fuzzyBlockDimension + w;
-                        final int yCoord = y * fuzzyBlockDimension + h;
-
-                        // calculate the difference and draw the differenceImage
-                        // if needed
-                        final double difference = calculatePixelRGBDiff(img1.getRGB(xCoord, yCoord), img2.getRGB(xCoord, yCoord));
+                        final int offset = (y * fuzzyBlockDimension + h) * width;
 
-                        // If there is a notable difference
-                        if (difference > colorTolerance)
+                        for (int w = 0; w < horizontalBlockWidth; w++)
                         {
+                            final int position = offset + x * fuzzyBlockDimension + w;
+                            final int rgb1 = pixels1.get(position);
+                            final int rgb2 = pixels2.get(position);
+
+                            // If there is a notable difference outside of the mask, remember it
+                            if (rgb1 != rgb2 && (maskPixels == null || maskPixels.get(position) != maskColor))
+                            {
+                                final double difference = calculatePixelRGBDiff(rgb1, rgb2);
+                                if (difference > colorTolerance)
+                                {
+                                    blockDifferences[differencesPerBlock++] = (long) position << 8 | Differences.toMagnitude(difference);
+                                }
+                            }
+                        }
+                    }
 
-                            // Increment differencesPerBlock and add the
-                            // coordinates to the
-                            // temporary arraylists
-                            differencesPerBlock++;
-                            tempCoordinates.add(new Point(xCoord,yCoord));
+                    // If the number of differences exceeds the threshold, save the pixels
+                    // that are different
+                    if (differencesPerBlock > differencesAllowed)
+                    {
+                        if (rowDifferences.length < rowCount + differencesPerBlock)
+                        {
+                            rowDifferences = Arrays.copyOf(rowDifferences, Math.max(2 * rowDifferences.length, rowCount + differencesPerBlock));
                         }
+                        System.arraycopy(blockDifferences, 0, rowDifferences, rowCount, differencesPerBlock);
+                        rowCount += differencesPerBlock;
                     }
                 }
 
-                // If the number of differences exceeds the threshold, save the coordinates of the pixels
-                // that are different
-                if (differencesPerBlock > differencesAllowed)
+                if (rowCount > 0)
                 {
-                    pixels.addAll(tempCoordinates);
+                    // the blocks are visited one after the other, bring the positions into row order
+                    Arrays.sort(rowDifferences, 0, rowCount);
+
+                    positions[y] = new int[rowCount];
+                    magnitudes[y] = new byte[rowCount];
+                    for (int i = 0; i < rowCount; i++)
+                    {
+                        positions[y][i] = (int) (rowDifferences[i] >>> 8);
+                        magnitudes[y][i] = (byte) rowDifferences[i];
+                    }
                 }
+            }
+        });
 
-                // clear the temporary coordinates
-                tempCoordinates.clear();
+        return Differences.concat(positions, magnitudes);
+    }
+
+    /**
+     * Runs the kernel of the given algorithm on rasters of the same size
+     * 
+     * @param raster1 The first raster for the comparison
+     * @param raster2 The second raster for the comparison
+     * @param mask The mask, pixels that are {@link #BLACK} in the mask are ignored, null for no mask
+     * @param algorithm The algorithm with which the rasters are compared
+     * @return the pixels that are different, null if the rasters have different sizes
+     */
+    static Differences compare(final IntRaster raster1, final IntRaster raster2, final IntRaster mask,
+            final ComparisonAlgorithm algorithm)
+    {
+        switch (algorithm.getType())
+        {
+        case EXACTMATCH:
+            return compareImages(raster1, raster2, mask);
+
+        case COLORFUZZY:
+            return colorFuzzyCompare(raster1, raster2, mask, algorithm.getColorTolerance());
+
+        case PIXELFUZZY:
+            return fuzzyCompare(raster1, raster2, mask, algorithm.getColorTolerance(), algorithm.getPixelTolerance(),
+                                algorithm.getFuzzyBlockSize());
+        }
+
+        return null;
+    }
+
+    /**
+     * Counts the pixels of an image that have exactly the given color.
+     * 
+     * @param image the image to check
+     * @param argb the color to count
+     * @return the number of pixels with that color
+     */
+    protected static long countPixels(final BufferedImage image, final int argb)
+    {
+        return countPixels(IntRaster.of(image), argb);
+    }
+
+    /**
+     * Counts the pixels of a raster that have exactly the given color.
+     * 
+     * @param raster the raster to check
+     * @param argb the color to count
+     * @return the number of pixels with that color
+     */
+    static long countPixels(final IntRaster raster, final int argb)
+    {
+        final int width = raster.width;
+        final int height = raster.height;
+        final IntBuffer pixels = raster.pixels;
+
+        final long[] counts = new long[height];
+        RasterOps.forEachRow(width, height, (startY, endY) -> {
+            for (int y = startY; y < endY; y++)
+            {
+                long count = 0;
+                for (int i = y * width; i < (y + 1) * width; i++)
+                {
+                    if (pixels.get(i) == argb)
+                    {
+                        count++;
+                    }
+                }
+                counts[y] = count;
             }
+        });
+
+        long count = 0;
+        for (final long c : counts)
+        {
+            count += c;
         }
 
-        return pixels.toArray(new Point[pixels.size()]);
+        return count;
+    }
+
+    /**
+     * Checks whether the rasters and the optional mask have the same size
+     */
+    private static boolean haveSameSize(final IntRaster raster1, final IntRaster raster2, final IntRaster mask)
+    {
+        return raster1.width == raster2.width && raster1.height == raster2.height
+               && (mask == null || mask.width == raster1.width && mask.height == raster1.height);
     }
 
     /**
@@ -288,43 +484,47 @@ public class ImageHelper
             final int scalingFactor, final int rgbForegroundColor)
     {
 
-        final BufferedImage scaledImage = new BufferedImage(newWidth, newHeight, BufferedImage.TYPE_INT_ARGB);
-        boolean hasForegroundColor;
+        final int width = img.getWidth();
+        final int height = img.getHeight();
+        final int[] pixels = RasterOps.pixels(img);
+        final int[] scaled = new int[newWidth * newHeight];
 
         // Go through every pixel of the scaled image
-        for (int w = 0; w < scaledImage.getWidth(); w++)
-        {
-            for (int h = 0; h < scaledImage.getHeight(); h++)
+        RasterOps.forEachRow(newWidth * scalingFactor, newHeight, (startH, endH) -> {
+            for (int h = startH; h < endH; h++)
             {
-                hasForegroundColor = false;
-
-                // Check if the corresponding block in the image to scale has a
-                // black pixel
-                for (int x = w * scalingFactor; x < (w + 1) * scalingFactor; x++)
+                for (int w = 0; w < newWidth; w++)
                 {
-                    for (int y = h * scalingFactor; y < (h + 1) * scalingFactor; y++)
+                    // Check if the corresponding block in the image to scale has a
+                    // black pixel, so long as it isn't over the border
+                    final int endX = Math.min((w + 1) * scalingFactor, width);
+                    final int endY = Math.min((h + 1) * scalingFactor, height);
+
+                    boolean hasForegroundColor = false;
+                    for (int y = h * scalingFactor; y < endY && !hasForegroundColor; y++)
                     {
-                        // Check if it isn't over the border
-                        if (x < img.getWidth() && y < img.getHeight())
+                        final int offset = y * width;
+                        for (int x = w * scalingFactor; x < endX; x++)
                         {
-                            if (img.getRGB(x, y) == rgbForegroundColor)
+                            if (pixels[offset + x] == rgbForegroundColor)
                             {
                                 hasForegroundColor = true;
                                 break;
                             }
                         }
                     }
-                }
 
-                // And set the pixel of the scaled image black if the
-                // corresponding block had any black pixel
-                if (hasForegroundColor)
-                {
-                    scaledImage.setRGB(w, h, rgbForegroundColor);
+                    // And set the pixel of the scaled image black if the
+                    // corresponding block had any black pixel
+                    if (hasForegroundColor)
+                    {
+                        scaled[h * newWidth + w] = rgbForegroundColor;
+                    }
                 }
             }
-        }
-        return scaledImage;
+        });
+
+        return RasterOps.toImage(scaled, newWidth, newHeight);
     }
 
     /**
@@ -344,34 +544,40 @@ public class ImageHelper
             final int scalingFactor, final int rgbForegroundColor)
     {
 
-        final BufferedImage scaledImage = new BufferedImage(newWidth, newHeight, BufferedImage.TYPE_INT_ARGB);
+        final int width = img.getWidth();
+        final int height = img.getHeight();
+        final int[] pixels = RasterOps.pixels(img);
+        final int[] scaled = new int[newWidth * newHeight];
 
-        // Go through every pixel of the image to scale
-        for (int w = 0; w < img.getWidth(); w++)
-        {
-            for (int h = 0; h < img.getHeight(); h++)
+        // Go through every row of the scaled image, the rows of the blocks never overlap
+        RasterOps.forEachRow(newWidth, newHeight, (startY, endY) -> {
+            for (int y = startY; y < endY; y++)
             {
-                // Check if it has the foreground color
-                if (img.getRGB(w, h) == rgbForegroundColor)
+                final int h = y / scalingFactor;
+                if (h >= height)
+                {
+                    break;
+                }
+
+                // Set every pixel in the corresponding block if the pixel of the image to scale
+                // has the foreground color, so long as it doesn't go over the border
+                final int offset = h * width;
+                for (int w = 0; w < width; w++)
                 {
-                    // And set every pixel in the corresponding block true if it
-                    // does
-                    for (int x = w * scalingFactor; x < w * scalingFactor + scalingFactor; x++)
+                    if (pixels[offset + w] == rgbForegroundColor)
                     {
-                        for (int y = h * scalingFactor; y < h * scalingFactor + scalingFactor; y++)
+                        final int startX = w * scalingFactor;
+                        final int endX = Math.min(startX + scalingFactor, newWidth);
+                        if (startX < endX)
                         {
-                            // So long as it doesn't go over the border
-                            if (x < scaledImage.getWidth() && y < scaledImage.getHeight())
-                            {
-                                scaledImage.setRGB(x, y, rgbForegroundColor);
-                            }
+                            Arrays.fill(scaled, y * newWidth + startX, y * newWidth + endX, rgbForegroundColor);
                         }
                     }
                 }
             }
-        }
+        });
 
-        return scaledImage;
+        return RasterOps.toImage(scaled, newWidth, newHeight);
     }
 
     /**
@@ -385,15 +591,9 @@ public class ImageHelper
      */
     protected static BufferedImage increaseImageSize(final BufferedImage img, final int width, final int height)
     {
-        final BufferedImage newImg = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
-        final Graphics g = newImg.createGraphics();
+        final int[] resized = RasterOps.resize(RasterOps.pixels(img), img.getWidth(), img.getHeight(), width, height, 0);
 
-        g.setColor(new Color(0, 0, 0, 0));
-        g.fillRect(0, 0, width, height);
-
-        g.drawImage(img, 0, 0, null);
-        g.dispose();
-        return newImg;
+        return RasterOps.toImage(resized, width, height);
     }
 
     /**
@@ -424,21 +624,14 @@ public class ImageHelper
     protected static BufferedImage overlayMaskImage(final BufferedImage image, final BufferedImage overlay,
             final int rgbForegroundColor)
     {
-        final BufferedImage copy = copyImage(image);
+        final int width = image.getWidth();
+        final int height = image.getHeight();
 
         // Go through every pixel of the image
-        for (int x = 0; x < copy.getWidth(); x++)
-        {
-            for (int y = 0; y < copy.getHeight(); y++)
-            {
-                if (overlay.getRGB(x, y) == rgbForegroundColor)
-                {
-                    copy.setRGB(x, y, rgbForegroundColor);
-                }
-            }
-        }
+        final int[] copy = RasterOps.copyPixels(image);
+        RasterOps.overlay(copy, RasterOps.pixels(overlay), width, height, rgbForegroundColor);
 
-        return copy;
+        return RasterOps.toImage(copy, width, height);
     }
 
     /**
@@ -460,9 +653,10 @@ public class ImageHelper
             final int rgbForegroundColor, final int rgbBackgroundColor)
     {
 
-        final BufferedImage erosionedImage = new BufferedImage(img.getWidth(), img.getHeight(), BufferedImage.TYPE_INT_ARGB);
-
-        boolean fits;
+        final int width = img.getWidth();
+        final int height = img.getHeight();
+        final int[] pixels = RasterOps.pixels(img);
+        final int[] erosioned = new int[width * height];
 
         // The origin of the structuring element will be it's middle pixel
         // Therefore make sure there is a middle pixel, ie make width and height
@@ -476,50 +670,48 @@ public class ImageHelper
             structElementHeight++;
         }
 
+        final int halfWidth = structElementWidth / 2;
+        final int halfHeight = structElementHeight / 2;
+
         // Metaphorically places the structure element
         // In every possible position
-        for (int w = 0; w < img.getWidth(); w++)
-        {
-            for (int h = 0; h < img.getHeight(); h++)
+        RasterOps.forEachRow(width, height, (startH, endH) -> {
+            for (int h = startH; h < endH; h++)
             {
+                // As long as the pixels not over the border
+                final int startY = Math.max(0, h - halfHeight);
+                final int endY = Math.min(height - 1, h + halfHeight);
 
-                fits = true;
-
-                // The origin of the structuring element is it's middle pixel
-                for (int x = w - (structElementWidth / 2); x <= w + (structElementWidth / 2); x++)
+                for (int w = 0; w < width; w++)
                 {
-                    for (int y = h - (structElementHeight / 2); y <= h + (structElementHeight / 2); y++)
+                    final int startX = Math.max(0, w - halfWidth);
+                    final int endX = Math.min(width - 1, w + halfWidth);
+
+                    // Assumes all the pixels in the structureImage are
+                    // 1. If one pixel does not have the right color
+                    // black, it does not fit and the search can stop
+                    boolean fits = true;
+                    for (int y = startY; y <= endY && fits; y++)
                     {
-
-                        // As long as the pixels not over the border
-                        if (x >= 0 && x < img.getWidth() && y >= 0 && y < img.getHeight())
+                        final int offset = y * width;
+                        for (int x = startX; x <= endX; x++)
                         {
-
-                            // Assumes all the pixels in the structureImage are
-                            // 1. If the pixel does not have the right color
-                            // black, set fits false, set the pixel in the
-                            // erosionImage to the foreground color and break
-                            // the loop
-                            if (img.getRGB(x, y) != rgbForegroundColor)
+                            if (pixels[offset + x] != rgbForegroundColor)
                             {
                                 fits = false;
-                                erosionedImage.setRGB(w, h, rgbBackgroundColor);
                                 break;
                             }
                         }
                     }
-                }
 
-                // After every pixel was checked and if fits is true
-                // Set the pixel in the erosionImage black
-                // Some room for performance increase with a better break?
-                if (fits)
-                {
-                    erosionedImage.setRGB(w, h, rgbForegroundColor);
+                    // Set the pixel in the erosionImage black if it fits,
+                    // to the background color otherwise
+                    erosioned[h * width + w] = fits ? rgbForegroundColor : rgbBackgroundColor;
                 }
             }
-        }
-        return erosionedImage;
+        });
+
+        return RasterOps.toImage(erosioned, width, height);
     }
 
     /**
@@ -544,8 +736,10 @@ public class ImageHelper
             final int rgbForegroundColor, final int rgbBackgroundColor)
     {
 
-        final BufferedImage dilationImage = new BufferedImage(img.getWidth(), img.getHeight(), BufferedImage.TYPE_INT_ARGB);
-        boolean hits;
+        final int width = img.getWidth();
+        final int height = img.getHeight();
+        final int[] pixels = RasterOps.pixels(img);
+        final int[] dilation = new int[width * height];
 
         // The origin of the structuring element will be it's middle pixel
         // Therefore make sure there is a middle pixel, ie make width and height
@@ -559,51 +753,49 @@ public class ImageHelper
             structElementHeight++;
         }
 
+        final int halfWidth = structElementWidth / 2;
+        final int halfHeight = structElementHeight / 2;
+
         // Metaphorically places the structure element
         // In every possible position
-        for (int w = 0; w < img.getWidth(); w++)
-        {
-            for (int h = 0; h < img.getHeight(); h++)
+        RasterOps.forEachRow(width, height, (startH, endH) -> {
+            for (int h = startH; h < endH; h++)
             {
+                // As long as the pixels don't go over the border
+                final int startY = Math.max(0, h - halfHeight);
+                final int endY = Math.min(height - 1, h + halfHeight);
 
-                hits = false;
-
-                // Check every pixel of the structured element
-                // against the pixel it metaphorically overlaps
-                // There might be some room for performance increase here
-                // The origin of the structuring element is it's middle pixel
-                for (int x = w - (structElementWidth / 2); x <= w + (structElementWidth / 2); x++)
+                for (int w = 0; w < width; w++)
                 {
-                    for (int y = h - (structElementHeight / 2); y <= h + (structElementHeight / 2); y++)
+                    final int startX = Math.max(0, w - halfWidth);
+                    final int endX = Math.min(width - 1, w + halfWidth);
+
+                    // Check every pixel of the structured element
+                    // against the pixel it metaphorically overlaps.
+                    // Assumes all the pixels in the structureImage are
+                    // 1. If one pixel is black, it hits and the search can stop
+                    boolean hits = false;
+                    for (int y = startY; y <= endY && !hits; y++)
                     {
-
-                        // As long as the pixels don't go over the border
-                        if (x >= 0 && x < img.getWidth() && y >= 0 && y < img.getHeight())
+                        final int offset = y * width;
+                        for (int x = startX; x <= endX; x++)
                         {
-
-                            // Assumes all the pixels in the structureImage are
-                            // 1. If the pixel is black, set hits true, set the
-                            // pixel in the dilationImage to the foreground
-                            // color
-                            // and break the loop
-                            if (img.getRGB(x, y) == rgbForegroundColor)
+                            if (pixels[offset + x] == rgbForegroundColor)
                             {
                                 hits = true;
-                                dilationImage.setRGB(w, h, rgbForegroundColor);
+                                break;
                             }
                         }
                     }
-                }
 
-                // After every pixel was checked and if hits is false
-                // Set the pixel in the dilationImage to he background color
-                if (!hits)
-                {
-                    dilationImage.setRGB(w, h, rgbBackgroundColor);
+                    // Set the pixel in the dilationImage to the foreground color if it hits,
+                    // to the background color otherwise
+                    dilation[h * width + w] = hits ? rgbForegroundColor : rgbBackgroundColor;
                 }
             }
-        }
-        return dilationImage;
+        });
+
+        return RasterOps.toImage(dilation, width, height);
     }
 
     /**
@@ -648,12 +840,12 @@ public class ImageHelper
      *
      * @param image the original image for which the differences were found
      * @param pixels
-     *            the array with the differences.
+     *            the positions (y * width + x) of the differences.
      * @param markingSizeX Length of the marker on the x axis
      * @param markingSizeY Length of the marker on the y axis
      * @return Copy of the original image with marked pixels
      */
-    protected static BufferedImage markDifferencesWithBoxes(final BufferedImage image, final Point[] pixels,
+    protected static BufferedImage markDifferencesWithBoxes(final BufferedImage image, final int[] pixels,
             final int markingSizeX, final int markingSizeY)
     {
         if (pixels == null)
@@ -661,48 +853,48 @@ public class ImageHelper
             return null;
         }
 
-        final BufferedImage copy = copyImage(image);
+        final int imageWidth = image.getWidth();
+        final int imageHeight = image.getHeight();
+        final int[] copy = RasterOps.copyPixels(image);
 
         // Check if markingX or markingY are 1. If they are, just mark every
         // different pixel,
         // don't bother with rectangles
         if (markingSizeX == 1 || markingSizeY == 1)
         {
-            for (final Point pixel : pixels)
+            for (final int pixel : pixels)
             {
-                colorPixel(copy, pixel.x, pixel.y, null);
+                colorPixel(copy, pixel);
             }
 
-            return copy;
+            return RasterOps.toImage(copy, imageWidth, imageHeight);
         }
 
-        final int imageWidth = copy.getWidth();
-        final int imageHeight = copy.getHeight();
         // And if markingX and markingY are above one, paint rectangles!
         // Normal case
-        final int blocksX = imageWidth / markingSizeX;
-        final int blocksY = imageHeight / markingSizeY;
+        final int blocksX = imageWidth / markingSizeX + 1;
+        final int blocksY = imageHeight / markingSizeY + 1;
 
-        final boolean[][] markedBlocks = new boolean[blocksX + 1][blocksY + 1];
+        final boolean[] markedBlocks = new boolean[blocksX * blocksY];
 
         int xBlock, yBlock, subImageWidth, subImageHeight;
 
-        for (final Point pixel : pixels)
+        for (final int pixel : pixels)
         {
-            xBlock = pixel.x / markingSizeX;
-            yBlock = pixel.y / markingSizeY;
-
-            subImageWidth = calcBlockLength(markingSizeX, xBlock, imageWidth);
-            subImageHeight = calcBlockLength(markingSizeY, yBlock, imageHeight);
+            xBlock = (pixel % imageWidth) / markingSizeX;
+            yBlock = (pixel / imageWidth) / markingSizeY;
 
-            if (!markedBlocks[xBlock][yBlock])
+            if (!markedBlocks[yBlock * blocksX + xBlock])
             {
-                drawBorders(copy, xBlock, yBlock, markingSizeX, markingSizeY, subImageWidth, subImageHeight, null);
-                markedBlocks[xBlock][yBlock] = true;
+                subImageWidth = calcBlockLength(markingSizeX, xBlock, imageWidth);
+                subImageHeight = calcBlockLength(markingSizeY, yBlock, imageHeight);
+
+                drawBorders(copy, imageWidth, xBlock, yBlock, markingSizeX, markingSizeY, subImageWidth, subImageHeight);
+                markedBlocks[yBlock * blocksX + xBlock] = true;
             }
         }
 
-        return copy;
+        return RasterOps.toImage(copy, imageWidth, imageHeight);
     }
 
 
@@ -710,15 +902,19 @@ public class ImageHelper
      * Method to mark areas around the detected differences. Goes through every pixel that was different and marks the
      * marking block it is in, unless it was marked already. <br>
      * If markingX of markingY are 1, it will simply mark the detected differences.
+     * <p>
+     * The translucent highlighter is blended with integer arithmetic directly on the raster. Every block is painted
+     * over the pixels it covers, so a pixel that is covered by n blocks is blended n times, which gives exactly the
+     * same result as filling the blocks one after the other with Graphics2D.
      *
      * @param image the original image for which the differences were found
      * @param pixels
-     *            the array with the differences.
+     *            the positions (y * width + x) of the differences.
      * @param markingSizeX Length of the marker on the x axis
      * @param markingSizeY Length of the marker on the y axis
      * @return Copy of the original image with marked pixels
      */
-    protected static BufferedImage markDifferencesWithAMarker(final BufferedImage image, final Point[] pixels,
+    protected static BufferedImage markDifferencesWithAMarker(final BufferedImage image, final int[] pixels,
             final int markingSizeX, final int markingSizeY)
     {
         if (pixels == null)
@@ -726,83 +922,141 @@ public class ImageHelper
             return null;
         }
 
-        final BufferedImage imageCopy = copyImage(image);
-
-        final Color highlighterColor = new Color(228, 252, 90, 50);
-        final Color pixelEmphasizeColor = new Color(228, 0, 0);
+        final int imageWidth = image.getWidth();
+        final int imageHeight = image.getHeight();
+        final int[] imageCopy = RasterOps.copyPixels(image);
 
-        final Graphics2D g = imageCopy.createGraphics();
-        g.setColor(highlighterColor);
+        // the blocks start and end rows grow with the positions, as the positions are sorted, so every band of rows
+        // can sweep over the blocks and only keeps track of the blocks that cover its current row
+        RasterOps.forEachRow(imageWidth, imageHeight, (startY, endY) -> {
+            // number of covering blocks that start or end at each column
+            final int[] columns = new int[imageWidth + 1];
 
-        for (final Point pixel : pixels)
-        {
-            // the middle of the block should be our pixel to make it marker like
-            int x = pixel.x - (markingSizeX / 2);
-            int y = pixel.y - (markingSizeY / 2);
-
-            // avoid negative values
-            x = x < 0 ? 0 : x;
-            y = y < 0 ? 0 : y;
+            // skip all blocks that end above this band
+            int added = firstBlockEndingBelow(pixels, imageWidth, imageHeight, markingSizeY, startY);
+            int removed = added;
 
-            g.fillRect(x, y, markingSizeX, markingSizeY);
-        }
+            for (int y = startY; y < endY; y++)
+            {
+                while (added < pixels.length && markerStartY(pixels[added], imageWidth, markingSizeY) <= y)
+                {
+                    addMarkerBlock(columns, pixels[added++], imageWidth, markingSizeX, 1);
+                }
+                while (removed < added && markerEndY(pixels[removed], imageWidth, imageHeight, markingSizeY) <= y)
+                {
+                    addMarkerBlock(columns, pixels[removed++], imageWidth, markingSizeX, -1);
+                }
 
-        g.dispose();
+                // paint the highlighter as often as the pixel is covered
+                int count = 0;
+                for (int x = 0, position = y * imageWidth; x < imageWidth; x++, position++)
+                {
+                    count += columns[x];
+                    if (count > 0)
+                    {
+                        imageCopy[position] = HIGHLIGHTER.paint(imageCopy[position], count);
+                    }
+                }
+            }
+        });
 
         // mark the pixels on the new background
-        for (final Point pixel : pixels)
+        for (final int pixel : pixels)
         {
-            imageCopy.setRGB(pixel.x, pixel.y, pixelEmphasizeColor.getRGB());
+            imageCopy[pixel] = PIXEL_EMPHASIZE_COLOR;
         }
 
-        return imageCopy;
+        return RasterOps.toImage(imageCopy, imageWidth, imageHeight);
     }
 
     /**
-     * Colors a certain pixel using getComplementaryColor. Works directly on imgOut.
-     * 
-     * @param x
-     *            the x coordinate of the pixel to color
-     * @param y
-     *            the y coordinate of the pixel to color
+     * First row of the marker block around a different pixel, the middle of the block is the pixel itself
      */
-    protected static void colorPixel(final BufferedImage image, final int x, final int y, final Color c)
+    private static int markerStartY(final int position, final int imageWidth, final int markingSizeY)
     {
-        Color newColor;
+        return Math.max(0, position / imageWidth - (markingSizeY / 2));
+    }
 
-        if (c == null)
-        {
-            final Color currentColor = new Color(image.getRGB(x, y));
-            final double redLimit = 0.8;
+    /**
+     * Row after the last row of the marker block around a different pixel
+     */
+    private static int markerEndY(final int position, final int imageWidth, final int imageHeight, final int markingSizeY)
+    {
+        return Math.min(imageHeight, markerStartY(position, imageWidth, markingSizeY) + markingSizeY);
+    }
 
-            final int nonRedSum = currentColor.getGreen() + currentColor.getBlue();
-            final double results = nonRedSum > 0 ? currentColor.getRed() / nonRedSum : 0;
+    /**
+     * Adds (or removes) the columns of the marker block around a different pixel to the column counts
+     */
+    private static void addMarkerBlock(final int[] columns, final int position, final int imageWidth,
+            final int markingSizeX, final int delta)
+    {
+        final int startX = Math.max(0, position % imageWidth - (markingSizeX / 2));
 
-            if (results > redLimit)
+        columns[startX] += delta;
+        columns[Math.min(imageWidth, startX + markingSizeX)] -= delta;
+    }
+
+    /**
+     * Binary search for the first different pixel whose marker block ends below the given row
+     */
+    private static int firstBlockEndingBelow(final int[] pixels, final int imageWidth, final int imageHeight,
+            final int markingSizeY, final int y)
+    {
+        int low = 0, high = pixels.length;
+        while (low < high)
+        {
+            final int middle = (low + high) >>> 1;
+            if (markerEndY(pixels[middle], imageWidth, imageHeight, markingSizeY) <= y)
             {
-                // red is strong in that one
-                newColor = Color.GREEN;
+                low = middle + 1;
             }
             else
             {
-                newColor = Color.RED;
+                high = middle;
             }
         }
+
+        return low;
+    }
+
+    /**
+     * Colors a certain pixel of a raster with a color that stands out from its current color. Works directly on the
+     * raster.
+     * 
+     * @param pixels
+     *            the raster
+     * @param position
+     *            the position (y * width + x) of the pixel to color
+     */
+    protected static void colorPixel(final int[] pixels, final int position)
+    {
+        final int currentColor = pixels[position];
+
+        final int red = (currentColor >> 16) & 0xFF;
+        final int nonRedSum = ((currentColor >> 8) & 0xFF) + (currentColor & 0xFF);
+
+        // the red share is an integer division, so it only exceeds the red limit of 0.8 if it is at least 1
+        if (nonRedSum > 0 && red >= nonRedSum)
+        {
+            // red is strong in that one
+            pixels[position] = GREEN;
+        }
         else
         {
-            newColor = c;
+            pixels[position] = RED;
         }
-
-        image.setRGB(x, y, newColor.getRGB());
     }
 
     /**
      * Colors the borders of a certain rectangle. Used to mark blocks. Uses the colorPixel method and subImageHeight/
      * subImageWidth. <br>
-     * Works directly on imgOut.
+     * Works directly on the raster.
      * 
-     * @param image
-     *            The image in which something will be marked
+     * @param pixels
+     *            The raster in which something will be marked
+     * @param imageWidth
+     *            The width of the raster
      * @param currentX
      *            Starting position
      * @param currentY
@@ -814,29 +1068,24 @@ public class ImageHelper
      * @param subImageWidth the width of the partial image
      * @param subImageHeight the height of the partial image
      */
-    protected static void drawBorders(final BufferedImage image, final int currentX, final int currentY, final int width,
-            final int height, final int subImageWidth, final int subImageHeight, final Color c)
+    protected static void drawBorders(final int[] pixels, final int imageWidth, final int currentX, final int currentY,
+            final int width, final int height, final int subImageWidth, final int subImageHeight)
     {
-        int x, y;
+        final int left = currentX * width;
+        final int top = currentY * height * imageWidth;
+        final int bottom = (currentY * height + subImageHeight - 1) * imageWidth;
 
         for (int a = 0; a < subImageWidth; a++)
         {
-            x = currentX * width + a;
-            y = currentY * height;
-            colorPixel(image, x, y, c);
-
-            y = currentY * height + subImageHeight - 1;
-            colorPixel(image, x, y, c);
+            colorPixel(pixels, top + left + a);
+            colorPixel(pixels, bottom + left + a);
         }
 
         for (int b = 1; b < subImageHeight - 1; b++)
         {
-            x = currentX * width;
-            y = currentY * height + b;
-            colorPixel(image, x, y, c);
-
-            x = currentX * width + subImageWidth - 1;
-            colorPixel(image, x, y, c);
+            final int row = top + b * imageWidth;
+            colorPixel(pixels, row + left);
+            colorPixel(pixels, row + left + subImageWidth - 1);
         }
     }
 
@@ -855,24 +1104,13 @@ public class ImageHelper
      */
     protected static BufferedImage markImageBorders(final BufferedImage img, final int startW, final int startH)
     {
-        final BufferedImage copy = copyImage(img);
+        final int width = img.getWidth();
+        final int height = img.getHeight();
 
-        final Color markTransparentWhite = new Color(255, 255, 255, 0);
-        final Graphics2D g = copy.createGraphics();
-
-        g.setColor(markTransparentWhite);
-        g.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_IN, 1.0f));
-
-        if (startW < copy.getWidth())
-        {
-            g.fillRect(startW, 0, copy.getWidth() - startW, copy.getHeight());
-        }
-        if (startH < copy.getHeight())
-        {
-            g.fillRect(0, startH, copy.getWidth(), copy.getHeight() - startH);
-        }
-        g.dispose();
+        // painting transparent white with SRC_IN leaves fully transparent pixels
+        final int[] copy = RasterOps.copyPixels(img);
+        RasterOps.fillBorders(copy, width, height, startW, startH, 0);
 
-        return copy;
+        return RasterOps.toImage(copy, width, height);
     }
 }
@@ -0,0 +1,104 @@
+package com.xceptance.xlt.visualassertion.util;
+
+import java.awt.image.BufferedImage;
+import java.nio.IntBuffer;
+
+/**
+ * ARGB raster (one int per pixel, row after row) as seen by the comparison kernels. The pixels are either held in an
+ * int[] on the heap or outside of it, for example in a memory mapped file, and are only read through an absolute
+ * {@link IntBuffer}, so the kernels don't care where they live.
+ */
+final class IntRaster
+{
+    final int width;
+
+    final int height;
+
+    /**
+     * The pixels, only absolute gets are used, so the position of the buffer does not matter
+     */
+    final IntBuffer pixels;
+
+    IntRaster(final IntBuffer pixels, final int width, final int height)
+    {
+        if (pixels.capacity() < width * height)
+        {
+            throw new IllegalArgumentException("Buffer is too small for a raster of " + width + "x" + height);
+        }
+
+        this.width = width;
+        this.height = height;
+        this.pixels = pixels;
+    }
+
+    /**
+     * Returns the raster of an image, see {@link RasterOps#pixels(BufferedImage)}
+     * @param image The image
+     * @return The raster of the image
+     */
+    static IntRaster of(final BufferedImage image)
+    {
+        return of(RasterOps.pixels(image), image.getWidth(), image.getHeight());
+    }
+
+    /**
+     * Wraps an int[] raster without copying it
+     * @param pixels The ARGB pixels
+     * @param width Width of the raster
+     * @param height Height of the raster
+     * @return The raster
+     */
+    static IntRaster of(final int[] pixels, final int width, final int height)
+    {
+        return new IntRaster(IntBuffer.wrap(pixels), width, height);
+    }
+
+    /**
+     * Returns the pixels as int[], the backing array is returned without copying if there is one
+     * @return The ARGB pixels
+     */
+    int[] toArray()
+    {
+        if (pixels.hasArray() && pixels.arrayOffset() == 0 && pixels.array().length == width * height)
+        {
+            return pixels.array();
+        }
+
+        final int[] target = new int[width * height];
+        RasterOps.forEachRow(width, height, (startY, endY) -> {
+            final IntBuffer source = pixels.duplicate();
+            source.position(startY * width);
+            source.get(target, startY * width, (endY - startY) * width);
+        });
+
+        return target;
+    }
+
+    /**
+     * Brings the raster to the given size, see {@link RasterOps#resize(int[], int, int, int, int, int)}
+     * @param newWidth Width of the new raster
+     * @param newHeight Height of the new raster
+     * @return This raster if it already has the size, a resized copy on the heap otherwise
+     */
+    IntRaster adapt(final int newWidth, final int newHeight)
+    {
+        if (width == newWidth && height == newHeight)
+        {
+            return this;
+        }
+
+        return of(RasterOps.resize(toArray(), width, height, newWidth, newHeight, 0), newWidth, newHeight);
+    }
+
+    /**
+     * Copies the raster into a new image on the heap
+     * @return BufferedImage of type TYPE_INT_ARGB
+     */
+    BufferedImage toImage()
+    {
+        final int[] array = toArray();
+        final boolean shared = pixels.hasArray() && array == pixels.array();
+
+        return RasterOps.toImage(shared ? RasterOps.copy(array, width, height) : array, width, height);
+    }
+}
@@ -28,10 +28,7 @@ public class MaskImage
         if (maskImage == null)
         {
             // create a new mask with same dimensions as reference image
-            this.mask = new BufferedImage(referenceImage.getWidth(),referenceImage.getHeight(), BufferedImage.TYPE_INT_ARGB);
-
-            // fill the mask with transparent white
-            this.mask = ImageHelper.createPlainImage(this.mask, ImageHelper.WHITE_TRANSPARENT);
+            this.mask = createBlankMask(referenceImage.getWidth(), referenceImage.getHeight());
         }
         else
         {
@@ -51,6 +48,18 @@ public class MaskImage
         this(referenceImage, null);
     }
 
+    /**
+     * Creates a mask that does not cover anything
+     * @param width Width of the mask
+     * @param height Height of the mask
+     * @return mask image filled with transparent white
+     */
+    public static BufferedImage createBlankMask(final int width, final int height)
+    {
+        final BufferedImage mask = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        return ImageHelper.createPlainImage(mask, ImageHelper.WHITE_TRANSPARENT);
+    }
+
     /**
      * Returns the mask image
      * @return mask image as BufferedImage
@@ -69,7 +78,7 @@ public class MaskImage
      */
     public void train(final BufferedImage image, final ComparisonAlgorithm algorithm, final RectangleMask markerMask)
     {
-        Point[] differences = null;
+        Differences differences = null;
 
         switch (algorithm.getType())
         {
@@ -87,17 +96,17 @@ public class MaskImage
             break;
         }
 
-        mask = maskDifferences(mask, differences, markerMask, ImageHelper.BLACK);
+        mask = maskDifferences(mask, differences == null ? null : differences.positions, markerMask, ImageHelper.BLACK);
     }
 
     /**
      * Very close to markDifferences. Goes through every pixel that was different and masks the marking block it is in,
      * unless it was marked already. Works directly on the mask image.
      * 
-     * @param pixels pixel positions of the pixels that where detected as different
+     * @param pixels pixel positions (y * width + x) of the pixels that where detected as different
      * @return A BufferedImage in which the pixels at the given positions have been marked in BLACK
      */
-    private BufferedImage maskDifferences(final BufferedImage image, final Point[] pixels,
+    private BufferedImage maskDifferences(final BufferedImage image, final int[] pixels,
                                           final RectangleMask markerMask, final Color maskingColor)
     {
         final BufferedImage copy = ImageHelper.copyImage(image);
@@ -108,10 +117,11 @@ public class MaskImage
         final Graphics2D g = copy.createGraphics();
         g.setColor(maskingColor);
 
-        for (Point pixel : pixels)
+        final int width = reference.getWidth();
+        for (int pixel : pixels)
         {
-            int x = Math.max(0, pixel.x - markerMask.getXDistance());
-            int y = Math.max(0, pixel.y - markerMask.getYDistance());
+            int x = Math.max(0, pixel % width - markerMask.getXDistance());
+            int y = Math.max(0, pixel / width - markerMask.getYDistance());
 
             g.fillRect(x, y, markerMask.getWidth(), markerMask.getHeight());
         }
@@ -0,0 +1,225 @@
+package com.xceptance.xlt.visualassertion.util;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Locale;
+
+/**
+ * Measures how long an assertion spends in each of its phases. Phases can be nested, e.g. a file is written while the
+ * baseline is loaded, the time is always charged to the innermost phase only, so the phases add up to the total.
+ * Not thread safe, use one timer per assertion.
+ */
+public final class PhaseTimer
+{
+    /**
+     * The phases of an assertion
+     */
+    public enum Phase
+    {
+        /**
+         * Waiting for the page before the screenshot is taken
+         */
+        WAIT,
+
+        /**
+         * Taking the screenshot, including the waiting for a stable page
+         */
+        CAPTURE,
+
+        /**
+         * Waiting for the governor to admit the comparison
+         */
+        QUEUE,
+
+        /**
+         * Decoding the screenshot
+         */
+        DECODE,
+
+        /**
+         * Loading or compiling the reference image, the mask and the tile hashes
+         */
+        BASELINE,
+
+        /**
+         * Comparing the screenshot to the reference image
+         */
+        COMPARE,
+
+        /**
+         * Training the mask
+         */
+        TRAIN,
+
+        /**
+         * Rendering the images of a failed assertion
+         */
+        RENDER,
+
+        /**
+         * Encoding and writing screenshots, masks and result images
+         */
+        WRITE;
+
+        /**
+         * Returns the name of the phase as used in the reports
+         * @return the lower case name
+         */
+        public String getName()
+        {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    /**
+     * Is told when a phase starts and ends, e.g. to pass the phases on to a profiler
+     */
+    public interface Listener
+    {
+        /**
+         * Called after a phase was entered
+         * @param phase The phase
+         */
+        void entered(Phase phase);
+
+        /**
+         * Called after a phase was left
+         * @param phase The phase
+         */
+        void exited(Phase phase);
+    }
+
+    private final long[] nanos = new long[Phase.values().length];
+
+    private final int[] entries = new int[Phase.values().length];
+
+    private final Deque<Phase> phases = new ArrayDeque<>();
+
+    private long since;
+
+    private Listener listener;
+
+    /**
+     * Sets the listener that is told about the phases
+     * @param listener The listener, null for none
+     */
+    public void setListener(final Listener listener)
+    {
+        this.listener = listener;
+    }
+
+    /**
+     * Starts a phase within the current one, the current phase is paused until the new one is left
+     * @param phase The phase
+     */
+    public void enter(final Phase phase)
+    {
+        charge();
+        phases.push(phase);
+        entries[phase.ordinal()]++;
+
+        if (listener != null)
+        {
+            listener.entered(phase);
+        }
+    }
+
+    /**
+     * Leaves the current phase and continues the one it was entered from
+     */
+    public void exit()
+    {
+        charge();
+        final Phase phase = phases.pop();
+
+        if (listener != null)
+        {
+            listener.exited(phase);
+        }
+    }
+
+    /**
+     * Returns the number of phases that were entered and not left yet
+     * @return the depth of the current phase, 0 outside of all phases
+     */
+    public int getDepth()
+    {
+        return phases.size();
+    }
+
+    /**
+     * Leaves the phases down to the given depth, e.g. after an exception left them
+     * @param depth The depth from {@link #getDepth()} before the phases were entered
+     */
+    public void exitTo(final int depth)
+    {
+        while (phases.size() > depth)
+        {
+            exit();
+        }
+    }
+
+    /**
+     * Leaves all phases, e.g. after an assertion failed within one of them
+     */
+    public void stop()
+    {
+        charge();
+        while (!phases.isEmpty())
+        {
+            final Phase phase = phases.pop();
+            if (listener != null)
+            {
+                listener.exited(phase);
+            }
+        }
+    }
+
+    /**
+     * Returns the time spent in a phase so far
+     * @param phase The phase
+     * @return the time in nanoseconds
+     */
+    public long getNanos(final Phase phase)
+    {
+        return nanos[phase.ordinal()];
+    }
+
+    /**
+     * Returns the time spent in all phases so far
+     * @return the time in nanoseconds
+     */
+    public long getTotalNanos()
+    {
+        long total = 0;
+        for (final long phase : nanos)
+        {
+            total += phase;
+        }
+
+        return total;
+    }
+
+    /**
+     * Checks whether a phase was entered at all
+     * @param phase The phase
+     * @return true if the phase was entered at least once
+     */
+    public boolean hasRun(final Phase phase)
+    {
+        return entries[phase.ordinal()] > 0;
+    }
+
+    /**
+     * Charges the time since the last change to the current phase
+     */
+    private void charge()
+    {
+        final long now = System.nanoTime();
+        if (!phases.isEmpty())
+        {
+            nanos[phases.peek().ordinal()] += now - since;
+        }
+        since = now;
+    }
+}
@@ -0,0 +1,421 @@
+package com.xceptance.xlt.visualassertion.util;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+
+/**
+ * Small set of raster operations that work directly on int[] ARGB rasters (one int per pixel, row after row).
+ * Operations that touch the full frame are executed row-parallel as soon as the raster is large enough for the
+ * parallelization to pay off, smaller rasters are processed on the calling thread. The rows are processed by a pool of
+ * its own, whose threads take on the priority of the calling thread, so a comparison at low priority runs at low
+ * priority throughout. The {@link TimeBudget} of the calling thread is checked before each band.
+ */
+final class RasterOps
+{
+    /**
+     * Number of pixels from which on full-frame operations are executed in parallel
+     */
+    static final int PARALLEL_THRESHOLD = 256 * 256;
+
+    private static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors(), pool -> {
+        final ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        thread.setName("visualassertion-compute-" + thread.getPoolIndex());
+        thread.setDaemon(true);
+        return thread;
+    }, null, false);
+
+    private RasterOps()
+    {
+    }
+
+    /**
+     * Callback for the processing of a range of rows
+     */
+    interface RowRange
+    {
+        /**
+         * Processes the rows from startY (inclusive) to endY (exclusive)
+         * @param startY First row to process
+         * @param endY Row after the last row to process
+         */
+        void process(int startY, int endY);
+    }
+
+    /**
+     * Runs the given row processor over all rows of a raster. The rows are split into bands which are processed
+     * in parallel if the raster is bigger than {@link #PARALLEL_THRESHOLD}.
+     * @param width Width of the raster
+     * @param height Height of the raster
+     * @param rows The processor for the rows
+     */
+    static void forEachRow(final int width, final int height, final RowRange rows)
+    {
+        // the time budget of the comparison, checked before each band
+        final TimeBudget budget = TimeBudget.current();
+
+        if ((long) width * height < PARALLEL_THRESHOLD || height < 2)
+        {
+            if (budget != null)
+            {
+                budget.check();
+            }
+            rows.process(0, height);
+            return;
+        }
+
+        // a few bands per core, so that uneven work is balanced by the fork join pool
+        final int bands = Math.min(height, Runtime.getRuntime().availableProcessors() * 4);
+        final int bandHeight = (height + bands - 1) / bands;
+        final int priority = Thread.currentThread().getPriority();
+
+        // the calling thread may process bands itself while it waits
+        final ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[bands];
+        for (int band = 0; band < bands; band++)
+        {
+            final int startY = band * bandHeight;
+            final int endY = Math.min(height, startY + bandHeight);
+            tasks[band] = POOL.submit(() -> {
+                inheritPriority(priority);
+                if (budget != null)
+                {
+                    budget.check();
+                }
+                if (startY < endY)
+                {
+                    rows.process(startY, endY);
+                }
+            });
+        }
+
+        // all bands have to be done before the first failure is passed on, none of them may still work on the raster
+        RuntimeException failure = null;
+        for (final ForkJoinTask<?> task : tasks)
+        {
+            try
+            {
+                task.join();
+            }
+            catch (final RuntimeException e)
+            {
+                if (failure == null)
+                {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null)
+        {
+            throw failure;
+        }
+    }
+
+    /**
+     * Gives a thread of the pool the priority of the thread that started the work, other threads are left alone
+     */
+    private static void inheritPriority(final int priority)
+    {
+        final Thread thread = Thread.currentThread();
+        if (thread instanceof ForkJoinWorkerThread && ((ForkJoinWorkerThread) thread).getPool() == POOL
+            && thread.getPriority() != priority)
+        {
+            thread.setPriority(priority);
+        }
+    }
+
+    /**
+     * Runs the given processor over the indexes from 0 to count. The indexes are split into ranges which are
+     * processed in parallel if there are more than {@link #PARALLEL_THRESHOLD} of them.
+     * @param count Number of indexes
+     * @param ranges The processor for the index ranges
+     */
+    static void forEachRange(final int count, final RowRange ranges)
+    {
+        forEachRow(1, count, ranges);
+    }
+
+    /**
+     * Returns the pixels of an image as ARGB raster. If the image is already backed by a plain ARGB int raster,
+     * that raster is returned without copying, so changes to it are visible in the image.
+     * @param image The image
+     * @return The ARGB pixels of the image
+     */
+    static int[] pixels(final BufferedImage image)
+    {
+        if (isPlainIntArgb(image))
+        {
+            return ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        }
+
+        return copyPixels(image);
+    }
+
+    /**
+     * Returns a copy of the pixels of an image as ARGB raster.
+     * @param image The image
+     * @return A new raster with the ARGB pixels of the image
+     */
+    static int[] copyPixels(final BufferedImage image)
+    {
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+
+        if (isPlainIntArgb(image))
+        {
+            final int[] source = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+            return copy(source, width, height);
+        }
+
+        final int[] target = new int[width * height];
+        forEachRow(width, height, (startY, endY) -> image.getRGB(0, startY, width, endY - startY, target, startY * width, width));
+
+        return target;
+    }
+
+    /**
+     * Wraps an ARGB raster into a BufferedImage of type TYPE_INT_ARGB without copying it.
+     * @param data The ARGB raster
+     * @param width Width of the raster
+     * @param height Height of the raster
+     * @return BufferedImage that is backed by the given raster
+     */
+    static BufferedImage toImage(final int[] data, final int width, final int height)
+    {
+        final DirectColorModel colorModel = (DirectColorModel) ColorModel.getRGBdefault();
+        final SinglePixelPackedSampleModel sampleModel = new SinglePixelPackedSampleModel(DataBufferInt.TYPE_INT, width, height,
+                colorModel.getMasks());
+        final WritableRaster raster = Raster.createWritableRaster(sampleModel, new DataBufferInt(data, data.length), null);
+
+        return new BufferedImage(colorModel, raster, false, null);
+    }
+
+    /**
+     * Creates a copy of a raster
+     * @param source The raster to copy
+     * @param width Width of the raster
+     * @param height Height of the raster
+     * @return The copy
+     */
+    static int[] copy(final int[] source, final int width, final int height)
+    {
+        final int[] target = new int[width * height];
+        forEachRow(width, height, (startY, endY) -> System.arraycopy(source, startY * width, target, startY * width,
+                (endY - startY) * width));
+
+        return target;
+    }
+
+    /**
+     * Fills the whole raster with one color
+     * @param target The raster to fill
+     * @param width Width of the raster
+     * @param height Height of the raster
+     * @param argb The color
+     */
+    static void fill(final int[] target, final int width, final int height, final int argb)
+    {
+        fillRect(target, width, height, 0, 0, width, height, argb);
+    }
+
+    /**
+     * Fills a rectangle of the raster with one color, the rectangle is clipped to the raster bounds.
+     * @param target The raster to fill
+     * @param width Width of the raster
+     * @param height Height of the raster
+     * @param x Left border of the rectangle
+     * @param y Top border of the rectangle
+     * @param rectWidth Width of the rectangle
+     * @param rectHeight Height of the rectangle
+     * @param argb The color
+     */
+    static void fillRect(final int[] target, final int width, final int height, final int x, final int y,
+            final int rectWidth, final int rectHeight, final int argb)
+    {
+        final int startX = Math.max(0, x);
+        final int startY = Math.max(0, y);
+        final int endX = (int) Math.min(width, (long) x + rectWidth);
+        final int endY = (int) Math.min(height, (long) y + rectHeight);
+
+        if (startX >= endX || startY >= endY)
+        {
+            return;
+        }
+
+        forEachRow(endX - startX, endY - startY, (fromRow, toRow) -> {
+            for (int row = startY + fromRow; row < startY + toRow; row++)
+            {
+                final int offset = row * width;
+                Arrays.fill(target, offset + startX, offset + endX, argb);
+            }
+        });
+    }
+
+    /**
+     * Sets every pixel of the target raster to the foreground color where the overlay raster has the foreground
+     * color. Both rasters must have the same dimensions.
+     * @param target The raster to paint on
+     * @param overlay The overlay raster
+     * @param width Width of the rasters
+     * @param height Height of the rasters
+     * @param rgbForegroundColor The foreground color
+     */
+    static void overlay(final int[] target, final int[] overlay, final int width, final int height,
+            final int rgbForegroundColor)
+    {
+        forEachRow(width, height, (startY, endY) -> {
+            for (int i = startY * width; i < endY * width; i++)
+            {
+                if (overlay[i] == rgbForegroundColor)
+                {
+                    target[i] = rgbForegroundColor;
+                }
+            }
+        });
+    }
+
+    /**
+     * Creates a new raster with the given size which holds the source raster in the top left corner. Pixels that are
+     * not covered by the source are set to the fill color. If the new raster is smaller, the source is cut.
+     * @param source The source raster
+     * @param width Width of the source raster
+     * @param height Height of the source raster
+     * @param newWidth Width of the new raster
+     * @param newHeight Height of the new raster
+     * @param fillColor Color of the pixels that are not covered by the source
+     * @return The resized raster
+     */
+    static int[] resize(final int[] source, final int width, final int height, final int newWidth, final int newHeight,
+            final int fillColor)
+    {
+        final int[] target = new int[newWidth * newHeight];
+        final int copyWidth = Math.min(width, newWidth);
+
+        forEachRow(newWidth, newHeight, (startY, endY) -> {
+            for (int y = startY; y < endY; y++)
+            {
+                final int offset = y * newWidth;
+                if (y < height)
+                {
+                    System.arraycopy(source, y * width, target, offset, copyWidth);
+                    if (fillColor != 0)
+                    {
+                        Arrays.fill(target, offset + copyWidth, offset + newWidth, fillColor);
+                    }
+                }
+                else if (fillColor != 0)
+                {
+                    Arrays.fill(target, offset, offset + newWidth, fillColor);
+                }
+            }
+        });
+
+        return target;
+    }
+
+    /**
+     * Scales a raster down by an integer factor. Every pixel of the new raster is the average of the block of
+     * factor * factor source pixels it covers, blocks at the right and bottom border may be smaller.
+     * @param source The source raster
+     * @param width Width of the source raster
+     * @param height Height of the source raster
+     * @param factor The factor by which both sides are divided
+     * @return The scaled down raster with a width of width / factor and a height of height / factor, both rounded up
+     */
+    static int[] scaleDown(final int[] source, final int width, final int height, final int factor)
+    {
+        final int newWidth = (width + factor - 1) / factor;
+        final int newHeight = (height + factor - 1) / factor;
+        final int[] target = new int[newWidth * newHeight];
+
+        forEachRow(newWidth, newHeight, (startY, endY) -> {
+            for (int y = startY; y < endY; y++)
+            {
+                final int fromY = y * factor;
+                final int toY = Math.min(height, fromY + factor);
+
+                for (int x = 0; x < newWidth; x++)
+                {
+                    final int fromX = x * factor;
+                    final int toX = Math.min(width, fromX + factor);
+
+                    int a = 0, r = 0, g = 0, b = 0;
+                    for (int sy = fromY; sy < toY; sy++)
+                    {
+                        for (int i = sy * width + fromX; i < sy * width + toX; i++)
+                        {
+                            final int argb = source[i];
+                            a += argb >>> 24;
+                            r += (argb >> 16) & 0xFF;
+                            g += (argb >> 8) & 0xFF;
+                            b += argb & 0xFF;
+                        }
+                    }
+
+                    final int count = (toY - fromY) * (toX - fromX);
+                    target[y * newWidth + x] = (a / count) << 24 | (r / count) << 16 | (g / count) << 8 | (b / count);
+                }
+            }
+        });
+
+        return target;
+    }
+
+    /**
+     * Replaces everything right of startX and below startY with the given color. Used to mark the areas of a raster
+     * which were not present in one of the compared images.
+     * @param target The raster to paint on
+     * @param width Width of the raster
+     * @param height Height of the raster
+     * @param startX The column from which on the right border is painted
+     * @param startY The row from which on the bottom border is painted
+     * @param argb The color of the borders
+     */
+    static void fillBorders(final int[] target, final int width, final int height, final int startX, final int startY,
+            final int argb)
+    {
+        if (startX < width)
+        {
+            fillRect(target, width, height, startX, 0, width - startX, height, argb);
+        }
+        if (startY < height)
+        {
+            fillRect(target, width, height, 0, startY, width, height - startY, argb);
+        }
+    }
+
+    /**
+     * Checks whether the image is backed by one int per pixel in default ARGB layout without any offsets, so its
+     * data buffer can be used as raster directly
+     */
+    private static boolean isPlainIntArgb(final BufferedImage image)
+    {
+        if (image.getType() != BufferedImage.TYPE_INT_ARGB)
+        {
+            return false;
+        }
+
+        final WritableRaster raster = image.getRaster();
+        if (!(raster.getDataBuffer() instanceof DataBufferInt) || raster.getParent() != null)
+        {
+            return false;
+        }
+        if (!(raster.getSampleModel() instanceof SinglePixelPackedSampleModel))
+        {
+            return false;
+        }
+
+        final SinglePixelPackedSampleModel sampleModel = (SinglePixelPackedSampleModel) raster.getSampleModel();
+        final DataBufferInt buffer = (DataBufferInt) raster.getDataBuffer();
+
+        return sampleModel.getScanlineStride() == image.getWidth() && buffer.getOffset() == 0 && buffer.getNumBanks() == 1
+               && raster.getSampleModelTranslateX() == 0 && raster.getSampleModelTranslateY() == 0;
+    }
+}
@@ -0,0 +1,157 @@
+package com.xceptance.xlt.visualassertion.util;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Area of the page that is compared on its own instead of the whole page. A region is either given by the CSS selector
+ * of an element or by a rectangle in the pixels of the screenshot of the visible page, "x,y,width,height", which are
+ * device pixels and not CSS pixels on a display with a device pixel ratio other than 1. An optional name can be put in front,
+ * "header=#header", otherwise the name is derived from the selector or rectangle. The name is part of the file names
+ * of the region's baseline, so it should stay the same as long as the baseline is used.
+ */
+public final class Region
+{
+    private static final Pattern NAMED = Pattern.compile("([A-Za-z0-9_-]+)=(.+)");
+
+    private static final Pattern RECTANGLE = Pattern.compile("(\\d+)\\s*,\\s*(\\d+)\\s*,\\s*(\\d+)\\s*,\\s*(\\d+)");
+
+    private final String name;
+
+    private final String selector;
+
+    private final Rectangle bounds;
+
+    private Region(final String name, final String selector, final Rectangle bounds)
+    {
+        this.name = name;
+        this.selector = selector;
+        this.bounds = bounds;
+    }
+
+    /**
+     * Parses a region
+     * @param definition The CSS selector or the rectangle, optionally prefixed with the name
+     * @return the region
+     * @throws IllegalArgumentException if the definition is empty or the rectangle is empty
+     */
+    public static Region parse(final String definition)
+    {
+        String spec = definition.trim();
+        String name = null;
+
+        final Matcher named = NAMED.matcher(spec);
+        if (named.matches())
+        {
+            name = named.group(1);
+            spec = named.group(2).trim();
+        }
+        if (spec.isEmpty())
+        {
+            throw new IllegalArgumentException("Empty region: " + definition);
+        }
+
+        Rectangle bounds = null;
+        final Matcher rectangle = RECTANGLE.matcher(spec);
+        if (rectangle.matches())
+        {
+            bounds = new Rectangle(Integer.parseInt(rectangle.group(1)), Integer.parseInt(rectangle.group(2)),
+                                   Integer.parseInt(rectangle.group(3)), Integer.parseInt(rectangle.group(4)));
+            if (bounds.isEmpty())
+            {
+                throw new IllegalArgumentException("Empty region: " + definition);
+            }
+        }
+
+        if (name == null)
+        {
+            name = toName(spec);
+        }
+
+        return new Region(name, bounds == null ? spec : null, bounds);
+    }
+
+    /**
+     * Parses a list of regions separated by semicolons
+     * @param definitions The regions, can be empty
+     * @return the regions in the given order
+     * @throws IllegalArgumentException if one of the regions is invalid or two have the same name
+     */
+    public static List<Region> parseAll(final String... definitions)
+    {
+        final List<Region> regions = new ArrayList<>();
+        for (final String definition : definitions)
+        {
+            if (definition == null)
+            {
+                continue;
+            }
+
+            for (final String part : definition.split(";"))
+            {
+                if (part.trim().isEmpty())
+                {
+                    continue;
+                }
+
+                final Region region = parse(part);
+                for (final Region other : regions)
+                {
+                    if (other.name.equals(region.name))
+                    {
+                        throw new IllegalArgumentException("Duplicate region name: " + region.name);
+                    }
+                }
+                regions.add(region);
+            }
+        }
+
+        return regions;
+    }
+
+    /**
+     * Returns the name of the region
+     * @return the name, only letters, digits, '-' and '_'
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * Returns the CSS selector of the element
+     * @return the selector, null if the region is a rectangle
+     */
+    public String getSelector()
+    {
+        return selector;
+    }
+
+    /**
+     * Returns the rectangle of the region
+     * @return the rectangle in the pixels of the screenshot, null if the region is an element
+     */
+    public Rectangle getBounds()
+    {
+        return bounds == null ? null : new Rectangle(bounds);
+    }
+
+    @Override
+    public String toString()
+    {
+        return name + "=" + (selector != null ? selector : bounds.x + "," + bounds.y + "," + bounds.width + "," + bounds.height);
+    }
+
+    /**
+     * Replaces everything that should not be part of a file name
+     */
+    private static String toName(final String spec)
+    {
+        final String name = spec.replaceAll("[^A-Za-z0-9_-]+", "_").replaceAll("^_+|_+$", "");
+
+        return name.isEmpty() ? Integer.toHexString(spec.hashCode()) : name;
+    }
+}
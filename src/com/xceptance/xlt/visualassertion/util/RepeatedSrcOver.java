@@ -0,0 +1,98 @@
+package com.xceptance.xlt.visualassertion.util;
+
+import java.util.Arrays;
+
+/**
+ * Paints a translucent color several times over a pixel with the same result as painting it again and again with
+ * {@link AlphaMath#srcOver(int, int)}. <br>
+ * Over an opaque pixel the result stays opaque and each channel only depends on the same channel of the pixel, so the
+ * results for opaque pixels are precomputed per channel until painting again does not change any value anymore.
+ * Other pixels are painted one time after the other.
+ */
+final class RepeatedSrcOver
+{
+    // upper bound for the precomputed repetitions
+    private static final int MAX_STEPS = 256;
+
+    private final int srcArgb;
+
+    // steps[n - 1][channel << 8 | value] is the channel value after painting n times, channel 0 is red, 2 is blue
+    private final byte[][] steps;
+
+    // whether painting more often than steps.length does not change anything anymore
+    private final boolean converged;
+
+    /**
+     * Creates the lookup tables for the given color
+     * @param srcArgb the color to paint as non premultiplied ARGB
+     */
+    RepeatedSrcOver(final int srcArgb)
+    {
+        this.srcArgb = srcArgb;
+
+        final byte[][] tables = new byte[MAX_STEPS][];
+        final int[] current = new int[256];
+        for (int value = 0; value < 256; value++)
+        {
+            current[value] = 0xFF000000 | value << 16 | value << 8 | value;
+        }
+
+        int count = 0;
+        boolean changed = true;
+        while (changed && count < MAX_STEPS)
+        {
+            changed = false;
+            final byte[] table = new byte[3 * 256];
+            for (int value = 0; value < 256; value++)
+            {
+                final int painted = AlphaMath.srcOver(current[value], srcArgb);
+                changed |= painted != current[value];
+                current[value] = painted;
+
+                table[value] = (byte) (painted >> 16);
+                table[256 | value] = (byte) (painted >> 8);
+                table[512 | value] = (byte) painted;
+            }
+            tables[count++] = table;
+        }
+
+        this.converged = !changed;
+        this.steps = Arrays.copyOf(tables, count);
+    }
+
+    /**
+     * Paints the color the given number of times over the pixel
+     * @param dst the pixel as non premultiplied ARGB
+     * @param times how often the color is painted
+     * @return the resulting pixel as non premultiplied ARGB
+     */
+    int paint(final int dst, final int times)
+    {
+        if (times <= 0)
+        {
+            return dst;
+        }
+
+        if ((dst >>> 24) == 0xFF && (times <= steps.length || converged))
+        {
+            final byte[] table = steps[Math.min(times, steps.length) - 1];
+
+            return 0xFF000000 | (table[(dst >> 16) & 0xFF] & 0xFF) << 16 | (table[256 | (dst >> 8) & 0xFF] & 0xFF) << 8
+                   | (table[512 | dst & 0xFF] & 0xFF);
+        }
+
+        int argb = dst;
+        for (int n = 0; n < times; n++)
+        {
+            final int painted = AlphaMath.srcOver(argb, srcArgb);
+            if (painted == argb)
+            {
+                // painting again does not change the pixel anymore
+                break;
+            }
+            argb = painted;
+        }
+
+        return argb;
+    }
+}
@@ -0,0 +1,121 @@
+package com.xceptance.xlt.visualassertion.util;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Assert;
+
+import com.xceptance.xlt.visualassertion.algorithm.ComparisonAlgorithm;
+import com.xceptance.xlt.visualassertion.algorithm.ComparisonType;
+import com.xceptance.xlt.visualassertion.io.PngRowReader;
+
+/**
+ * Compares the reference image and the screenshot band by band while they are decoded, instead of decoding both
+ * completely first. Only one band of each image and of the mask is held at a time, the bands are dropped as soon as
+ * their differences are collected, so the memory needed grows with the width of the images and not with their height.
+ * The result is the same as the one of {@link ImageComparison}.
+ */
+public final class StreamingComparison
+{
+    private StreamingComparison()
+    {
+    }
+
+    /**
+     * Compares the screenshot to the reference image as determined by the given algorithm. Images of different sizes
+     * are compared as if both were extended to the bigger size with transparent black pixels.
+     * @param reference The reader of the reference image, all rows are read
+     * @param compareImage The reader of the image that is compared to the reference image, all rows are read
+     * @param mask The reader of the mask, pixels that are black in the mask are ignored, null for no mask
+     * @param algorithm The algorithm with which the assertion is calculated
+     * @param bandHeight The number of rows that are compared at once, rounded up to full blocks for the fuzzy
+     *            algorithm
+     * @return the compact result of the comparison
+     * @throws IOException if one of the images cannot be read
+     */
+    public static ComparisonResult compare(final PngRowReader reference, final PngRowReader compareImage,
+            final PngRowReader mask, final ComparisonAlgorithm algorithm, final int bandHeight) throws IOException
+    {
+        final int width = Math.max(reference.getWidth(), compareImage.getWidth());
+        final int height = Math.max(reference.getHeight(), compareImage.getHeight());
+
+        // the fuzzy algorithm looks at whole blocks, so the bands must not cut through them
+        int rowsPerBand = Math.max(1, bandHeight);
+        if (algorithm.getType() == ComparisonType.PIXELFUZZY)
+        {
+            final int blockSize = algorithm.getFuzzyBlockSize();
+            rowsPerBand = (rowsPerBand + blockSize - 1) / blockSize * blockSize;
+        }
+        rowsPerBand = Math.min(rowsPerBand, height);
+
+        final int[] referenceBand = new int[width * rowsPerBand];
+        final int[] compareBand = new int[width * rowsPerBand];
+        final int[] maskBand = mask == null ? null : new int[width * rowsPerBand];
+
+        final int bands = (height + rowsPerBand - 1) / rowsPerBand;
+        final int[][] positions = new int[bands][];
+        final byte[][] magnitudes = new byte[bands][];
+        long maskedPixels = 0;
+
+        for (int band = 0; band < bands; band++)
+        {
+            final int startY = band * rowsPerBand;
+            final int rows = Math.min(rowsPerBand, height - startY);
+
+            TimeBudget.checkCurrent();
+            readBand(reference, referenceBand, startY, rows, width);
+            readBand(compareImage, compareBand, startY, rows, width);
+            final IntRaster maskRaster = mask == null ? null : IntRaster.of(readBand(mask, maskBand, startY, rows, width), width, rows);
+
+            final Differences differences = ImageHelper.compare(IntRaster.of(referenceBand, width, rows),
+                                                                IntRaster.of(compareBand, width, rows), maskRaster, algorithm);
+            if (differences == null)
+            {
+                Assert.fail("The dimensions of the two images don't match!");
+            }
+
+            // the positions of the band start at its first row
+            final int offset = startY * width;
+            positions[band] = differences.positions;
+            for (int i = 0; i < positions[band].length; i++)
+            {
+                positions[band][i] += offset;
+            }
+            magnitudes[band] = differences.magnitudes;
+
+            if (maskRaster != null)
+            {
+                maskedPixels += ImageHelper.countPixels(maskRaster, ImageHelper.BLACK.getRGB());
+            }
+        }
+
+        return new ComparisonResult(reference.getWidth(), reference.getHeight(), compareImage.getWidth(), compareImage.getHeight(),
+                                    Differences.concat(positions, magnitudes), maskedPixels);
+    }
+
+    /**
+     * Reads the rows of a band, rows and columns beyond the image are transparent black
+     * @return the band
+     */
+    private static int[] readBand(final PngRowReader reader, final int[] band, final int startY, final int rows, final int width)
+        throws IOException
+    {
+        final int imageWidth = reader.getWidth();
+
+        for (int row = 0; row < rows; row++)
+        {
+            final int offset = row * width;
+            if (startY + row < reader.getHeight())
+            {
+                reader.readRow(band, offset);
+                Arrays.fill(band, offset + imageWidth, offset + width, 0);
+            }
+            else
+            {
+                Arrays.fill(band, offset, offset + width, 0);
+            }
+        }
+
+        return band;
+    }
+}
@@ -0,0 +1,275 @@
+package com.xceptance.xlt.visualassertion.util;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+import com.xceptance.xlt.visualassertion.algorithm.ComparisonAlgorithm;
+import com.xceptance.xlt.visualassertion.algorithm.ComparisonType;
+
+/**
+ * Grid of 64 bit hashes over square tiles of a raster, computed in one pass. Tiles with the same hash are taken as
+ * equal, so the comparison can skip them. The tiles at the right and bottom edge are smaller if the raster is not a
+ * multiple of the tile size.
+ * <p>
+ * The grid of a reference image can be stored next to the baseline, stamped with the size and modification time of
+ * the reference image, so it is computed only once.
+ */
+public final class TileHashes
+{
+    /**
+     * Default edge length of the tiles in pixels
+     */
+    public static final int DEFAULT_TILE_SIZE = 64;
+
+    private static final long MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    private static final int MAGIC = 'V' << 24 | 'A' << 16 | 'T' << 8 | 'H';
+
+    private static final int VERSION = 1;
+
+    final int width;
+
+    final int height;
+
+    final int tileSize;
+
+    final int columns;
+
+    final int rows;
+
+    final long[] hashes;
+
+    TileHashes(final int width, final int height, final int tileSize, final long[] hashes)
+    {
+        this.width = width;
+        this.height = height;
+        this.tileSize = tileSize;
+        this.columns = (width + tileSize - 1) / tileSize;
+        this.rows = (height + tileSize - 1) / tileSize;
+
+        if (hashes.length != columns * rows)
+        {
+            throw new IllegalArgumentException("Expected " + columns * rows + " tile hashes, got " + hashes.length);
+        }
+        this.hashes = hashes;
+    }
+
+    /**
+     * Hashes the tiles of an image
+     * @param image The image
+     * @param tileSize The edge length of the tiles
+     * @return the grid of hashes
+     */
+    public static TileHashes of(final BufferedImage image, final int tileSize)
+    {
+        return of(IntRaster.of(image), tileSize);
+    }
+
+    /**
+     * Hashes the tiles of the reference image of a compiled baseline, the raster is read in place
+     * @param baseline The compiled baseline
+     * @param tileSize The edge length of the tiles
+     * @return the grid of hashes
+     */
+    public static TileHashes of(final CompiledBaseline baseline, final int tileSize)
+    {
+        return of(baseline.getReference(), tileSize);
+    }
+
+    /**
+     * Returns the tile size to use with an algorithm. The fuzzy algorithm looks at whole blocks, so the tiles must not
+     * cut through them.
+     * @param tileSize The configured tile size
+     * @param algorithm The algorithm
+     * @return the tile size, rounded up to whole blocks for the fuzzy algorithm
+     */
+    public static int tileSize(final int tileSize, final ComparisonAlgorithm algorithm)
+    {
+        if (algorithm.getType() != ComparisonType.PIXELFUZZY)
+        {
+            return tileSize;
+        }
+
+        final int blockSize = algorithm.getFuzzyBlockSize();
+        return (tileSize + blockSize - 1) / blockSize * blockSize;
+    }
+
+    /**
+     * Reads a stored grid
+     * @param file The file of the grid
+     * @param referenceFile The reference image the grid was computed from
+     * @return the grid, null if there is none, it cannot be read or the reference image changed since
+     */
+    public static TileHashes read(final File file, final File referenceFile)
+    {
+        if (!file.isFile())
+        {
+            return null;
+        }
+
+        try (final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file))))
+        {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readLong() != referenceFile.length()
+                || in.readLong() != referenceFile.lastModified())
+            {
+                return null;
+            }
+
+            final int width = in.readInt();
+            final int height = in.readInt();
+            final int tileSize = in.readInt();
+            final long[] hashes = new long[in.readInt()];
+            for (int i = 0; i < hashes.length; i++)
+            {
+                hashes[i] = in.readLong();
+            }
+
+            return new TileHashes(width, height, tileSize, hashes);
+        }
+        catch (final IOException | IllegalArgumentException | NegativeArraySizeException e)
+        {
+            // damaged, it is computed again
+            return null;
+        }
+    }
+
+    /**
+     * Stores the grid, stamped with the reference image it was computed from
+     * @param file The file of the grid, the directory is created if necessary
+     * @param referenceFile The reference image
+     * @return true if the grid was stored, false if it could not be written and has to be computed again next time
+     */
+    public boolean write(final File file, final File referenceFile)
+    {
+        final File directory = file.getAbsoluteFile().getParentFile();
+        directory.mkdirs();
+
+        Path temp = null;
+        try
+        {
+            // write to a file of our own first, so no other process ever reads a half written grid
+            temp = Files.createTempFile(directory.toPath(), file.getName(), ".tmp");
+            try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp))))
+            {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(referenceFile.length());
+                out.writeLong(referenceFile.lastModified());
+                out.writeInt(width);
+                out.writeInt(height);
+                out.writeInt(tileSize);
+                out.writeInt(hashes.length);
+                for (final long hash : hashes)
+                {
+                    out.writeLong(hash);
+                }
+            }
+
+            try
+            {
+                Files.move(temp, file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (final AtomicMoveNotSupportedException e)
+            {
+                Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+
+            return true;
+        }
+        catch (final IOException e)
+        {
+            if (temp != null)
+            {
+                temp.toFile().delete();
+            }
+
+            return false;
+        }
+    }
+
+    /**
+     * Hashes the tiles of a raster, row after row, so the raster is read in memory order
+     */
+    static TileHashes of(final IntRaster raster, final int tileSize)
+    {
+        final int width = raster.width;
+        final int height = raster.height;
+        final int columns = (width + tileSize - 1) / tileSize;
+        final long[] hashes = new long[columns * ((height + tileSize - 1) / tileSize)];
+        final IntBuffer pixels = raster.pixels;
+
+        // rows of tiles are hashed in parallel, each one writes only its own hashes
+        RasterOps.forEachRow(width * tileSize, (height + tileSize - 1) / tileSize, (startRow, endRow) -> {
+            for (int row = startRow; row < endRow; row++)
+            {
+                final int endY = Math.min(height, (row + 1) * tileSize);
+                for (int y = row * tileSize; y < endY; y++)
+                {
+                    final int offset = y * width;
+                    for (int column = 0; column < columns; column++)
+                    {
+                        final int tile = row * columns + column;
+                        final int endX = Math.min(width, (column + 1) * tileSize);
+
+                        long hash = hashes[tile];
+                        for (int x = column * tileSize; x < endX; x++)
+                        {
+                            hash = (hash + (pixels.get(offset + x) & 0xFFFFFFFFL)) * MULTIPLIER;
+                            hash ^= hash >>> 29;
+                        }
+                        hashes[tile] = hash;
+                    }
+                }
+            }
+        });
+
+        return new TileHashes(width, height, tileSize, hashes);
+    }
+
+    /**
+     * Checks whether the grid covers a raster of the given size
+     */
+    boolean covers(final IntRaster raster)
+    {
+        return width == raster.width && height == raster.height;
+    }
+
+    /**
+     * Checks whether both grids cover rasters of the same size with the same tiles, only then tiles can be matched
+     * @param other The other grid, can be null
+     * @return true if the tiles of both grids are the same areas
+     */
+    public boolean hasSameTiles(final TileHashes other)
+    {
+        return other != null && width == other.width && height == other.height && tileSize == other.tileSize;
+    }
+
+    /**
+     * Returns the number of tiles
+     * @return columns times rows
+     */
+    public int getTileCount()
+    {
+        return hashes.length;
+    }
+
+    /**
+     * Returns the edge length of the tiles
+     * @return the tile size in pixels
+     */
+    public int getTileSize()
+    {
+        return tileSize;
+    }
+}
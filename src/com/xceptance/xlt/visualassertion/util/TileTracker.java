@@ -0,0 +1,151 @@
+package com.xceptance.xlt.visualassertion.util;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.xceptance.xlt.visualassertion.algorithm.ComparisonAlgorithm;
+
+/**
+ * Remembers the tiles of the previous comparison, so the next comparison only runs the algorithm on the tiles that
+ * changed since then. Successive assertions of a session often capture nearly the same page. A tile whose screenshot,
+ * reference image and mask are all the same as in the previous comparison has the same differences as back then, they
+ * are carried forward. The result is the same as the one of a full comparison.
+ * <p>
+ * Only the tile hashes and the differences of the previous comparison are kept, one per key, for instance per region
+ * of the page. Use one tracker per session, comparisons of a session that run in the background at the same time
+ * take turns.
+ */
+public final class TileTracker
+{
+    private final int tileSize;
+
+    private final Map<String, Capture> captures = new HashMap<>();
+
+    private int lastTiles;
+
+    private int lastReusedTiles;
+
+    /**
+     * Creates a tracker without previous comparisons
+     * @param tileSize The edge length of the tiles, rounded up to whole blocks for the fuzzy algorithm
+     */
+    public TileTracker(final int tileSize)
+    {
+        this.tileSize = tileSize;
+    }
+
+    /**
+     * Returns the number of tiles of the last comparison
+     * @return the number of tiles
+     */
+    public int getLastTiles()
+    {
+        return lastTiles;
+    }
+
+    /**
+     * Returns the number of tiles of the last comparison whose differences were carried forward
+     * @return the number of tiles that were not compared again
+     */
+    public int getLastReusedTiles()
+    {
+        return lastReusedTiles;
+    }
+
+    /**
+     * Compares rasters of the same size tile by tile and remembers the result for the next comparison with the key.
+     * Tiles that are equal to the reference image are not compared at all.
+     * @param referenceTiles The stored tile hashes of the reference image, null or not suitable to hash it here
+     */
+    synchronized Differences compare(final String key, final IntRaster reference, final IntRaster compareImage, final IntRaster mask,
+            final ComparisonAlgorithm algorithm, final TileHashes referenceTiles)
+    {
+        final int effectiveTileSize = TileHashes.tileSize(tileSize, algorithm);
+
+        // the stored hashes of the baseline save a pass over the reference image
+        final TileHashes referenceHashes = referenceTiles != null && referenceTiles.tileSize == effectiveTileSize
+                                           && referenceTiles.covers(reference)
+                ? referenceTiles : TileHashes.of(reference, effectiveTileSize);
+        final Capture current = new Capture(describe(algorithm), referenceHashes, TileHashes.of(compareImage, effectiveTileSize),
+                                            mask == null ? null : TileHashes.of(mask, effectiveTileSize));
+        final Capture previous = captures.get(key);
+        final boolean reusable = previous != null && previous.matches(current);
+
+        final int tiles = current.screenshot.getTileCount();
+        int reused = 0;
+        if (reusable)
+        {
+            for (int tile = 0; tile < tiles; tile++)
+            {
+                if (previous.isSameTile(current, tile))
+                {
+                    current.positions[tile] = previous.positions[tile];
+                    current.magnitudes[tile] = previous.magnitudes[tile];
+                    reused++;
+                }
+            }
+        }
+        TiledComparison.skipEqual(current.reference, current.screenshot, current.positions, current.magnitudes);
+        TiledComparison.compare(reference, compareImage, mask, algorithm, current.screenshot, current.positions, current.magnitudes);
+
+        captures.put(key, current);
+        lastTiles = tiles;
+        lastReusedTiles = reused;
+
+        return TiledComparison.merge(current.positions, current.magnitudes);
+    }
+
+    /**
+     * Everything the result of a comparison depends on
+     */
+    private static String describe(final ComparisonAlgorithm algorithm)
+    {
+        return algorithm.getType() + "/" + algorithm.getColorTolerance() + "/" + algorithm.getPixelTolerance() + "/"
+               + algorithm.getFuzzyBlockSize();
+    }
+
+    /**
+     * The tile hashes and the differences per tile of one comparison
+     */
+    private static final class Capture
+    {
+        final String algorithm;
+
+        final TileHashes reference;
+
+        final TileHashes screenshot;
+
+        final TileHashes mask;
+
+        final int[][] positions;
+
+        final byte[][] magnitudes;
+
+        Capture(final String algorithm, final TileHashes reference, final TileHashes screenshot, final TileHashes mask)
+        {
+            this.algorithm = algorithm;
+            this.reference = reference;
+            this.screenshot = screenshot;
+            this.mask = mask;
+            this.positions = new int[screenshot.getTileCount()][];
+            this.magnitudes = new byte[screenshot.getTileCount()][];
+        }
+
+        /**
+         * Whether the tiles of both comparisons can be matched at all
+         */
+        boolean matches(final Capture other)
+        {
+            return algorithm.equals(other.algorithm) && screenshot.hasSameTiles(other.screenshot) && (mask == null) == (other.mask == null);
+        }
+
+        /**
+         * Whether a tile is the same in both comparisons
+         */
+        boolean isSameTile(final Capture other, final int tile)
+        {
+            return screenshot.hashes[tile] == other.screenshot.hashes[tile] && reference.hashes[tile] == other.reference.hashes[tile]
+                   && (mask == null || mask.hashes[tile] == other.mask.hashes[tile]);
+        }
+    }
+}
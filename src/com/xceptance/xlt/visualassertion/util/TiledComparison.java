@@ -0,0 +1,158 @@
+package com.xceptance.xlt.visualassertion.util;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+import com.xceptance.xlt.visualassertion.algorithm.ComparisonAlgorithm;
+
+/**
+ * Runs the algorithm on single tiles of rasters of the same size, for the tiles whose differences are not known yet,
+ * and joins the differences of all tiles into the result of a full comparison.
+ */
+final class TiledComparison
+{
+    private static final int[] NO_POSITIONS = new int[0];
+
+    private static final byte[] NO_MAGNITUDES = new byte[0];
+
+    private TiledComparison()
+    {
+    }
+
+    /**
+     * Compares only the tiles whose hashes differ from the ones of the reference image, the other tiles are equal
+     * @param referenceTiles The tile hashes of the reference image, their tile size must suit the algorithm
+     * @return the differences of the full comparison
+     */
+    static Differences compareChanged(final IntRaster reference, final IntRaster compareImage, final IntRaster mask,
+            final ComparisonAlgorithm algorithm, final TileHashes referenceTiles)
+    {
+        final TileHashes compareTiles = TileHashes.of(compareImage, referenceTiles.tileSize);
+        final int[][] positions = new int[referenceTiles.getTileCount()][];
+        final byte[][] magnitudes = new byte[referenceTiles.getTileCount()][];
+        skipEqual(referenceTiles, compareTiles, positions, magnitudes);
+
+        compare(reference, compareImage, mask, algorithm, referenceTiles, positions, magnitudes);
+
+        return merge(positions, magnitudes);
+    }
+
+    /**
+     * Marks the tiles that have the same hash in both grids as tiles without differences
+     */
+    static void skipEqual(final TileHashes referenceTiles, final TileHashes compareTiles, final int[][] positions,
+            final byte[][] magnitudes)
+    {
+        for (int tile = 0; tile < positions.length; tile++)
+        {
+            if (positions[tile] == null && referenceTiles.hashes[tile] == compareTiles.hashes[tile])
+            {
+                positions[tile] = NO_POSITIONS;
+                magnitudes[tile] = NO_MAGNITUDES;
+            }
+        }
+    }
+
+    /**
+     * Compares the tiles whose positions are still null
+     * @param tiles The grid of the tiles, it defines their size and number
+     * @param positions The positions of the differences per tile, receives the ones of the compared tiles
+     * @param magnitudes The magnitudes of the differences per tile, receives the ones of the compared tiles
+     */
+    static void compare(final IntRaster reference, final IntRaster compareImage, final IntRaster mask,
+            final ComparisonAlgorithm algorithm, final TileHashes tiles, final int[][] positions, final byte[][] magnitudes)
+    {
+        final int tileSize = tiles.tileSize;
+        final int width = tiles.width;
+
+        // rows of tiles are compared in parallel, each one writes only its own tiles
+        RasterOps.forEachRow(width * tileSize, tiles.rows, (startRow, endRow) -> {
+            final int[] referenceTile = new int[tileSize * tileSize];
+            final int[] compareTile = new int[tileSize * tileSize];
+            final int[] maskTile = mask == null ? null : new int[tileSize * tileSize];
+
+            for (int row = startRow; row < endRow; row++)
+            {
+                for (int column = 0; column < tiles.columns; column++)
+                {
+                    final int tile = row * tiles.columns + column;
+                    if (positions[tile] != null)
+                    {
+                        continue;
+                    }
+
+                    final int x = column * tileSize;
+                    final int y = row * tileSize;
+                    final int tileWidth = Math.min(tileSize, width - x);
+                    final int tileHeight = Math.min(tileSize, tiles.height - y);
+
+                    final IntRaster maskRaster = mask == null ? null : copyTile(mask, x, y, tileWidth, tileHeight, maskTile);
+                    final Differences differences = ImageHelper.compare(copyTile(reference, x, y, tileWidth, tileHeight, referenceTile),
+                                                                        copyTile(compareImage, x, y, tileWidth, tileHeight, compareTile),
+                                                                        maskRaster, algorithm);
+
+                    // the positions of the tile start at its top left corner
+                    final int[] tilePositions = differences.positions;
+                    for (int i = 0; i < tilePositions.length; i++)
+                    {
+                        tilePositions[i] = (y + tilePositions[i] / tileWidth) * width + x + tilePositions[i] % tileWidth;
+                    }
+                    positions[tile] = tilePositions;
+                    magnitudes[tile] = differences.magnitudes;
+                }
+            }
+        });
+    }
+
+    /**
+     * Brings the differences of all tiles into the row order of a full comparison
+     */
+    static Differences merge(final int[][] positions, final byte[][] magnitudes)
+    {
+        int count = 0;
+        for (final int[] tile : positions)
+        {
+            count += tile.length;
+        }
+
+        // position and magnitude of a difference packed into one value, so that both can be sorted together
+        final long[] packed = new long[count];
+        int i = 0;
+        for (int tile = 0; tile < positions.length; tile++)
+        {
+            for (int j = 0; j < positions[tile].length; j++)
+            {
+                packed[i++] = (long) positions[tile][j] << 8 | magnitudes[tile][j] & 0xFF;
+            }
+        }
+        Arrays.sort(packed);
+
+        final int[] allPositions = new int[count];
+        final byte[] allMagnitudes = new byte[count];
+        for (i = 0; i < count; i++)
+        {
+            allPositions[i] = (int) (packed[i] >>> 8);
+            allMagnitudes[i] = (byte) packed[i];
+        }
+
+        return new Differences(allPositions, allMagnitudes);
+    }
+
+    /**
+     * Copies a tile of a raster into the given array
+     * @return the tile as raster
+     */
+    private static IntRaster copyTile(final IntRaster raster, final int x, final int y, final int tileWidth, final int tileHeight,
+            final int[] target)
+    {
+        final IntBuffer pixels = raster.pixels.duplicate();
+        for (int row = 0; row < tileHeight; row++)
+        {
+            final int start = (y + row) * raster.width + x;
+            pixels.limit(start + tileWidth).position(start);
+            pixels.get(target, row * tileWidth, tileWidth);
+        }
+
+        return IntRaster.of(target, tileWidth, tileHeight);
+    }
+}
@@ -0,0 +1,157 @@
+package com.xceptance.xlt.visualassertion.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The time a comparison may take. The budget is bound to the thread that compares, and the row operations of the
+ * comparison check it before each band of rows, so a comparison that takes too long, e.g. of a very tall page that
+ * shifted completely, stops with an {@link ExceededException} instead of blocking the virtual user for seconds. A
+ * budget can also be cancelled from another thread.
+ */
+public final class TimeBudget
+{
+    private static final ThreadLocal<TimeBudget> CURRENT = new ThreadLocal<>();
+
+    private static final AtomicLong EXCEEDED = new AtomicLong();
+
+    private final long deadline;
+
+    private volatile boolean cancelled;
+
+    // whether the budget was already counted as exceeded
+    private final AtomicBoolean counted = new AtomicBoolean();
+
+    /**
+     * Starts a budget that runs out the given time from now
+     * @param millis The time in milliseconds
+     */
+    public TimeBudget(final long millis)
+    {
+        this.deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    /**
+     * Returns the budget bound to the current thread
+     * @return the budget, null if there is none
+     */
+    public static TimeBudget current()
+    {
+        return CURRENT.get();
+    }
+
+    /**
+     * Checks the budget bound to the current thread, if there is one
+     * @throws ExceededException if the budget ran out or was cancelled
+     */
+    public static void checkCurrent()
+    {
+        final TimeBudget budget = CURRENT.get();
+        if (budget != null)
+        {
+            budget.check();
+        }
+    }
+
+    /**
+     * Binds a budget to the current thread until the returned scope is closed
+     * @param budget The budget, null to run without one
+     * @return the scope, which binds the previous budget again when it is closed
+     */
+    public static Scope enter(final TimeBudget budget)
+    {
+        final TimeBudget previous = CURRENT.get();
+        CURRENT.set(budget);
+
+        return new Scope(previous);
+    }
+
+    /**
+     * Returns how often a budget ran out or was cancelled since the start of the JVM
+     * @return the number of exceeded budgets
+     */
+    public static long getExceededCount()
+    {
+        return EXCEEDED.get();
+    }
+
+    /**
+     * Stops the work that runs with this budget at its next check
+     */
+    public void cancel()
+    {
+        cancelled = true;
+    }
+
+    /**
+     * Checks whether the budget ran out or was cancelled
+     * @return true if the work shall stop
+     */
+    public boolean isExceeded()
+    {
+        return cancelled || System.nanoTime() - deadline > 0;
+    }
+
+    /**
+     * Checks the budget
+     * @throws ExceededException if the budget ran out or was cancelled
+     */
+    public void check()
+    {
+        if (isExceeded())
+        {
+            if (counted.compareAndSet(false, true))
+            {
+                EXCEEDED.incrementAndGet();
+            }
+            throw new ExceededException(cancelled ? "The comparison was cancelled" : "The time budget of the comparison ran out");
+        }
+    }
+
+    /**
+     * The binding of a budget to a thread
+     */
+    public static final class Scope implements AutoCloseable
+    {
+        private final TimeBudget previous;
+
+        private Scope(final TimeBudget previous)
+        {
+            this.previous = previous;
+        }
+
+        /**
+         * Binds the previous budget again, call it on the thread that entered the scope
+         */
+        @Override
+        public void close()
+        {
+            if (previous != null)
+            {
+                CURRENT.set(previous);
+            }
+            else
+            {
+                CURRENT.remove();
+            }
+        }
+    }
+
+    /**
+     * Thrown by the comparison when its budget ran out or was cancelled
+     */
+    public static final class ExceededException extends RuntimeException
+    {
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Creates the exception
+         * @param message The reason
+         */
+        public ExceededException(final String message)
+        {
+            super(message);
+        }
+    }
+}
@@ -2,13 +2,22 @@ package test.com.xceptance.xlt.visual;
 
 import java.awt.Color;
 import java.awt.Graphics;
+import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
 
 import javax.imageio.ImageIO;
 
 import org.apache.commons.lang.ClassUtils;
+import org.junit.Assert;
+
+import com.xceptance.xlt.visualassertion.algorithm.ColorFuzzy;
+import com.xceptance.xlt.visualassertion.algorithm.ComparisonAlgorithm;
+import com.xceptance.xlt.visualassertion.algorithm.ExactMatch;
+import com.xceptance.xlt.visualassertion.algorithm.PixelFuzzy;
+import com.xceptance.xlt.visualassertion.util.ComparisonResult;
 
 public abstract class ImageTest
 {
@@ -80,6 +89,40 @@ public abstract class ImageTest
         return true;
     }
 
+    /**
+     * Returns one algorithm of each kind, for the tests that compare every way of comparing with the plain comparison
+     */
+    protected ComparisonAlgorithm[] algorithms()
+    {
+        return new ComparisonAlgorithm[] { new ExactMatch(), new ColorFuzzy(0.1), new PixelFuzzy(0.1, 0.1, 10) };
+    }
+
+    /**
+     * Creates a transparent mask with a black block in the middle
+     */
+    protected BufferedImage createMask(final int width, final int height)
+    {
+        final BufferedImage mask = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        final Graphics2D g = mask.createGraphics();
+        g.setColor(Color.BLACK);
+        g.fillRect(width / 4, height / 4, width / 2, height / 2);
+        g.dispose();
+
+        return mask;
+    }
+
+    /**
+     * Asserts that a comparison found exactly what the plain comparison of the decoded images found
+     */
+    protected void assertSameResult(final ComparisonResult expected, final ComparisonResult actual)
+    {
+        Assert.assertEquals(expected.isEqual(), actual.isEqual());
+        Assert.assertEquals(expected.isResized(), actual.isResized());
+        Assert.assertEquals(expected.getMaskedPixelCount(), actual.getMaskedPixelCount());
+        Assert.assertTrue(Arrays.equals(expected.getDifferences(), actual.getDifferences()));
+        Assert.assertTrue(imageEqual(expected.getDifferenceImage(), actual.getDifferenceImage()));
+    }
+
     protected BufferedImage createTestImageGradient(final Color startColor, final int r, final int g, final int b) throws IOException
     {
         final BufferedImage img = new BufferedImage(300, 13, BufferedImage.TYPE_INT_RGB);
@@ -109,6 +109,23 @@ public class TestCompare extends ImageTest
         return this;
     }
 
+    public TestCompare hasHighlighting(final String highlightingFile)
+    {
+        return hasHighlighting(load(highlightingFile));
+    }
+
+    public TestCompare hasHighlighting(final BufferedImage highlighting)
+    {
+        final BufferedImage comperatorDifference = comperator.getMarkedImageWithAMarker(markingSizeX, markingSizeY);
+
+        final long now = System.currentTimeMillis();
+        writeToTmp(comperatorDifference, MessageFormat.format("actual.{0}.png", String.valueOf(now)));
+        writeToTmp(highlighting, MessageFormat.format("expected.{0}.png", String.valueOf(now)));
+        Assert.assertTrue(imageEqual(comperatorDifference, highlighting));
+
+        return this;
+    }
+
     public TestCompare hasNoMarking()
     {
         final BufferedImage comperatorDifference = comperator.getMarkedImageWithBoxes(markingSizeX, markingSizeY);
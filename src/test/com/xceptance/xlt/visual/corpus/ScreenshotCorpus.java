@@ -0,0 +1,584 @@
+package test.com.xceptance.xlt.visual.corpus;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Generates page like screenshots of any size: a header, rows of text, gradients, photos and cards. The same seed and
+ * size always give the same pixels, so the pages don't need to be stored. A page can be perturbed the way pages
+ * change between two test runs, the perturbed variant knows the regions in which it differs from the page.
+ */
+public final class ScreenshotCorpus
+{
+    /**
+     * The ways a page is changed
+     */
+    public enum Perturbation
+    {
+        /**
+         * Nothing changes
+         */
+        NONE,
+
+        /**
+         * The edges of the glyphs of some text blocks are a few color steps off, as with another font rendering
+         */
+        ANTI_ALIASING,
+
+        /**
+         * The content of a block moves by a few pixels
+         */
+        SHIFTED_BLOCK,
+
+        /**
+         * The colors of a block drift slightly
+         */
+        COLOR_DRIFT,
+
+        /**
+         * A banner is inserted and pushes everything below it down
+         */
+        BANNER
+    }
+
+    private static final int BACKGROUND = 0xFFFFFFFF;
+
+    private static final int GUTTER = 16;
+
+    private static final int HEADER_HEIGHT = 72;
+
+    private static final int GLYPH_WIDTH = 5;
+
+    private static final int GLYPH_HEIGHT = 9;
+
+    private static final int GLYPH_ADVANCE = 7;
+
+    private static final int LINE_HEIGHT = 18;
+
+    private static final int GLYPHS = 64;
+
+    private ScreenshotCorpus()
+    {
+    }
+
+    /**
+     * Generates a page
+     * @param seed The seed of the page
+     * @param width The width of the page
+     * @param height The height of the page
+     * @return the page
+     */
+    public static Page page(final long seed, final int width, final int height)
+    {
+        final SplittableRandom random = new SplittableRandom(seed);
+        final int[] pixels = new int[width * height];
+        final List<Block> blocks = new ArrayList<>();
+        final long[] font = font(random);
+
+        fill(pixels, width, new Rectangle(0, 0, width, height), BACKGROUND);
+
+        // the header bar with the navigation
+        final Block header = new Block(Block.TEXT, new Rectangle(0, 0, width, Math.min(HEADER_HEIGHT, height)));
+        fill(pixels, width, header.bounds, 0xFF1E2A3A);
+        text(pixels, width, header.bounds, 0xFFE8E8E8, font, random);
+        blocks.add(header);
+
+        // rows of blocks up to the bottom of the page
+        int y = header.bounds.height + GUTTER;
+        while (y < height)
+        {
+            final int rowHeight = Math.min(120 + random.nextInt(280), height - y);
+            int columns = 1 + random.nextInt(4);
+            if ((width - GUTTER * (columns + 1)) / columns < 40)
+            {
+                columns = 1;
+            }
+            final int columnWidth = Math.max(1, (width - GUTTER * (columns + 1)) / columns);
+
+            for (int column = 0; column < columns; column++)
+            {
+                final Rectangle bounds = new Rectangle(GUTTER + column * (columnWidth + GUTTER), y, columnWidth, rowHeight)
+                                         .intersection(new Rectangle(0, 0, width, height));
+                if (bounds.isEmpty())
+                {
+                    continue;
+                }
+
+                final Block block = new Block(random.nextInt(4), bounds);
+                switch (block.type)
+                {
+                case Block.TEXT:
+                    text(pixels, width, bounds, 0xFF222222, font, random);
+                    break;
+                case Block.GRADIENT:
+                    gradient(pixels, width, bounds, random);
+                    break;
+                case Block.PHOTO:
+                    photo(pixels, width, bounds, random.nextLong());
+                    break;
+                default:
+                    card(pixels, width, bounds, font, random);
+                    break;
+                }
+                blocks.add(block);
+            }
+
+            y += rowHeight + GUTTER;
+        }
+
+        return new Page(seed, width, height, pixels, font, blocks);
+    }
+
+    /**
+     * A generated page
+     */
+    public static final class Page
+    {
+        private final long seed;
+
+        private final int width;
+
+        private final int height;
+
+        private final int[] pixels;
+
+        private final long[] font;
+
+        private final List<Block> blocks;
+
+        private Page(final long seed, final int width, final int height, final int[] pixels, final long[] font,
+                final List<Block> blocks)
+        {
+            this.seed = seed;
+            this.width = width;
+            this.height = height;
+            this.pixels = pixels;
+            this.font = font;
+            this.blocks = blocks;
+        }
+
+        /**
+         * Returns the page as image, every call returns a new image
+         * @return the image of the page
+         */
+        public BufferedImage getImage()
+        {
+            return toImage(pixels.clone(), width, height);
+        }
+
+        /**
+         * Returns the layout blocks of the page, the header first
+         * @return the bounds of the blocks
+         */
+        public List<Rectangle> getBlocks()
+        {
+            final List<Rectangle> bounds = new ArrayList<>();
+            for (final Block block : blocks)
+            {
+                bounds.add(new Rectangle(block.bounds));
+            }
+
+            return bounds;
+        }
+
+        /**
+         * Changes the page
+         * @param perturbation The kind of change
+         * @param variantSeed The seed of the change, the same seed always gives the same change
+         * @return the changed page and the regions it differs in
+         */
+        public Variant perturb(final Perturbation perturbation, final long variantSeed)
+        {
+            final SplittableRandom random = new SplittableRandom(seed * 31 + variantSeed);
+            final int[] changed = pixels.clone();
+            final List<Rectangle> regions = new ArrayList<>();
+
+            switch (perturbation)
+            {
+            case NONE:
+                break;
+            case ANTI_ALIASING:
+                for (final Block block : blocks)
+                {
+                    if (block.type == Block.TEXT && (regions.isEmpty() || random.nextInt(3) == 0))
+                    {
+                        jitterEdges(changed, width, block.bounds, random.nextLong());
+                        regions.add(new Rectangle(block.bounds));
+                    }
+                }
+                break;
+            case SHIFTED_BLOCK:
+            {
+                final Block block = pickBlock(random);
+                final int dx = (1 + random.nextInt(4)) * (random.nextBoolean() ? 1 : -1);
+                final int dy = (1 + random.nextInt(4)) * (random.nextBoolean() ? 1 : -1);
+                shift(changed, width, block.bounds, dx, dy);
+                regions.add(new Rectangle(block.bounds));
+                break;
+            }
+            case COLOR_DRIFT:
+            {
+                final Block block = pickBlock(random);
+                drift(changed, width, block.bounds, 4 + random.nextInt(9), -4 - random.nextInt(9), 4 + random.nextInt(9));
+                regions.add(new Rectangle(block.bounds));
+                break;
+            }
+            case BANNER:
+            {
+                final Block below = blocks.get(random.nextInt(blocks.size()));
+                final int top = below.bounds.y;
+                final int bannerHeight = Math.min(40 + random.nextInt(50), height - top);
+                System.arraycopy(pixels, top * width, changed, (top + bannerHeight) * width, (height - top - bannerHeight) * width);
+
+                final Rectangle banner = new Rectangle(0, top, width, bannerHeight);
+                fill(changed, width, banner, 0xFFFFD54F);
+                text(changed, width, banner, 0xFF3E2723, font, random);
+                regions.add(new Rectangle(0, top, width, height - top));
+                break;
+            }
+            default:
+                throw new IllegalArgumentException("Unknown perturbation " + perturbation);
+            }
+
+            return new Variant(toImage(changed, width, height), regions);
+        }
+
+        /**
+         * Picks a block below the header that is large enough to show a change
+         */
+        private Block pickBlock(final SplittableRandom random)
+        {
+            final List<Block> candidates = new ArrayList<>();
+            for (final Block block : blocks.subList(1, blocks.size()))
+            {
+                if (block.bounds.width > 8 && block.bounds.height > 8)
+                {
+                    candidates.add(block);
+                }
+            }
+
+            return candidates.isEmpty() ? blocks.get(0) : candidates.get(random.nextInt(candidates.size()));
+        }
+    }
+
+    /**
+     * A perturbed page together with the regions it differs from the page in
+     */
+    public static final class Variant
+    {
+        private final BufferedImage image;
+
+        private final List<Rectangle> regions;
+
+        private Variant(final BufferedImage image, final List<Rectangle> regions)
+        {
+            this.image = image;
+            this.regions = Collections.unmodifiableList(regions);
+        }
+
+        /**
+         * Returns the perturbed page
+         * @return the image
+         */
+        public BufferedImage getImage()
+        {
+            return image;
+        }
+
+        /**
+         * Returns the regions that were changed, no pixel outside of them differs from the page. A region can contain
+         * pixels that did not change, e.g. background that was shifted onto background.
+         * @return the changed regions
+         */
+        public List<Rectangle> getRegions()
+        {
+            return regions;
+        }
+    }
+
+    /**
+     * A layout block of a page
+     */
+    private static final class Block
+    {
+        static final int TEXT = 0;
+
+        static final int GRADIENT = 1;
+
+        static final int PHOTO = 2;
+
+        static final int CARD = 3;
+
+        final int type;
+
+        final Rectangle bounds;
+
+        Block(final int type, final Rectangle bounds)
+        {
+            this.type = type;
+            this.bounds = bounds;
+        }
+    }
+
+    /**
+     * Creates the glyphs, one bit per pixel
+     */
+    private static long[] font(final SplittableRandom random)
+    {
+        final long[] font = new long[GLYPHS];
+        for (int i = 0; i < GLYPHS; i++)
+        {
+            // a stem on the left like most latin letters, the rest is noise
+            long glyph = 0;
+            for (int y = 0; y < GLYPH_HEIGHT; y++)
+            {
+                glyph |= 1L << y * GLYPH_WIDTH;
+            }
+            font[i] = glyph | random.nextLong() & random.nextLong() & (1L << GLYPH_WIDTH * GLYPH_HEIGHT) - 1;
+        }
+
+        return font;
+    }
+
+    /**
+     * Writes lines of words into the bounds, the pixels next to the glyphs are blended as by anti-aliasing
+     */
+    private static void text(final int[] pixels, final int width, final Rectangle bounds, final int color, final long[] font,
+            final SplittableRandom random)
+    {
+        final int padding = 8;
+        for (int line = bounds.y + padding; line + GLYPH_HEIGHT <= bounds.y + bounds.height - padding; line += LINE_HEIGHT)
+        {
+            int x = bounds.x + padding;
+            final int end = bounds.x + bounds.width - padding - random.nextInt(Math.max(1, bounds.width / 3));
+            while (x + GLYPH_ADVANCE <= end)
+            {
+                final int wordLength = 2 + random.nextInt(8);
+                for (int i = 0; i < wordLength && x + GLYPH_ADVANCE <= end; i++)
+                {
+                    glyph(pixels, width, x, line, color, font[random.nextInt(GLYPHS)]);
+                    x += GLYPH_ADVANCE;
+                }
+                x += GLYPH_ADVANCE;
+            }
+        }
+    }
+
+    private static void glyph(final int[] pixels, final int width, final int x, final int y, final int color, final long glyph)
+    {
+        for (int row = 0; row < GLYPH_HEIGHT; row++)
+        {
+            for (int column = 0; column < GLYPH_WIDTH; column++)
+            {
+                final int position = (y + row) * width + x + column;
+                if ((glyph >>> row * GLYPH_WIDTH + column & 1) != 0)
+                {
+                    pixels[position] = color;
+                }
+                else if (column > 0 && (glyph >>> row * GLYPH_WIDTH + column - 1 & 1) != 0)
+                {
+                    // the right edge of a stroke is a blend of text and background
+                    pixels[position] = blend(pixels[position], color);
+                }
+            }
+        }
+    }
+
+    private static void gradient(final int[] pixels, final int width, final Rectangle bounds, final SplittableRandom random)
+    {
+        final int from = 0xFF000000 | random.nextInt(0x1000000);
+        final int to = 0xFF000000 | random.nextInt(0x1000000);
+        final boolean horizontal = random.nextBoolean();
+        final int length = Math.max(1, horizontal ? bounds.width - 1 : bounds.height - 1);
+
+        for (int y = bounds.y; y < bounds.y + bounds.height; y++)
+        {
+            for (int x = bounds.x; x < bounds.x + bounds.width; x++)
+            {
+                final int step = horizontal ? x - bounds.x : y - bounds.y;
+                pixels[y * width + x] = mix(from, to, step, length);
+            }
+        }
+    }
+
+    /**
+     * Smooth color areas with some grain, interpolated between random colors on a coarse grid
+     */
+    private static void photo(final int[] pixels, final int width, final Rectangle bounds, final long seed)
+    {
+        final int cell = 32;
+        for (int y = 0; y < bounds.height; y++)
+        {
+            final int cellY = y / cell;
+            for (int x = 0; x < bounds.width; x++)
+            {
+                final int cellX = x / cell;
+                final int top = mix(hash(seed, cellX, cellY), hash(seed, cellX + 1, cellY), x % cell, cell);
+                final int bottom = mix(hash(seed, cellX, cellY + 1), hash(seed, cellX + 1, cellY + 1), x % cell, cell);
+                final int grain = (hash(seed + 1, x, y) & 0xF) - 8;
+
+                pixels[(bounds.y + y) * width + bounds.x + x] = add(mix(top, bottom, y % cell, cell), grain, grain, grain);
+            }
+        }
+    }
+
+    /**
+     * A light box with a border, a title and a button
+     */
+    private static void card(final int[] pixels, final int width, final Rectangle bounds, final long[] font,
+            final SplittableRandom random)
+    {
+        fill(pixels, width, bounds, 0xFFDDDDDD);
+        fill(pixels, width, new Rectangle(bounds.x + 1, bounds.y + 1, bounds.width - 2, bounds.height - 2), 0xFFF5F5F5);
+
+        final Rectangle title = new Rectangle(bounds.x, bounds.y, bounds.width, Math.min(LINE_HEIGHT * 2, bounds.height));
+        text(pixels, width, title, 0xFF444444, font, random);
+
+        final Rectangle button = new Rectangle(bounds.x + 8, bounds.y + bounds.height - 40, Math.min(120, bounds.width - 16), 28);
+        if (button.y > title.y + title.height && button.width > 0)
+        {
+            fill(pixels, width, button, 0xFF1976D2);
+        }
+    }
+
+    /**
+     * Changes the color of the pixels that differ from their left neighbor by a few steps, mostly glyph edges
+     */
+    private static void jitterEdges(final int[] pixels, final int width, final Rectangle bounds, final long seed)
+    {
+        boolean changed = false;
+        for (int y = bounds.y; y < bounds.y + bounds.height; y++)
+        {
+            for (int x = bounds.x + 1; x < bounds.x + bounds.width; x++)
+            {
+                final int position = y * width + x;
+                if (pixels[position] != pixels[position - 1] && (hash(seed, x, y) & 1) == 0)
+                {
+                    pixels[position] = nudge(pixels[position], 1 + (hash(seed, y, x) & 3));
+                    changed = true;
+                }
+            }
+        }
+
+        if (!changed)
+        {
+            // a block without any edge, so that the region is not empty
+            pixels[bounds.y * width + bounds.x] = nudge(pixels[bounds.y * width + bounds.x], 3);
+        }
+    }
+
+    /**
+     * Moves the content of the bounds, the uncovered pixels repeat the edge of the content
+     */
+    private static void shift(final int[] pixels, final int width, final Rectangle bounds, final int dx, final int dy)
+    {
+        final int[] source = new int[bounds.width * bounds.height];
+        for (int y = 0; y < bounds.height; y++)
+        {
+            System.arraycopy(pixels, (bounds.y + y) * width + bounds.x, source, y * bounds.width, bounds.width);
+        }
+
+        for (int y = 0; y < bounds.height; y++)
+        {
+            final int sourceY = Math.min(bounds.height - 1, Math.max(0, y - dy));
+            for (int x = 0; x < bounds.width; x++)
+            {
+                final int sourceX = Math.min(bounds.width - 1, Math.max(0, x - dx));
+                pixels[(bounds.y + y) * width + bounds.x + x] = source[sourceY * bounds.width + sourceX];
+            }
+        }
+    }
+
+    private static void drift(final int[] pixels, final int width, final Rectangle bounds, final int red, final int green,
+            final int blue)
+    {
+        for (int y = bounds.y; y < bounds.y + bounds.height; y++)
+        {
+            for (int x = bounds.x; x < bounds.x + bounds.width; x++)
+            {
+                pixels[y * width + x] = add(pixels[y * width + x], red, green, blue);
+            }
+        }
+    }
+
+    private static void fill(final int[] pixels, final int width, final Rectangle bounds, final int color)
+    {
+        for (int y = bounds.y; y < bounds.y + bounds.height; y++)
+        {
+            Arrays.fill(pixels, y * width + bounds.x, y * width + bounds.x + bounds.width, color);
+        }
+    }
+
+    /**
+     * Mixes two colors, step of steps of the way from the first to the second
+     */
+    private static int mix(final int from, final int to, final int step, final int steps)
+    {
+        int rgb = 0xFF000000;
+        for (int shift = 0; shift < 24; shift += 8)
+        {
+            final int a = from >> shift & 0xFF;
+            final int b = to >> shift & 0xFF;
+            rgb |= a + (b - a) * step / steps << shift;
+        }
+
+        return rgb;
+    }
+
+    private static int blend(final int background, final int color)
+    {
+        return mix(background, color, 1, 3);
+    }
+
+    /**
+     * Adds to the channels, clamped to the valid range
+     */
+    private static int add(final int rgb, final int red, final int green, final int blue)
+    {
+        final int r = Math.min(255, Math.max(0, (rgb >> 16 & 0xFF) + red));
+        final int g = Math.min(255, Math.max(0, (rgb >> 8 & 0xFF) + green));
+        final int b = Math.min(255, Math.max(0, (rgb & 0xFF) + blue));
+
+        return 0xFF000000 | r << 16 | g << 8 | b;
+    }
+
+    /**
+     * Moves every channel by the given steps, down if it would leave the valid range, so the color always changes
+     */
+    private static int nudge(final int rgb, final int step)
+    {
+        int nudged = 0xFF000000;
+        for (int shift = 0; shift < 24; shift += 8)
+        {
+            final int channel = rgb >> shift & 0xFF;
+            nudged |= (channel + step <= 255 ? channel + step : channel - step) << shift;
+        }
+
+        return nudged;
+    }
+
+    /**
+     * An opaque pseudo random color for a grid point, independent of the order of the calls
+     */
+    private static int hash(final long seed, final int x, final int y)
+    {
+        long h = seed ^ (long) x * 0x9E3779B97F4A7C15L ^ (long) y * 0xC2B2AE3D27D4EB4FL;
+        h = (h ^ h >>> 31) * 0xBF58476D1CE4E5B9L;
+        h ^= h >>> 29;
+
+        return 0xFF000000 | (int) h & 0xFFFFFF;
+    }
+
+    private static BufferedImage toImage(final int[] pixels, final int width, final int height)
+    {
+        final BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        image.setRGB(0, 0, width, height, pixels, 0, width);
+
+        return image;
+    }
+}
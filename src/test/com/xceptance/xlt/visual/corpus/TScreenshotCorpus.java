@@ -0,0 +1,190 @@
+package test.com.xceptance.xlt.visual.corpus;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.xceptance.xlt.visualassertion.algorithm.ColorFuzzy;
+import com.xceptance.xlt.visualassertion.algorithm.ComparisonAlgorithm;
+import com.xceptance.xlt.visualassertion.algorithm.ExactMatch;
+import com.xceptance.xlt.visualassertion.algorithm.PixelFuzzy;
+import com.xceptance.xlt.visualassertion.io.PngRowReader;
+import com.xceptance.xlt.visualassertion.util.CompiledBaseline;
+import com.xceptance.xlt.visualassertion.util.ComparisonResult;
+import com.xceptance.xlt.visualassertion.util.DirectRaster;
+import com.xceptance.xlt.visualassertion.util.ImageComparison;
+import com.xceptance.xlt.visualassertion.util.MaskImage;
+import com.xceptance.xlt.visualassertion.util.StreamingComparison;
+import com.xceptance.xlt.visualassertion.util.TileHashes;
+import com.xceptance.xlt.visualassertion.util.TileTracker;
+
+import test.com.xceptance.xlt.visual.ImageTest;
+import test.com.xceptance.xlt.visual.corpus.ScreenshotCorpus.Page;
+import test.com.xceptance.xlt.visual.corpus.ScreenshotCorpus.Perturbation;
+import test.com.xceptance.xlt.visual.corpus.ScreenshotCorpus.Variant;
+
+public class TScreenshotCorpus extends ImageTest
+{
+    // not a multiple of the tiles, bands and fuzzy blocks
+    private static final int WIDTH = 733;
+
+    private static final int HEIGHT = 1901;
+
+    /**
+     * The same seed gives the same page and the same perturbation, another seed another page
+     */
+    @Test
+    public void deterministic()
+    {
+        final Page page = ScreenshotCorpus.page(7, WIDTH, HEIGHT);
+
+        Assert.assertTrue(imageEqual(page.getImage(), ScreenshotCorpus.page(7, WIDTH, HEIGHT).getImage()));
+        Assert.assertFalse(imageEqual(page.getImage(), ScreenshotCorpus.page(8, WIDTH, HEIGHT).getImage()));
+        Assert.assertTrue(imageEqual(page.perturb(Perturbation.SHIFTED_BLOCK, 3).getImage(),
+                                     page.perturb(Perturbation.SHIFTED_BLOCK, 3).getImage()));
+        Assert.assertTrue(page.getBlocks().size() > 3);
+    }
+
+    /**
+     * The perturbed pages differ exactly within the reported regions, and in every one of them
+     */
+    @Test
+    public void groundTruth()
+    {
+        for (long seed = 1; seed <= 5; seed++)
+        {
+            final Page page = ScreenshotCorpus.page(seed, WIDTH, HEIGHT);
+            final BufferedImage image = page.getImage();
+
+            for (final Perturbation perturbation : Perturbation.values())
+            {
+                final Variant variant = page.perturb(perturbation, seed);
+                final int[] differences = new ImageComparison(image).compare(variant.getImage(), new ExactMatch()).getDifferences();
+                final List<Rectangle> regions = variant.getRegions();
+
+                Assert.assertEquals(perturbation == Perturbation.NONE, regions.isEmpty());
+                Assert.assertEquals(perturbation == Perturbation.NONE, differences.length == 0);
+
+                final boolean[] hit = new boolean[regions.size()];
+                for (final int position : differences)
+                {
+                    boolean inside = false;
+                    for (int i = 0; i < regions.size(); i++)
+                    {
+                        if (regions.get(i).contains(position % WIDTH, position / WIDTH))
+                        {
+                            inside = hit[i] = true;
+                        }
+                    }
+                    Assert.assertTrue(perturbation + " changed a pixel outside of the regions", inside);
+                }
+                for (final boolean regionHit : hit)
+                {
+                    Assert.assertTrue(perturbation + " reported a region without changes", regionHit);
+                }
+            }
+        }
+    }
+
+    /**
+     * Slight anti-aliasing differences are tolerated by the color fuzzy comparison
+     */
+    @Test
+    public void antiAliasingIsTolerated()
+    {
+        final Page page = ScreenshotCorpus.page(11, WIDTH, HEIGHT);
+        final Variant variant = page.perturb(Perturbation.ANTI_ALIASING, 1);
+
+        Assert.assertFalse(new ImageComparison(page.getImage()).compare(variant.getImage(), new ExactMatch()).isEqual());
+        Assert.assertTrue(new ImageComparison(page.getImage()).compare(variant.getImage(), new ColorFuzzy(0.05)).isEqual());
+    }
+
+    /**
+     * Every comparison engine finds exactly the differences of the plain comparison
+     */
+    @Test
+    public void enginesAgree() throws IOException
+    {
+        final File directory = Files.createTempDirectory("corpus").toFile();
+        final File referenceFile = new File(directory, "reference.png");
+        final File maskFile = new File(directory, "mask.png");
+
+        final Page page = ScreenshotCorpus.page(3, WIDTH, HEIGHT);
+        final BufferedImage reference = page.getImage();
+        final BufferedImage mask = MaskImage.createBlankMask(WIDTH, HEIGHT);
+        final Rectangle masked = page.getBlocks().get(page.getBlocks().size() / 2);
+        final Graphics2D g = mask.createGraphics();
+        g.setColor(Color.BLACK);
+        g.fillRect(masked.x, masked.y, masked.width, masked.height);
+        g.dispose();
+        ImageIO.write(reference, "PNG", referenceFile);
+        ImageIO.write(mask, "PNG", maskFile);
+
+        final CompiledBaseline baseline = CompiledBaseline.open(new File(directory, "compiled.raster"), referenceFile, maskFile);
+
+        for (final ComparisonAlgorithm algorithm : new ComparisonAlgorithm[] { new ExactMatch(), new ColorFuzzy(0.05),
+            new PixelFuzzy(0.1, 0.05, 10) })
+        {
+            final TileTracker tracker = new TileTracker(64);
+            final TileHashes tiles = TileHashes.of(reference, TileHashes.tileSize(64, algorithm));
+
+            for (final Perturbation perturbation : Perturbation.values())
+            {
+                final BufferedImage screenshot = page.perturb(perturbation, 1).getImage();
+                final ComparisonResult expected = new ImageComparison(reference).compare(screenshot, mask, algorithm);
+                final String name = algorithm.getType() + " " + perturbation;
+
+                final ImageComparison tracked = new ImageComparison(reference);
+                tracked.setTileTracker(tracker, "page");
+                assertSameResult(name + " tracked", expected, tracked.compare(screenshot, mask, algorithm));
+
+                final ImageComparison tiled = new ImageComparison(reference);
+                tiled.setReferenceTiles(tiles);
+                assertSameResult(name + " tiled", expected, tiled.compare(screenshot, mask, algorithm));
+
+                assertSameResult(name + " compiled", expected, new ImageComparison(baseline).compare(screenshot, algorithm));
+
+                try (final DirectRaster raster = DirectRaster.copyOf(screenshot))
+                {
+                    assertSameResult(name + " off heap", expected,
+                                     new ImageComparison(reference).compare(raster, new MaskImage(reference, mask), algorithm));
+                }
+
+                try (final PngRowReader referenceReader = PngRowReader.open(referenceFile);
+                     final PngRowReader screenshotReader = PngRowReader.open(encode(screenshot));
+                     final PngRowReader maskReader = PngRowReader.open(maskFile))
+                {
+                    assertSameResult(name + " streamed", expected,
+                                     StreamingComparison.compare(referenceReader, screenshotReader, maskReader, algorithm, 64));
+                }
+            }
+        }
+    }
+
+    private static void assertSameResult(final String name, final ComparisonResult expected, final ComparisonResult result)
+    {
+        Assert.assertEquals(name, expected.isEqual(), result.isEqual());
+        Assert.assertEquals(name, expected.getMaskedPixelCount(), result.getMaskedPixelCount());
+        Assert.assertTrue(name, Arrays.equals(expected.getDifferences(), result.getDifferences()));
+    }
+
+    private static byte[] encode(final BufferedImage image) throws IOException
+    {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "PNG", out);
+
+        return out.toByteArray();
+    }
+}
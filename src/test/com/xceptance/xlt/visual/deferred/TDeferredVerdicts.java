@@ -0,0 +1,257 @@
+package test.com.xceptance.xlt.visual.deferred;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.xceptance.xlt.api.engine.Data;
+import com.xceptance.xlt.api.engine.DataManager;
+import com.xceptance.xlt.api.engine.Session;
+import com.xceptance.xlt.api.engine.SessionShutdownListener;
+import com.xceptance.xlt.visualassertion.AssertionLog;
+import com.xceptance.xlt.visualassertion.DeferredVerdicts;
+
+import test.com.xceptance.xlt.visual.ImageTest;
+
+public class TDeferredVerdicts extends ImageTest
+{
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @After
+    public void defaults()
+    {
+        release.countDown();
+        DeferredVerdicts.configure(1, 0);
+    }
+
+    /**
+     * The verdicts are handed over in the order of the assertions, a finished one waits for the earlier ones
+     */
+    @Test
+    public void ordering() throws Exception
+    {
+        DeferredVerdicts.configure(2, 0);
+        final StubSession session = new StubSession();
+
+        final CountDownLatch started = new CountDownLatch(1);
+        submit(session, "first", () -> {
+            started.countDown();
+            await(release);
+            Assert.fail("first");
+        });
+        started.await(10, TimeUnit.SECONDS);
+        submit(session, "second", () -> Assert.fail("second"));
+        submit(session, "third", () -> {
+        });
+
+        // the second and third are done, but the first is not
+        waitForPending(1);
+        Assert.assertEquals(Collections.emptyList(), DeferredVerdicts.collect(session, false));
+        Assert.assertTrue(session.values.isEmpty());
+
+        release.countDown();
+        Assert.assertEquals(Arrays.asList("first", "second"), DeferredVerdicts.collect(session, true));
+        Assert.assertEquals(Arrays.asList("first", "second", "third"), new ArrayList<>(session.values.keySet()));
+        Assert.assertEquals(Collections.emptyList(), DeferredVerdicts.collect(session, true));
+    }
+
+    /**
+     * If the pool is behind, the comparison runs right away on the calling thread and keeps its place in the order
+     */
+    @Test
+    public void inlineOverflow() throws Exception
+    {
+        DeferredVerdicts.configure(1, 1);
+        final StubSession session = new StubSession();
+
+        final CountDownLatch started = new CountDownLatch(1);
+        submit(session, "running", () -> {
+            started.countDown();
+            await(release);
+        });
+        started.await(10, TimeUnit.SECONDS);
+        submit(session, "queued", () -> Assert.fail("queued"));
+
+        final Thread caller = Thread.currentThread();
+        final List<Thread> threads = new ArrayList<>();
+        submit(session, "inline", () -> {
+            threads.add(Thread.currentThread());
+            Assert.fail("inline");
+        });
+        Assert.assertEquals(Collections.singletonList(caller), threads);
+
+        // the inline verdict waits for the earlier ones
+        Assert.assertEquals(Collections.emptyList(), DeferredVerdicts.collect(session, false));
+
+        release.countDown();
+        Assert.assertEquals(Arrays.asList("queued", "inline"), DeferredVerdicts.collect(session, true));
+    }
+
+    /**
+     * The verdicts left at the end of the session are waited for and logged as events
+     */
+    @Test
+    public void shutdown() throws Exception
+    {
+        DeferredVerdicts.configure(1, 0);
+        final StubSession session = new StubSession();
+
+        submit(session, "late", () -> {
+            await(release);
+            Assert.fail("late");
+        });
+        submit(session, "passed", () -> {
+        });
+        Assert.assertEquals(1, session.listeners.size());
+
+        new Thread(() -> {
+            try
+            {
+                TimeUnit.MILLISECONDS.sleep(100);
+            }
+            catch (final InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            release.countDown();
+        }).start();
+        session.listeners.get(0).shutdown();
+
+        Assert.assertEquals(Collections.singletonList(DeferredVerdicts.FAILURE_EVENT + ": late"), session.events);
+        Assert.assertEquals(Arrays.asList("late", "passed"), new ArrayList<>(session.values.keySet()));
+        Assert.assertEquals(Collections.emptyList(), DeferredVerdicts.collect(session, true));
+    }
+
+    /**
+     * Submits a comparison, its log gets a value named after it
+     */
+    private static void submit(final Session session, final String name, final Runnable comparison)
+    {
+        final AssertionLog log = new AssertionLog();
+        DeferredVerdicts.submit(session, log, () -> {
+            log.value(name, Boolean.TRUE);
+            comparison.run();
+        });
+    }
+
+    private static void await(final CountDownLatch latch)
+    {
+        try
+        {
+            latch.await(10, TimeUnit.SECONDS);
+        }
+        catch (final InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void waitForPending(final int count) throws InterruptedException
+    {
+        final long end = System.currentTimeMillis() + 10000;
+        while (DeferredVerdicts.getPendingCount() > count && System.currentTimeMillis() < end)
+        {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        Assert.assertEquals(count, DeferredVerdicts.getPendingCount());
+    }
+
+    /**
+     * A session that records what is written to it
+     */
+    private static final class StubSession extends Session
+    {
+        final List<String> events = new ArrayList<>();
+
+        final Map<String, Object> values = new LinkedHashMap<>();
+
+        final List<SessionShutdownListener> listeners = new ArrayList<>();
+
+        private final DataManager dataManager = new DataManager()
+        {
+            @Override
+            public void logDataRecord(final Data data)
+            {
+            }
+
+            @Override
+            public void logEvent(final String name, final String message)
+            {
+                events.add(name + ": " + message);
+            }
+        };
+
+        @Override
+        public String getUserName()
+        {
+            return "TDeferredVerdicts";
+        }
+
+        @Override
+        public String getCurrentActionName()
+        {
+            return "Action";
+        }
+
+        @Override
+        public String getID()
+        {
+            return "stub";
+        }
+
+        @Override
+        public boolean isLoadTest()
+        {
+            return false;
+        }
+
+        @Override
+        public DataManager getDataManager()
+        {
+            return dataManager;
+        }
+
+        @Override
+        public Map<String, Object> getValueLog()
+        {
+            return values;
+        }
+
+        @Override
+        public void addShutdownListener(final SessionShutdownListener listener)
+        {
+            listeners.add(listener);
+        }
+
+        @Override
+        public void removeShutdownListener(final SessionShutdownListener listener)
+        {
+            listeners.remove(listener);
+        }
+
+        @Override
+        public boolean hasFailed()
+        {
+            return false;
+        }
+
+        @Override
+        public void setFailed(final boolean failed)
+        {
+        }
+
+        @Override
+        public void setFailed()
+        {
+        }
+    }
+}
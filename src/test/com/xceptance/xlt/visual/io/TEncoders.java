@@ -0,0 +1,130 @@
+package test.com.xceptance.xlt.visual.io;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.xceptance.xlt.visualassertion.io.ImageEncoder;
+import com.xceptance.xlt.visualassertion.io.ImageIOEncoder;
+import com.xceptance.xlt.visualassertion.io.PngEncoder;
+import com.xceptance.xlt.visualassertion.io.QoiCodec;
+
+import test.com.xceptance.xlt.visual.ImageTest;
+
+public class TEncoders extends ImageTest
+{
+    private static byte[] encode(final ImageEncoder encoder, final BufferedImage image) throws IOException
+    {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encoder.write(image, out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Image with transparent and translucent pixels
+     */
+    private static BufferedImage translucent()
+    {
+        final BufferedImage image = new BufferedImage(70, 33, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < image.getHeight(); y++)
+        {
+            for (int x = 0; x < image.getWidth(); x++)
+            {
+                image.setRGB(x, y, (x * 4) << 24 | (y * 7) << 16 | (x * y) << 8 | (x + y) & 0xFF);
+            }
+        }
+        return image;
+    }
+
+    private void assertPngRoundTrip(final ImageEncoder encoder, final BufferedImage image) throws IOException
+    {
+        final BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(encode(encoder, image)));
+
+        Assert.assertEquals(image.getWidth(), decoded.getWidth());
+        Assert.assertEquals(image.getHeight(), decoded.getHeight());
+        Assert.assertTrue(imageEqual(image, decoded));
+    }
+
+    /**
+     * Every filter and some levels are read back by ImageIO without any change
+     */
+    @Test
+    public void png() throws IOException
+    {
+        final BufferedImage photo = load("../exact/photo.png");
+
+        for (final PngEncoder.Filter filter : PngEncoder.Filter.values())
+        {
+            for (final int level : new int[]
+                {
+                    0, 1, 9
+                })
+            {
+                assertPngRoundTrip(new PngEncoder(level, filter), photo);
+                assertPngRoundTrip(new PngEncoder(level, filter), translucent());
+            }
+        }
+    }
+
+    /**
+     * The fallback writer still works
+     */
+    @Test
+    public void imageIO() throws IOException
+    {
+        assertPngRoundTrip(new ImageIOEncoder(), load("../exact/photo.png"));
+    }
+
+    /**
+     * Images without transparency are stored without alpha channel
+     */
+    @Test
+    public void pngWithoutAlpha() throws IOException
+    {
+        final BufferedImage opaque = new BufferedImage(10, 10, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < 10; y++)
+        {
+            for (int x = 0; x < 10; x++)
+            {
+                opaque.setRGB(x, y, 0xFF000000 | x << 4 | y);
+            }
+        }
+
+        final byte[] png = encode(new PngEncoder(6, PngEncoder.Filter.ADAPTIVE), opaque);
+
+        // color type in IHDR, 2 is RGB
+        Assert.assertEquals(2, png[25]);
+        assertPngRoundTrip(new PngEncoder(6, PngEncoder.Filter.ADAPTIVE), opaque);
+    }
+
+    /**
+     * QOI images are read back without any change, including long runs
+     */
+    @Test
+    public void qoi() throws IOException
+    {
+        for (final BufferedImage image : new BufferedImage[]
+            {
+                load("../exact/photo.png"), load("../exact/blank.png"), translucent()
+            })
+        {
+            final BufferedImage decoded = QoiCodec.read(new ByteArrayInputStream(encode(new QoiCodec(), image)));
+
+            Assert.assertEquals(image.getWidth(), decoded.getWidth());
+            Assert.assertEquals(image.getHeight(), decoded.getHeight());
+            Assert.assertTrue(imageEqual(image, decoded));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidLevel()
+    {
+        new PngEncoder(10, PngEncoder.Filter.NONE);
+    }
+}
@@ -0,0 +1,72 @@
+package test.com.xceptance.xlt.visual.io;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.xceptance.xlt.visualassertion.io.ImageLoader;
+
+import test.com.xceptance.xlt.visual.ImageTest;
+
+public class TImageLoader extends ImageTest
+{
+    /**
+     * Files and bytes are decoded to the same image, independent of each other
+     */
+    @Test
+    public void loadAndDecode() throws IOException
+    {
+        final CompletableFuture<BufferedImage> file = ImageLoader.load(resolveFile("../exact/photo.png"));
+        final CompletableFuture<BufferedImage> bytes = ImageLoader.decode(Files.readAllBytes(resolveFile("../exact/photo.png").toPath()));
+
+        Assert.assertTrue(imageEqual(load("../exact/photo.png"), ImageLoader.get(file)));
+        Assert.assertTrue(imageEqual(load("../exact/photo.png"), ImageLoader.get(bytes)));
+    }
+
+    /**
+     * Subsampled images hold every n-th pixel of every n-th row of the full image
+     */
+    @Test
+    public void subsampling() throws IOException
+    {
+        final BufferedImage full = load("../exact/photo.png");
+        final BufferedImage file = ImageLoader.get(ImageLoader.load(resolveFile("../exact/photo.png"), 3));
+        final BufferedImage bytes = ImageLoader.get(ImageLoader.decode(Files.readAllBytes(resolveFile("../exact/photo.png").toPath()), 3));
+
+        Assert.assertEquals((full.getWidth() + 2) / 3, file.getWidth());
+        Assert.assertEquals((full.getHeight() + 2) / 3, file.getHeight());
+        for (int y = 0; y < file.getHeight(); y++)
+        {
+            for (int x = 0; x < file.getWidth(); x++)
+            {
+                Assert.assertEquals(full.getRGB(3 * x, 3 * y), file.getRGB(x, y));
+            }
+        }
+        Assert.assertTrue(imageEqual(file, bytes));
+    }
+
+    /**
+     * Files that don't exist are no error
+     */
+    @Test
+    public void missingFile() throws IOException
+    {
+        Assert.assertNull(ImageLoader.get(ImageLoader.load(resolveFile("missing.png"))));
+    }
+
+    /**
+     * Anything that is not an image is reported when waiting for it
+     */
+    @Test(expected = IOException.class)
+    public void noImage() throws IOException
+    {
+        ImageLoader.get(ImageLoader.decode(new byte[]
+            {
+                1, 2, 3
+            }));
+    }
+}
@@ -0,0 +1,133 @@
+package test.com.xceptance.xlt.visual.io;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.xceptance.xlt.visualassertion.io.PngRowReader;
+
+import test.com.xceptance.xlt.visual.ImageTest;
+
+public class TPngRowReader extends ImageTest
+{
+    /**
+     * The rows hold exactly the pixels ImageIO decodes
+     */
+    @Test
+    public void sameAsImageIO() throws IOException
+    {
+        for (final String name : new String[] { "../exact/photo.png", "../exact/photo-205x205.png", "../exact/blank.png" })
+        {
+            try (final PngRowReader reader = PngRowReader.open(resolveFile(name)))
+            {
+                Assert.assertNotNull(reader);
+                assertSamePixels(load(name), reader);
+            }
+        }
+
+        for (final int type : new int[] { BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB })
+        {
+            final BufferedImage image = randomImage(new BufferedImage(37, 23, type));
+            try (final PngRowReader reader = PngRowReader.open(encode(image)))
+            {
+                Assert.assertNotNull(reader);
+                assertSamePixels(image, reader);
+            }
+        }
+    }
+
+    /**
+     * Palette images of all bit depths, with and without transparency
+     */
+    @Test
+    public void palette() throws IOException
+    {
+        final Random random = new Random(42);
+        for (final int bits : new int[] { 1, 2, 4, 8 })
+        {
+            final int size = 1 << bits;
+            final byte[] r = new byte[size], g = new byte[size], b = new byte[size], a = new byte[size];
+            random.nextBytes(r);
+            random.nextBytes(g);
+            random.nextBytes(b);
+            random.nextBytes(a);
+
+            for (final IndexColorModel colors : new IndexColorModel[] { new IndexColorModel(bits, size, r, g, b),
+                new IndexColorModel(bits, size, r, g, b, a) })
+            {
+                final int type = bits == 8 ? BufferedImage.TYPE_BYTE_INDEXED : BufferedImage.TYPE_BYTE_BINARY;
+                final BufferedImage image = randomImage(new BufferedImage(37, 23, type, colors));
+
+                try (final PngRowReader reader = PngRowReader.open(encode(image)))
+                {
+                    Assert.assertNotNull(reader);
+                    assertSamePixels(image, reader);
+                }
+            }
+        }
+    }
+
+    /**
+     * Formats ImageIO converts are not read row by row, neither is anything that is not a PNG image
+     */
+    @Test
+    public void unsupported() throws IOException
+    {
+        Assert.assertNull(PngRowReader.open(encode(randomImage(new BufferedImage(37, 23, BufferedImage.TYPE_BYTE_GRAY)))));
+        Assert.assertNull(PngRowReader.open(new byte[] { 1, 2, 3 }));
+    }
+
+    private void assertSamePixels(final BufferedImage expected, final PngRowReader reader) throws IOException
+    {
+        Assert.assertEquals(expected.getWidth(), reader.getWidth());
+        Assert.assertEquals(expected.getHeight(), reader.getHeight());
+
+        final int[] row = new int[reader.getWidth()];
+        for (int y = 0; y < reader.getHeight(); y++)
+        {
+            reader.readRow(row, 0);
+            for (int x = 0; x < row.length; x++)
+            {
+                Assert.assertEquals(expected.getRGB(x, y), row[x]);
+            }
+        }
+    }
+
+    /**
+     * Fills the image with random samples, random enough for all PNG filter types to be used
+     */
+    private BufferedImage randomImage(final BufferedImage image)
+    {
+        final Random random = new Random(7);
+        final int bands = image.getRaster().getNumBands();
+        final int max = (1 << image.getSampleModel().getSampleSize(0)) - 1;
+
+        for (int y = 0; y < image.getHeight(); y++)
+        {
+            for (int x = 0; x < image.getWidth(); x++)
+            {
+                for (int band = 0; band < bands; band++)
+                {
+                    image.getRaster().setSample(x, y, band, random.nextInt(max + 1));
+                }
+            }
+        }
+
+        return image;
+    }
+
+    private byte[] encode(final BufferedImage image) throws IOException
+    {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "PNG", out);
+
+        return out.toByteArray();
+    }
+}
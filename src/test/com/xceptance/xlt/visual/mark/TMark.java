@@ -126,4 +126,55 @@ public class TMark extends ImageTest
         T = new TestCompare(new ExactMatch(), m, 2, 2);
         T.match("mark/white-35x35.png").to("mark/white-35x35-5pixels.png").isNotEqual().hasMarking("mark/markNonSquareClosed.png");
     }
+
+    /**
+     * Many differences on a gradient, the boxes are drawn in a color that stands out from the pixels below
+     */
+    @Test
+    public void boxesGradient()
+    {
+        T.match("colorfuzzy/gradient2DRed_2_Color05.png").to("colorfuzzy/gradient2DRed_Color05.png").isNotEqual()
+         .hasMarking("mark/boxesGradient.png");
+    }
+
+    /**
+     * Many differences on a gradient, every pixel is marked
+     */
+    @Test
+    public void pixelsGradient()
+    {
+        T = new TestCompare(a, m, 1, 1);
+        T.match("colorfuzzy/gradient2DRed_2_Color05.png").to("colorfuzzy/gradient2DRed_Color05.png").isNotEqual()
+         .hasMarking("mark/pixelsGradient.png");
+    }
+
+    /**
+     * Many differences on a gradient, overlapping highlighter blocks
+     */
+    @Test
+    public void markerGradient()
+    {
+        T.match("colorfuzzy/gradient2DRed_2_Color05.png").to("colorfuzzy/gradient2DRed_Color05.png").isNotEqual()
+         .hasHighlighting("mark/markerGradient.png");
+    }
+
+    /**
+     * Compared image is smaller than the reference, the missing area is transparent before it is highlighted
+     */
+    @Test
+    public void markerResized()
+    {
+        T = new TestCompare(new ExactMatch(), m, 10, 10);
+        T.match("exact/photo.png").to("exact/photo-205x205.png").isNotEqual().hasHighlighting("mark/markerResized.png");
+    }
+
+    /**
+     * Compared image is bigger than the reference, highlighted with a non square marker
+     */
+    @Test
+    public void markerResizedReversed()
+    {
+        T = new TestCompare(new ExactMatch(), m, 7, 3);
+        T.match("exact/photo-205x205.png").to("exact/photo.png").isNotEqual().hasHighlighting("mark/markerResizedReversed.png");
+    }
 }
@@ -0,0 +1,76 @@
+package test.com.xceptance.xlt.visual.monitor;
+
+import java.awt.image.BufferedImage;
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.xceptance.xlt.visualassertion.algorithm.ExactMatch;
+import com.xceptance.xlt.visualassertion.monitor.AssertionMonitor;
+import com.xceptance.xlt.visualassertion.monitor.AssertionStatistics;
+import com.xceptance.xlt.visualassertion.util.ImageComparison;
+import com.xceptance.xlt.visualassertion.util.PhaseTimer;
+import com.xceptance.xlt.visualassertion.util.PhaseTimer.Phase;
+
+import test.com.xceptance.xlt.visual.ImageTest;
+
+public class TAssertionMonitor extends ImageTest
+{
+    /**
+     * The assertions are counted, failed ones separately, the comparisons only while they run
+     */
+    @Test
+    public void counts()
+    {
+        final AssertionStatistics statistics = AssertionStatistics.getInstance();
+        final long assertions = statistics.getAssertionCount();
+        final long failed = statistics.getFailedAssertionCount();
+
+        final BufferedImage reference = load("../exact/photo.png");
+        final BufferedImage screenshot = load("../exact/photo.png");
+        screenshot.setRGB(3, 3, 0xFF123456);
+
+        final PhaseTimer timer = new PhaseTimer();
+        final AssertionMonitor monitor = AssertionMonitor.start("001-Test", "EXACTMATCH");
+        timer.setListener(monitor);
+
+        final int inFlight = statistics.getComparisonsInFlight();
+        timer.enter(Phase.COMPARE);
+        Assert.assertEquals(inFlight + 1, statistics.getComparisonsInFlight());
+        monitor.compared(new ImageComparison(reference).compare(screenshot, new ExactMatch()), 0, 0);
+        timer.stop();
+        Assert.assertEquals(inFlight, statistics.getComparisonsInFlight());
+        monitor.finish();
+
+        Assert.assertEquals(assertions + 1, statistics.getAssertionCount());
+        Assert.assertEquals(failed + 1, statistics.getFailedAssertionCount());
+
+        // a passing assertion
+        final AssertionMonitor passing = AssertionMonitor.start("002-Test", "EXACTMATCH");
+        passing.compared(new ImageComparison(reference).compare(reference, new ExactMatch()), 0, 0);
+        passing.finish();
+
+        Assert.assertEquals(assertions + 2, statistics.getAssertionCount());
+        Assert.assertEquals(failed + 1, statistics.getFailedAssertionCount());
+    }
+
+    /**
+     * The counters are published via JMX as soon as an assertion started
+     */
+    @Test
+    public void registered() throws Exception
+    {
+        AssertionMonitor.start("001-Test", "EXACTMATCH").finish();
+
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName name = new ObjectName(AssertionStatistics.OBJECT_NAME);
+        Assert.assertTrue(server.isRegistered(name));
+        Assert.assertEquals(AssertionStatistics.getInstance().getAssertionCount(), server.getAttribute(name, "AssertionCount"));
+        Assert.assertTrue((Double) server.getAttribute(name, "BaselineCacheHitRatio") >= 0);
+        Assert.assertTrue((Long) server.getAttribute(name, "RasterBytesInUse") >= 0);
+    }
+}
@@ -0,0 +1,58 @@
+package test.com.xceptance.xlt.visual.region;
+
+import java.awt.Rectangle;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.xceptance.xlt.visualassertion.util.Region;
+
+public class TRegion
+{
+    /**
+     * Selectors and rectangles, with and without a name
+     */
+    @Test
+    public void parse()
+    {
+        final List<Region> regions = Region.parseAll("header=#header; 10, 20, 300, 40", ".product-tile:nth-child(2)", "input[name=q]");
+        Assert.assertEquals(4, regions.size());
+
+        Assert.assertEquals("header", regions.get(0).getName());
+        Assert.assertEquals("#header", regions.get(0).getSelector());
+        Assert.assertNull(regions.get(0).getBounds());
+
+        Assert.assertEquals("10_20_300_40", regions.get(1).getName());
+        Assert.assertNull(regions.get(1).getSelector());
+        Assert.assertEquals(new Rectangle(10, 20, 300, 40), regions.get(1).getBounds());
+
+        Assert.assertEquals("product-tile_nth-child_2", regions.get(2).getName());
+        Assert.assertEquals("input_name_q", regions.get(3).getName());
+        Assert.assertEquals("input[name=q]", regions.get(3).getSelector());
+    }
+
+    /**
+     * Nothing configured means the whole page
+     */
+    @Test
+    public void empty()
+    {
+        Assert.assertTrue(Region.parseAll("", " ; ").isEmpty());
+    }
+
+    /**
+     * The names must be unique, they name the baselines
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void duplicateName()
+    {
+        Region.parseAll("box=#a;box=#b");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void emptyRectangle()
+    {
+        Region.parse("0,0,0,10");
+    }
+}
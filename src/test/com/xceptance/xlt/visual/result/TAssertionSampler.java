@@ -0,0 +1,77 @@
+package test.com.xceptance.xlt.visual.result;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.xceptance.xlt.visualassertion.util.AssertionSampler;
+import com.xceptance.xlt.visualassertion.util.AssertionSampler.Policy;
+
+import test.com.xceptance.xlt.visual.ImageTest;
+
+public class TAssertionSampler extends ImageTest
+{
+    /**
+     * One of every n assertions of an action is checked, each action counts on its own
+     */
+    @Test
+    public void action()
+    {
+        final AssertionSampler sampler = new AssertionSampler(Policy.ACTION, 0, 3, 0);
+        final long skipped = AssertionSampler.getSkippedCount();
+
+        int checked = 0;
+        for (int i = 0; i < 9; i++)
+        {
+            if (sampler.sample("Homepage", "baseline/001-Homepage.png", 0))
+            {
+                checked++;
+            }
+        }
+        Assert.assertEquals(3, checked);
+        Assert.assertTrue(sampler.sample("Search", "baseline/002-Search.png", 0));
+        Assert.assertEquals(skipped + 6, AssertionSampler.getSkippedCount());
+    }
+
+    /**
+     * The share of random samples is close to the percentage
+     */
+    @Test
+    public void random()
+    {
+        final AssertionSampler none = new AssertionSampler(Policy.RANDOM, 0, 1, 0);
+        final AssertionSampler half = new AssertionSampler(Policy.RANDOM, 50, 1, 0);
+
+        // the first assertion of a baseline is always checked
+        Assert.assertTrue(none.sample("Homepage", "baseline/001-Homepage.png", 0));
+
+        int checked = 0;
+        for (int i = 0; i < 10000; i++)
+        {
+            Assert.assertFalse(none.sample("Homepage", "baseline/001-Homepage.png", 0));
+            if (half.sample("Homepage", "baseline/001-Homepage.png", 0))
+            {
+                checked++;
+            }
+        }
+        Assert.assertTrue(String.valueOf(checked), checked > 4500 && checked < 5500);
+    }
+
+    /**
+     * Each baseline is checked once per window, and by any policy once the interval passed
+     */
+    @Test
+    public void interval()
+    {
+        final AssertionSampler window = new AssertionSampler(Policy.WINDOW, 0, 1, 1000);
+        Assert.assertTrue(window.sample("Homepage", "baseline/001-Homepage.png", 0));
+        Assert.assertFalse(window.sample("Homepage", "baseline/001-Homepage.png", 999));
+        Assert.assertTrue(window.sample("Homepage", "baseline/001-Homepage-header.png", 999));
+        Assert.assertTrue(window.sample("Homepage", "baseline/001-Homepage.png", 1000));
+        Assert.assertFalse(window.sample("Homepage", "baseline/001-Homepage.png", 1999));
+
+        final AssertionSampler random = new AssertionSampler(Policy.RANDOM, 0, 1, 1000);
+        Assert.assertTrue(random.sample("Homepage", "baseline/001-Homepage.png", 0));
+        Assert.assertFalse(random.sample("Homepage", "baseline/001-Homepage.png", 500));
+        Assert.assertTrue(random.sample("Homepage", "baseline/001-Homepage.png", 1500));
+    }
+}
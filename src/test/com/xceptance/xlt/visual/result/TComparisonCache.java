@@ -0,0 +1,140 @@
+package test.com.xceptance.xlt.visual.result;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.xceptance.xlt.visualassertion.algorithm.ExactMatch;
+import com.xceptance.xlt.visualassertion.algorithm.PixelFuzzy;
+import com.xceptance.xlt.visualassertion.util.ComparisonCache;
+import com.xceptance.xlt.visualassertion.util.ComparisonCache.Flight;
+import com.xceptance.xlt.visualassertion.util.ComparisonResult;
+import com.xceptance.xlt.visualassertion.util.ImageComparison;
+
+import test.com.xceptance.xlt.visual.ImageTest;
+
+public class TComparisonCache extends ImageTest
+{
+    private static final File REFERENCE = new File("baseline/001-Homepage.png");
+
+    private static final File MASK = new File("masks/001-Homepage.png");
+
+    @After
+    public void noEntries()
+    {
+        ComparisonCache.setMaxEntries(0);
+    }
+
+    /**
+     * The screenshot and the parameters of the algorithm are part of the key
+     */
+    @Test
+    public void key()
+    {
+        final byte[] screenshot = { 1, 2, 3 };
+        final String key = ComparisonCache.key(screenshot, REFERENCE, MASK, new PixelFuzzy(0.2, 0.1, 10));
+
+        Assert.assertEquals(key, ComparisonCache.key(screenshot.clone(), REFERENCE, MASK, new PixelFuzzy(0.2, 0.1, 10)));
+        Assert.assertFalse(key.equals(ComparisonCache.key(new byte[] { 1, 2, 4 }, REFERENCE, MASK, new PixelFuzzy(0.2, 0.1, 10))));
+        Assert.assertFalse(key.equals(ComparisonCache.key(screenshot, REFERENCE, MASK, new PixelFuzzy(0.2, 0.1, 8))));
+        Assert.assertFalse(key.equals(ComparisonCache.key(screenshot, REFERENCE, MASK, new ExactMatch())));
+        Assert.assertFalse(key.equals(ComparisonCache.key(screenshot, REFERENCE, new File("masks/002-Search.png"), new ExactMatch())));
+    }
+
+    /**
+     * A comparison that asks while the same comparison is running gets its result
+     */
+    @Test
+    public void coalesce() throws Exception
+    {
+        final ComparisonResult result = compare();
+
+        try (final Flight first = ComparisonCache.join("coalesce"))
+        {
+            Assert.assertNull(first.getResult());
+
+            final CompletableFuture<ComparisonResult> second = CompletableFuture.supplyAsync(() -> {
+                try (final Flight flight = ComparisonCache.join("coalesce"))
+                {
+                    return flight.getResult();
+                }
+            });
+            TimeUnit.MILLISECONDS.sleep(100);
+            Assert.assertFalse(second.isDone());
+
+            first.complete(result);
+            Assert.assertSame(result, second.get(10, TimeUnit.SECONDS));
+        }
+
+        // nothing is kept without entries
+        try (final Flight third = ComparisonCache.join("coalesce"))
+        {
+            Assert.assertNull(third.getResult());
+        }
+    }
+
+    /**
+     * The waiting comparisons compare themselves if the running one has no result to share
+     */
+    @Test
+    public void noResult() throws Exception
+    {
+        final Flight first = ComparisonCache.join("noResult");
+        final CompletableFuture<ComparisonResult> second = CompletableFuture.supplyAsync(() -> {
+            try (final Flight flight = ComparisonCache.join("noResult"))
+            {
+                return flight.getResult();
+            }
+        });
+        TimeUnit.MILLISECONDS.sleep(100);
+
+        first.close();
+        Assert.assertNull(second.get(10, TimeUnit.SECONDS));
+    }
+
+    /**
+     * The least recently used results are dropped
+     */
+    @Test
+    public void leastRecentlyUsed()
+    {
+        ComparisonCache.setMaxEntries(2);
+        final ComparisonResult result = compare();
+        for (final String key : new String[] { "a", "b" })
+        {
+            try (final Flight flight = ComparisonCache.join(key))
+            {
+                flight.complete(result);
+            }
+        }
+
+        final long hits = ComparisonCache.getHits();
+        Assert.assertSame(result, ComparisonCache.join("a").getResult());
+        try (final Flight flight = ComparisonCache.join("c"))
+        {
+            flight.complete(result);
+        }
+
+        Assert.assertSame(result, ComparisonCache.join("a").getResult());
+        Assert.assertSame(result, ComparisonCache.join("c").getResult());
+        Assert.assertEquals(hits + 3, ComparisonCache.getHits());
+        try (final Flight flight = ComparisonCache.join("b"))
+        {
+            Assert.assertNull(flight.getResult());
+        }
+    }
+
+    private ComparisonResult compare()
+    {
+        final BufferedImage reference = load("../exact/photo.png");
+        final BufferedImage screenshot = load("../exact/photo.png");
+        screenshot.setRGB(3, 3, 0xFF123456);
+
+        return new ImageComparison(reference).compare(screenshot, new ExactMatch());
+    }
+}
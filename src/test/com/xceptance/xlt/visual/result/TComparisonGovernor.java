@@ -0,0 +1,146 @@
+package test.com.xceptance.xlt.visual.result;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.xceptance.xlt.visualassertion.util.ComparisonGovernor;
+import com.xceptance.xlt.visualassertion.util.ComparisonGovernor.Mode;
+import com.xceptance.xlt.visualassertion.util.ComparisonGovernor.Permit;
+import com.xceptance.xlt.visualassertion.util.ComparisonGovernor.Policy;
+
+import test.com.xceptance.xlt.visual.ImageTest;
+
+public class TComparisonGovernor extends ImageTest
+{
+    @After
+    public void noLimits()
+    {
+        ComparisonGovernor.setLimits(0, 0);
+    }
+
+    /**
+     * Without limits every comparison runs at full resolution
+     */
+    @Test
+    public void unlimited() throws InterruptedException
+    {
+        try (final Permit first = ComparisonGovernor.acquire(1000, Policy.SKIP, 10, false);
+             final Permit second = ComparisonGovernor.acquire(1000, Policy.SKIP, 10, false))
+        {
+            Assert.assertEquals(Mode.FULL, first.getMode());
+            Assert.assertEquals(Mode.FULL, second.getMode());
+            Assert.assertEquals(2, ComparisonGovernor.getComparisons());
+            Assert.assertEquals(2000, ComparisonGovernor.getBytes());
+        }
+        Assert.assertEquals(0, ComparisonGovernor.getComparisons());
+        Assert.assertEquals(0, ComparisonGovernor.getBytes());
+    }
+
+    /**
+     * Beyond the limit a comparison waits for the running one or is skipped
+     */
+    @Test
+    public void policies() throws Exception
+    {
+        ComparisonGovernor.setLimits(1, 0);
+
+        final Permit running = ComparisonGovernor.acquire(1000, Policy.QUEUE, 10, false);
+
+        try (final Permit skipped = ComparisonGovernor.acquire(1000, Policy.SKIP, 10, false))
+        {
+            Assert.assertEquals(Mode.SKIPPED, skipped.getMode());
+            Assert.assertEquals(1, ComparisonGovernor.getComparisons());
+        }
+
+        final CompletableFuture<Mode> queued = acquireLater(Policy.QUEUE);
+        TimeUnit.MILLISECONDS.sleep(100);
+        Assert.assertFalse(queued.isDone());
+
+        running.close();
+        Assert.assertEquals(Mode.FULL, queued.get(10, TimeUnit.SECONDS));
+        Assert.assertEquals(0, ComparisonGovernor.getComparisons());
+    }
+
+    /**
+     * A degraded comparison gets around the memory limit, but not around the number of comparisons
+     */
+    @Test
+    public void degrade() throws Exception
+    {
+        ComparisonGovernor.setLimits(2, 1500);
+
+        final Permit running = ComparisonGovernor.acquire(1000, Policy.QUEUE, 10, false);
+        try (final Permit degraded = ComparisonGovernor.acquire(1000, Policy.DEGRADE, 10, false))
+        {
+            Assert.assertEquals(Mode.DEGRADED, degraded.getMode());
+            Assert.assertEquals(1010, ComparisonGovernor.getBytes());
+
+            // Both comparisons run, the next one waits even though it would be degraded
+            final CompletableFuture<Mode> waiting = acquireLater(Policy.DEGRADE);
+            TimeUnit.MILLISECONDS.sleep(100);
+            Assert.assertFalse(waiting.isDone());
+
+            // It fits at full resolution once the big one is done
+            running.close();
+            Assert.assertEquals(Mode.FULL, waiting.get(10, TimeUnit.SECONDS));
+        }
+        Assert.assertEquals(0, ComparisonGovernor.getComparisons());
+        Assert.assertEquals(0, ComparisonGovernor.getBytes());
+    }
+
+    /**
+     * The memory limit admits comparisons as long as they fit, a single one that is too big runs alone
+     */
+    @Test
+    public void memory() throws InterruptedException
+    {
+        ComparisonGovernor.setLimits(0, 1500);
+
+        try (final Permit big = ComparisonGovernor.acquire(2000, Policy.SKIP, 10, false))
+        {
+            Assert.assertEquals(Mode.FULL, big.getMode());
+            Assert.assertEquals(Mode.SKIPPED, ComparisonGovernor.acquire(1, Policy.SKIP, 1, false).getMode());
+        }
+
+        try (final Permit first = ComparisonGovernor.acquire(1000, Policy.SKIP, 10, false);
+             final Permit second = ComparisonGovernor.acquire(500, Policy.SKIP, 10, false);
+             final Permit third = ComparisonGovernor.acquire(1, Policy.SKIP, 1, false))
+        {
+            Assert.assertEquals(Mode.FULL, first.getMode());
+            Assert.assertEquals(Mode.FULL, second.getMode());
+            Assert.assertEquals(Mode.SKIPPED, third.getMode());
+        }
+    }
+
+    /**
+     * The thread runs at the lowest priority while it holds the permit
+     */
+    @Test
+    public void lowPriority() throws InterruptedException
+    {
+        final int priority = Thread.currentThread().getPriority();
+        try (final Permit permit = ComparisonGovernor.acquire(1000, Policy.QUEUE, 10, true))
+        {
+            Assert.assertEquals(Thread.MIN_PRIORITY, Thread.currentThread().getPriority());
+        }
+        Assert.assertEquals(priority, Thread.currentThread().getPriority());
+    }
+
+    private static CompletableFuture<Mode> acquireLater(final Policy policy)
+    {
+        return CompletableFuture.supplyAsync(() -> {
+            try (final Permit permit = ComparisonGovernor.acquire(1000, policy, 10, false))
+            {
+                return permit.getMode();
+            }
+            catch (final InterruptedException e)
+            {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+}
@@ -0,0 +1,73 @@
+package test.com.xceptance.xlt.visual.result;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.xceptance.xlt.visualassertion.algorithm.ExactMatch;
+import com.xceptance.xlt.visualassertion.util.ComparisonResult;
+import com.xceptance.xlt.visualassertion.util.ImageComparison;
+import com.xceptance.xlt.visualassertion.util.MaskImage;
+
+import test.com.xceptance.xlt.visual.ImageTest;
+
+public class TComparisonResult extends ImageTest
+{
+    private ComparisonResult compare(final String referenceFile, final String imageFile)
+    {
+        final BufferedImage reference = load(referenceFile);
+        return new ImageComparison(reference).compare(load(imageFile), new MaskImage(reference), new ExactMatch());
+    }
+
+    /**
+     * Equal images, nothing to render
+     */
+    @Test
+    public void equal()
+    {
+        final ComparisonResult result = compare("../exact/blank.png", "../exact/blank.png");
+
+        Assert.assertTrue(result.isEqual());
+        Assert.assertEquals(0, result.getDifferenceCount());
+        Assert.assertTrue(result.getBoundingBoxes().isEmpty());
+        Assert.assertNull(result.getDifferenceImage());
+    }
+
+    /**
+     * One pixel, one block, one box
+     */
+    @Test
+    public void onePixel()
+    {
+        final ComparisonResult result = compare("../exact/blank.png", "../exact/oneblackpixel.png");
+
+        Assert.assertFalse(result.isEqual());
+        Assert.assertEquals(1, result.getDifferenceCount());
+        Assert.assertEquals(200 * 200, result.getPixelCount());
+        Assert.assertEquals(0, result.getMaskedPixelCount());
+        Assert.assertArrayEquals(new int[]
+            {
+                91 * 200 + 88
+            }, result.getDifferences());
+        Assert.assertEquals(Arrays.asList(new Rectangle(88, 91, 1, 1)), result.getDifferenceBlocks());
+        Assert.assertEquals(Arrays.asList(new Rectangle(88, 91, 1, 1)), result.getBoundingBoxes());
+    }
+
+    /**
+     * Pixels in corners and one in the middle, neighbouring blocks are joined into one bounding box
+     */
+    @Test
+    public void joinedBlocks()
+    {
+        final ComparisonResult result = compare("../mark/white-35x35.png", "../mark/white-35x35-5pixels.png");
+
+        Assert.assertEquals(5, result.getDifferenceCount());
+        Assert.assertEquals(Arrays.asList(new Rectangle(0, 0, 11, 11), new Rectangle(34, 0, 1, 1), new Rectangle(0, 34, 1, 1),
+                                          new Rectangle(34, 34, 1, 1)),
+                            result.getDifferenceBlocks());
+        Assert.assertEquals(Arrays.asList(new Rectangle(0, 0, 35, 35)), result.getBoundingBoxes());
+    }
+}
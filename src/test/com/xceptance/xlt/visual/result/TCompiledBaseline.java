@@ -0,0 +1,103 @@
+package test.com.xceptance.xlt.visual.result;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.xceptance.xlt.visualassertion.algorithm.ComparisonAlgorithm;
+import com.xceptance.xlt.visualassertion.util.CompiledBaseline;
+import com.xceptance.xlt.visualassertion.util.ComparisonResult;
+import com.xceptance.xlt.visualassertion.util.ImageComparison;
+
+import test.com.xceptance.xlt.visual.ImageTest;
+
+public class TCompiledBaseline extends ImageTest
+{
+    /**
+     * The compiled baseline finds exactly the differences of the decoded images, with the mask applied
+     */
+    @Test
+    public void sameResult() throws IOException
+    {
+        final File directory = Files.createTempDirectory("baseline").toFile();
+        final File referenceFile = new File(directory, "reference.png");
+        final File maskFile = new File(directory, "mask.png");
+
+        final BufferedImage reference = load("../exact/photo.png");
+        final BufferedImage screenshot = load("../exact/photo2.png");
+        final BufferedImage mask = createMask(reference.getWidth(), reference.getHeight());
+        ImageIO.write(reference, "PNG", referenceFile);
+        ImageIO.write(mask, "PNG", maskFile);
+
+        final CompiledBaseline baseline = CompiledBaseline.open(new File(directory, "compiled.raster"), referenceFile, maskFile);
+        Assert.assertTrue(baseline.hasMask());
+        Assert.assertTrue(imageEqual(reference, baseline.getReferenceImage()));
+
+        for (final ComparisonAlgorithm algorithm : algorithms())
+        {
+            final ComparisonResult decoded = new ImageComparison(reference).compare(screenshot, mask, algorithm);
+            Assert.assertTrue(decoded.getMaskedPixelCount() > 0);
+
+            assertSameResult(decoded, new ImageComparison(baseline).compare(screenshot, algorithm));
+        }
+    }
+
+    /**
+     * The store is compiled once and compiled again when the mask changes or the store is damaged
+     */
+    @Test
+    public void recompile() throws IOException
+    {
+        final File directory = Files.createTempDirectory("baseline").toFile();
+        final File referenceFile = new File(directory, "reference.png");
+        final File maskFile = new File(directory, "mask.png");
+        final File storeFile = new File(directory, "compiled.raster");
+
+        final BufferedImage reference = load("../exact/photo.png");
+        ImageIO.write(reference, "PNG", referenceFile);
+
+        final CompiledBaseline withoutMask = CompiledBaseline.open(storeFile, referenceFile, maskFile);
+        Assert.assertFalse(withoutMask.hasMask());
+        Assert.assertSame(withoutMask, CompiledBaseline.open(storeFile, referenceFile, maskFile));
+
+        ImageIO.write(createMask(reference.getWidth(), reference.getHeight()), "PNG", maskFile);
+        final CompiledBaseline withMask = CompiledBaseline.open(storeFile, referenceFile, maskFile);
+        Assert.assertTrue(withMask.hasMask());
+
+        // damage the store and make the file appear changed
+        try (final RandomAccessFile file = new RandomAccessFile(storeFile, "rw"))
+        {
+            file.setLength(100);
+        }
+        maskFile.setLastModified(maskFile.lastModified() - 10000);
+
+        final CompiledBaseline repaired = CompiledBaseline.open(storeFile, referenceFile, maskFile);
+        Assert.assertTrue(repaired.hasMask());
+        Assert.assertTrue(imageEqual(reference, repaired.getReferenceImage()));
+    }
+
+    /**
+     * Only the most recently opened baselines are kept
+     */
+    @Test
+    public void bounded() throws IOException
+    {
+        final File directory = Files.createTempDirectory("baseline").toFile();
+        final File referenceFile = new File(directory, "reference.png");
+        final File maskFile = new File(directory, "mask.png");
+        ImageIO.write(new BufferedImage(8, 8, BufferedImage.TYPE_INT_ARGB), "PNG", referenceFile);
+
+        for (int i = 0; i < CompiledBaseline.MAX_OPENED + 10; i++)
+        {
+            CompiledBaseline.open(new File(directory, i + ".raster"), referenceFile, maskFile);
+        }
+        Assert.assertEquals(CompiledBaseline.MAX_OPENED, CompiledBaseline.getOpenedCount());
+    }
+}
@@ -0,0 +1,75 @@
+package test.com.xceptance.xlt.visual.result;
+
+import java.awt.image.BufferedImage;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.xceptance.xlt.visualassertion.algorithm.ComparisonAlgorithm;
+import com.xceptance.xlt.visualassertion.util.ComparisonResult;
+import com.xceptance.xlt.visualassertion.util.DirectRaster;
+import com.xceptance.xlt.visualassertion.util.ImageComparison;
+import com.xceptance.xlt.visualassertion.util.MaskImage;
+
+import test.com.xceptance.xlt.visual.ImageTest;
+
+public class TDirectRaster extends ImageTest
+{
+    /**
+     * A raster outside of the heap is compared exactly like the image it was copied from
+     */
+    @Test
+    public void sameResult()
+    {
+        final BufferedImage reference = load("../exact/photo.png");
+        final MaskImage mask = new MaskImage(reference, createMask(reference.getWidth(), reference.getHeight()));
+
+        for (final String name : new String[] { "../exact/photo2.png", "../exact/photo-205x205.png" })
+        {
+            final BufferedImage screenshot = load(name);
+
+            for (final ComparisonAlgorithm algorithm : algorithms())
+            {
+                final ComparisonResult expected = new ImageComparison(reference).compare(screenshot, mask, algorithm);
+
+                try (final DirectRaster raster = DirectRaster.copyOf(screenshot))
+                {
+                    final ImageComparison comparison = new ImageComparison(reference);
+                    assertSameResult(expected, comparison.compare(raster, mask, algorithm));
+
+                    // the marks are drawn into the screenshot copied back from the raster
+                    Assert.assertTrue(imageEqual(expected.getMarkedImageWithBoxes(screenshot, 10, 10),
+                                                 comparison.getMarkedImageWithBoxes(10, 10)));
+                }
+            }
+        }
+    }
+
+    /**
+     * The memory of a closed raster is reused, the closed raster cannot be used anymore
+     */
+    @Test
+    public void reuse()
+    {
+        final BufferedImage image = load("../exact/photo.png");
+
+        final DirectRaster first = DirectRaster.copyOf(image);
+        first.close();
+        first.close();
+
+        try (final DirectRaster second = DirectRaster.copyOf(image))
+        {
+            Assert.assertTrue(imageEqual(image, second.toImage()));
+        }
+
+        try
+        {
+            first.toImage();
+            Assert.fail("Closed raster was used");
+        }
+        catch (final IllegalStateException e)
+        {
+            // expected
+        }
+    }
+}
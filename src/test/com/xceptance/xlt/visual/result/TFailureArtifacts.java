@@ -0,0 +1,154 @@
+package test.com.xceptance.xlt.visual.result;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.xceptance.xlt.visualassertion.algorithm.ExactMatch;
+import com.xceptance.xlt.visualassertion.util.ComparisonResult;
+import com.xceptance.xlt.visualassertion.util.FailureArtifacts;
+import com.xceptance.xlt.visualassertion.util.ImageComparison;
+import com.xceptance.xlt.visualassertion.util.MaskImage;
+
+import test.com.xceptance.xlt.visual.ImageTest;
+
+public class TFailureArtifacts extends ImageTest
+{
+    private static BufferedImage white(final int width, final int height)
+    {
+        final BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < height; y++)
+        {
+            for (int x = 0; x < width; x++)
+            {
+                image.setRGB(x, y, 0xFFFFFFFF);
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Two differences far apart, one close to the border
+     */
+    private ComparisonResult twoRegions()
+    {
+        final BufferedImage reference = white(400, 300);
+        final BufferedImage image = white(400, 300);
+        image.setRGB(5, 10, 0xFF000000);
+        image.setRGB(300, 200, 0xFF000000);
+        image.setRGB(302, 203, 0xFF000000);
+
+        return new ImageComparison(reference).compare(image, new MaskImage(reference), new ExactMatch());
+    }
+
+    /**
+     * Regions are grown by the margin and clipped to the image
+     */
+    @Test
+    public void regions()
+    {
+        final List<Rectangle> regions = FailureArtifacts.getRegions(twoRegions(), 20, 10);
+
+        Assert.assertEquals(Arrays.asList(new Rectangle(0, 0, 26, 31), new Rectangle(280, 180, 43, 44)), regions);
+    }
+
+    /**
+     * Too many regions are put into one
+     */
+    @Test
+    public void tooManyRegions()
+    {
+        final List<Rectangle> regions = FailureArtifacts.getRegions(twoRegions(), 20, 1);
+
+        Assert.assertEquals(Arrays.asList(new Rectangle(0, 0, 323, 224)), regions);
+    }
+
+    /**
+     * Regions that overlap due to the margin are joined
+     */
+    @Test
+    public void joinedRegions()
+    {
+        final List<Rectangle> regions = FailureArtifacts.getRegions(twoRegions(), 150, 10);
+
+        Assert.assertEquals(Arrays.asList(new Rectangle(0, 0, 400, 300)), regions);
+    }
+
+    /**
+     * Cropped image has the size of the region, the part outside of the image is transparent
+     */
+    @Test
+    public void crop()
+    {
+        final BufferedImage image = white(10, 10);
+        image.setRGB(8, 9, 0xFF123456);
+
+        final BufferedImage crop = FailureArtifacts.crop(image, new Rectangle(7, 8, 5, 5));
+
+        Assert.assertEquals(5, crop.getWidth());
+        Assert.assertEquals(5, crop.getHeight());
+        Assert.assertEquals(0xFFFFFFFF, crop.getRGB(0, 0));
+        Assert.assertEquals(0xFF123456, crop.getRGB(1, 1));
+        Assert.assertEquals(0, crop.getRGB(3, 1));
+        Assert.assertEquals(0, crop.getRGB(1, 2));
+    }
+
+    /**
+     * Overview averages the pixels, the last row and column cover less pixels
+     */
+    @Test
+    public void scaleDown()
+    {
+        final BufferedImage image = white(10, 10);
+        for (int y = 0; y < 2; y++)
+        {
+            for (int x = 0; x < 4; x++)
+            {
+                image.setRGB(x, y, 0xFF000000);
+            }
+        }
+        image.setRGB(9, 9, 0xFF000000);
+
+        final BufferedImage overview = FailureArtifacts.scaleDown(image, 4);
+
+        Assert.assertEquals(3, overview.getWidth());
+        Assert.assertEquals(3, overview.getHeight());
+        Assert.assertEquals(0xFF7F7F7F, overview.getRGB(0, 0));
+        Assert.assertEquals(0xFFFFFFFF, overview.getRGB(1, 1));
+        Assert.assertEquals(0xFFBFBFBF, overview.getRGB(2, 2));
+    }
+
+    /**
+     * The regions of all images side by side, one row per region
+     */
+    @Test
+    public void composite()
+    {
+        final ComparisonResult result = twoRegions();
+        final List<Rectangle> regions = FailureArtifacts.getRegions(result, 20, 10);
+        final BufferedImage reference = white(400, 300);
+        final BufferedImage difference = result.getDifferenceImage();
+
+        final BufferedImage composite = FailureArtifacts.composite(regions, reference, difference);
+
+        final int gap = FailureArtifacts.COMPOSITE_GAP;
+        Assert.assertEquals(2 * 43 + gap, composite.getWidth());
+        Assert.assertEquals(31 + gap + 44, composite.getHeight());
+
+        // the different pixel of the first region in the reference and in the difference image
+        Assert.assertEquals(0xFFFFFFFF, composite.getRGB(5, 10));
+        Assert.assertEquals(0xFF000000, composite.getRGB(26 + gap + 4, 10));
+        Assert.assertTrue(composite.getRGB(26 + gap + 5, 10) != 0xFF000000);
+
+        // the first row is narrower than the composite
+        Assert.assertEquals(0xFF808080, composite.getRGB(2 * 43, 10));
+
+        // the different pixel of the second region
+        Assert.assertEquals(0xFFFFFFFF, composite.getRGB(20, 31 + gap + 20));
+        Assert.assertTrue(composite.getRGB(43 + gap + 20, 31 + gap + 20) != 0xFF000000);
+    }
+}
@@ -0,0 +1,77 @@
+package test.com.xceptance.xlt.visual.result;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.xceptance.xlt.visualassertion.util.PhaseTimer;
+import com.xceptance.xlt.visualassertion.util.PhaseTimer.Phase;
+
+import test.com.xceptance.xlt.visual.ImageTest;
+
+public class TPhaseTimer extends ImageTest
+{
+    /**
+     * The time of a nested phase is charged to it only, not to the phase it was entered from
+     */
+    @Test
+    public void nested() throws InterruptedException
+    {
+        final PhaseTimer timer = new PhaseTimer();
+        timer.enter(Phase.BASELINE);
+        timer.enter(Phase.WRITE);
+        TimeUnit.MILLISECONDS.sleep(50);
+        timer.exit();
+        timer.exit();
+
+        Assert.assertTrue(timer.getNanos(Phase.WRITE) >= TimeUnit.MILLISECONDS.toNanos(50));
+        Assert.assertTrue(timer.getNanos(Phase.BASELINE) < timer.getNanos(Phase.WRITE));
+        Assert.assertTrue(timer.hasRun(Phase.BASELINE));
+        Assert.assertTrue(timer.hasRun(Phase.WRITE));
+        Assert.assertFalse(timer.hasRun(Phase.COMPARE));
+        Assert.assertEquals(0, timer.getNanos(Phase.COMPARE));
+    }
+
+    /**
+     * The phases add up to the total, repeated phases are summed up, time outside of any phase is not counted
+     */
+    @Test
+    public void total() throws InterruptedException
+    {
+        final PhaseTimer timer = new PhaseTimer();
+        TimeUnit.MILLISECONDS.sleep(50);
+        for (int i = 0; i < 3; i++)
+        {
+            timer.enter(Phase.COMPARE);
+            TimeUnit.MILLISECONDS.sleep(10);
+            timer.exit();
+        }
+        timer.enter(Phase.RENDER);
+        timer.exit();
+
+        Assert.assertTrue(timer.getNanos(Phase.COMPARE) >= TimeUnit.MILLISECONDS.toNanos(30));
+        Assert.assertTrue(timer.getTotalNanos() < TimeUnit.MILLISECONDS.toNanos(50) + timer.getNanos(Phase.COMPARE));
+        Assert.assertEquals(timer.getNanos(Phase.COMPARE) + timer.getNanos(Phase.RENDER), timer.getTotalNanos());
+    }
+
+    /**
+     * Stopping leaves all open phases, e.g. after a failure, and charges them their time so far
+     */
+    @Test
+    public void stop() throws InterruptedException
+    {
+        final PhaseTimer timer = new PhaseTimer();
+        timer.enter(Phase.RENDER);
+        timer.enter(Phase.WRITE);
+        TimeUnit.MILLISECONDS.sleep(20);
+        timer.stop();
+
+        final long write = timer.getNanos(Phase.WRITE);
+        Assert.assertTrue(write >= TimeUnit.MILLISECONDS.toNanos(20));
+
+        TimeUnit.MILLISECONDS.sleep(20);
+        timer.stop();
+        Assert.assertEquals(write, timer.getNanos(Phase.WRITE));
+    }
+}
@@ -0,0 +1,62 @@
+package test.com.xceptance.xlt.visual.result;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Test;
+
+import com.xceptance.xlt.visualassertion.algorithm.ComparisonAlgorithm;
+import com.xceptance.xlt.visualassertion.io.PngRowReader;
+import com.xceptance.xlt.visualassertion.util.ComparisonResult;
+import com.xceptance.xlt.visualassertion.util.ImageComparison;
+import com.xceptance.xlt.visualassertion.util.StreamingComparison;
+
+import test.com.xceptance.xlt.visual.ImageTest;
+
+public class TStreamingComparison extends ImageTest
+{
+    /**
+     * Comparing band by band finds exactly the differences of the comparison of the decoded images, also for images of
+     * different sizes and bands that don't fit the height of the image
+     */
+    @Test
+    public void sameResult() throws IOException
+    {
+        final File maskFile = Files.createTempFile("mask", ".png").toFile();
+        try
+        {
+            final BufferedImage reference = load("../exact/photo.png");
+            final BufferedImage mask = createMask(reference.getWidth(), reference.getHeight());
+            ImageIO.write(mask, "PNG", maskFile);
+
+            for (final String name : new String[] { "../exact/photo2.png", "../exact/photo-205x205.png" })
+            {
+                final BufferedImage screenshot = load(name);
+
+                for (final ComparisonAlgorithm algorithm : algorithms())
+                {
+                    final ComparisonResult expected = new ImageComparison(reference).compare(screenshot, mask, algorithm);
+
+                    for (final int bandHeight : new int[] { 1, 7, 64, 100000 })
+                    {
+                        try (final PngRowReader referenceReader = PngRowReader.open(resolveFile("../exact/photo.png"));
+                             final PngRowReader screenshotReader = PngRowReader.open(resolveFile(name));
+                             final PngRowReader maskReader = PngRowReader.open(maskFile))
+                        {
+                            assertSameResult(expected, StreamingComparison.compare(referenceReader, screenshotReader, maskReader,
+                                                                                   algorithm, bandHeight));
+                        }
+                    }
+                }
+            }
+        }
+        finally
+        {
+            maskFile.delete();
+        }
+    }
+}
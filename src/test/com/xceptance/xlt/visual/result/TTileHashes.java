@@ -0,0 +1,109 @@
+package test.com.xceptance.xlt.visual.result;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.xceptance.xlt.visualassertion.algorithm.ComparisonAlgorithm;
+import com.xceptance.xlt.visualassertion.algorithm.ExactMatch;
+import com.xceptance.xlt.visualassertion.algorithm.PixelFuzzy;
+import com.xceptance.xlt.visualassertion.util.ComparisonResult;
+import com.xceptance.xlt.visualassertion.util.ImageComparison;
+import com.xceptance.xlt.visualassertion.util.TileHashes;
+
+import test.com.xceptance.xlt.visual.ImageTest;
+
+public class TTileHashes extends ImageTest
+{
+    /**
+     * Comparing only the tiles with other hashes gives the result of the full comparison
+     */
+    @Test
+    public void sameResult()
+    {
+        final BufferedImage reference = load("../exact/photo.png");
+        final BufferedImage mask = createMask(reference.getWidth(), reference.getHeight());
+
+        // the same page with a pixel changed inside and outside of the mask
+        final BufferedImage screenshot = load("../exact/photo2.png");
+        screenshot.setRGB(3, 3, 0xFF123456);
+        screenshot.setRGB(reference.getWidth() / 2, reference.getHeight() / 2, 0xFF654321);
+
+        for (final ComparisonAlgorithm algorithm : algorithms())
+        {
+            final ComparisonResult expected = new ImageComparison(reference).compare(screenshot, mask, algorithm);
+
+            final ImageComparison comparison = new ImageComparison(reference);
+            comparison.setReferenceTiles(TileHashes.of(reference, TileHashes.tileSize(64, algorithm)));
+            assertSameResult(expected, comparison.compare(screenshot, mask, algorithm));
+        }
+    }
+
+    /**
+     * Tiles that cut through the blocks of the fuzzy algorithm or do not cover the image are not used
+     */
+    @Test
+    public void unsuitableTiles()
+    {
+        final BufferedImage reference = load("../exact/photo.png");
+        final BufferedImage screenshot = load("../exact/photo-205x205.png");
+        final ComparisonAlgorithm algorithm = new PixelFuzzy(0.1, 0.1, 10);
+        Assert.assertEquals(70, TileHashes.tileSize(64, algorithm));
+
+        final ComparisonResult expected = new ImageComparison(reference).compare(screenshot, algorithm);
+
+        for (final TileHashes tiles : new TileHashes[] { TileHashes.of(reference, 64), TileHashes.of(screenshot, 70) })
+        {
+            final ImageComparison comparison = new ImageComparison(reference);
+            comparison.setReferenceTiles(tiles);
+
+            Assert.assertTrue(Arrays.equals(expected.getDifferences(), comparison.compare(screenshot, algorithm).getDifferences()));
+        }
+    }
+
+    /**
+     * The stored grid is read back as long as the reference image stays the same
+     */
+    @Test
+    public void store() throws IOException
+    {
+        final File directory = Files.createTempDirectory("baseline").toFile();
+        final File referenceFile = new File(directory, "reference.png");
+        final File tilesFile = new File(new File(directory, "compiled"), "reference.tiles");
+
+        final BufferedImage reference = load("../exact/photo.png");
+        ImageIO.write(reference, "PNG", referenceFile);
+        Assert.assertNull(TileHashes.read(tilesFile, referenceFile));
+
+        final TileHashes tiles = TileHashes.of(reference, 64);
+        Assert.assertTrue(tiles.write(tilesFile, referenceFile));
+
+        final TileHashes stored = TileHashes.read(tilesFile, referenceFile);
+        Assert.assertTrue(tiles.hasSameTiles(stored));
+        Assert.assertEquals(tiles.getTileCount(), stored.getTileCount());
+
+        // the tiles of a stored grid are compared the same way
+        final BufferedImage screenshot = load("../exact/photo2.png");
+        screenshot.setRGB(3, 3, 0xFF123456);
+        final ImageComparison comparison = new ImageComparison(reference);
+        comparison.setReferenceTiles(stored);
+        Assert.assertTrue(Arrays.equals(new ImageComparison(reference).compare(screenshot, new ExactMatch()).getDifferences(),
+                                        comparison.compare(screenshot, new ExactMatch()).getDifferences()));
+
+        // a new reference image makes the grid stale
+        Assert.assertTrue(referenceFile.setLastModified(referenceFile.lastModified() - 10000));
+        Assert.assertNull(TileHashes.read(tilesFile, referenceFile));
+
+        // a damaged grid is not used
+        Assert.assertTrue(tiles.write(tilesFile, referenceFile));
+        Files.write(tilesFile.toPath(), Arrays.copyOf(Files.readAllBytes(tilesFile.toPath()), 40));
+        Assert.assertNull(TileHashes.read(tilesFile, referenceFile));
+    }
+}
@@ -0,0 +1,74 @@
+package test.com.xceptance.xlt.visual.result;
+
+import java.awt.image.BufferedImage;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.xceptance.xlt.visualassertion.algorithm.ComparisonAlgorithm;
+import com.xceptance.xlt.visualassertion.algorithm.ExactMatch;
+import com.xceptance.xlt.visualassertion.util.ComparisonResult;
+import com.xceptance.xlt.visualassertion.util.ImageComparison;
+import com.xceptance.xlt.visualassertion.util.TileTracker;
+
+import test.com.xceptance.xlt.visual.ImageTest;
+
+public class TTileTracker extends ImageTest
+{
+    /**
+     * Comparing only the changed tiles gives the result of the full comparison, unchanged tiles are not compared again
+     */
+    @Test
+    public void sameResult()
+    {
+        final BufferedImage reference = load("../exact/photo.png");
+        final BufferedImage mask = createMask(reference.getWidth(), reference.getHeight());
+        final BufferedImage screenshot = load("../exact/photo2.png");
+
+        // the same page with one pixel changed
+        final BufferedImage changed = load("../exact/photo2.png");
+        changed.setRGB(3, 3, 0xFF123456);
+
+        for (final ComparisonAlgorithm algorithm : algorithms())
+        {
+            final TileTracker tracker = new TileTracker(64);
+
+            assertSameResult(reference, screenshot, mask, algorithm, tracker);
+            Assert.assertEquals(0, tracker.getLastReusedTiles());
+
+            assertSameResult(reference, screenshot, mask, algorithm, tracker);
+            Assert.assertEquals(tracker.getLastTiles(), tracker.getLastReusedTiles());
+
+            assertSameResult(reference, changed, mask, algorithm, tracker);
+            Assert.assertEquals(tracker.getLastTiles() - 1, tracker.getLastReusedTiles());
+
+            // a reference image that differs from the previous one is compared again where it differs
+            assertSameResult(changed, changed, mask, algorithm, tracker);
+            Assert.assertEquals(tracker.getLastTiles() - 1, tracker.getLastReusedTiles());
+        }
+    }
+
+    /**
+     * Images of another size are not matched to the previous tiles
+     */
+    @Test
+    public void otherSize()
+    {
+        final BufferedImage reference = load("../exact/photo.png");
+        final TileTracker tracker = new TileTracker(64);
+
+        assertSameResult(reference, load("../exact/photo2.png"), null, new ExactMatch(), tracker);
+        assertSameResult(reference, load("../exact/photo-205x205.png"), null, new ExactMatch(), tracker);
+        Assert.assertEquals(0, tracker.getLastReusedTiles());
+    }
+
+    private void assertSameResult(final BufferedImage reference, final BufferedImage screenshot, final BufferedImage mask,
+            final ComparisonAlgorithm algorithm, final TileTracker tracker)
+    {
+        final ComparisonResult expected = new ImageComparison(reference).compare(screenshot, mask, algorithm);
+
+        final ImageComparison comparison = new ImageComparison(reference);
+        comparison.setTileTracker(tracker, "page");
+        assertSameResult(expected, comparison.compare(screenshot, mask, algorithm));
+    }
+}
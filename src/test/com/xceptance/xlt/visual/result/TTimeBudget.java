@@ -0,0 +1,90 @@
+package test.com.xceptance.xlt.visual.result;
+
+import java.awt.image.BufferedImage;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.xceptance.xlt.visualassertion.algorithm.ExactMatch;
+import com.xceptance.xlt.visualassertion.algorithm.PixelFuzzy;
+import com.xceptance.xlt.visualassertion.util.ImageComparison;
+import com.xceptance.xlt.visualassertion.util.TimeBudget;
+import com.xceptance.xlt.visualassertion.util.TimeBudget.ExceededException;
+import com.xceptance.xlt.visualassertion.util.TimeBudget.Scope;
+
+import test.com.xceptance.xlt.visual.ImageTest;
+
+public class TTimeBudget extends ImageTest
+{
+    /**
+     * A comparison stops as soon as its budget ran out, without a budget it runs as usual
+     */
+    @Test
+    public void exceeded()
+    {
+        final BufferedImage reference = load("../exact/photo.png");
+        final BufferedImage screenshot = load("../exact/photo.png");
+        screenshot.setRGB(3, 3, 0xFF123456);
+
+        final long exceeded = TimeBudget.getExceededCount();
+        try (final Scope scope = TimeBudget.enter(new TimeBudget(-1)))
+        {
+            new ImageComparison(reference).compare(screenshot, new PixelFuzzy(0.2, 0.1, 10));
+            Assert.fail("The comparison should have been stopped");
+        }
+        catch (final ExceededException e)
+        {
+            Assert.assertEquals(exceeded + 1, TimeBudget.getExceededCount());
+        }
+
+        Assert.assertNull(TimeBudget.current());
+        Assert.assertFalse(new ImageComparison(reference).compare(screenshot, new ExactMatch()).isEqual());
+    }
+
+    /**
+     * A cancelled budget stops the comparison at its next check, a budget is counted once only
+     */
+    @Test
+    public void cancel()
+    {
+        final BufferedImage reference = new BufferedImage(800, 600, BufferedImage.TYPE_INT_ARGB);
+        final TimeBudget budget = new TimeBudget(60000);
+        Assert.assertFalse(budget.isExceeded());
+
+        final long exceeded = TimeBudget.getExceededCount();
+        budget.cancel();
+        Assert.assertTrue(budget.isExceeded());
+        for (int i = 0; i < 2; i++)
+        {
+            try (final Scope scope = TimeBudget.enter(budget))
+            {
+                new ImageComparison(reference).compare(reference, new ExactMatch());
+                Assert.fail("The comparison should have been stopped");
+            }
+            catch (final ExceededException e)
+            {
+                // expected
+            }
+        }
+        Assert.assertEquals(exceeded + 1, TimeBudget.getExceededCount());
+    }
+
+    /**
+     * Closing a scope binds the budget of the outer scope again
+     */
+    @Test
+    public void scopes()
+    {
+        final TimeBudget outer = new TimeBudget(60000);
+        try (final Scope first = TimeBudget.enter(outer))
+        {
+            try (final Scope second = TimeBudget.enter(null))
+            {
+                Assert.assertNull(TimeBudget.current());
+                TimeBudget.checkCurrent();
+            }
+            Assert.assertSame(outer, TimeBudget.current());
+        }
+        Assert.assertNull(TimeBudget.current());
+    }
+}
@@ -0,0 +1,254 @@
+package test.com.xceptance.xlt.visual.service;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.xceptance.xlt.visualassertion.algorithm.ExactMatch;
+import com.xceptance.xlt.visualassertion.service.ComparisonClient;
+import com.xceptance.xlt.visualassertion.service.ComparisonRequest;
+import com.xceptance.xlt.visualassertion.service.ComparisonResponse;
+import com.xceptance.xlt.visualassertion.service.ComparisonResponse.Status;
+import com.xceptance.xlt.visualassertion.service.ComparisonServer;
+import com.xceptance.xlt.visualassertion.util.FailureRenderer;
+import com.xceptance.xlt.visualassertion.util.FailureRenderer.Layout;
+import com.xceptance.xlt.visualassertion.util.FailureRenderer.Marking;
+
+import test.com.xceptance.xlt.visual.ImageTest;
+
+public class TComparisonService extends ImageTest
+{
+    private static final String REFERENCE = "all/TCase/chrome/1/baseline/001-Homepage.png";
+
+    private static final String MASK = "all/TCase/chrome/1/masks/001-Homepage.png";
+
+    private ComparisonServer server;
+
+    private ComparisonClient client;
+
+    private File results;
+
+    private File artifacts;
+
+    @Before
+    public void start() throws IOException
+    {
+        results = Files.createTempDirectory("results").toFile();
+        final File referenceFile = new File(results, REFERENCE);
+        referenceFile.getParentFile().mkdirs();
+        ImageIO.write(load("../exact/photo.png"), "PNG", referenceFile);
+
+        artifacts = Files.createTempDirectory("artifacts").toFile();
+        server = new ComparisonServer(results, artifacts, 2, 10);
+        server.start(0);
+        client = new ComparisonClient("localhost", server.getPort());
+    }
+
+    @After
+    public void stop()
+    {
+        client.close();
+        server.close();
+    }
+
+    /**
+     * The service compares like the assertion and stores the images of the differences
+     */
+    @Test
+    public void verdicts() throws Exception
+    {
+        final BufferedImage screenshot = load("../exact/photo.png");
+        Assert.assertEquals(Status.EQUAL, compare(REFERENCE, screenshot).getStatus());
+
+        screenshot.setRGB(3, 3, 0xFF123456);
+        final ComparisonResponse different = compare(REFERENCE, screenshot);
+        Assert.assertEquals(Status.DIFFERENT, different.getStatus());
+        Assert.assertEquals(1, different.getDifferenceCount());
+        Assert.assertEquals(screenshot.getWidth() * screenshot.getHeight(), different.getPixelCount());
+        Assert.assertEquals(2, different.getArtifacts().size());
+        for (final String artifact : different.getArtifacts())
+        {
+            Assert.assertTrue(artifact, new File(artifact).isFile());
+            Assert.assertTrue(artifact, artifact.startsWith(artifacts.getCanonicalPath()));
+        }
+
+        // the baseline was decoded once
+        Assert.assertEquals(1, server.getBaselineLoads());
+    }
+
+    /**
+     * A missing reference image and a path outside of the result directory are not compared
+     */
+    @Test
+    public void notCompared() throws Exception
+    {
+        final BufferedImage screenshot = load("../exact/photo.png");
+        Assert.assertEquals(Status.MISSING, compare("all/TCase/chrome/1/baseline/002-Search.png", screenshot).getStatus());
+        Assert.assertEquals(Status.ERROR, compare("../../etc/passwd", screenshot).getStatus());
+    }
+
+    /**
+     * The images of the differences are named after the resolved reference image, a path that leaves the result
+     * directory and comes back does not write them elsewhere
+     */
+    @Test
+    public void artifactPaths() throws Exception
+    {
+        final BufferedImage screenshot = load("../exact/photo.png");
+        screenshot.setRGB(3, 3, 0xFF123456);
+
+        final ComparisonResponse different = compare("../" + results.getName() + "/" + REFERENCE, screenshot);
+        Assert.assertEquals(Status.DIFFERENT, different.getStatus());
+        for (final String artifact : different.getArtifacts())
+        {
+            Assert.assertTrue(artifact, artifact.startsWith(new File(artifacts, REFERENCE.replace(".png", "-")).getCanonicalPath()));
+        }
+    }
+
+    /**
+     * The service renders the images of the differences as the request asks
+     */
+    @Test
+    public void rendering() throws Exception
+    {
+        final BufferedImage screenshot = load("../exact/photo.png");
+        screenshot.setRGB(3, 3, 0xFF123456);
+        final byte[] different = encode(screenshot);
+
+        final FailureRenderer cropped = new FailureRenderer(Marking.MARKER, 10, 10, true, Layout.CROP, 20, 10, 4, "qoi", 6, "ADAPTIVE");
+        final List<String> crops = client.compare(new ComparisonRequest(REFERENCE, MASK, different, new ExactMatch(), cropped))
+                                         .get(10, TimeUnit.SECONDS).getArtifacts();
+        Assert.assertEquals(2, crops.size());
+        Assert.assertTrue(crops.get(0), crops.get(0).endsWith("-01-marked.qoi"));
+        Assert.assertTrue(crops.get(1), crops.get(1).endsWith("-01-difference.qoi"));
+
+        final FailureRenderer composite = new FailureRenderer(Marking.BOXES, 10, 10, false, Layout.COMPOSITE, 20, 10, 4, "png", 1, "SUB");
+        final List<String> composites = client.compare(new ComparisonRequest(REFERENCE, MASK, different, new ExactMatch(), composite))
+                                              .get(10, TimeUnit.SECONDS).getArtifacts();
+        Assert.assertEquals(1, composites.size());
+        Assert.assertTrue(composites.get(0), composites.get(0).endsWith("-composite.png"));
+        Assert.assertNotNull(ImageIO.read(new File(composites.get(0))));
+    }
+
+    /**
+     * Requests are sent without waiting for the earlier ones, each gets its own response
+     */
+    @Test
+    public void pipelined() throws Exception
+    {
+        final BufferedImage screenshot = load("../exact/photo.png");
+        final byte[] equal = encode(screenshot);
+        screenshot.setRGB(3, 3, 0xFF123456);
+        final byte[] different = encode(screenshot);
+
+        final List<CompletableFuture<ComparisonResponse>> responses = new ArrayList<>();
+        for (int i = 0; i < 20; i++)
+        {
+            responses.add(client.compare(request(REFERENCE, i % 2 == 0 ? equal : different)));
+        }
+        for (int i = 0; i < 20; i++)
+        {
+            Assert.assertEquals(i % 2 == 0, responses.get(i).get(10, TimeUnit.SECONDS).isEqual());
+        }
+
+        Assert.assertEquals(20, server.getRequestCount());
+        Assert.assertEquals(0, client.getPendingCount());
+    }
+
+    /**
+     * The requests on the wire fail if the connection breaks
+     */
+    @Test
+    public void closed() throws Exception
+    {
+        server.close();
+        try
+        {
+            client.compare(request(REFERENCE, encode(load("../exact/photo.png")))).get(10, TimeUnit.SECONDS);
+            Assert.fail("The request should have failed");
+        }
+        catch (final ExecutionException e)
+        {
+            Assert.assertTrue(e.getCause() instanceof IOException);
+        }
+        Assert.assertFalse(client.isOpen());
+    }
+
+    /**
+     * A request that is not waited for anymore is forgotten
+     */
+    @Test
+    public void cancelled() throws Exception
+    {
+        final CompletableFuture<ComparisonResponse> response = client.compare(request(REFERENCE, encode(load("../exact/photo.png"))));
+        response.cancel(false);
+
+        Assert.assertEquals(0, client.getPendingCount());
+        Assert.assertEquals(Status.EQUAL, compare(REFERENCE, load("../exact/photo.png")).getStatus());
+    }
+
+    /**
+     * After a failed attempt to connect the next ones fail right away for a while
+     */
+    @Test
+    public void backoff() throws Exception
+    {
+        final int port;
+        try (final ServerSocket socket = new ServerSocket(0))
+        {
+            port = socket.getLocalPort();
+        }
+
+        try
+        {
+            ComparisonClient.of("localhost:" + port);
+            Assert.fail("The service should not be reachable");
+        }
+        catch (final IOException e)
+        {
+            Assert.assertFalse(e.getMessage(), e.getMessage().contains("recently"));
+        }
+        try
+        {
+            ComparisonClient.of("localhost:" + port);
+            Assert.fail("The service should not be reachable");
+        }
+        catch (final IOException e)
+        {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("recently"));
+        }
+    }
+
+    private ComparisonResponse compare(final String reference, final BufferedImage screenshot) throws Exception
+    {
+        return client.compare(request(reference, encode(screenshot))).get(10, TimeUnit.SECONDS);
+    }
+
+    private static ComparisonRequest request(final String reference, final byte[] screenshot)
+    {
+        return new ComparisonRequest(reference, MASK, screenshot, new ExactMatch(),
+                                     new FailureRenderer(Marking.BOXES, 10, 10, true, Layout.FULL, 20, 10, 4, "imageio", 6, "ADAPTIVE"));
+    }
+
+    private static byte[] encode(final BufferedImage image) throws IOException
+    {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "PNG", out);
+        return out.toByteArray();
+    }
+}